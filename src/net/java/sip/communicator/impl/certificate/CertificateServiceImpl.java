@@ -26,6 +26,7 @@
 import java.security.cert.*;
 import java.security.cert.Certificate;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.net.ssl.*;
 import javax.security.auth.callback.*;
@@ -105,6 +106,21 @@
     /** Hash algorithm for the cert thumbprint*/
     private final static String THUMBPRINT_HASH_ALGORITHM = "SHA1";
 
+    /** Hash algorithm identifying the verified certificates. */
+    private final static String VERIFIED_HASH_ALGORITHM = "SHA-256";
+
+    /**
+     * The number of milliseconds for which a certificate verified by the
+     * default trust manager is not verified again.
+     */
+    private final static long VERIFIED_CHAIN_TTL = 60 * 60 * 1000;
+
+    /**
+     * The number of seconds the TLS sessions of the cached
+     * <tt>SSLContext</tt>s can be resumed.
+     */
+    private final static int SESSION_TIMEOUT = 8 * 60 * 60;
+
     // ------------------------------------------------------------------------
     // fields
     // ------------------------------------------------------------------------
@@ -120,6 +136,28 @@
     private Map<URI, AiaCacheEntry> aiaCache =
         new HashMap<URI, AiaCacheEntry>();
 
+    /**
+     * The default X509 trust manager of the JRE, loaded from the trust store
+     * once rather than for every trust manager.
+     */
+    private X509ExtendedTrustManager defaultTrustManager;
+
+    /**
+     * The time until which the certificates verified by the default trust
+     * manager are valid, by fingerprint of the certificate, type of
+     * authentication and side.
+     */
+    private final Map<String, Long> verifiedChains =
+        new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The <tt>SSLContext</tt>s returned by {@link #getCachedSSLContext(String,
+     * String, X509ExtendedTrustManager)} by key and client certificate
+     * configuration, which keep their TLS sessions for resumption.
+     */
+    private final Map<String, CachedSSLContext> sslContexts =
+        new ConcurrentHashMap<String, CachedSSLContext>();
+
     // ------------------------------------------------------------------------
     // Map access helpers
     // ------------------------------------------------------------------------
@@ -178,6 +216,21 @@ public CertificateServiceImpl()
     public void propertyChange(PropertyChangeEvent evt)
     {
         setTrustStore();
+        clearCaches();
+    }
+
+    /**
+     * Forgets the loaded trust store, the verified certificates and the cached
+     * <tt>SSLContext</tt>s.
+     */
+    private void clearCaches()
+    {
+        synchronized (this)
+        {
+            defaultTrustManager = null;
+        }
+        verifiedChains.clear();
+        sslContexts.clear();
     }
 
     private void setTrustStore()
@@ -290,6 +343,7 @@ public void setClientAuthCertificateConfig(CertificateConfigEntry e)
         else
             credService.removePassword(pn);
         config.setProperty(pn + ".keyStoreType", e.getKeyStoreType());
+        sslContexts.clear();
     }
 
     /*
@@ -306,6 +360,7 @@ public void removeClientAuthCertificateConfig(String id)
             config.removeProperty(p);
         }
         config.removeProperty(PNAME_CLIENTAUTH_CERTCONFIG_BASE + "." + id);
+        sslContexts.clear();
     }
 
     // ------------------------------------------------------------------------
@@ -548,6 +603,59 @@ public SSLContext getSSLContext(KeyManager[] keyManagers,
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.java.sip.communicator.service.certificate.CertificateService#
+     * getCachedSSLContext(java.lang.String, java.lang.String,
+     * javax.net.ssl.X509ExtendedTrustManager)
+     */
+    public SSLContext getCachedSSLContext(String key,
+        String clientCertConfig,
+        X509ExtendedTrustManager trustManager)
+        throws GeneralSecurityException
+    {
+        String cacheKey = key + "|" + clientCertConfig;
+        CachedSSLContext cached = sslContexts.get(cacheKey);
+
+        if (cached == null)
+        {
+            DelegatingTrustManager delegatingTrustManager
+                = new DelegatingTrustManager(trustManager);
+            SSLContext sslContext
+                = getSSLContext(clientCertConfig, delegatingTrustManager);
+
+            sslContext.getClientSessionContext().setSessionTimeout(
+                SESSION_TIMEOUT);
+            cached = new CachedSSLContext(sslContext, delegatingTrustManager);
+            sslContexts.put(cacheKey, cached);
+        }
+        else
+        {
+            // check the certificates of the new handshakes with the trust
+            // manager of the caller rather than the one of the first call
+            cached.trustManager.delegate = trustManager;
+        }
+        return cached.sslContext;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.java.sip.communicator.service.certificate.CertificateService#
+     * removeCachedSSLContexts(java.lang.String)
+     */
+    public void removeCachedSSLContexts(String keyPrefix)
+    {
+        Iterator<String> keys = sslContexts.keySet().iterator();
+
+        while (keys.hasNext())
+        {
+            if (keys.next().startsWith(keyPrefix))
+                keys.remove();
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -619,43 +727,7 @@ public X509ExtendedTrustManager getTrustManager(
         final CertificateMatcher serverVerifier)
         throws GeneralSecurityException
     {
-        // obtain the default X509 trust manager
-        X509ExtendedTrustManager defaultTm = null;
-        TrustManagerFactory tmFactory =
-            TrustManagerFactory.getInstance(TrustManagerFactory
-                .getDefaultAlgorithm());
-
-        //workaround for https://bugs.openjdk.java.net/browse/JDK-6672015
-        KeyStore ks = null;
-        String tsType =
-            System.getProperty("javax.net.ssl.trustStoreType", null);
-        if ("Windows-ROOT".equals(tsType))
-        {
-            try
-            {
-                ks = KeyStore.getInstance(tsType);
-                ks.load(null, null);
-            }
-            catch (Exception e)
-            {
-                logger.error("Could not rename Windows-ROOT aliases", e);
-            }
-        }
-
-        tmFactory.init(ks);
-        for (TrustManager m : tmFactory.getTrustManagers())
-        {
-            if (m instanceof X509ExtendedTrustManager)
-            {
-                defaultTm = (X509ExtendedTrustManager) m;
-                break;
-            }
-        }
-        if (defaultTm == null)
-            throw new GeneralSecurityException(
-                "No default X509 trust manager found");
-
-        final X509ExtendedTrustManager tm = defaultTm;
+        final X509ExtendedTrustManager tm = getDefaultTrustManager();
 
         return new X509ExtendedTrustManager()
         {
@@ -721,18 +793,28 @@ private void checkCertTrusted(X509Certificate[] chain,
 
                 try
                 {
-                    // check the certificate itself (issuer, validity)
-                    try
+                    // check the certificate itself (issuer, validity) unless
+                    // it has recently been verified
+                    String verifiedKey = getVerifiedChainKey(
+                        chain[0], authType, serverCheck);
+
+                    if (verifiedKey == null || !isVerified(verifiedKey))
                     {
-                        chain = tryBuildChain(chain);
-                    }
-                    catch (Exception e)
-                    {} // don't care and take the chain as is
+                        try
+                        {
+                            chain = tryBuildChain(chain);
+                        }
+                        catch (Exception e)
+                        {} // don't care and take the chain as is
 
-                    if(serverCheck)
-                        tm.checkServerTrusted(chain, authType);
-                    else
-                        tm.checkClientTrusted(chain, authType);
+                        if(serverCheck)
+                            tm.checkServerTrusted(chain, authType);
+                        else
+                            tm.checkClientTrusted(chain, authType);
+
+                        if (verifiedKey != null)
+                            setVerified(verifiedKey, chain[0]);
+                    }
 
                     if(identitiesToTest == null
                         || !identitiesToTest.iterator().hasNext())
@@ -1079,6 +1161,122 @@ else if(dialog.isAlwaysTrustSelected())
             return TRUST_THIS_SESSION_ONLY;
     }
 
+    /**
+     * Returns the default X509 trust manager of the JRE, loading the trust
+     * store the first time.
+     *
+     * @return the default X509 trust manager
+     * @throws GeneralSecurityException if the trust store cannot be loaded
+     */
+    private synchronized X509ExtendedTrustManager getDefaultTrustManager()
+        throws GeneralSecurityException
+    {
+        if (defaultTrustManager != null)
+            return defaultTrustManager;
+
+        // obtain the default X509 trust manager
+        X509ExtendedTrustManager defaultTm = null;
+        TrustManagerFactory tmFactory =
+            TrustManagerFactory.getInstance(TrustManagerFactory
+                .getDefaultAlgorithm());
+
+        //workaround for https://bugs.openjdk.java.net/browse/JDK-6672015
+        KeyStore ks = null;
+        String tsType =
+            System.getProperty("javax.net.ssl.trustStoreType", null);
+        if ("Windows-ROOT".equals(tsType))
+        {
+            try
+            {
+                ks = KeyStore.getInstance(tsType);
+                ks.load(null, null);
+            }
+            catch (Exception e)
+            {
+                logger.error("Could not rename Windows-ROOT aliases", e);
+            }
+        }
+
+        tmFactory.init(ks);
+        for (TrustManager m : tmFactory.getTrustManagers())
+        {
+            if (m instanceof X509ExtendedTrustManager)
+            {
+                defaultTm = (X509ExtendedTrustManager) m;
+                break;
+            }
+        }
+        if (defaultTm == null)
+            throw new GeneralSecurityException(
+                "No default X509 trust manager found");
+
+        defaultTrustManager = defaultTm;
+        return defaultTm;
+    }
+
+    /**
+     * Returns the key under which the successful verification of a
+     * certificate by the default trust manager is remembered.
+     *
+     * @param cert the leaf certificate of the verified chain
+     * @param authType the type of authentication
+     * @param serverCheck whether the certificate is the one of a server
+     * @return the key of the verification or <tt>null</tt> if it must not be
+     * remembered
+     */
+    private String getVerifiedChainKey(X509Certificate cert, String authType,
+        boolean serverCheck)
+    {
+        // the revocation status must be checked on every connection
+        if (config.getBoolean(PNAME_REVOCATION_CHECK_ENABLED, false))
+            return null;
+
+        try
+        {
+            return getThumbprint(cert, VERIFIED_HASH_ALGORITHM)
+                + (serverCheck ? "|server|" : "|client|") + authType;
+        }
+        catch (CertificateException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Determines whether a certificate has recently been verified by the
+     * default trust manager.
+     *
+     * @param key the key returned by {@link #getVerifiedChainKey(
+     * X509Certificate, String, boolean)}
+     * @return <tt>true</tt> if the certificate need not be verified again
+     */
+    private boolean isVerified(String key)
+    {
+        Long expires = verifiedChains.get(key);
+
+        if (expires == null)
+            return false;
+        if (expires > System.currentTimeMillis())
+            return true;
+        verifiedChains.remove(key);
+        return false;
+    }
+
+    /**
+     * Remembers that a certificate has been verified by the default trust
+     * manager.
+     *
+     * @param key the key returned by {@link #getVerifiedChainKey(
+     * X509Certificate, String, boolean)}
+     * @param cert the leaf certificate of the verified chain
+     */
+    private void setVerified(String key, X509Certificate cert)
+    {
+        verifiedChains.put(key, Math.min(
+            System.currentTimeMillis() + VERIFIED_CHAIN_TTL,
+            cert.getNotAfter().getTime()));
+    }
+
     /**
      * Calculates the hash of the certificate known as the "thumbprint"
      * and returns it as a string representation.
@@ -1161,4 +1359,77 @@ private static Iterable<String> getSubjectAltNames(X509Certificate cert,
         }
         return matchedAltNames;
     }
+
+    /**
+     * An <tt>SSLContext</tt> kept by {@link #getCachedSSLContext(String,
+     * String, X509ExtendedTrustManager)} with the trust manager it checks
+     * certificates with.
+     */
+    private static class CachedSSLContext
+    {
+        final SSLContext sslContext;
+        final DelegatingTrustManager trustManager;
+        CachedSSLContext(SSLContext sslContext,
+            DelegatingTrustManager trustManager)
+        {
+            this.sslContext = sslContext;
+            this.trustManager = trustManager;
+        }
+    }
+
+    /**
+     * Trust manager of a cached <tt>SSLContext</tt> which forwards to the
+     * trust manager of the last caller of {@link #getCachedSSLContext(String,
+     * String, X509ExtendedTrustManager)}.
+     */
+    private static class DelegatingTrustManager
+        extends X509ExtendedTrustManager
+    {
+        volatile X509ExtendedTrustManager delegate;
+        DelegatingTrustManager(X509ExtendedTrustManager delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        public X509Certificate[] getAcceptedIssuers()
+        {
+            return delegate.getAcceptedIssuers();
+        }
+
+        public void checkClientTrusted(X509Certificate[] chain,
+            String authType) throws CertificateException
+        {
+            delegate.checkClientTrusted(chain, authType);
+        }
+
+        public void checkClientTrusted(X509Certificate[] chain,
+            String authType, Socket socket) throws CertificateException
+        {
+            delegate.checkClientTrusted(chain, authType, socket);
+        }
+
+        public void checkClientTrusted(X509Certificate[] chain,
+            String authType, SSLEngine engine) throws CertificateException
+        {
+            delegate.checkClientTrusted(chain, authType, engine);
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain,
+            String authType) throws CertificateException
+        {
+            delegate.checkServerTrusted(chain, authType);
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain,
+            String authType, Socket socket) throws CertificateException
+        {
+            delegate.checkServerTrusted(chain, authType, socket);
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain,
+            String authType, SSLEngine engine) throws CertificateException
+        {
+            delegate.checkServerTrusted(chain, authType, engine);
+        }
+    }
 }
@@ -23,6 +23,7 @@
 import java.net.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.*;
 
 import javax.swing.*;
 
@@ -64,6 +65,35 @@
     public final static String PNAME_BASE_DNSSEC_PIN
         = "net.java.sip.communicator.util.dns.pin";
 
+    /**
+     * Name of the property holding the maximum number of seconds a validated
+     * answer is reused for, whatever the TTL of its records.
+     */
+    public final static String PNAME_DNSSEC_CACHE_MAX_TTL
+        = "net.java.sip.communicator.util.dns.DNSSEC_CACHE_MAX_TTL";
+
+    /**
+     * Default value of {@link #PNAME_DNSSEC_CACHE_MAX_TTL}.
+     */
+    public final static long PDEFAULT_DNSSEC_CACHE_MAX_TTL = 3600;
+
+    /**
+     * Name of the property holding the number of seconds an answer which
+     * failed validation is reused for before validating it again.
+     */
+    public final static String PNAME_DNSSEC_CACHE_BOGUS_TTL
+        = "net.java.sip.communicator.util.dns.DNSSEC_CACHE_BOGUS_TTL";
+
+    /**
+     * Default value of {@link #PNAME_DNSSEC_CACHE_BOGUS_TTL}.
+     */
+    public final static long PDEFAULT_DNSSEC_CACHE_BOGUS_TTL = 30;
+
+    /**
+     * The maximum number of validated answers which are kept.
+     */
+    private final static int MAX_CACHED_ANSWERS = 512;
+
     final static String EVENT_TYPE = "DNSSEC_NOTIFICATION";
 
     private ConfigurationService config
@@ -75,6 +105,34 @@
 
     private ExtendedResolver headResolver;
 
+    /**
+     * The validated answers by the name, type and class of their question so
+     * that looking a name up again does not walk the DNSKEY/DS chain again
+     * until the answer expires. Accessed while holding its lock.
+     */
+    private final Map<String, CachedAnswer> validatedAnswers
+        = new LinkedHashMap<String, CachedAnswer>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, CachedAnswer> eldest)
+            {
+                return size() > MAX_CACHED_ANSWERS;
+            }
+        };
+
+    /**
+     * The number of queries answered from {@link #validatedAnswers}.
+     */
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * The number of queries which had to be sent and validated.
+     */
+    private final AtomicLong cacheMisses = new AtomicLong();
+
     /**
      * Creates a new instance of this class. Tries to use the system's
      * default forwarders.
@@ -136,7 +194,7 @@ public Message send(Message query)
         //c)  0   |  0   ||  ok  |   nok    |      ok      |    ok    |   ask
         //---------------------------------------------------------------------
 
-        SecureMessage msg = new SecureMessage(super.send(query));
+        SecureMessage msg = new SecureMessage(sendValidated(query));
         String fqdn = msg.getQuestion().getName().toString();
         String type = Type.string(msg.getQuestion().getType());
         String propName = createPropNameUnsigned(fqdn, type);
@@ -227,6 +285,160 @@ public Message send(Message query)
         return msg;
     }
 
+    /**
+     * Gets the validated answer to a query from the cache or sends the query
+     * and validates the answer.
+     *
+     * @param query The query to answer.
+     * @return The validated answer, with the ID of <tt>query</tt>.
+     * @throws IOException when the query could not be sent.
+     */
+    private Message sendValidated(Message query)
+        throws IOException
+    {
+        Record question = query.getQuestion();
+        if(question == null)
+            return super.send(query);
+
+        String key = question.getName() + "/" + Type.string(question.getType())
+            + "/" + DClass.string(question.getDClass());
+        long now = System.currentTimeMillis();
+        CachedAnswer cached;
+        synchronized(validatedAnswers)
+        {
+            cached = validatedAnswers.get(key);
+            if(cached != null && cached.expires <= now)
+            {
+                validatedAnswers.remove(key);
+                cached = null;
+            }
+        }
+
+        if(cached != null)
+        {
+            cacheHits.incrementAndGet();
+            Message answer = (Message) cached.answer.clone();
+            answer.getHeader().setID(query.getHeader().getID());
+            return answer;
+        }
+
+        cacheMisses.incrementAndGet();
+        Message answer = super.send(query);
+        long ttl = getCacheTtl(answer);
+        if(ttl > 0)
+        {
+            synchronized(validatedAnswers)
+            {
+                validatedAnswers.put(key, new CachedAnswer(
+                    (Message) answer.clone(), now + ttl * 1000));
+            }
+        }
+
+        if(logger.isTraceEnabled())
+            logger.trace("DNSSEC validation cache: " + getStatistics());
+        return answer;
+    }
+
+    /**
+     * Gets the number of seconds a validated answer may be reused for: the
+     * lowest TTL of its answer and authority records (RFC 2308 for negative
+     * answers), a short time for answers which failed validation and none
+     * for other errors, such as the temporary failures of the upstream
+     * servers.
+     *
+     * @param answer The validated answer.
+     * @return The number of seconds to keep the answer or <tt>0</tt>.
+     */
+    private long getCacheTtl(Message answer)
+    {
+        int rcode = answer.getRcode();
+        if(rcode == Rcode.SERVFAIL && !answer.getHeader().getFlag(Flags.AD)
+            && hasValidationFailureReason(answer))
+        {
+            return config.getLong(PNAME_DNSSEC_CACHE_BOGUS_TTL,
+                PDEFAULT_DNSSEC_CACHE_BOGUS_TTL);
+        }
+
+        if(rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN)
+            return 0;
+
+        long ttl = config.getLong(PNAME_DNSSEC_CACHE_MAX_TTL,
+            PDEFAULT_DNSSEC_CACHE_MAX_TTL);
+        boolean hasRecords = false;
+        for(int section : new int[]{ Section.ANSWER, Section.AUTHORITY })
+        {
+            for(Record r : answer.getSectionArray(section))
+            {
+                hasRecords = true;
+                ttl = Math.min(ttl, r.getTTL());
+                if(r instanceof SOARecord)
+                    ttl = Math.min(ttl, ((SOARecord) r).getMinimum());
+            }
+        }
+
+        return hasRecords ? ttl : 0;
+    }
+
+    /**
+     * Determines whether the validator has marked an answer as bogus, that is
+     * whether it has added the reason of the validation failure to it.
+     *
+     * @param answer The validated answer.
+     * @return <tt>true</tt> if the answer failed validation.
+     */
+    private static boolean hasValidationFailureReason(Message answer)
+    {
+        for(RRset set : answer.getSectionRRsets(Section.ADDITIONAL))
+        {
+            if(set.getName().equals(Name.root) && set.getType() == Type.TXT
+                && set.getDClass() == VALIDATION_REASON_QCLASS)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the usage counters of the validation cache.
+     *
+     * @return A description of the usage of the validation cache.
+     */
+    public String getStatistics()
+    {
+        int size;
+        synchronized(validatedAnswers)
+        {
+            size = validatedAnswers.size();
+        }
+
+        return "hits=" + cacheHits.get()
+            + " misses=" + cacheMisses.get()
+            + " cached=" + size;
+    }
+
+    /**
+     * A validated answer and the time until which it may be reused.
+     */
+    private static class CachedAnswer
+    {
+        /** The validated answer. */
+        final Message answer;
+
+        /** The time in milliseconds at which the answer expires. */
+        final long expires;
+
+        /**
+         * Creates a new instance of this class.
+         * @param answer The validated answer.
+         * @param expires The time in milliseconds at which the answer
+         *            expires.
+         */
+        CachedAnswer(Message answer, long expires)
+        {
+            this.answer = answer;
+            this.expires = expires;
+        }
+    }
+
     /**
      * Defines the return code from the DNSSEC verification dialog.
      */
@@ -401,6 +613,12 @@ private String createPropNameUnsigned(String fqdn, String type)
     @Override
     public void reset()
     {
+        // the forwarders or the trust anchors may change, validate again
+        synchronized(validatedAnswers)
+        {
+            validatedAnswers.clear();
+        }
+
         String forwarders = DnsUtilActivator.getConfigurationService()
             .getString(DnsUtilActivator.PNAME_DNSSEC_NAMESERVERS);
         if(StringUtils.isNotBlank(forwarders))
@@ -22,6 +22,7 @@
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.service.dns.*;
 import net.java.sip.communicator.util.*;
@@ -99,21 +100,114 @@
      */
     private ExtendedResolver backupResolver;
 
-    /** Thread pool that processes the backup queries. */
-    private ExecutorService backupQueriesPool;
+    /**
+     * The maximum number of queries which are sent at the same time to the
+     * default resolver, and separately to the backup resolvers.
+     */
+    private static final int MAX_QUERY_THREADS = 8;
+
+    /**
+     * The maximum number of queries which wait in line for a thread. Further
+     * queries to the default resolver are not sent, only to the backup
+     * resolvers; further backup queries are sent on the thread of their
+     * caller.
+     */
+    private static final int MAX_QUEUED_QUERIES = 32;
+
+    /**
+     * The number of seconds an idle query thread is kept for.
+     */
+    private static final long QUERY_THREAD_KEEP_ALIVE = 60;
+
+    /**
+     * The number of times redundant mode was entered.
+     */
+    private static final AtomicLong redundantModeEntries = new AtomicLong();
+
+    /**
+     * The number of times redundant mode was exited because the primary
+     * resolver redeemed itself.
+     */
+    private static final AtomicLong redemptions = new AtomicLong();
+
+    /**
+     * The number of queries which were also sent to the backup resolvers.
+     */
+    private static final AtomicLong backupQueries = new AtomicLong();
+
+    /**
+     * The number of responses of the backup resolvers which were used
+     * because they came before a satisfactory response of the primary one.
+     */
+    private static final AtomicLong backupResponses = new AtomicLong();
+
+    /**
+     * Thread pool that sends the queries to the default resolver.
+     */
+    private final ExecutorService primaryQueriesPool;
+
+    /**
+     * Thread pool that processes the backup queries, separate from the one of
+     * the default resolver so that queries hanging on a laggy primary DNS do
+     * not hold back the backup queries.
+     */
+    private final ExecutorService backupQueriesPool;
 
     /**
      * Creates a new instance of this class.
      */
     ParallelResolverImpl()
     {
-        backupQueriesPool = Executors.newCachedThreadPool();
+        primaryQueriesPool
+            = createQueriesPool(
+                    "ParallelResolver-primary-",
+                    new ThreadPoolExecutor.AbortPolicy());
+        backupQueriesPool
+            = createQueriesPool(
+                    "ParallelResolver-backup-",
+                    new ThreadPoolExecutor.CallerRunsPolicy());
         DnsUtilActivator.getConfigurationService()
             .addPropertyChangeListener(this);
         initProperties();
         reset();
     }
 
+    /**
+     * Creates a bounded pool of daemon threads which send queries.
+     *
+     * @param namePrefix the prefix of the names of the threads
+     * @param rejectedHandler what to do with the queries which find all
+     * threads busy and the queue full
+     * @return the new pool
+     */
+    private static ExecutorService createQueriesPool(
+            final String namePrefix,
+            RejectedExecutionHandler rejectedHandler)
+    {
+        ThreadPoolExecutor pool
+            = new ThreadPoolExecutor(
+                    MAX_QUERY_THREADS, MAX_QUERY_THREADS,
+                    QUERY_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_QUEUED_QUERIES),
+                    new ThreadFactory()
+                    {
+                        private final AtomicInteger count
+                            = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r,
+                                namePrefix + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    },
+                    rejectedHandler);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     private void initProperties()
     {
         String rslvrAddrStr
@@ -212,13 +306,14 @@ public Message send(Message query)
         throws IOException
     {
         ParallelResolution resolution = new ParallelResolution(query);
-        resolution.sendFirstQuery();
+        boolean sentFirstQuery = resolution.sendFirstQuery();
 
         //if we are not in redundant mode we should wait a bit and see how this
         //goes. if we get a reply we could return bravely.
         if(!redundantMode)
         {
-            if(resolution.waitForResponse(currentDnsPatience))
+            if(sentFirstQuery
+                && resolution.waitForResponse(currentDnsPatience))
             {
                 //we are done.
                 return resolution.returnResponseOrThrowUp();
@@ -229,11 +324,18 @@ public Message send(Message query)
                 {
                     redundantMode = true;
                     redemptionStatus = currentDnsRedemption;
+                    redundantModeEntries.incrementAndGet();
                     logger.info("Primary DNS seems laggy: "
-                        + "no response for " + query.getQuestion().getName()
+                        + (sentFirstQuery
+                            ? "no response for "
+                            : "too many pending queries to send ")
+                        + query.getQuestion().getName()
                         + "/" + Type.string(query.getQuestion().getType())
-                        + " after " + currentDnsPatience + "ms. "
-                        + "Enabling redundant mode.");
+                        + (sentFirstQuery
+                            ? " after " + currentDnsPatience + "ms. "
+                            : ". ")
+                        + "Enabling redundant mode (" + getStatistics()
+                        + ").");
                 }
             }
         }
@@ -257,11 +359,13 @@ public Message send(Message query)
                 redemptionStatus --;
 
                 //yup, it's now time to end DNS redundant mode;
-                if(redemptionStatus <= 0)
+                if(redemptionStatus <= 0 && redundantMode)
                 {
                     redundantMode = false;
+                    redemptions.incrementAndGet();
                     logger.info("Primary DNS seems back in biz. "
-                                    + "Disabling redundant mode.");
+                                    + "Disabling redundant mode ("
+                                    + getStatistics() + ").");
                 }
             }
         }
@@ -269,6 +373,20 @@ public Message send(Message query)
         return resolution.returnResponseOrThrowUp();
     }
 
+    /**
+     * Gets the counters of the redundant mode and of the queries sent to the
+     * backup resolvers.
+     *
+     * @return A description of how often the backup resolvers were used.
+     */
+    public static String getStatistics()
+    {
+        return "redundant mode entered " + redundantModeEntries.get()
+            + " times, redeemed " + redemptions.get()
+            + " times, backup queries " + backupQueries.get()
+            + ", backup responses used " + backupResponses.get();
+    }
+
     /**
      * Supposed to asynchronously send messages but not currently implemented.
      *
@@ -501,11 +619,25 @@ public ParallelResolution(final Message query)
 
         /**
          * Starts this collector which would cause it to send its query to the
-         * default resolver.
+         * default resolver, unless the default resolver already has too many
+         * queries pending, in which case only the backup resolvers are to be
+         * asked.
+         *
+         * @return <tt>true</tt> if the query is sent to the default resolver;
+         * <tt>false</tt> if it is not
          */
-        public void sendFirstQuery()
+        public boolean sendFirstQuery()
         {
-            ParallelResolverImpl.this.backupQueriesPool.execute(this);
+            try
+            {
+                ParallelResolverImpl.this.primaryQueriesPool.execute(this);
+                return true;
+            }
+            catch (RejectedExecutionException ree)
+            {
+                primaryResolverRespondedFirst = false;
+                return false;
+            }
         }
 
         /**
@@ -568,6 +700,7 @@ public void run()
                     }
 
                     Message localResponse = null;
+                    backupQueries.incrementAndGet();
                     try
                     {
                         logger.info("Sending query for "
@@ -601,6 +734,8 @@ public void run()
                         {
                             response = localResponse;
                             primaryResolverRespondedFirst = false;
+                            if (localResponse != null)
+                                backupResponses.incrementAndGet();
                         }
 
                         done = true;
@@ -40,7 +40,7 @@
  */
 public class ConferenceChatSession
     extends ChatSession
-    implements  ChatRoomMemberPresenceListener,
+    implements  ChatRoomMemberSnapshotListener,
                 ChatRoomPropertyChangeListener,
                 ChatRoomConferencePublishedListener
 {
@@ -389,6 +389,34 @@ public ChatSessionRenderer getChatSessionRenderer()
         return sessionRenderer;
     }
 
+    /**
+     * Invoked with the <tt>ChatRoomMemberPresenceChangeEvent</tt>s which have
+     * occurred while joining the chat room. Processes all of them in a single
+     * task on the event dispatch thread instead of one task per member.
+     *
+     * @param evts the <tt>ChatRoomMemberPresenceChangeEvent</tt>s that
+     * notified us
+     */
+    public void memberPresenceSnapshot(
+        final List<ChatRoomMemberPresenceChangeEvent> evts)
+    {
+        if(!SwingUtilities.isEventDispatchThread())
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    memberPresenceSnapshot(evts);
+                }
+            });
+            return;
+        }
+
+        for (ChatRoomMemberPresenceChangeEvent evt : evts)
+            memberPresenceChanged(evt);
+    }
+
     /**
      * Invoked when <tt>ChatRoomMemberPresenceChangeEvent</tt> are received.
      * When a new <tt>ChatRoomMember</tt> has joined the chat adds it to the
@@ -159,6 +159,18 @@
      */
     private final static int SPEED_CALCULATE_DELAY = 5000;
 
+    /**
+     * The delay between two updates of the speed and estimated time labels
+     * when they are computed by the file transfer itself.
+     */
+    private final static int SPEED_DISPLAY_DELAY = 1000;
+
+    /**
+     * The last progress event which has not been shown yet. Accessed while
+     * holding the lock of this component.
+     */
+    private FileTransferProgressEvent pendingProgressEvent;
+
     /**
      * The transferred file size.
      */
@@ -533,11 +545,45 @@ else if (sourceButton.equals(cancelButton))
 
     /**
      * Updates progress bar progress line every time a progress event has been
-     * received.
+     * received. The events received while an update is waiting for the event
+     * dispatch thread are coalesced and only the last one is shown.
      *
      * @param event the <tt>FileTransferProgressEvent</tt> that notified us
      */
     public void progressChanged(FileTransferProgressEvent event)
+    {
+        synchronized (this)
+        {
+            boolean updateScheduled = (pendingProgressEvent != null);
+
+            pendingProgressEvent = event;
+            if (updateScheduled)
+                return;
+        }
+
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                FileTransferProgressEvent event;
+
+                synchronized (FileTransferConversationComponent.this)
+                {
+                    event = pendingProgressEvent;
+                    pendingProgressEvent = null;
+                }
+                showProgress(event);
+            }
+        });
+    }
+
+    /**
+     * Shows the progress of the file transfer in the progress bar and the
+     * speed and estimated time labels. Called on the event dispatch thread.
+     *
+     * @param event the last <tt>FileTransferProgressEvent</tt> received
+     */
+    private void showProgress(FileTransferProgressEvent event)
     {
         progressBar.setValue((int)event.getProgress());
 
@@ -546,25 +592,46 @@ public void progressChanged(FileTransferProgressEvent event)
 
         String bytesString = ByteFormat.format(transferredBytes);
 
-        if ((progressTimestamp - lastSpeedTimestamp)
-                >= SPEED_CALCULATE_DELAY)
+        if (event.getBytesPerSecond() >= 0)
         {
-            lastProgressSpeed
-                = Math.round(calculateProgressSpeed(transferredBytes));
+            // The file transfer keeps a smoothed speed, just do not change
+            // the labels faster than they can be read.
+            if ((progressTimestamp - lastSpeedTimestamp)
+                    >= SPEED_DISPLAY_DELAY)
+            {
+                lastProgressSpeed = event.getBytesPerSecond();
+                if (event.getEstimatedTimeLeft() >= 0)
+                {
+                    lastEstimatedTime
+                        = Math.round(event.getEstimatedTimeLeft() / 1000.0);
+                }
 
-            this.lastSpeedTimestamp = progressTimestamp;
-            this.lastTransferredBytes = transferredBytes;
+                lastSpeedTimestamp = progressTimestamp;
+                lastEstimatedTimeTimestamp = progressTimestamp;
+            }
         }
-
-        if ((progressTimestamp - lastEstimatedTimeTimestamp)
-                >= SPEED_CALCULATE_DELAY
-            && lastProgressSpeed > 0)
+        else
         {
-            lastEstimatedTime = Math.round(calculateEstimatedTransferTime(
-                lastProgressSpeed,
-                transferredFileSize - transferredBytes));
+            if ((progressTimestamp - lastSpeedTimestamp)
+                    >= SPEED_CALCULATE_DELAY)
+            {
+                lastProgressSpeed
+                    = Math.round(calculateProgressSpeed(transferredBytes));
+
+                this.lastSpeedTimestamp = progressTimestamp;
+                this.lastTransferredBytes = transferredBytes;
+            }
+
+            if ((progressTimestamp - lastEstimatedTimeTimestamp)
+                    >= SPEED_CALCULATE_DELAY
+                && lastProgressSpeed > 0)
+            {
+                lastEstimatedTime = Math.round(calculateEstimatedTransferTime(
+                    lastProgressSpeed,
+                    transferredFileSize - transferredBytes));
 
-            lastEstimatedTimeTimestamp = progressTimestamp;
+                lastEstimatedTimeTimestamp = progressTimestamp;
+            }
         }
 
         progressBar.setString(getProgressLabel(bytesString));
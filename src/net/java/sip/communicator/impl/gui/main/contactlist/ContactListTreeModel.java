@@ -17,26 +17,131 @@
  */
 package net.java.sip.communicator.impl.gui.main.contactlist;
 
-import java.lang.reflect.*;
+import java.awt.event.*;
+import java.util.*;
+import java.util.List;
 
 import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.plaf.*;
 import javax.swing.tree.*;
 
+import net.java.sip.communicator.plugin.desktoputil.plaf.*;
 import net.java.sip.communicator.service.gui.*;
+import net.java.sip.communicator.util.*;
 
 /**
  * The data model of the contact list.
+ * <p>
+ * The changes made from other threads than the event dispatch thread are
+ * queued with {@link #invokeLater(Runnable)} and applied in batches, at most
+ * one per {@link #FRAME_INTERVAL} milliseconds. While a batch is applied the
+ * model remembers the children each group had before and, once it is done,
+ * notifies the tree with a single removal, insertion and change event per
+ * group.
  *
  * @author Yana Stamcheva
  */
 public class ContactListTreeModel
     extends DefaultTreeModel
 {
+    /**
+     * The <tt>Logger</tt> used by the <tt>ContactListTreeModel</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(ContactListTreeModel.class);
+
+    /**
+     * The minimum number of milliseconds between the start of two batches of
+     * changes, about one frame of the display.
+     */
+    public static final int FRAME_INTERVAL = 16;
+
     /**
      * The root node.
      */
     private final GroupNode rootGroupNode;
 
+    /**
+     * The changes waiting for the next batch. Accessed while holding the lock
+     * of <tt>pendingUpdates</tt> as are {@link #pendingSorts},
+     * {@link #pendingChanges} and {@link #batchScheduled}.
+     */
+    private final List<Runnable> pendingUpdates = new ArrayList<Runnable>();
+
+    /**
+     * The groups to sort in the next batch.
+     */
+    private final Set<GroupNode> pendingSorts = new LinkedHashSet<GroupNode>();
+
+    /**
+     * The nodes to repaint in the next batch.
+     */
+    private final Set<TreeNode> pendingChanges = new LinkedHashSet<TreeNode>();
+
+    /**
+     * Whether the next batch has been scheduled.
+     */
+    private boolean batchScheduled = false;
+
+    /**
+     * The timer starting the batches on the event dispatch thread.
+     */
+    private final Timer batchTimer;
+
+    /**
+     * The time (as returned by <tt>System.currentTimeMillis()</tt>) the last
+     * batch started.
+     */
+    private long lastBatchTime = 0;
+
+    /**
+     * Whether a batch is being applied. Only accessed on the event dispatch
+     * thread as are {@link #batchSnapshots}, {@link #batchChanges} and
+     * {@link #batchNewGroups}.
+     */
+    private boolean inBatch = false;
+
+    /**
+     * The children the groups changed by the current batch had before it.
+     */
+    private final Map<GroupNode, List<TreeNode>> batchSnapshots
+        = new LinkedHashMap<GroupNode, List<TreeNode>>();
+
+    /**
+     * The nodes to repaint at the end of the current batch by parent group.
+     */
+    private final Map<GroupNode, Set<TreeNode>> batchChanges
+        = new LinkedHashMap<GroupNode, Set<TreeNode>>();
+
+    /**
+     * The groups created by the current batch.
+     */
+    private final Set<GroupNode> batchNewGroups = new HashSet<GroupNode>();
+
+    /**
+     * The number of batches applied.
+     */
+    private long batchCount = 0;
+
+    /**
+     * The number of changes applied in batches.
+     */
+    private long batchUpdateCount = 0;
+
+    /**
+     * The total number of nanoseconds the batches took on the event dispatch
+     * thread.
+     */
+    private long batchTotalTime = 0;
+
+    /**
+     * The maximum number of nanoseconds a batch took on the event dispatch
+     * thread.
+     */
+    private long batchMaxTime = 0;
+
     /**
      * The parent tree.
      */
@@ -58,6 +163,18 @@ public ContactListTreeModel(JTree tree)
         rootDescriptor.setGroupNode(rootGroupNode);
 
         this.setRoot(rootGroupNode);
+
+        batchTimer
+            = new Timer(
+                    FRAME_INTERVAL,
+                    new ActionListener()
+                    {
+                        public void actionPerformed(ActionEvent e)
+                        {
+                            runBatch();
+                        }
+                    });
+        batchTimer.setRepeats(false);
     }
 
     /**
@@ -87,28 +204,20 @@ public void clear()
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            try
+            // Queued with the other changes so they are applied in order.
+            invokeLater(new Runnable()
             {
-                SwingUtilities.invokeAndWait(new Runnable()
+                public void run()
                 {
-                    public void run()
-                    {
-                        clear();
-                    }
-                });
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
-            catch (InvocationTargetException e)
-            {
-                e.printStackTrace();
-            }
+                    clear();
+                }
+            });
             return;
         }
 
         // The following code is always invoked in the swing thread.
+        groupWillChange(rootGroupNode);
+
         int childCount = rootGroupNode.getChildCount();
         int[] removedIndexs = new int[childCount];
         Object[] removedNodes = new Object[childCount];
@@ -138,15 +247,514 @@ public JTree getParentTree()
      * @param node the node that has changed
      */
     @Override
-    public void nodeChanged(final TreeNode node)
+    public void nodeChanged(TreeNode node)
+    {
+        if (node == null)
+            return;
+
+        if (inBatch && SwingUtilities.isEventDispatchThread())
+        {
+            recordChange(node);
+            return;
+        }
+
+        synchronized (pendingUpdates)
+        {
+            pendingChanges.add(node);
+            scheduleBatch();
+        }
+    }
+
+    /**
+     * Ignores the notification while a batch is applied to a group whose
+     * children have been remembered, the events are fired at the end of the
+     * batch.
+     *
+     * @param node the group node
+     * @param childIndices the indices of the inserted children
+     */
+    @Override
+    public void nodesWereInserted(TreeNode node, int[] childIndices)
+    {
+        if (!isBatched(node))
+            super.nodesWereInserted(node, childIndices);
+    }
+
+    /**
+     * Ignores the notification while a batch is applied to a group whose
+     * children have been remembered, the events are fired at the end of the
+     * batch.
+     *
+     * @param node the group node
+     * @param childIndices the indices the removed children had
+     * @param removedChildren the removed children
+     */
+    @Override
+    public void nodesWereRemoved(
+            TreeNode node,
+            int[] childIndices,
+            Object[] removedChildren)
+    {
+        if (!isBatched(node))
+            super.nodesWereRemoved(node, childIndices, removedChildren);
+    }
+
+    /**
+     * Records the changed children while a batch is applied, the events are
+     * fired at the end of the batch.
+     *
+     * @param node the group node
+     * @param childIndices the indices of the changed children
+     */
+    @Override
+    public void nodesChanged(TreeNode node, int[] childIndices)
     {
-        SwingUtilities.invokeLater(new Runnable()
+        if (inBatch && (node instanceof GroupNode) && (childIndices != null))
         {
-            public void run()
+            for (int childIndex : childIndices)
+                recordChange(node.getChildAt(childIndex));
+        }
+        else
+            super.nodesChanged(node, childIndices);
+    }
+
+    /**
+     * Runs a change of the contact list on the event dispatch thread in the
+     * next batch, after the changes queued before it.
+     *
+     * @param update the change to run
+     */
+    public void invokeLater(Runnable update)
+    {
+        synchronized (pendingUpdates)
+        {
+            pendingUpdates.add(update);
+            scheduleBatch();
+        }
+    }
+
+    /**
+     * Sorts the children of a group in the next batch. The requests to sort a
+     * group more than once before the next batch are coalesced.
+     *
+     * @param groupNode the group to sort
+     */
+    void sortLater(GroupNode groupNode)
+    {
+        synchronized (pendingUpdates)
+        {
+            pendingSorts.add(groupNode);
+            scheduleBatch();
+        }
+    }
+
+    /**
+     * Remembers the children of a group before they are changed if a batch
+     * is being applied.
+     *
+     * @param groupNode the group which is about to change
+     */
+    void groupWillChange(GroupNode groupNode)
+    {
+        if (inBatch && !batchSnapshots.containsKey(groupNode))
+            batchSnapshots.put(groupNode, getChildren(groupNode));
+    }
+
+    /**
+     * Remembers that a group has been created by the current batch so that
+     * the tree is not notified of the changes of its children before it
+     * learns about the group itself.
+     *
+     * @param groupNode the created group
+     */
+    void groupCreated(GroupNode groupNode)
+    {
+        if (inBatch)
+            batchNewGroups.add(groupNode);
+    }
+
+    /**
+     * Determines whether a batch of changes is being applied, in which case
+     * the tree has not been notified of the changes made so far.
+     *
+     * @return <tt>true</tt> if a batch of changes is being applied
+     */
+    boolean isApplyingBatch()
+    {
+        return inBatch;
+    }
+
+    /**
+     * Returns a human-readable summary of the time the batches of changes
+     * took on the event dispatch thread.
+     *
+     * @return the statistics of the batches of changes of this model
+     */
+    public synchronized String getBatchStatistics()
+    {
+        return
+            "batches: " + batchCount
+                + ", changes: " + batchUpdateCount
+                + ", avg: "
+                + ((batchCount == 0) ? 0 : batchTotalTime / batchCount / 1000)
+                + " us, max: " + batchMaxTime / 1000 + " us";
+    }
+
+    /**
+     * Schedules the next batch if it has not been yet. Called while holding
+     * the lock of <tt>pendingUpdates</tt>.
+     */
+    private void scheduleBatch()
+    {
+        if (batchScheduled)
+            return;
+        batchScheduled = true;
+
+        long delay
+            = lastBatchTime + FRAME_INTERVAL - System.currentTimeMillis();
+
+        batchTimer.setInitialDelay((int) Math.max(0, delay));
+        batchTimer.start();
+    }
+
+    /**
+     * Applies the queued changes and notifies the tree. Runs on the event
+     * dispatch thread.
+     */
+    private void runBatch()
+    {
+        List<Runnable> updates;
+        List<GroupNode> sorts;
+        List<TreeNode> changes;
+
+        synchronized (pendingUpdates)
+        {
+            updates = new ArrayList<Runnable>(pendingUpdates);
+            sorts = new ArrayList<GroupNode>(pendingSorts);
+            changes = new ArrayList<TreeNode>(pendingChanges);
+            pendingUpdates.clear();
+            pendingSorts.clear();
+            pendingChanges.clear();
+            batchScheduled = false;
+        }
+
+        long startTime = System.nanoTime();
+        TreePath selectionPath = parentTree.getSelectionPath();
+        int oldSelectedRow = parentTree.getLeadSelectionRow();
+
+        lastBatchTime = System.currentTimeMillis();
+        inBatch = true;
+        try
+        {
+            for (Runnable update : updates)
             {
-                ContactListTreeModel.super.nodeChanged(node);
+                try
+                {
+                    update.run();
+                }
+                catch (Throwable t)
+                {
+                    if (t instanceof ThreadDeath)
+                        throw (ThreadDeath) t;
+                    logger.error("Failed to update the contact list", t);
+                }
             }
-        });
+            for (GroupNode groupNode : sorts)
+                groupNode.sortChildren();
+            for (TreeNode node : changes)
+                recordChange(node);
+        }
+        finally
+        {
+            inBatch = false;
+        }
+
+        int groupCount = fireBatchEvents();
+
+        if (!sorts.isEmpty()
+            && (selectionPath != null)
+            && isAttached((TreeNode) selectionPath.getLastPathComponent()))
+        {
+            parentTree.setSelectionPath(selectionPath);
+        }
+        refreshSelection(oldSelectedRow, parentTree.getLeadSelectionRow());
+
+        long time = System.nanoTime() - startTime;
+
+        synchronized (this)
+        {
+            batchCount++;
+            batchUpdateCount += updates.size() + sorts.size() + changes.size();
+            batchTotalTime += time;
+            if (time > batchMaxTime)
+                batchMaxTime = time;
+        }
+        if (logger.isTraceEnabled())
+        {
+            logger.trace(
+                    "Applied " + updates.size() + " changes, "
+                        + sorts.size() + " sorts and " + changes.size()
+                        + " repaints to " + groupCount + " groups in "
+                        + time / 1000 + " us");
+        }
+    }
+
+    /**
+     * Notifies the tree of the changes of the groups made by the current
+     * batch with at most one removal, insertion and change event per group.
+     *
+     * @return the number of groups the tree was notified about
+     */
+    private int fireBatchEvents()
+    {
+        Set<GroupNode> groupNodes
+            = new LinkedHashSet<GroupNode>(batchSnapshots.keySet());
+        int groupCount = 0;
+
+        groupNodes.addAll(batchChanges.keySet());
+        try
+        {
+            for (GroupNode groupNode : groupNodes)
+            {
+                // The tree learns about the children of new or removed groups
+                // when (and if) it learns about the groups.
+                if (!isAttached(groupNode) || isNewInBatch(groupNode))
+                    continue;
+
+                fireGroupEvents(
+                        groupNode,
+                        batchSnapshots.get(groupNode),
+                        batchChanges.get(groupNode));
+                groupCount++;
+            }
+        }
+        finally
+        {
+            batchSnapshots.clear();
+            batchChanges.clear();
+            batchNewGroups.clear();
+        }
+        return groupCount;
+    }
+
+    /**
+     * Notifies the tree of the changes of a group: the children it no longer
+     * has, the children it did not have and the children which have changed
+     * or moved.
+     *
+     * @param groupNode the changed group
+     * @param oldChildren the children of the group before the batch or
+     * <tt>null</tt> if they did not change
+     * @param changedChildren the children to repaint or <tt>null</tt>
+     */
+    private void fireGroupEvents(
+            GroupNode groupNode,
+            List<TreeNode> oldChildren,
+            Set<TreeNode> changedChildren)
+    {
+        List<TreeNode> newChildren = getChildren(groupNode);
+        SortedSet<Integer> changedIndices = new TreeSet<Integer>();
+        Set<TreeNode> oldSet = null;
+
+        if (oldChildren != null)
+        {
+            oldSet
+                = Collections.newSetFromMap(
+                        new IdentityHashMap<TreeNode, Boolean>());
+
+            Set<TreeNode> newSet
+                = Collections.newSetFromMap(
+                        new IdentityHashMap<TreeNode, Boolean>());
+
+            oldSet.addAll(oldChildren);
+            newSet.addAll(newChildren);
+
+            List<Integer> removedIndices = new ArrayList<Integer>();
+            List<TreeNode> removedNodes = new ArrayList<TreeNode>();
+            List<TreeNode> survivors = new ArrayList<TreeNode>();
+
+            for (int i = 0; i < oldChildren.size(); i++)
+            {
+                TreeNode child = oldChildren.get(i);
+
+                if (newSet.contains(child))
+                    survivors.add(child);
+                else
+                {
+                    removedIndices.add(i);
+                    removedNodes.add(child);
+                }
+            }
+            if (!removedIndices.isEmpty())
+            {
+                super.nodesWereRemoved(
+                        groupNode,
+                        toArray(removedIndices),
+                        removedNodes.toArray());
+            }
+
+            List<Integer> insertedIndices = new ArrayList<Integer>();
+            Iterator<TreeNode> survivorIter = survivors.iterator();
+
+            for (int i = 0; i < newChildren.size(); i++)
+            {
+                TreeNode child = newChildren.get(i);
+
+                if (!oldSet.contains(child))
+                    insertedIndices.add(i);
+                // The tree keeps the surviving children in their old order,
+                // the ones which moved have to be repainted.
+                else if (survivorIter.next() != child)
+                    changedIndices.add(i);
+            }
+            if (!insertedIndices.isEmpty())
+                super.nodesWereInserted(groupNode, toArray(insertedIndices));
+        }
+
+        if (changedChildren != null)
+        {
+            for (TreeNode child : changedChildren)
+            {
+                int index = groupNode.getIndex(child);
+
+                if (index >= 0
+                    && (oldSet == null || oldSet.contains(child)))
+                {
+                    changedIndices.add(index);
+                }
+            }
+        }
+        if (!changedIndices.isEmpty())
+        {
+            super.nodesChanged(
+                    groupNode,
+                    toArray(new ArrayList<Integer>(changedIndices)));
+        }
+    }
+
+    /**
+     * Records a node to repaint at the end of the current batch.
+     *
+     * @param node the node to repaint
+     */
+    private void recordChange(TreeNode node)
+    {
+        TreeNode parent = node.getParent();
+
+        if (parent instanceof GroupNode)
+        {
+            GroupNode groupNode = (GroupNode) parent;
+            Set<TreeNode> changes = batchChanges.get(groupNode);
+
+            if (changes == null)
+            {
+                changes = new LinkedHashSet<TreeNode>();
+                batchChanges.put(groupNode, changes);
+            }
+            changes.add(node);
+        }
+        else if (node == rootGroupNode)
+            super.nodeChanged(node);
+    }
+
+    /**
+     * Determines whether the notifications of changes of the children of a
+     * node are postponed to the end of the current batch.
+     *
+     * @param node the node
+     * @return <tt>true</tt> if the notifications are postponed
+     */
+    private boolean isBatched(TreeNode node)
+    {
+        return inBatch && batchSnapshots.containsKey(node);
+    }
+
+    /**
+     * Determines whether a node is in the tree of this model.
+     *
+     * @param node the node
+     * @return <tt>true</tt> if <tt>node</tt> is in the tree of this model
+     */
+    private boolean isAttached(TreeNode node)
+    {
+        while (node != rootGroupNode)
+        {
+            TreeNode parent = node.getParent();
+
+            // Cleared groups do not reset the parents of their children.
+            if (parent == null || parent.getIndex(node) < 0)
+                return false;
+            node = parent;
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether a group or one of its parents has been created by
+     * the current batch.
+     *
+     * @param groupNode the group
+     * @return <tt>true</tt> if the tree has not been notified about
+     * <tt>groupNode</tt> yet
+     */
+    private boolean isNewInBatch(GroupNode groupNode)
+    {
+        for (TreeNode node = groupNode; node != null; node = node.getParent())
+        {
+            if (batchNewGroups.contains(node))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of the list of children of a group.
+     *
+     * @param groupNode the group
+     * @return the children of <tt>groupNode</tt>
+     */
+    private static List<TreeNode> getChildren(GroupNode groupNode)
+    {
+        int childCount = groupNode.getChildCount();
+        List<TreeNode> children = new ArrayList<TreeNode>(childCount);
+
+        for (int i = 0; i < childCount; i++)
+            children.add(groupNode.getChildAt(i));
+        return children;
+    }
+
+    /**
+     * Converts a list of indices to an array.
+     *
+     * @param indices the indices
+     * @return the array of <tt>indices</tt>
+     */
+    private static int[] toArray(List<Integer> indices)
+    {
+        int[] array = new int[indices.size()];
+
+        for (int i = 0; i < array.length; i++)
+            array[i] = indices.get(i);
+        return array;
+    }
+
+    /**
+     * Refreshes the selection painted by the tree after a batch moved rows.
+     *
+     * @param lastSelectedIndex the selected row before the batch
+     * @param newSelectedIndex the selected row after the batch
+     */
+    private void refreshSelection(int lastSelectedIndex, int newSelectedIndex)
+    {
+        TreeUI treeUI = parentTree.getUI();
+
+        if ((treeUI instanceof SIPCommTreeUI)
+            && (lastSelectedIndex != newSelectedIndex))
+        {
+            ((SIPCommTreeUI) treeUI).selectionChanged(
+                    parentTree.getPathForRow(lastSelectedIndex),
+                    parentTree.getPathForRow(newSelectedIndex));
+        }
     }
 
     /**
@@ -104,6 +104,7 @@ public ContactNode addContact(UIContactImpl uiContact)
         ContactNode contactNode = new ContactNode(uiContact);
         uiContact.setContactNode(contactNode);
 
+        treeModel.groupWillChange(this);
         add(contactNode);
 
         // Since contactNode is added to the back of the list, don't go looking
@@ -131,6 +132,7 @@ public ContactNode sortedAddContact(UIContactImpl uiContact)
         ContactNode contactNode = new ContactNode(uiContact);
         uiContact.setContactNode(contactNode);
 
+        treeModel.groupWillChange(this);
         if (children == null)
         {
             // Initially, children will be null.
@@ -187,6 +189,7 @@ public void removeContact(UIContactImpl uiContact)
 
         // We remove the node directly from the list, thus skipping all
         // the checks verifying if the node belongs to this parent.
+        treeModel.groupWillChange(this);
         children.removeElementAt(index);
 
         contactNode.setParent(null);
@@ -218,6 +221,8 @@ public GroupNode addContactGroup(UIGroupImpl uiGroup)
             uiGroup.setGroupNode(groupNode);
         }
 
+        treeModel.groupCreated(groupNode);
+        treeModel.groupWillChange(this);
         add(groupNode);
 
         // Since contactNode is added to the back of the list, don't go looking
@@ -256,6 +261,7 @@ public void removeContactGroup(UIGroupImpl uiGroup)
 
         // We remove the node directly from the list, thus skipping all the
         // checks verifying if the node belongs to this parent.
+        treeModel.groupWillChange(this);
         children.removeElementAt(index);
 
         groupNode.setParent(null);
@@ -286,6 +292,8 @@ public GroupNode sortedAddContactGroup(UIGroupImpl uiGroup)
             uiGroup.setGroupNode(groupNode);
         }
 
+        treeModel.groupCreated(groupNode);
+        treeModel.groupWillChange(this);
         if (children == null)
         {
             // Initially, children will be null.
@@ -352,31 +360,29 @@ public int getSourceIndex()
     }
 
     /**
-     * Sorts the children of this node.
+     * Sorts the children of this node in the next batch of changes of the
+     * <tt>treeModel</tt>. Several requests to sort the same node before the
+     * batch is applied only sort it once.
      * @param treeModel the <tt>ContactListTreeModel</tt>, which should be
      * refreshed
      */
+    public void sort(ContactListTreeModel treeModel)
+    {
+        if (children != null)
+            treeModel.sortLater(this);
+    }
+
+    /**
+     * Sorts the children of this node. Called while the tree model applies a
+     * batch of changes, which notifies the tree of the moved children.
+     */
     @SuppressWarnings("unchecked")
-    public void sort(final ContactListTreeModel treeModel)
+    void sortChildren()
     {
         if (children != null)
         {
-            SwingUtilities.invokeLater(new Runnable()
-            {
-                public void run()
-                {
-                    TreePath selectionPath = getLeadSelectionPath();
-                    int oldSelectionIndex = getLeadSelectionRow();
-
-                    Collections.sort(children, nodeComparator);
-
-                    fireNodesChanged();
-
-                    treeModel.getParentTree().setSelectionPath(selectionPath);
-
-                    refreshSelection(oldSelectionIndex, getLeadSelectionRow());
-                }
-            });
+            treeModel.groupWillChange(this);
+            Collections.sort(children, nodeComparator);
         }
     }
 
@@ -398,6 +404,8 @@ public boolean isCollapsed()
      */
     public void clear()
     {
+        treeModel.groupWillChange(this);
+
         int childCount = getChildCount();
 
         for (int i = 0; i < childCount; i ++)
@@ -451,20 +459,6 @@ private void fireNodeRemoved(ContactListNode node, int index)
         treeModel.nodesWereRemoved(this, new int[]{index}, new Object[]{node});
     }
 
-    /**
-     * Notifies all interested listeners that all nodes have changed.
-     */
-    private void fireNodesChanged()
-    {
-        int childCount = getChildCount();
-        int[] changedIndexes = new int[childCount];
-
-        for (int i = 0; i < childCount; i++)
-            changedIndexes[i] = i;
-
-        treeModel.nodesChanged(this, changedIndexes);
-    }
-
     /**
      * Note: this comparator imposes orderings that are inconsistent with
      * equals.
@@ -521,16 +515,6 @@ private int getLeadSelectionRow()
         return selectedRow;
     }
 
-    /**
-     * Returns the current lead selection path.
-     *
-     * @return the current lead selection path
-     */
-    private TreePath getLeadSelectionPath()
-    {
-        return treeModel.getParentTree().getSelectionPath();
-    }
-
     /**
      * Refreshes the selection paths.
      *
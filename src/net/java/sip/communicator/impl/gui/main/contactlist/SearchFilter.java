@@ -25,6 +25,7 @@
 import net.java.sip.communicator.service.contactsource.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.gui.event.*;
+import net.java.sip.communicator.util.*;
 
 /**
  * The <tt>SearchFilter</tt> is a <tt>ContactListFilter</tt> that filters the
@@ -45,6 +46,12 @@
      */
     protected Pattern filterPattern;
 
+    /**
+     * The string, which we're searching, in the case-insensitive form
+     * compared by <tt>NGramIndex</tt>.
+     */
+    private String normalizedFilterString;
+
     /**
      * The <tt>MetaContactListSource</tt> to search in.
      */
@@ -63,6 +70,18 @@
         = "net.java.sip.communicator.impl.gui"
                 + ".DISABLE_CALL_HISTORY_SEARCH_IN_CONTACT_LIST";
 
+    /**
+     * The name of the property holding the number of milliseconds after which
+     * the search in a contact source is abandoned.
+     */
+    protected String CONTACT_SOURCE_SEARCH_DEADLINE_PROP
+        = "net.java.sip.communicator.impl.gui.CONTACT_SOURCE_SEARCH_DEADLINE";
+
+    /**
+     * The default value of {@link #CONTACT_SOURCE_SEARCH_DEADLINE_PROP}.
+     */
+    private static final long DEFAULT_CONTACT_SOURCE_SEARCH_DEADLINE = 10000;
+
     /**
      * If set, we are searching a phone number and will use the phone number
      * service to try matching the numbers.
@@ -108,7 +127,7 @@ public void applyFilter(FilterQuery filterQuery)
             // First add the MetaContactListSource
             filterQuery.addContactQuery(defaultQuery);
 
-            mclSource.startQuery(defaultQuery, filterPattern);
+            mclSource.startQuery(defaultQuery, filterString);
         }
         else if (sourceContactList.getDefaultFilter()
                     .equals(TreeContactList.historyFilter))
@@ -126,6 +145,9 @@ else if (sourceContactList.getDefaultFilter()
             ((TreeContactList) sourceContactList).setAutoSectionAllowed(true);
         }
 
+        // Runs the sources in parallel and merges their results.
+        FederatedContactSearch search = new FederatedContactSearch();
+
         // Then we apply the filter on all its contact sources.
         while (filterSources.hasNext())
         {
@@ -158,7 +180,7 @@ else if (sourceContactList.getDefaultFilter()
             if (filterQuery.isCanceled())
                 return;
 
-            applyFilter(filterSource, filterQuery);
+            applyFilter(filterSource, filterQuery, search);
         }
 
         // Closes this filter to indicate that we finished adding queries to it.
@@ -176,6 +198,23 @@ else if (sourceContactList.getDefaultFilter()
      */
     protected ContactQuery applyFilter(UIContactSource contactSource,
         FilterQuery filterQuery)
+    {
+        return applyFilter(contactSource, filterQuery, null);
+    }
+
+    /**
+     * Applies this filter to the given <tt>contactSource</tt> as part of a
+     * search over several contact sources.
+     *
+     * @param contactSource the <tt>ExternalContactSource</tt> to apply the
+     * filter to
+     * @param filterQuery the filter query object.
+     * @param search the search running the queries of all the contact sources
+     * or <tt>null</tt> to start the query right away
+     * @return the <tt>ContactQuery</tt> that tracks this filter
+     */
+    protected ContactQuery applyFilter(UIContactSource contactSource,
+        FilterQuery filterQuery, FederatedContactSearch search)
     {
         ContactSourceService sourceService
             = contactSource.getContactSourceService();
@@ -191,6 +230,16 @@ protected ContactQuery applyFilter(UIContactSource contactSource,
         if(contactQuery == null)
             return null;
 
+        if (search != null)
+        {
+            contactQuery = search.submit(
+                contactQuery,
+                getPriority(sourceService),
+                GuiActivator.getConfigurationService().getLong(
+                    CONTACT_SOURCE_SEARCH_DEADLINE_PROP,
+                    DEFAULT_CONTACT_SOURCE_SEARCH_DEADLINE));
+        }
+
         contactQuery.addContactQueryListener(sourceContactList);
 
         if (contactQuery.getStatus() == ContactQuery.QUERY_IN_PROGRESS)
@@ -203,6 +252,36 @@ protected ContactQuery applyFilter(UIContactSource contactSource,
         return contactQuery;
     }
 
+    /**
+     * Returns the priority of the results of a contact source, the contact
+     * list sources first and the history last, then in the order of the
+     * sources in the list.
+     *
+     * @param sourceService the contact source
+     * @return the priority, the lower the higher
+     */
+    private static int getPriority(ContactSourceService sourceService)
+    {
+        int typeRank;
+
+        switch (sourceService.getType())
+        {
+        case ContactSourceService.CONTACT_LIST_TYPE:
+            typeRank = 0;
+            break;
+        case ContactSourceService.HISTORY_TYPE:
+            typeRank = 3;
+            break;
+        case ContactSourceService.SEARCH_TYPE:
+            typeRank = 2;
+            break;
+        default:
+            typeRank = 1;
+        }
+
+        return typeRank * 1000 + Math.max(0, sourceService.getIndex());
+    }
+
     /**
      * Indicates if the given <tt>uiGroup</tt> matches this filter.
      * @param uiContact the <tt>UIGroup</tt> to check
@@ -251,6 +330,7 @@ public void setFilterString(String filter)
         // in the US-ASCII charset are being matched, that's why we use
         // the UNICODE_CASE flag to enable unicode case-insensitive matching.
         // Sun Bug ID: 6486934 "RegEx case_insensitive match is broken"
+        this.normalizedFilterString = NGramIndex.normalize(filter);
         this.filterPattern
                 = Pattern.compile(
                         Pattern.quote(filterString),
@@ -270,7 +350,8 @@ public void setFilterString(String filter)
      */
     private boolean isMatching(String text)
     {
-        if (filterPattern != null && filterPattern.matcher(text).find())
+        if (normalizedFilterString != null
+                && NGramIndex.normalize(text).contains(normalizedFilterString))
             return true;
 
         if(isSearchingPhoneNumber && this.filterString != null)
@@ -213,13 +213,14 @@ public TreeContactList(ContactListContainer clContainer)
         this.addTreeWillExpandListener(this);
         this.addTreeSelectionListener(this);
 
-        GuiActivator.getContactListService()
-            .addMetaContactListListener(mclSource);
-
         treeModel = new ContactListTreeModel(this);
 
         setTreeModel(treeModel);
 
+        // Changes of the contact list are queued in the tree model.
+        GuiActivator.getContactListService()
+            .addMetaContactListListener(mclSource);
+
         // We hide the root node as it doesn't represent a real group.
         if (isRootVisible())
             setRootVisible(false);
@@ -365,7 +366,7 @@ private void contactChanged(final SourceContact sourceContact,
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            LowPriorityEventQueue.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -607,7 +608,7 @@ public void addContact( final UIContact contact,
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -826,7 +827,7 @@ private void addContact(final MetaContactQuery query,
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            LowPriorityEventQueue.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -857,7 +858,7 @@ public void addContact(final ContactQuery query,
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            LowPriorityEventQueue.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -887,7 +888,7 @@ public void removeContact(  final UIContact contact,
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            LowPriorityEventQueue.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -958,7 +959,7 @@ public void refreshContact(final UIContact contact)
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -988,7 +989,7 @@ public void addGroup(final UIGroup group, final boolean isSorted)
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -1033,7 +1034,7 @@ public void removeGroup(final UIGroup group)
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
+            treeModel.invokeLater(new Runnable()
             {
                 public void run()
                 {
@@ -1454,7 +1455,10 @@ private void expandGroup(GroupNode groupNode)
         final TreePath path = new TreePath(treeModel.getPathToRoot(groupNode));
 
         if (!isExpanded(path))
-            if (!SwingUtilities.isEventDispatchThread())
+            // The tree does not know about the nodes added by a batch of
+            // changes until it is applied.
+            if (!SwingUtilities.isEventDispatchThread()
+                    || treeModel.isApplyingBatch())
             {
                 SwingUtilities.invokeLater(new Runnable()
                 {
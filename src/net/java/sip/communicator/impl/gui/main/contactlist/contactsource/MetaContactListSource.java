@@ -95,6 +95,13 @@
      */
     private int index = 0;
 
+    /**
+     * The index of the names and addresses of the meta contacts searched by
+     * {@link #startQuery(MetaContactQuery, String)}.
+     */
+    private final MetaContactSearchIndex searchIndex
+        = new MetaContactSearchIndex();
+
     /**
      * The logger.
      */
@@ -229,6 +236,50 @@ public void run()
         }.start();
     }
 
+    /**
+     * Starts a query for the meta contacts whose names or addresses contain
+     * a specific string. Answered from the search index of the contact list
+     * rather than by walking all its groups.
+     *
+     * @param query the query to be started
+     * @param filterString the string to filter through
+     */
+    public void startQuery(final MetaContactQuery query,
+        final String filterString)
+    {
+        new Thread()
+        {
+            @Override
+            public void run()
+            {
+                int resultCount = 0;
+
+                for (MetaContact metaContact : searchIndex.query(filterString))
+                {
+                    if (query.isCanceled())
+                        break;
+
+                    MetaContactGroup parentGroup
+                        = metaContact.getParentMetaContactGroup();
+
+                    // The contact may have been removed in the meantime.
+                    if (parentGroup == null)
+                        continue;
+
+                    resultCount++;
+                    addQueryResult(metaContact, parentGroup, query, resultCount);
+                }
+
+                if (!query.isCanceled())
+                    query.fireQueryEvent(
+                        MetaContactQueryStatusEvent.QUERY_COMPLETED);
+                else
+                    query.fireQueryEvent(
+                        MetaContactQueryStatusEvent.QUERY_CANCELED);
+            }
+        }.start();
+    }
+
     /**
      * Filters the children in the given <tt>MetaContactGroup</tt> to match the
      * given <tt>filterPattern</tt> and stores the result in the given
@@ -253,48 +304,7 @@ public void queryMetaContactSource(Pattern filterPattern,
             if (isMatching(filterPattern, metaContact))
             {
                 resultCount++;
-
-                if (resultCount <= INITIAL_CONTACT_COUNT)
-                {
-                    UIGroup uiGroup = null;
-                    if (!MetaContactListSource.isRootGroup(parentGroup))
-                    {
-                        synchronized (parentGroup)
-                        {
-                            uiGroup = MetaContactListSource
-                                .getUIGroup(parentGroup);
-                            if (uiGroup == null)
-                                uiGroup = MetaContactListSource
-                                    .createUIGroup(parentGroup);
-                        }
-                    }
-
-                    UIContact newUIContact;
-                    synchronized (metaContact)
-                    {
-                        newUIContact 
-                            = MetaContactListSource.getUIContact(metaContact);
-    
-                        if (newUIContact == null)
-                        {
-                            newUIContact
-                                = MetaContactListSource
-                                    .createUIContact(metaContact);
-                        }
-                        
-                        GuiActivator.getContactList().addContact(
-                            newUIContact,
-                            uiGroup,
-                            true,
-                            true);
-                    }
-                    
-                    query.setInitialResultCount(resultCount);
-                }
-                else
-                {
-                    query.fireQueryEvent(metaContact);
-                }
+                addQueryResult(metaContact, parentGroup, query, resultCount);
             }
         }
 
@@ -311,6 +321,66 @@ public void queryMetaContactSource(Pattern filterPattern,
         }
     }
 
+    /**
+     * Adds a <tt>MetaContact</tt> matching a query to the contact list or, if
+     * the query already has more than the initial number of results, fires an
+     * event for it.
+     *
+     * @param metaContact the matching <tt>MetaContact</tt>
+     * @param parentGroup the <tt>MetaContactGroup</tt> of
+     * <tt>metaContact</tt>
+     * @param query the object that tracks the query
+     * @param resultCount the number of results of the query including
+     * <tt>metaContact</tt>
+     */
+    private void addQueryResult(MetaContact metaContact,
+                                MetaContactGroup parentGroup,
+                                MetaContactQuery query,
+                                int resultCount)
+    {
+        if (resultCount <= INITIAL_CONTACT_COUNT)
+        {
+            UIGroup uiGroup = null;
+            if (!MetaContactListSource.isRootGroup(parentGroup))
+            {
+                synchronized (parentGroup)
+                {
+                    uiGroup = MetaContactListSource
+                        .getUIGroup(parentGroup);
+                    if (uiGroup == null)
+                        uiGroup = MetaContactListSource
+                            .createUIGroup(parentGroup);
+                }
+            }
+
+            UIContact newUIContact;
+            synchronized (metaContact)
+            {
+                newUIContact
+                    = MetaContactListSource.getUIContact(metaContact);
+
+                if (newUIContact == null)
+                {
+                    newUIContact
+                        = MetaContactListSource
+                            .createUIContact(metaContact);
+                }
+
+                GuiActivator.getContactList().addContact(
+                    newUIContact,
+                    uiGroup,
+                    true,
+                    true);
+            }
+
+            query.setInitialResultCount(resultCount);
+        }
+        else
+        {
+            query.fireQueryEvent(metaContact);
+        }
+    }
+
     /**
      * Checks if the given <tt>metaContact</tt> is matching the given
      * <tt>filterPattern</tt>.
@@ -689,13 +759,14 @@ public void metaContactMoved(final MetaContactMovedEvent evt)
         // to order the calls of setData.
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable()
-            {
-                public void run()
+            GuiActivator.getContactList().getTreeModel().invokeLater(
+                new Runnable()
                 {
-                    metaContactMoved(evt);
-                }
-            });
+                    public void run()
+                    {
+                        metaContactMoved(evt);
+                    }
+                });
             return;
         }
 
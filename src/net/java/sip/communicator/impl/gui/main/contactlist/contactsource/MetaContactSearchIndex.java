@@ -0,0 +1,224 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.util.*;
+
+import net.java.sip.communicator.impl.gui.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.contactlist.event.*;
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Indexes the display names of the <tt>MetaContact</tt>s of the contact list
+ * and the display names and addresses of their protocol contacts so that the
+ * search filter does not have to walk the whole contact list on every
+ * keystroke. Built on the first query and kept up to date from the events of
+ * the <tt>MetaContactListService</tt>.
+ */
+class MetaContactSearchIndex
+    implements MetaContactListListener
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>MetaContactSearchIndex</tt> class
+     * for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MetaContactSearchIndex.class);
+
+    /**
+     * The index of the <tt>MetaContact</tt>s.
+     */
+    private final NGramIndex<MetaContact> index
+        = new NGramIndex<MetaContact>();
+
+    /**
+     * Whether the index has been built and this instance listens to the
+     * changes of the contact list.
+     */
+    private boolean built = false;
+
+    /**
+     * Returns the <tt>MetaContact</tt>s whose display name or one of whose
+     * protocol contacts' display name or address contains a specific string,
+     * ignoring case.
+     *
+     * @param filterString the string to look for
+     * @return the matching <tt>MetaContact</tt>s
+     */
+    public List<MetaContact> query(String filterString)
+    {
+        synchronized (this)
+        {
+            if (!built)
+            {
+                MetaContactListService contactList
+                    = GuiActivator.getContactListService();
+                long startTime = System.currentTimeMillis();
+
+                // Listen first so that no change is missed while indexing.
+                contactList.addMetaContactListListener(this);
+                addGroup(contactList.getRoot());
+                built = true;
+
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug(
+                            "Indexed " + index.size() + " meta contacts in "
+                                + (System.currentTimeMillis() - startTime)
+                                + " ms");
+                }
+            }
+        }
+        return index.query(filterString);
+    }
+
+    /**
+     * Adds or updates a <tt>MetaContact</tt> in the index.
+     *
+     * @param metaContact the <tt>MetaContact</tt> to index
+     */
+    private void addContact(MetaContact metaContact)
+    {
+        if (metaContact == null)
+            return;
+
+        List<String> texts = new ArrayList<String>();
+
+        texts.add(metaContact.getDisplayName());
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+
+        while (contacts.hasNext())
+        {
+            Contact contact = contacts.next();
+
+            texts.add(contact.getDisplayName());
+            texts.add(contact.getAddress());
+        }
+        index.put(metaContact, texts);
+    }
+
+    /**
+     * Adds the <tt>MetaContact</tt>s of a group and its subgroups to the
+     * index.
+     *
+     * @param group the <tt>MetaContactGroup</tt> to index
+     */
+    private void addGroup(MetaContactGroup group)
+    {
+        Iterator<MetaContact> contacts = group.getChildContacts();
+
+        while (contacts.hasNext())
+            addContact(contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            addGroup(subgroups.next());
+    }
+
+    /**
+     * Removes the <tt>MetaContact</tt>s of a group and its subgroups from the
+     * index.
+     *
+     * @param group the removed <tt>MetaContactGroup</tt>
+     */
+    private void removeGroup(MetaContactGroup group)
+    {
+        Iterator<MetaContact> contacts = group.getChildContacts();
+
+        while (contacts.hasNext())
+            index.remove(contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            removeGroup(subgroups.next());
+    }
+
+    public void metaContactAdded(MetaContactEvent evt)
+    {
+        addContact(evt.getSourceMetaContact());
+    }
+
+    public void metaContactRenamed(MetaContactRenamedEvent evt)
+    {
+        addContact(evt.getSourceMetaContact());
+    }
+
+    public void protoContactAdded(ProtoContactEvent evt)
+    {
+        addContact(evt.getParent());
+    }
+
+    public void protoContactModified(ProtoContactEvent evt)
+    {
+        addContact(evt.getParent());
+    }
+
+    public void protoContactRemoved(ProtoContactEvent evt)
+    {
+        addContact(evt.getOldParent());
+    }
+
+    public void protoContactMoved(ProtoContactEvent evt)
+    {
+        addContact(evt.getOldParent());
+        addContact(evt.getNewParent());
+    }
+
+    public void metaContactRemoved(MetaContactEvent evt)
+    {
+        index.remove(evt.getSourceMetaContact());
+    }
+
+    public void metaContactMoved(MetaContactMovedEvent evt)
+    {
+        // The group of a contact is not indexed.
+    }
+
+    public void metaContactGroupAdded(MetaContactGroupEvent evt)
+    {
+        addGroup(evt.getSourceMetaContactGroup());
+    }
+
+    public void metaContactGroupModified(MetaContactGroupEvent evt)
+    {
+        // The names of the groups are not indexed.
+    }
+
+    public void metaContactGroupRemoved(MetaContactGroupEvent evt)
+    {
+        removeGroup(evt.getSourceMetaContactGroup());
+    }
+
+    public void childContactsReordered(MetaContactGroupEvent evt)
+    {
+    }
+
+    public void metaContactModified(MetaContactModifiedEvent evt)
+    {
+        addContact(evt.getSourceMetaContact());
+    }
+
+    public void metaContactAvatarUpdated(MetaContactAvatarUpdateEvent evt)
+    {
+    }
+}
@@ -23,10 +23,11 @@
 import net.java.sip.communicator.service.resources.*;
 import net.java.sip.communicator.util.*;
 
+import org.jitsi.service.resources.*;
+
 import javax.imageio.*;
 import java.awt.image.*;
 import java.net.*;
-import java.util.*;
 
 /**
  * Service responsible for loading images and possibly cache them.
@@ -44,41 +45,36 @@
         Logger.getLogger(ImageLoaderServiceImpl.class);
 
     /**
-     * Stores all already loaded images.
-     */
-    private static final Map<ImageID, BufferedImage> loadedImages =
-        new Hashtable<ImageID, BufferedImage>();
-
-    /**
-     * Loads an image from a given image identifier.
+     * Loads an image from a given image identifier. The images are cached
+     * (within a size limit) by the resource service and shared with the
+     * other bundles.
      *
      * @param imageID The identifier of the image.
      * @return The image for the given identifier.
      */
     public BufferedImage getImage(ImageID imageID)
     {
-        BufferedImage image = null;
+        ResourceManagementService resources = GuiActivator.getResources();
 
-        if (loadedImages.containsKey(imageID))
+        if (resources instanceof AbstractResourcesService)
         {
-            image = loadedImages.get(imageID);
+            return
+                ((AbstractResourcesService) resources).getBufferedImage(
+                        imageID.getId());
         }
-        else
-        {
-            URL path = GuiActivator.getResources().getImageURL(imageID.getId());
 
-            if (path != null)
-            {
-                try
-                {
-                    image = ImageIO.read(path);
+        BufferedImage image = null;
+        URL path = resources.getImageURL(imageID.getId());
 
-                    loadedImages.put(imageID, image);
-                }
-                catch (Exception ex)
-                {
-                    logger.error("Failed to load image: " + path, ex);
-                }
+        if (path != null)
+        {
+            try
+            {
+                image = ImageIO.read(path);
+            }
+            catch (Exception ex)
+            {
+                logger.error("Failed to load image: " + path, ex);
             }
         }
 
@@ -107,6 +103,9 @@ public byte[] getImageBytes(ImageID imageID)
      */
     public void clearCache()
     {
-        loadedImages.clear();
+        ResourceManagementService resources = GuiActivator.getResources();
+
+        if (resources instanceof AbstractResourcesService)
+            ((AbstractResourcesService) resources).clearImageCache();
     }
 }
@@ -232,7 +232,7 @@ public void synchronizeProvider()
 
         for(final ChatRoomWrapper chatRoomWrapper : chatRoomsOrderedCopy)
         {
-            new Thread()
+            MUCActivator.getMUCService().autojoin(new Runnable()
             {
                 @Override
                 public void run()
@@ -267,16 +267,8 @@ public void run()
                                         .getProtocolProvider(), chatRoomWrapper
                                         .getChatRoomID(), "userNickName");
 
-                            if (nickName != null)
-                            {
-                                MUCActivator.getMUCService().joinChatRoom(
-                                    chatRoom, nickName, null);
-                            }
-                            else
-                            {
-                                MUCActivator.getMUCService().joinChatRoom(
-                                    chatRoomWrapper);
-                            }
+                            MUCActivator.getMUCService().autojoinChatRoom(
+                                chatRoomWrapper, nickName);
                         }
                     }
                     else
@@ -299,21 +291,12 @@ public void run()
                                         .getProtocolProvider(), chatRoomWrapper
                                         .getChatRoomID(), "userNickName");
 
-                            if (nickName != null)
-                            {
-                                MUCActivator.getMUCService()
-                                    .joinChatRoom(roomWrapper.getChatRoom(),
-                                        nickName, null);
-                            }
-                            else
-                            {
-                                MUCActivator.getMUCService()
-                                    .joinChatRoom(roomWrapper);
-                            }
+                            MUCActivator.getMUCService().autojoinChatRoom(
+                                roomWrapper, nickName);
                         }
                     }
                 }
-            }.start();
+            });
         }
     }
 }
@@ -20,13 +20,17 @@
 import static net.java.sip.communicator.service.muc.ChatRoomWrapper.*;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.plugin.desktoputil.chat.*;
 import net.java.sip.communicator.service.contactsource.*;
 import net.java.sip.communicator.service.gui.*;
+import net.java.sip.communicator.service.msghistory.*;
 import net.java.sip.communicator.service.muc.*;
 import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.service.protocol.globalstatus.*;
 import net.java.sip.communicator.util.*;
 
@@ -52,6 +56,30 @@
      */
     private static Logger logger = Logger.getLogger(MUCServiceImpl.class);
 
+    /**
+     * The name of the property holding the number of chat rooms joined at
+     * the same time when joining the autojoin chat rooms of an account.
+     */
+    public static final String PNAME_AUTOJOIN_CONCURRENCY
+        = "net.java.sip.communicator.impl.muc.AUTOJOIN_CONCURRENCY";
+
+    /**
+     * The default value of {@link #PNAME_AUTOJOIN_CONCURRENCY}.
+     */
+    private static final int DEFAULT_AUTOJOIN_CONCURRENCY = 4;
+
+    /**
+     * The number of milliseconds before the newest message in the local
+     * history from which the history of an autojoined room is asked for, to
+     * cover a local clock which is ahead of the one of the server.
+     */
+    private static final long HISTORY_SINCE_MARGIN = 10 * 60 * 1000;
+
+    /**
+     * The threads joining the autojoin chat rooms.
+     */
+    private ThreadPoolExecutor autojoinExecutor = null;
+
     /**
      * Called to accept an incoming invitation. Adds the invitation chat room
      * to the list of chat rooms and joins it.
@@ -270,6 +298,127 @@ public void joinChatRoom(ChatRoomWrapper chatRoomWrapper)
     }
 
 
+    /**
+     * Runs a task joining autojoin chat rooms on the threads shared by all
+     * accounts, so that at most {@link #PNAME_AUTOJOIN_CONCURRENCY} rooms are
+     * joined at the same time.
+     *
+     * @param task the task to run
+     */
+    synchronized void autojoin(Runnable task)
+    {
+        if (autojoinExecutor == null)
+        {
+            int threads
+                = MUCActivator.getConfigurationService().getInt(
+                    PNAME_AUTOJOIN_CONCURRENCY,
+                    DEFAULT_AUTOJOIN_CONCURRENCY);
+
+            autojoinExecutor
+                = new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        30,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory()
+                        {
+                            private final AtomicInteger count
+                                = new AtomicInteger();
+
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(
+                                            r,
+                                            "MUC autojoin-"
+                                                + count.incrementAndGet());
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+            autojoinExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        autojoinExecutor.execute(task);
+    }
+
+    /**
+     * Joins an autojoin chat room in the calling thread, asking the server
+     * only for the messages following the newest one in the local history.
+     *
+     * @param chatRoomWrapper the chat room to join.
+     * @param nickName the nickname we choose for the given chat room or
+     * <tt>null</tt> to use the display name of the account.
+     */
+    void autojoinChatRoom(ChatRoomWrapper chatRoomWrapper, String nickName)
+    {
+        ChatRoom chatRoom = chatRoomWrapper.getChatRoom();
+
+        if (chatRoom == null)
+        {
+            // reports the error
+            joinChatRoom(chatRoomWrapper, nickName, null);
+            return;
+        }
+
+        chatRoom.setHistorySince(getLastMessageTime(chatRoom));
+
+        new JoinChatRoomTask(
+                (ChatRoomWrapperImpl) chatRoomWrapper, nickName, null)
+            .run();
+    }
+
+    /**
+     * Returns the time of the newest message of a chat room in the local
+     * history, moved back by {@link #HISTORY_SINCE_MARGIN}. Live messages are
+     * stored with the time of the local clock, which may be ahead of the one
+     * of the server; the room drops the messages it replays twice.
+     *
+     * @param chatRoom the chat room
+     * @return the time from which to ask for history or <tt>null</tt> if
+     * there is no message or the history is not available
+     */
+    private static Date getLastMessageTime(ChatRoom chatRoom)
+    {
+        MessageHistoryService historyService
+            = MUCActivator.getMessageHistoryService();
+
+        if (historyService == null)
+            return null;
+
+        try
+        {
+            Date last = null;
+
+            for (EventObject evt : historyService.findLast(chatRoom, 1))
+            {
+                Date time = null;
+
+                if (evt instanceof ChatRoomMessageReceivedEvent)
+                    time = ((ChatRoomMessageReceivedEvent) evt).getTimestamp();
+                else if (evt instanceof ChatRoomMessageDeliveredEvent)
+                    time = ((ChatRoomMessageDeliveredEvent) evt).getTimestamp();
+
+                if (time != null && (last == null || time.after(last)))
+                    last = time;
+            }
+            return
+                (last == null)
+                    ? null
+                    : new Date(last.getTime() - HISTORY_SINCE_MARGIN);
+        }
+        catch (Throwable t)
+        {
+            if (t instanceof ThreadDeath)
+                throw (ThreadDeath) t;
+
+            logger.warn("Failed to read the history of " + chatRoom, t);
+            return null;
+        }
+    }
+
     /**
      * Joins the given chat room and manages all the exceptions that could
      * occur during the join process.
@@ -0,0 +1,368 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.netaddr.event.*;
+
+/**
+ * Remembers the local (source) address chosen by
+ * <tt>NetworkAddressManagerServiceImpl.getLocalHost(InetAddress)</tt> for
+ * destinations sharing the same network prefix so that SIP message and ICE
+ * construction do not have to ask the operating system for the route each
+ * time.
+ * <p>
+ * Entries expire after a configurable time and are all dropped whenever the
+ * network configuration changes. Lookups do not block each other.
+ */
+class LocalHostCache
+    implements NetworkConfigurationChangeListener
+{
+    /**
+     * The name of the property which specifies the number of milliseconds for
+     * which a cached local address is used.
+     */
+    static final String TTL_PROPERTY_NAME
+        = "net.java.sip.communicator.impl.netaddr.LOCAL_HOST_CACHE_TTL";
+
+    /**
+     * The name of the property which specifies the length of the IPv4 prefix
+     * whose destinations share a cached local address.
+     */
+    static final String IPV4_PREFIX_LENGTH_PROPERTY_NAME
+        = "net.java.sip.communicator.impl.netaddr."
+            + "LOCAL_HOST_CACHE_IPV4_PREFIX_LENGTH";
+
+    /**
+     * The name of the property which specifies the length of the IPv6 prefix
+     * whose destinations share a cached local address.
+     */
+    static final String IPV6_PREFIX_LENGTH_PROPERTY_NAME
+        = "net.java.sip.communicator.impl.netaddr."
+            + "LOCAL_HOST_CACHE_IPV6_PREFIX_LENGTH";
+
+    /**
+     * The default value of {@link #TTL_PROPERTY_NAME}.
+     */
+    static final long DEFAULT_TTL = 60000;
+
+    /**
+     * The default value of {@link #IPV4_PREFIX_LENGTH_PROPERTY_NAME}.
+     */
+    static final int DEFAULT_IPV4_PREFIX_LENGTH = 24;
+
+    /**
+     * The default value of {@link #IPV6_PREFIX_LENGTH_PROPERTY_NAME}.
+     */
+    static final int DEFAULT_IPV6_PREFIX_LENGTH = 64;
+
+    /**
+     * The maximum number of cached prefixes. The cache is simply cleared when
+     * it grows beyond it.
+     */
+    private static final int MAX_ENTRIES = 1024;
+
+    /**
+     * The cached local addresses by destination prefix.
+     */
+    private final ConcurrentMap<Prefix, Entry> entries
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The number of milliseconds for which a cached local address is used.
+     */
+    private final long ttl;
+
+    /**
+     * The length of the IPv4 prefix whose destinations share an entry.
+     */
+    private final int ipv4PrefixLength;
+
+    /**
+     * The length of the IPv6 prefix whose destinations share an entry.
+     */
+    private final int ipv6PrefixLength;
+
+    /**
+     * Incremented upon each invalidation so that a lookup which has started
+     * before an invalidation does not cache its (possibly stale) result.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups which had to ask the operating system.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The total time in nanoseconds spent asking the operating system.
+     */
+    private final AtomicLong missTime = new AtomicLong();
+
+    /**
+     * Initializes a new <tt>LocalHostCache</tt>.
+     *
+     * @param ttl the number of milliseconds for which a cached local address
+     * is used; <tt>0</tt> or less disables the cache
+     * @param ipv4PrefixLength the length of the IPv4 prefix whose destinations
+     * share an entry
+     * @param ipv6PrefixLength the length of the IPv6 prefix whose destinations
+     * share an entry
+     */
+    LocalHostCache(long ttl, int ipv4PrefixLength, int ipv6PrefixLength)
+    {
+        this.ttl = ttl;
+        this.ipv4PrefixLength = Math.max(0, Math.min(32, ipv4PrefixLength));
+        this.ipv6PrefixLength = Math.max(0, Math.min(128, ipv6PrefixLength));
+    }
+
+    /**
+     * Returns the cached local address for a specific destination.
+     *
+     * @param destination the destination
+     * @return the cached local address for <tt>destination</tt> or
+     * <tt>null</tt> if there is none
+     */
+    InetAddress get(InetAddress destination)
+    {
+        if (!isCacheable(destination))
+            return null;
+
+        Entry entry = entries.get(getPrefix(destination));
+
+        if (entry != null && entry.expires - System.currentTimeMillis() > 0)
+        {
+            hits.incrementAndGet();
+            return entry.localHost;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current generation which is to be passed to
+     * {@link #put(InetAddress, InetAddress, int, long)} after a lookup.
+     *
+     * @return the current generation of this cache
+     */
+    int getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Caches the local address chosen for a specific destination.
+     *
+     * @param destination the destination
+     * @param localHost the local address chosen for <tt>destination</tt>
+     * @param generation the generation of this cache when the lookup of
+     * <tt>localHost</tt> started
+     * @param lookupTime the time in nanoseconds the lookup took
+     */
+    void put(
+            InetAddress destination,
+            InetAddress localHost,
+            int generation,
+            long lookupTime)
+    {
+        misses.incrementAndGet();
+        missTime.addAndGet(lookupTime);
+
+        if (!isCacheable(destination)
+                || localHost == null
+                || localHost.isAnyLocalAddress())
+        {
+            return;
+        }
+
+        if (entries.size() >= MAX_ENTRIES)
+            entries.clear();
+
+        entries.put(
+                getPrefix(destination),
+                new Entry(localHost, System.currentTimeMillis() + ttl));
+
+        /*
+         * If the network configuration has changed while the lookup was in
+         * progress, localHost may already be stale.
+         */
+        if (this.generation.get() != generation)
+            entries.clear();
+    }
+
+    /**
+     * Drops all cached local addresses.
+     */
+    void invalidate()
+    {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Drops all cached local addresses when the network configuration
+     * changes.
+     *
+     * @param event the change event
+     */
+    @Override
+    public void configurationChanged(ChangeEvent event)
+    {
+        if (!event.isInitial())
+            invalidate();
+    }
+
+    /**
+     * Returns a human-readable summary of the hit rate and the lookup cost of
+     * this cache.
+     *
+     * @return the statistics of this cache
+     */
+    String getStatistics()
+    {
+        long hits = this.hits.get();
+        long misses = this.misses.get();
+        long total = hits + misses;
+
+        return
+            "local host lookups: " + total
+                + ", hit rate: "
+                + ((total == 0) ? 0 : (hits * 100 / total)) + "%"
+                + ", average lookup time: "
+                + ((misses == 0) ? 0 : (missTime.get() / misses / 1000))
+                + " us";
+    }
+
+    /**
+     * Determines whether the local address for a specific destination may be
+     * cached. Link-local destinations are not cached because the interface
+     * they are reached through is part of their scope rather than their
+     * address.
+     *
+     * @param destination the destination
+     * @return <tt>true</tt> if the local address for <tt>destination</tt> may
+     * be cached; otherwise, <tt>false</tt>
+     */
+    private boolean isCacheable(InetAddress destination)
+    {
+        return (ttl > 0) && !destination.isLinkLocalAddress();
+    }
+
+    /**
+     * Returns the prefix of a specific destination under which its local
+     * address is cached.
+     *
+     * @param destination the destination
+     * @return the prefix of <tt>destination</tt>
+     */
+    private Prefix getPrefix(InetAddress destination)
+    {
+        byte[] address = destination.getAddress();
+        int prefixLength
+            = (address.length == 4) ? ipv4PrefixLength : ipv6PrefixLength;
+
+        for (int i = 0; i < address.length; i++)
+        {
+            int bits = prefixLength - i * 8;
+
+            if (bits <= 0)
+                address[i] = 0;
+            else if (bits < 8)
+                address[i] &= (byte) (0xFF << (8 - bits));
+        }
+        return new Prefix(address);
+    }
+
+    /**
+     * A cached local address.
+     */
+    private static class Entry
+    {
+        /**
+         * The local address.
+         */
+        final InetAddress localHost;
+
+        /**
+         * The time (in <tt>System.currentTimeMillis()</tt> terms) at which the
+         * entry expires.
+         */
+        final long expires;
+
+        /**
+         * Initializes a new <tt>Entry</tt>.
+         *
+         * @param localHost the local address
+         * @param expires the time at which the entry expires
+         */
+        Entry(InetAddress localHost, long expires)
+        {
+            this.localHost = localHost;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The (masked) address bytes of a destination prefix.
+     */
+    private static class Prefix
+    {
+        /**
+         * The masked address.
+         */
+        private final byte[] address;
+
+        /**
+         * The hash code of {@link #address}.
+         */
+        private final int hashCode;
+
+        /**
+         * Initializes a new <tt>Prefix</tt>.
+         *
+         * @param address the masked address
+         */
+        Prefix(byte[] address)
+        {
+            this.address = address;
+            this.hashCode = Arrays.hashCode(address);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return
+                (obj instanceof Prefix)
+                    && Arrays.equals(address, ((Prefix) obj).address);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import com.sun.jna.*;
+
+/**
+ * A <tt>NetworkChangeSource</tt> which listens on a Linux rtnetlink socket
+ * for link and IPv4/IPv6 address changes.
+ */
+class NetlinkChangeSource
+    implements NetworkChangeSource
+{
+    /**
+     * Our class logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(NetlinkChangeSource.class);
+
+    /**
+     * JNA interface to LibC.
+     */
+    interface LibC
+        extends Library
+    {
+        static final int AF_NETLINK = 16;
+
+        static final int SOCK_RAW = 3;
+
+        static final int NETLINK_ROUTE = 0;
+
+        static final int RTMGRP_LINK = 0x1;
+
+        static final int RTMGRP_IPV4_IFADDR = 0x10;
+
+        static final int RTMGRP_IPV6_IFADDR = 0x100;
+
+        static final int SOL_SOCKET = 1;
+
+        static final int SO_RCVTIMEO = 20;
+
+        static final int EINTR = 4;
+
+        static final int EAGAIN = 11;
+
+        // see the man pages for the mapped C functions
+        int socket(int domain, int type, int protocol);
+        int bind(int fd, sockaddr_nl addr, int addrlen);
+        int setsockopt(int fd, int level, int optname, timeval optval,
+                       int optlen);
+        NativeLong recv(int fd, byte[] buf, NativeLong len, int flags);
+        int close(int fd);
+        String strerror(int error);
+    }
+
+    /**
+     * JNA mapping of <tt>sockaddr_nl</tt>.
+     */
+    public static class sockaddr_nl
+        extends Structure
+    {
+        public short nl_family = LibC.AF_NETLINK;
+        public short nl_pad;
+        public int nl_pid;
+        public int nl_groups;
+
+        @Override
+        protected List getFieldOrder()
+        {
+            return
+                Arrays.asList(
+                        new String[]
+                        {
+                            "nl_family",
+                            "nl_pad",
+                            "nl_pid",
+                            "nl_groups"
+                        });
+        }
+    }
+
+    /**
+     * JNA mapping of <tt>timeval</tt>.
+     */
+    public static class timeval
+        extends Structure
+    {
+        public NativeLong tv_sec;
+        public NativeLong tv_usec;
+
+        @Override
+        protected List getFieldOrder()
+        {
+            return Arrays.asList(new String[] { "tv_sec", "tv_usec" });
+        }
+    }
+
+    /**
+     * The number of seconds after which a blocking receive returns so that
+     * {@link #stop()} is noticed.
+     */
+    private static final int RECEIVE_TIMEOUT = 1;
+
+    /**
+     * The size of the receive buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The <tt>Receiver</tt> which listens on the socket opened by the last
+     * {@link #start(Runnable)} or <tt>null</tt> if this source is stopped.
+     */
+    private Receiver receiver;
+
+    /**
+     * Opens the rtnetlink socket and starts listening on it.
+     *
+     * @param listener the <tt>Runnable</tt> to run whenever a link or address
+     * changes
+     * @return <tt>true</tt> if the socket has been opened; otherwise,
+     * <tt>false</tt>
+     */
+    @Override
+    public synchronized boolean start(Runnable listener)
+    {
+        if (isRunning())
+            return true;
+
+        LibC libc;
+
+        try
+        {
+            libc = (LibC) Native.loadLibrary("c", LibC.class);
+        }
+        catch (Throwable t)
+        {
+            if (t instanceof ThreadDeath)
+                throw (ThreadDeath) t;
+            logger.info("Netlink is not available: " + t);
+            return false;
+        }
+
+        int fd
+            = libc.socket(LibC.AF_NETLINK, LibC.SOCK_RAW, LibC.NETLINK_ROUTE);
+
+        if (fd < 0)
+        {
+            logger.info("Failed to open netlink socket: " + lastError(libc));
+            return false;
+        }
+
+        sockaddr_nl addr = new sockaddr_nl();
+
+        addr.nl_groups
+            = LibC.RTMGRP_LINK
+                | LibC.RTMGRP_IPV4_IFADDR
+                | LibC.RTMGRP_IPV6_IFADDR;
+
+        timeval timeout = new timeval();
+
+        timeout.tv_sec = new NativeLong(RECEIVE_TIMEOUT);
+        timeout.tv_usec = new NativeLong(0);
+
+        if (libc.bind(fd, addr, addr.size()) != 0
+                || libc.setsockopt(
+                        fd,
+                        LibC.SOL_SOCKET, LibC.SO_RCVTIMEO,
+                        timeout, timeout.size())
+                    != 0)
+        {
+            logger.info("Failed to set up netlink socket: " + lastError(libc));
+            libc.close(fd);
+            return false;
+        }
+
+        /*
+         * Each socket is owned by the thread receiving from it so that a
+         * thread which is still stopping cannot close the socket of a new
+         * start.
+         */
+        receiver = new Receiver(libc, fd, listener);
+
+        Thread thread = new Thread(receiver, getClass().getSimpleName());
+
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stops listening. The socket is closed by the receiving thread within
+     * {@link #RECEIVE_TIMEOUT} seconds.
+     */
+    @Override
+    public synchronized void stop()
+    {
+        if (receiver != null)
+        {
+            receiver.running = false;
+            receiver = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isRunning()
+    {
+        return receiver != null && receiver.running;
+    }
+
+    /**
+     * Returns the description of the last C library error.
+     *
+     * @param libc the C library
+     * @return the description of the last error
+     */
+    private static String lastError(LibC libc)
+    {
+        return libc.strerror(Native.getLastError());
+    }
+
+    /**
+     * Receives netlink messages from one socket and notifies the listener
+     * about them until stopped.
+     */
+    private static class Receiver
+        implements Runnable
+    {
+        /**
+         * The C library.
+         */
+        private final LibC libc;
+
+        /**
+         * The netlink socket owned by this <tt>Receiver</tt>.
+         */
+        private final int fd;
+
+        /**
+         * The listener to notify about changes.
+         */
+        private final Runnable listener;
+
+        /**
+         * Whether this <tt>Receiver</tt> is running.
+         */
+        volatile boolean running = true;
+
+        /**
+         * Initializes a new <tt>Receiver</tt>.
+         *
+         * @param libc the C library
+         * @param fd the netlink socket to receive from and to close when
+         * stopped
+         * @param listener the listener to notify about changes
+         */
+        Receiver(LibC libc, int fd, Runnable listener)
+        {
+            this.libc = libc;
+            this.fd = fd;
+            this.listener = listener;
+        }
+
+        /**
+         * Receives netlink messages and notifies the listener about them until
+         * stopped.
+         */
+        @Override
+        public void run()
+        {
+            byte[] buf = new byte[BUFFER_SIZE];
+            NativeLong bufLen = new NativeLong(buf.length);
+
+            try
+            {
+                while (running)
+                {
+                    long received = libc.recv(fd, buf, bufLen, 0).longValue();
+
+                    if (received < 0)
+                    {
+                        int errno = Native.getLastError();
+
+                        if (errno == LibC.EAGAIN || errno == LibC.EINTR)
+                            continue;
+
+                        logger.error(
+                                "Failed to receive from netlink socket: "
+                                    + libc.strerror(errno));
+                        break;
+                    }
+
+                    if (!running)
+                        break;
+
+                    /*
+                     * We only subscribed to link and address groups so every
+                     * message is a reason to rescan. The watcher computes the
+                     * differences itself.
+                     */
+                    try
+                    {
+                        listener.run();
+                    }
+                    catch (Throwable t)
+                    {
+                        if (t instanceof ThreadDeath)
+                            throw (ThreadDeath) t;
+                        logger.error("Error handling netlink notification", t);
+                    }
+                }
+            }
+            finally
+            {
+                libc.close(fd);
+                /*
+                 * If the socket failed, make sure the listener rescans so that
+                 * it notices that it has to fall back to polling.
+                 */
+                if (running)
+                {
+                    running = false;
+                    listener.run();
+                }
+            }
+        }
+    }
+}
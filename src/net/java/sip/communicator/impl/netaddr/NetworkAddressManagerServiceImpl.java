@@ -87,6 +87,12 @@
      */
     private NetworkConfigurationWatcher networkConfigurationWatcher = null;
 
+    /**
+     * The local addresses recently chosen by {@link #getLocalHost(InetAddress)}
+     * by destination prefix.
+     */
+    private LocalHostCache localHostCache = null;
+
     /**
      * The service name to use when discovering TURN servers through DNS using
      * SRV requests as per RFC 5766.
@@ -106,6 +112,22 @@ public void start()
      {
          this.localHostFinderSocket = initRandomPortSocket();
 
+         ConfigurationService config
+             = NetaddrActivator.getConfigurationService();
+
+         localHostCache
+             = new LocalHostCache(
+                     config.getLong(
+                             LocalHostCache.TTL_PROPERTY_NAME,
+                             LocalHostCache.DEFAULT_TTL),
+                     config.getInt(
+                             LocalHostCache.IPV4_PREFIX_LENGTH_PROPERTY_NAME,
+                             LocalHostCache.DEFAULT_IPV4_PREFIX_LENGTH),
+                     config.getInt(
+                             LocalHostCache.IPV6_PREFIX_LENGTH_PROPERTY_NAME,
+                             LocalHostCache.DEFAULT_IPV6_PREFIX_LENGTH));
+         addNetworkConfigurationChangeListener(localHostCache);
+
          // set packet logging to ice4j stack
          StunStack.setPacketLogger(new Ice4jPacketLogger());
      }
@@ -119,6 +141,14 @@ public void stop()
      {
          try
          {
+             if (localHostCache != null)
+             {
+                 removeNetworkConfigurationChangeListener(localHostCache);
+                 if (logger.isInfoEnabled())
+                     logger.info(localHostCache.getStatistics());
+                 localHostCache = null;
+             }
+
              if(networkConfigurationWatcher != null)
                  networkConfigurationWatcher.stop();
          }
@@ -138,7 +168,47 @@ public void stop()
      * @return an InetAddress instance representing the local host, and that
      * a socket can bind upon or distribute to peers as a contact address.
      */
-    public synchronized InetAddress getLocalHost(
+    public InetAddress getLocalHost(InetAddress intendedDestination)
+    {
+        LocalHostCache localHostCache = this.localHostCache;
+
+        if (localHostCache == null)
+            return lookupLocalHost(intendedDestination);
+
+        InetAddress localHost = localHostCache.get(intendedDestination);
+
+        if (localHost == null)
+        {
+            int generation = localHostCache.getGeneration();
+            long startTime = System.nanoTime();
+
+            localHost = lookupLocalHost(intendedDestination);
+            localHostCache.put(
+                    intendedDestination,
+                    localHost,
+                    generation,
+                    System.nanoTime() - startTime);
+        }
+        else if (logger.isTraceEnabled())
+        {
+            logger.trace(
+                    "Returning the cached localhost address '" + localHost
+                        + "' for intended destination '" + intendedDestination
+                        + "'");
+        }
+        return localHost;
+    }
+
+    /**
+     * Asks the operating system which local address it would use to reach a
+     * specific destination.
+     *
+     * @param intendedDestination the destination that we'd like to use the
+     * localhost address with.
+     * @return an InetAddress instance representing the local host, and that
+     * a socket can bind upon or distribute to peers as a contact address.
+     */
+    private synchronized InetAddress lookupLocalHost(
             InetAddress intendedDestination)
     {
         InetAddress localHost = null;
@@ -0,0 +1,50 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+/**
+ * A source of notifications from the operating system that the network
+ * interfaces or their addresses may have changed. Allows
+ * <tt>NetworkConfigurationWatcher</tt> to rescan the interfaces as soon as
+ * something changes instead of polling them.
+ */
+interface NetworkChangeSource
+{
+    /**
+     * Starts delivering notifications.
+     *
+     * @param listener the <tt>Runnable</tt> to run (on a thread of this
+     * source) whenever the network configuration may have changed
+     * @return <tt>true</tt> if notifications will be delivered;
+     * <tt>false</tt> if this source is not available on the current system
+     */
+    boolean start(Runnable listener);
+
+    /**
+     * Determines whether this source is (still) delivering notifications.
+     *
+     * @return <tt>true</tt> if this source is delivering notifications;
+     * otherwise, <tt>false</tt>
+     */
+    boolean isRunning();
+
+    /**
+     * Stops delivering notifications.
+     */
+    void stop();
+}
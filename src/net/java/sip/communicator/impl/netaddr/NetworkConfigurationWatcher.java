@@ -25,11 +25,14 @@
 import net.java.sip.communicator.service.sysactivity.event.*;
 import net.java.sip.communicator.util.*;
 
+import org.jitsi.util.*;
 import org.osgi.framework.*;
 
 /**
- * Periodically checks the current network interfaces to track changes
- * and fire events on those changes.
+ * Checks the current network interfaces to track changes and fire events on
+ * those changes. The interfaces are checked whenever a
+ * <tt>NetworkChangeSource</tt> (e.g. netlink on Linux) reports a change or,
+ * where no such source is available, periodically.
  *
  * @author Damian Minkov
  */
@@ -55,6 +58,26 @@
      */
     private static final int CHECK_INTERVAL = 3000; // 3 sec.
 
+    /**
+     * Interval between checks of network configuration when a
+     * <tt>NetworkChangeSource</tt> reports the changes. Only a safety net in
+     * case a notification is missed.
+     */
+    private static final int NOTIFIED_CHECK_INTERVAL = 60000; // 1 min.
+
+    /**
+     * The source of change notifications which spares us from checking the
+     * network interfaces every {@link #CHECK_INTERVAL} or <tt>null</tt> if
+     * there is no such source on this system.
+     */
+    private NetworkChangeSource changeSource = null;
+
+    /**
+     * Whether {@link #changeSource} has reported a change which has not been
+     * checked yet.
+     */
+    private boolean changePending = false;
+
     /**
      * Whether thread checking for network notifications is running.
      */
@@ -194,6 +217,8 @@ private void handleNewSystemActivityNotificationsService(
             if(!isRunning)
             {
                 isRunning = true;
+                startChangeSource();
+
                 Thread th = new Thread(this);
                 // set to max priority to prevent detecting sleep if the cpu is
                 // overloaded
@@ -203,6 +228,38 @@ private void handleNewSystemActivityNotificationsService(
         }
     }
 
+    /**
+     * Starts the <tt>NetworkChangeSource</tt> of the current system, if
+     * there is one.
+     */
+    private void startChangeSource()
+    {
+        NetworkChangeSource source = null;
+
+        if (OSUtils.IS_LINUX)
+            source = new NetlinkChangeSource();
+
+        if (source != null
+                && source.start(
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                synchronized (NetworkConfigurationWatcher.this)
+                                {
+                                    changePending = true;
+                                    NetworkConfigurationWatcher.this
+                                        .notifyAll();
+                                }
+                            }
+                        }))
+        {
+            changeSource = source;
+            if (logger.isInfoEnabled())
+                logger.info("Network changes reported by " + source);
+        }
+    }
+
     /**
      * Remove <tt>NetworkConfigurationChangeListener</tt>.
      * @param listener the listener.
@@ -267,6 +324,12 @@ void stop()
             }
         }
 
+        if(changeSource != null)
+        {
+            changeSource.stop();
+            changeSource = null;
+        }
+
         if(eventDispatcher != null)
             eventDispatcher.stop();
     }
@@ -541,6 +604,7 @@ private void checkNetworkInterfaces(
     public void run()
     {
         long last = 0;
+        long lastCheck = 0;
         boolean isAfterStandby = false;
 
         while(isRunning)
@@ -565,6 +629,12 @@ public void run()
 
                 last = curr;
 
+                // check the interfaces again once they have come back
+                synchronized(this)
+                {
+                    changePending = true;
+                }
+
                 // give time to interfaces
                 synchronized(this)
                 {
@@ -577,29 +647,49 @@ public void run()
                 continue;
             }
 
-            try
+            NetworkChangeSource changeSource = this.changeSource;
+            boolean check;
+
+            synchronized(this)
+            {
+                // without a (working) source of notifications we have to poll
+                check
+                    = changePending
+                        || changeSource == null
+                        || !changeSource.isRunning()
+                        || (curr - lastCheck >= NOTIFIED_CHECK_INTERVAL);
+                changePending = false;
+            }
+
+            if(check)
             {
-                boolean networkIsUP = activeInterfaces.size() > 0;
+                try
+                {
+                    boolean networkIsUP = activeInterfaces.size() > 0;
 
-                checkNetworkInterfaces(true, 1000, false);
+                    checkNetworkInterfaces(true, 1000, false);
 
-                // fire that network has gone up
-                if(!networkIsUP && activeInterfaces.size() > 0)
+                    // fire that network has gone up
+                    if(!networkIsUP && activeInterfaces.size() > 0)
+                    {
+                        isAfterStandby = false;
+                    }
+
+                    lastCheck = System.currentTimeMillis();
+                } catch (SocketException e)
                 {
-                    isAfterStandby = false;
+                    logger.error("Error checking network interfaces", e);
                 }
-
-                // save the last time that we checked
-                last = System.currentTimeMillis();
-            } catch (SocketException e)
-            {
-                logger.error("Error checking network interfaces", e);
             }
 
+            // save the last time that we checked
+            last = System.currentTimeMillis();
+
             synchronized(this)
             {
                 try{
-                    wait(CHECK_INTERVAL);
+                    if(!changePending)
+                        wait(CHECK_INTERVAL);
                 }
                 catch (Exception e){}
             }
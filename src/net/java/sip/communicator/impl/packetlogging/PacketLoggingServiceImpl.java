@@ -18,9 +18,8 @@
 package net.java.sip.communicator.impl.packetlogging;
 
 import java.io.*;
-import java.util.*;
+import java.nio.channels.*;
 
-import com.google.common.collect.*;
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.fileaccess.*;
@@ -28,7 +27,9 @@
 
 /**
  * Packet Logging Service implementation dumping logs in
- * pcap(tcpdump/wireshark) format file.
+ * pcapng(tcpdump/wireshark) format file. Every protocol is logged on its own
+ * interface and packets which had to be dropped because the saver thread could
+ * not keep up are counted in the file.
  *
  * @author Damian Minkov
  */
@@ -42,17 +43,68 @@
             = Logger.getLogger(PacketLoggingServiceImpl.class);
 
     /**
-     * The max size of the <tt>EvictingQueue</tt> that the saver thread
-     * is using.
+     * The number of packets that the saver thread can have queued. Packets
+     * logged while the queue is full are dropped and counted.
      *
      * TODO this needs to be configurable eventually.
      */
-    private static final int EVICTING_QUEUE_MAX_SIZE = 1000;
+    private static final int QUEUE_SIZE = 1024;
 
     /**
-     * The OutputStream we are currently writing to.
+     * The initial size of the buffers holding the queued packet contents,
+     * enough for a typical RTP packet.
      */
-    private FileOutputStream outputStream = null;
+    private static final int INITIAL_PACKET_BUFFER_SIZE = 1500;
+
+    /**
+     * The maximum size of the fake ethernet, ip and transport headers.
+     */
+    private static final int MAX_FAKE_HEADER_LENGTH = 14 + 40 + 32;
+
+    /**
+     * The protocols in the order of the interfaces in the pcapng files.
+     */
+    private static final ProtocolName[] PROTOCOLS = ProtocolName.values();
+
+    /**
+     * The channel we are currently writing to. Only accessed by the saver
+     * thread.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * The writer of {@link #channel}. Only accessed by the saver thread.
+     */
+    private PcapngWriter writer = null;
+
+    /**
+     * The number of packets written per protocol to the current file.
+     */
+    private final long[] loggedPackets = new long[PROTOCOLS.length];
+
+    /**
+     * The number of packets dropped per protocol since the current file was
+     * opened.
+     */
+    private final long[] droppedPackets = new long[PROTOCOLS.length];
+
+    /**
+     * The fake headers of the packet being written. Only accessed by the saver
+     * thread.
+     */
+    private final byte[] fakeHeader = new byte[MAX_FAKE_HEADER_LENGTH];
+
+    /**
+     * The wall clock time in nanoseconds when this service was created.
+     * Together with {@link #startNanoTime} gives nanosecond resolution packet
+     * timestamps.
+     */
+    private final long startTime = System.currentTimeMillis() * 1000000L;
+
+    /**
+     * The value of <tt>System.nanoTime()</tt> at {@link #startTime}.
+     */
+    private final long startNanoTime = System.nanoTime();
 
     /**
      * The thread that queues packets and saves them to file.
@@ -146,13 +198,7 @@
             };
 
     /**
-     * Using this object to lock and protectd the two counters
-     * used for tcp seq and ack numbers.
-     */
-    private Object tcpCounterLock = new Object();
-
-    /**
-     * The seq that the sender will send.
+     * The seq that the sender will send. Only accessed by the saver thread.
      */
     private long srcCount = 1;
 
@@ -161,11 +207,6 @@
      */
     private long dstCount = 1;
 
-    /**
-     * A counter watching how much has been written to the file.
-     */
-    private long written = 0;
-
     /**
      * All the files we can use for writing.
      */
@@ -196,7 +237,7 @@ private void getFileNames()
                 = PacketLoggingActivator.getFileAccessService()
                     .getPrivatePersistentFile(
                         new File(PacketLoggingActivator.LOGGING_DIR_NAME,
-                            "jitsi" + i + ".pcap").toString(),
+                            "jitsi" + i + ".pcapng").toString(),
                         FileCategory.LOG);
         }
     }
@@ -209,11 +250,7 @@ private void getFileNames()
     private void rotateFiles()
         throws IOException
     {
-        if(outputStream != null)
-        {
-            outputStream.flush();
-            outputStream.close();
-        }
+        closeFile("Log file rotated");
 
         for (int i = getConfiguration().getLogfileCount() - 2; i >= 0; i--)
         {
@@ -228,80 +265,67 @@ private void rotateFiles()
             }
         }
 
-        outputStream = new FileOutputStream(files[0]);
-        written = 0;
-        createGlobalHeader();
+        channel = new FileOutputStream(files[0]).getChannel();
+
+        String[] interfaceNames = new String[PROTOCOLS.length];
+
+        for (int i = 0; i < PROTOCOLS.length; i++)
+            interfaceNames[i] = PROTOCOLS[i].toString();
+        writer = new PcapngWriter(channel, interfaceNames, "Jitsi");
     }
 
     /**
-     * Stops the packet logging.
+     * Writes the packet statistics to the current file (if any) and closes
+     * it.
+     *
+     * @param reason the reason for closing the file recorded along with the
+     * statistics
+     * @throws IOException
      */
-    public void stop()
+    private void closeFile(String reason)
+        throws IOException
     {
-        saverThread.stopRunning();
+        if (channel == null)
+            return;
 
-        if(outputStream != null)
+        try
         {
-            try
-            {
-                outputStream.flush();
-                outputStream.close();
-            }
-            catch(IOException e)
-            {
-                e.printStackTrace();
-            }
-            finally
+            writer.writeStatistics(
+                    getTimestamp(),
+                    loggedPackets, droppedPackets,
+                    reason);
+        }
+        finally
+        {
+            channel.close();
+            channel = null;
+            writer = null;
+
+            for (int i = 0; i < PROTOCOLS.length; i++)
             {
-                outputStream = null;
+                loggedPackets[i] = 0;
+                droppedPackets[i] = 0;
             }
         }
     }
 
     /**
-     * Creates pcap file global header.
-     * @throws IOException
+     * Stops the packet logging. The saver thread writes the packets which are
+     * still queued and closes the file.
      */
-    private void createGlobalHeader()
-            throws IOException
+    public void stop()
     {
-        /* magic number(swapped) */
-        outputStream.write(0xd4);
-        outputStream.write(0xc3);
-        outputStream.write(0xb2);
-        outputStream.write(0xa1);
-
-        /* major version number */
-        outputStream.write(0x02);
-        outputStream.write(0x00);
-
-        /* minor version number */
-        outputStream.write(0x04);
-        outputStream.write(0x00);
-
-        /* GMT to local correction */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* accuracy of timestamps */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* max length of captured packets, in octets */
-        outputStream.write(0xff);
-        outputStream.write(0xff);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* data link type(ethernet) */
-        outputStream.write(0x01);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        saverThread.stopRunning();
+    }
+
+    /**
+     * Returns the current time in nanoseconds since the epoch.
+     *
+     * @return the current time in nanoseconds since the epoch
+     */
+    private long getTimestamp()
+    {
+        return startTime + (System.nanoTime() - startNanoTime);
     }
 
     /**
@@ -404,16 +428,17 @@ public void logPacket(
             int packetLength)
     {
         saverThread.queuePacket(
-            new Packet(protocol,
-                       sourceAddress,
-                       sourcePort,
-                       destinationAddress,
-                       destinationPort,
-                       transport,
-                       sender,
-                       packetContent,
-                       packetOffset,
-                       packetLength));
+                getTimestamp(),
+                protocol,
+                sourceAddress,
+                sourcePort,
+                destinationAddress,
+                destinationPort,
+                transport,
+                sender,
+                packetContent,
+                packetOffset,
+                packetLength);
     }
 
     /**
@@ -430,10 +455,10 @@ public PacketLoggingConfiguration getConfiguration()
     }
 
     /**
-     * Dump the packet to the output file stream.
+     * Dump the packet to the current file.
      *
      * @param packet the packet ot save.
-     * @throws Exception when error occurs saving to file stream or when
+     * @throws Exception when error occurs saving to file or when
      *  rotating files.
      */
     private void savePacket(Packet packet)
@@ -445,180 +470,151 @@ private void savePacket(Packet packet)
         boolean isIPv4 = packet.sourceAddress.length == 4
                 || packet.destinationAddress.length == 4;
 
-        byte[] ipHeader;
+        byte[] etherType = isIPv4 ? ipv4EtherType : ipv6EtherType;
+        byte[] ipHeaderTemplate
+            = isIPv4 ? PacketLoggingServiceImpl.ipHeaderTemplate
+                : ip6HeaderTemplate;
+        int ipOffset = fakeEthernetHeader.length + etherType.length;
+
+        System.arraycopy(
+                fakeEthernetHeader, 0,
+                fakeHeader, 0,
+                fakeEthernetHeader.length);
+        System.arraycopy(
+                etherType, 0,
+                fakeHeader, fakeEthernetHeader.length,
+                etherType.length);
+        System.arraycopy(
+                ipHeaderTemplate, 0,
+                fakeHeader, ipOffset,
+                ipHeaderTemplate.length);
 
         if(isIPv4)
         {
-            ipHeader = new byte[ipHeaderTemplate.length];
-            System.arraycopy(
-                    ipHeaderTemplate, 0, ipHeader, 0, ipHeader.length);
             System.arraycopy(packet.sourceAddress,
                     0,
-                    ipHeader,
-                    12,
+                    fakeHeader,
+                    ipOffset + 12,
                     4);
             System.arraycopy(packet.destinationAddress,
                     0,
-                    ipHeader,
-                    16,
+                    fakeHeader,
+                    ipOffset + 16,
                     4);
         }
         else
         {
-            ipHeader = new byte[ip6HeaderTemplate.length];
-            System.arraycopy(
-                    ip6HeaderTemplate, 0, ipHeader, 0, ipHeader.length);
             System.arraycopy(packet.sourceAddress,
                     0,
-                    ipHeader,
-                    8,
+                    fakeHeader,
+                    ipOffset + 8,
                     16);
 
             System.arraycopy(packet.destinationAddress,
                     0,
-                    ipHeader,
-                    24,
+                    fakeHeader,
+                    ipOffset + 24,
                     16);
         }
 
-        byte[] transportHeader;
+        int transportOffset = ipOffset + ipHeaderTemplate.length;
+        int transportHeaderLength;
         short len;
         if(packet.transport == TransportName.UDP)
         {
-            byte[] udpHeader = new byte[udpHeaderTemplate.length];
-            transportHeader = udpHeader;
+            transportHeaderLength = udpHeaderTemplate.length;
             System.arraycopy(udpHeaderTemplate, 0,
-                    udpHeader, 0, udpHeader.length);
+                    fakeHeader, transportOffset, transportHeaderLength);
 
-            writeShort(packet.sourcePort, udpHeader, 0);
-            writeShort(packet.destinationPort, udpHeader, 2);
-            len = (short)(packet.packetLength + udpHeader.length);
-            writeShort(len, udpHeader, 4);
+            writeShort(packet.sourcePort, fakeHeader, transportOffset);
+            writeShort(packet.destinationPort, fakeHeader, transportOffset + 2);
+            len = (short)(packet.packetLength + transportHeaderLength);
+            writeShort(len, fakeHeader, transportOffset + 4);
         }
         else
         {
-            transportHeader = new byte[tcpHeaderTemplate.length];
-            System.arraycopy(tcpHeaderTemplate, 0, transportHeader,
-                   0, transportHeader.length);
+            transportHeaderLength = tcpHeaderTemplate.length;
+            System.arraycopy(tcpHeaderTemplate, 0,
+                    fakeHeader, transportOffset, transportHeaderLength);
+
+            writeShort(packet.sourcePort, fakeHeader, transportOffset);
+            writeShort(packet.destinationPort, fakeHeader, transportOffset + 2);
 
-            writeShort(packet.sourcePort, transportHeader, 0);
-            writeShort(packet.destinationPort, transportHeader, 2);
+            len = (short)(packet.packetLength + transportHeaderLength);
 
-            len = (short)(packet.packetLength + transportHeader.length);
+            long seqnum;
+            long acknum;
 
             if(packet.sender)
             {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
-                {
-                    seqnum = srcCount;
-                    srcCount += packet.packetLength;
-                    acknum = dstCount;
-                }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
+                seqnum = srcCount;
+                srcCount += packet.packetLength;
+                acknum = dstCount;
             }
             else
             {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
-                {
-                    seqnum = dstCount;
-                    dstCount += packet.packetLength;
-                    acknum = srcCount;
-                }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
+                seqnum = dstCount;
+                dstCount += packet.packetLength;
+                acknum = srcCount;
             }
+
+            intToBytes((int)(seqnum & 0xffffffff),
+                   fakeHeader, transportOffset + 4);
+            intToBytes((int)(acknum & 0xffffffff),
+                   fakeHeader, transportOffset + 8);
         }
 
         // now set ip header total length
         if(isIPv4)
         {
-            short ipTotalLen = (short)(len + ipHeader.length);
-            writeShort(ipTotalLen, ipHeader, 2);
+            short ipTotalLen = (short)(len + ipHeaderTemplate.length);
+            writeShort(ipTotalLen, fakeHeader, ipOffset + 2);
 
             if(packet.transport == TransportName.UDP)
-                ipHeader[9] = (byte)0x11;
+                fakeHeader[ipOffset + 9] = (byte)0x11;
             else
-                ipHeader[9] = (byte)0x06;
+                fakeHeader[ipOffset + 9] = (byte)0x06;
 
-           int chk2 = computeChecksum(ipHeader);
-           ipHeader[10] = (byte) (chk2 >> 8);
-           ipHeader[11] = (byte) (chk2 & 0xff);
+           int chk2
+               = computeChecksum(fakeHeader, ipOffset, ipHeaderTemplate.length);
+           fakeHeader[ipOffset + 10] = (byte) (chk2 >> 8);
+           fakeHeader[ipOffset + 11] = (byte) (chk2 & 0xff);
         }
         else
         {
-            writeShort(len, ipHeader, 4);
+            writeShort(len, fakeHeader, ipOffset + 4);
 
             if(packet.transport == TransportName.UDP)
-                ipHeader[6] = (byte)0x11;
+                fakeHeader[ipOffset + 6] = (byte)0x11;
             else
-                ipHeader[6] = (byte)0x06;
+                fakeHeader[ipOffset + 6] = (byte)0x06;
         }
 
-        long current = System.currentTimeMillis();
-        int tsSec = (int)(current/1000);
-        int tsUsec = (int)((current%1000) * 1000);
-        int feakHeaderLen = fakeEthernetHeader.length +
-                (isIPv4 ? ipv4EtherType : ipv6EtherType).length +
-                ipHeader.length + transportHeader.length;
-        int inclLen = packet.packetLength + feakHeaderLen;
-        int origLen = inclLen;
-
-        synchronized(this)
+        // open files only if needed
+        if(writer == null)
+        {
+            getFileNames();
+            rotateFiles();// this one opens the file for write
+        }
+        else
         {
-            // open files only if needed
-            if(outputStream == null)
-            {
-                getFileNames();
-                rotateFiles();// this one opens the file for write
-            }
-
             long limit = getConfiguration().getLimit();
 
-            if((limit > 0) && (written > limit))
+            if((limit > 0) && (writer.getWritten() > limit))
                 rotateFiles();
-
-            addInt(tsSec);
-            addInt(tsUsec);
-            addInt(inclLen);
-            addInt(origLen);
-
-            outputStream.write(fakeEthernetHeader);
-            outputStream.write(isIPv4 ? ipv4EtherType : ipv6EtherType);
-            outputStream.write(ipHeader);
-            outputStream.write(transportHeader);
-            outputStream.write(
-                    packet.packetContent,
-                    packet.packetOffset,
-                    packet.packetLength);
-            outputStream.flush();
-
-            written += inclLen + 16;
         }
-    }
 
-    /**
-     * Writes int to the file. Used for packet headers.
-     * @param d the value to write.
-     * @throws IOException
-     */
-    private void addInt(int d)
-        throws IOException
-    {
-        outputStream.write ((d & 0xff));
-        outputStream.write(((d & 0xff00) >> 8));
-        outputStream.write(((d & 0xff0000) >> 16));
-        outputStream.write(((d & 0xff000000) >> 24));
+        int protocol = packet.protocol.ordinal();
+
+        writer.addPacket(
+                protocol,
+                packet.timestamp,
+                packet.sender,
+                fakeHeader, transportOffset + transportHeaderLength,
+                packet.packetContent, 0, packet.packetLength,
+                packet.dropCount);
+        loggedPackets[protocol]++;
+        droppedPackets[protocol] += packet.dropCount;
     }
 
     /**
@@ -653,18 +649,19 @@ private static void writeShort(int value, byte[] data, int offset)
     /**
      * Calculates checksums assuming the checksum is a 16-bit header field.
      */
-    private int computeChecksum(byte[] data)
+    private int computeChecksum(byte[] data, int offset, int length)
     {
         int total = 0;
-        int i = 0;
+        int i = offset;
+        int end = offset + length;
 
         // Don't Skip existing checksum cause its set to 0000
-        int imax = data.length - (data.length % 2);
+        int imax = end - (length % 2);
 
         while(i < imax)
             total+=(((data[i++] & 0xff) << 8) | (data[i++] & 0xff));
 
-        if(i < data.length)
+        if(i < end)
             total+=((data[i] & 0xff) << 8);
 
         // Fold to 16 bits
@@ -677,10 +674,16 @@ private int computeChecksum(byte[] data)
     }
 
     /**
-     * The data we receive and that we will dump in a file.
+     * The data we receive and that we will dump in a file. Instances are
+     * slots of the queue of the saver thread and are reused.
      */
     private static class Packet
     {
+        /**
+         * The time the packet was logged at in nanoseconds since the epoch.
+         */
+        long timestamp;
+
         /**
          * The protocol logging this packet.
          */
@@ -717,22 +720,26 @@ private int computeChecksum(byte[] data)
         boolean sender;
 
         /**
-         * Array containing packet content.
+         * Array containing a copy of the packet content, starting at 0.
+         * Allocated on first use and grown as needed.
          */
         byte[] packetContent;
 
         /**
-         * The offset in the packetContent where packet content is.
+         * The length of the packet content.
          */
-        int packetOffset;
+        int packetLength;
 
         /**
-         * The length of the packet content.
+         * The number of packets of the same protocol dropped since the
+         * previous one was queued.
          */
-        int packetLength;
+        long dropCount;
 
         /**
-         * Creates a packet with the needed data.
+         * Sets the data of the packet to save in this slot.
+         * @param timestamp the time the packet was logged at in nanoseconds
+         *  since the epoch.
          * @param protocol the source protocol that logs this packet.
          * @param sourceAddress The source address of the packet.
          * @param sourcePort The source port of the packet.
@@ -746,17 +753,19 @@ private int computeChecksum(byte[] data)
          *  where packet content is.
          * @param packetLength The length of the packet content.
          */
-        private Packet(ProtocolName protocol,
-                       byte[] sourceAddress,
-                       int sourcePort,
-                       byte[] destinationAddress,
-                       int destinationPort,
-                       TransportName transport,
-                       boolean sender,
-                       byte[] packetContent,
-                       int packetOffset,
-                       int packetLength)
+        void set(long timestamp,
+                 ProtocolName protocol,
+                 byte[] sourceAddress,
+                 int sourcePort,
+                 byte[] destinationAddress,
+                 int destinationPort,
+                 TransportName transport,
+                 boolean sender,
+                 byte[] packetContent,
+                 int packetOffset,
+                 int packetLength)
         {
+            this.timestamp = timestamp;
             this.protocol = protocol;
             this.sourceAddress
                 = sourceAddress != null ? sourceAddress : new byte[4];
@@ -766,8 +775,19 @@ private Packet(ProtocolName protocol,
             this.destinationPort = destinationPort;
             this.transport = transport;
             this.sender = sender;
-            this.packetContent = packetContent;
-            this.packetOffset = packetOffset;
+
+            // The caller is free to reuse its buffer once we return.
+            if ((this.packetContent == null)
+                    || (this.packetContent.length < packetLength))
+            {
+                this.packetContent
+                    = new byte[
+                            Math.max(packetLength, INITIAL_PACKET_BUFFER_SIZE)];
+            }
+            System.arraycopy(
+                    packetContent, packetOffset,
+                    this.packetContent, 0,
+                    packetLength);
             this.packetLength = packetLength;
         }
     }
@@ -785,10 +805,27 @@ private Packet(ProtocolName protocol,
         private boolean stopped = true;
 
         /**
-         * List of packets queued to be written in the file.
+         * The ring of packets queued to be written in the file.
+         */
+        private final Packet[] queue = new Packet[QUEUE_SIZE];
+
+        /**
+         * The index in {@link #queue} of the oldest queued packet.
          */
-        private final EvictingQueue<Packet> pktsToSave
-            = EvictingQueue.create(EVICTING_QUEUE_MAX_SIZE);
+        private int head = 0;
+
+        /**
+         * The number of queued packets. The slots of the queued packets are
+         * owned by this thread until it has written them and decreases the
+         * count.
+         */
+        private int count = 0;
+
+        /**
+         * The number of packets per protocol which have been dropped because
+         * the queue was full since the last queued packet of the protocol.
+         */
+        private final long[] pendingDrops = new long[PROTOCOLS.length];
 
         /**
          * Initializes a new <tt>SaverThread</tt>.
@@ -796,60 +833,141 @@ private Packet(ProtocolName protocol,
         SaverThread()
         {
             setName(PacketLoggingServiceImpl.class.getName() + " SaverThread");
+
+            for (int i = 0; i < queue.length; i++)
+                queue[i] = new Packet();
         }
 
         /**
-         * Sends instant messages in separate thread so we don't block
-         * our calling thread.
+         * Saves the queued packets in batches in separate thread so we don't
+         * block our calling thread.
          */
         @Override
         public void run()
         {
-            stopped = false;
-            while(!stopped)
+            synchronized(this)
             {
-                Packet pktToSave;
+                stopped = false;
+            }
 
-                synchronized(this)
+            try
+            {
+                while(true)
                 {
-                    if(pktsToSave.isEmpty())
+                    int first;
+                    int n;
+                    boolean last;
+
+                    synchronized(this)
                     {
-                        try
+                        while(!stopped && (count == 0))
                         {
-                            wait();
+                            try
+                            {
+                                wait();
+                            }
+                            catch (InterruptedException iex)
+                            {
+                            }
                         }
-                        catch (InterruptedException iex)
+
+                        first = head;
+                        n = count;
+                        last = stopped;
+                    }
+
+                    if(n > 0)
+                    {
+                        savePackets(first, n);
+
+                        synchronized(this)
                         {
+                            head = (head + n) % queue.length;
+                            count -= n;
                         }
-                        continue;
                     }
 
-                    pktToSave = pktsToSave.poll();
+                    if(last)
+                        break;
                 }
-
-                if(pktToSave != null)
+            }
+            finally
+            {
+                // Record the packets dropped after the last queued ones.
+                synchronized(this)
                 {
-                    try
+                    for (int i = 0; i < pendingDrops.length; i++)
                     {
-                        savePacket(pktToSave);
-                    }
-                    catch(Throwable t)
-                    {
-                        /*
-                         * XXX ThreadDeath must be rethrown; otherwise, the
-                         * related Thread will not die.
-                         */
-                        if (t instanceof ThreadDeath)
-                            throw (ThreadDeath) t;
-                        else
-                            logger.error("Error writing packet to file", t);
+                        droppedPackets[i] += pendingDrops[i];
+                        pendingDrops[i] = 0;
                     }
                 }
+
+                try
+                {
+                    closeFile("Packet logging stopped");
+                }
+                catch(IOException e)
+                {
+                    logger.error("Error closing packet log file", e);
+                }
             }
         }
 
         /**
-         * Interrupts this sender so that it would no longer send messages.
+         * Writes a batch of queued packets to the file.
+         *
+         * @param first the index in {@link #queue} of the first packet
+         * @param n the number of packets
+         */
+        private void savePackets(int first, int n)
+        {
+            long dropped = 0;
+
+            for(int i = 0; i < n; i++)
+            {
+                Packet pktToSave = queue[(first + i) % queue.length];
+
+                dropped += pktToSave.dropCount;
+                try
+                {
+                    savePacket(pktToSave);
+                }
+                catch(Throwable t)
+                {
+                    /*
+                     * XXX ThreadDeath must be rethrown; otherwise, the
+                     * related Thread will not die.
+                     */
+                    if (t instanceof ThreadDeath)
+                        throw (ThreadDeath) t;
+                    else
+                        logger.error("Error writing packet to file", t);
+                }
+            }
+
+            // The contents of the packets are referenced until flushed.
+            try
+            {
+                if(writer != null)
+                    writer.flush();
+            }
+            catch(IOException e)
+            {
+                logger.error("Error writing packets to file", e);
+            }
+
+            if(dropped > 0)
+            {
+                logger.warn(
+                        "Queue was full, " + dropped
+                            + " packets have been dropped.");
+            }
+        }
+
+        /**
+         * Interrupts this saver so that it writes the packets queued so far
+         * and stops.
          */
         public synchronized void stopRunning()
         {
@@ -858,17 +976,61 @@ public synchronized void stopRunning()
         }
 
         /**
-         * Schedule new packet for save.
-         * @param packet new packet to save.
+         * Schedule new packet for save. The packet is dropped and counted if
+         * the queue is full.
+         * @param timestamp the time the packet was logged at in nanoseconds
+         *  since the epoch.
+         * @param protocol the source protocol that logs this packet.
+         * @param sourceAddress The source address of the packet.
+         * @param sourcePort The source port of the packet.
+         * @param destinationAddress The destination address of the packet.
+         * @param destinationPort The destination port of the packet.
+         * @param transport the transport this packet uses.
+         * @param sender Are we sending the packet,
+         *  or false if we are receiving.
+         * @param packetContent Array containing packet content.
+         * @param packetOffset The offset in the packetContent
+         *  where packet content is.
+         * @param packetLength The length of the packet content.
          */
-        public synchronized void queuePacket(Packet packet)
+        public synchronized void queuePacket(
+                long timestamp,
+                ProtocolName protocol,
+                byte[] sourceAddress,
+                int sourcePort,
+                byte[] destinationAddress,
+                int destinationPort,
+                TransportName transport,
+                boolean sender,
+                byte[] packetContent,
+                int packetOffset,
+                int packetLength)
         {
-            if (EVICTING_QUEUE_MAX_SIZE - pktsToSave.size() == 0)
+            int p = protocol.ordinal();
+
+            if (count == queue.length)
             {
-                logger.warn("Queue is full, packets are being evicted.");
+                pendingDrops[p]++;
+                return;
             }
 
-            pktsToSave.add(packet);
+            Packet packet = queue[(head + count) % queue.length];
+
+            packet.set(timestamp,
+                       protocol,
+                       sourceAddress,
+                       sourcePort,
+                       destinationAddress,
+                       destinationPort,
+                       transport,
+                       sender,
+                       packetContent,
+                       packetOffset,
+                       packetLength);
+            packet.dropCount = pendingDrops[p];
+            pendingDrops[p] = 0;
+
+            count++;
             notifyAll();
         }
     }
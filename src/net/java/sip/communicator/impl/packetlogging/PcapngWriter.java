@@ -0,0 +1,439 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Writes packets to a <tt>FileChannel</tt> in the pcapng format. Every logging
+ * protocol gets its own (ethernet) interface so that the packets can be told
+ * apart in wireshark. Timestamps have nanosecond resolution.
+ * <p>
+ * Packets are batched: {@link #addPacket} only copies the block headers into
+ * a preallocated buffer and references the packet content, which must remain
+ * unchanged until the next {@link #flush()} that writes everything with a
+ * single gathering write.
+ * <p>
+ * Instances are not thread-safe.
+ */
+class PcapngWriter
+{
+    /**
+     * The type of the section header block.
+     */
+    private static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+
+    /**
+     * The type of the interface description block.
+     */
+    private static final int INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+
+    /**
+     * The type of the interface statistics block.
+     */
+    private static final int INTERFACE_STATISTICS_BLOCK = 0x00000005;
+
+    /**
+     * The type of the enhanced packet block.
+     */
+    private static final int ENHANCED_PACKET_BLOCK = 0x00000006;
+
+    /**
+     * The byte-order magic of the section header block.
+     */
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    /**
+     * The ethernet link type.
+     */
+    private static final short LINKTYPE_ETHERNET = 1;
+
+    /**
+     * The maximum number of bytes captured of each packet.
+     */
+    private static final int SNAPLEN = 0xFFFF;
+
+    /**
+     * The option codes we use.
+     */
+    private static final short OPT_ENDOFOPT = 0;
+    private static final short OPT_COMMENT = 1;
+    private static final short SHB_USERAPPL = 4;
+    private static final short IF_NAME = 2;
+    private static final short IF_DESCRIPTION = 3;
+    private static final short IF_TSRESOL = 9;
+    private static final short EPB_FLAGS = 2;
+    private static final short EPB_DROPCOUNT = 4;
+    private static final short ISB_IFRECV = 4;
+    private static final short ISB_IFDROP = 5;
+
+    /**
+     * The <tt>epb_flags</tt> values for the packet direction.
+     */
+    private static final int EPB_FLAGS_INBOUND = 1;
+    private static final int EPB_FLAGS_OUTBOUND = 2;
+
+    /**
+     * The fixed size of an enhanced packet block without the packet data and
+     * its padding, including the flags option and the end of options.
+     */
+    private static final int EPB_FIXED_LENGTH = 28 + 8 + 4 + 4;
+
+    /**
+     * The size of the <tt>epb_dropcount</tt> option.
+     */
+    private static final int EPB_DROPCOUNT_LENGTH = 12;
+
+    /**
+     * The maximum number of packets in a batch.
+     */
+    private static final int MAX_BATCH_PACKETS = 512;
+
+    /**
+     * The size of the buffer holding the block headers of a batch.
+     */
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    /**
+     * Four zero bytes used to pad packet data.
+     */
+    private static final byte[] PADDING = new byte[4];
+
+    /**
+     * The channel we write to.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The block headers (and trailers) of the current batch.
+     */
+    private final ByteBuffer buffer
+        = ByteBuffer.allocateDirect(BUFFER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The buffers to be written with the next gathering write: slices of
+     * {@link #buffer} interleaved with the packet contents.
+     */
+    private final List<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+
+    /**
+     * The position in {@link #buffer} up to which it has already been added
+     * to {@link #batch}.
+     */
+    private int sliceStart = 0;
+
+    /**
+     * The number of packets in the current batch.
+     */
+    private int batchPackets = 0;
+
+    /**
+     * The number of bytes written to the channel.
+     */
+    private long written = 0;
+
+    /**
+     * The number of bytes of packet content in the current batch.
+     */
+    private long batchDataLength = 0;
+
+    /**
+     * Initializes a new <tt>PcapngWriter</tt> and writes the section header
+     * and one interface description per interface.
+     *
+     * @param channel the channel to write to
+     * @param interfaceNames the names of the interfaces which packets will be
+     * logged on
+     * @param application the name of the application writing the file
+     * @throws IOException if writing fails
+     */
+    PcapngWriter(
+            FileChannel channel,
+            String[] interfaceNames,
+            String application)
+        throws IOException
+    {
+        this.channel = channel;
+
+        byte[] userAppl = application.getBytes(StandardCharsets.UTF_8);
+        int start = beginBlock(SECTION_HEADER_BLOCK);
+
+        buffer.putInt(BYTE_ORDER_MAGIC);
+        buffer.putShort((short) 1); // major version
+        buffer.putShort((short) 0); // minor version
+        buffer.putLong(-1); // section length not specified
+        putOption(SHB_USERAPPL, userAppl);
+        endBlock(start);
+
+        for (String interfaceName : interfaceNames)
+        {
+            start = beginBlock(INTERFACE_DESCRIPTION_BLOCK);
+            buffer.putShort(LINKTYPE_ETHERNET);
+            buffer.putShort((short) 0); // reserved
+            buffer.putInt(SNAPLEN);
+            putOption(
+                    IF_NAME,
+                    interfaceName.getBytes(StandardCharsets.UTF_8));
+            putOption(
+                    IF_DESCRIPTION,
+                    ("Packets logged by " + interfaceName)
+                        .getBytes(StandardCharsets.UTF_8));
+            // nanosecond resolution (10^-9)
+            putOption(IF_TSRESOL, new byte[] { 9 });
+            endBlock(start);
+        }
+
+        flush();
+    }
+
+    /**
+     * Adds a packet to the current batch, flushing the batch first if it is
+     * full.
+     *
+     * @param interfaceId the index of the interface (in the
+     * <tt>interfaceNames</tt> given to the constructor) of the packet
+     * @param timestamp the time of the packet in nanoseconds since the epoch
+     * @param outbound <tt>true</tt> if we sent the packet; <tt>false</tt> if
+     * we received it
+     * @param header the (fake) link, network and transport headers
+     * @param headerLength the number of bytes in <tt>header</tt>
+     * @param data the packet content; must not change until the next
+     * {@link #flush()}
+     * @param offset the offset of the content in <tt>data</tt>
+     * @param length the length of the content
+     * @param dropCount the number of packets of this interface which have
+     * been dropped since the previous one
+     * @throws IOException if flushing the batch fails
+     */
+    void addPacket(
+            int interfaceId,
+            long timestamp,
+            boolean outbound,
+            byte[] header,
+            int headerLength,
+            byte[] data,
+            int offset,
+            int length,
+            long dropCount)
+        throws IOException
+    {
+        int capturedLength = headerLength + length;
+        int paddedLength = (capturedLength + 3) & ~3;
+        int blockLength
+            = EPB_FIXED_LENGTH
+                + paddedLength
+                + ((dropCount > 0) ? EPB_DROPCOUNT_LENGTH : 0);
+
+        if (batchPackets >= MAX_BATCH_PACKETS
+                || buffer.remaining() < blockLength - length)
+        {
+            flush();
+        }
+
+        buffer.putInt(ENHANCED_PACKET_BLOCK);
+        buffer.putInt(blockLength);
+        buffer.putInt(interfaceId);
+        buffer.putInt((int) (timestamp >>> 32));
+        buffer.putInt((int) timestamp);
+        buffer.putInt(capturedLength);
+        buffer.putInt(capturedLength);
+        buffer.put(header, 0, headerLength);
+        addSlice();
+        batch.add(ByteBuffer.wrap(data, offset, length));
+        batchDataLength += length;
+
+        buffer.put(PADDING, 0, paddedLength - capturedLength);
+        buffer.putShort(EPB_FLAGS);
+        buffer.putShort((short) 4);
+        buffer.putInt(outbound ? EPB_FLAGS_OUTBOUND : EPB_FLAGS_INBOUND);
+        if (dropCount > 0)
+        {
+            buffer.putShort(EPB_DROPCOUNT);
+            buffer.putShort((short) 8);
+            buffer.putLong(dropCount);
+        }
+        buffer.putShort(OPT_ENDOFOPT);
+        buffer.putShort((short) 0);
+        buffer.putInt(blockLength);
+
+        batchPackets++;
+    }
+
+    /**
+     * Writes an interface statistics block for every interface.
+     *
+     * @param timestamp the time of the statistics in nanoseconds since the
+     * epoch
+     * @param received the number of packets logged per interface
+     * @param dropped the number of packets dropped per interface
+     * @param comment a comment to attach to the statistics or <tt>null</tt>
+     * @throws IOException if writing fails
+     */
+    void writeStatistics(
+            long timestamp,
+            long[] received,
+            long[] dropped,
+            String comment)
+        throws IOException
+    {
+        flush();
+
+        for (int i = 0; i < received.length; i++)
+        {
+            int start = beginBlock(INTERFACE_STATISTICS_BLOCK);
+
+            buffer.putInt(i);
+            buffer.putInt((int) (timestamp >>> 32));
+            buffer.putInt((int) timestamp);
+            if (comment != null)
+                putOption(OPT_COMMENT, comment.getBytes(StandardCharsets.UTF_8));
+            putOption(ISB_IFRECV, longToBytes(received[i]));
+            putOption(ISB_IFDROP, longToBytes(dropped[i]));
+            endBlock(start);
+        }
+
+        flush();
+    }
+
+    /**
+     * Writes the current batch to the channel.
+     *
+     * @throws IOException if writing fails
+     */
+    void flush()
+        throws IOException
+    {
+        addSlice();
+
+        if (!batch.isEmpty())
+        {
+            ByteBuffer[] buffers = batch.toArray(new ByteBuffer[batch.size()]);
+            int first = 0;
+
+            while (first < buffers.length)
+            {
+                written += channel.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining())
+                    first++;
+            }
+            batch.clear();
+        }
+
+        buffer.clear();
+        sliceStart = 0;
+        batchPackets = 0;
+        batchDataLength = 0;
+    }
+
+    /**
+     * Returns the number of bytes written to the channel including the ones
+     * of the current batch.
+     *
+     * @return the number of bytes written to the channel
+     */
+    long getWritten()
+    {
+        return written + buffer.position() + batchDataLength;
+    }
+
+    /**
+     * Adds the part of {@link #buffer} which has been filled since the last
+     * slice to {@link #batch}.
+     */
+    private void addSlice()
+    {
+        int position = buffer.position();
+
+        if (position > sliceStart)
+        {
+            ByteBuffer slice = buffer.duplicate();
+
+            slice.position(sliceStart);
+            slice.limit(position);
+            batch.add(slice);
+            sliceStart = position;
+        }
+    }
+
+    /**
+     * Starts a block in {@link #buffer}. The block length is filled in by
+     * {@link #endBlock(int)}.
+     *
+     * @param type the block type
+     * @return the position of the block in {@link #buffer}
+     */
+    private int beginBlock(int type)
+    {
+        int start = buffer.position();
+
+        buffer.putInt(type);
+        buffer.putInt(0);
+        return start;
+    }
+
+    /**
+     * Ends the block started at a specific position in {@link #buffer} with
+     * the end of options and the block length.
+     *
+     * @param start the position of the block in {@link #buffer}
+     */
+    private void endBlock(int start)
+    {
+        buffer.putShort(OPT_ENDOFOPT);
+        buffer.putShort((short) 0);
+
+        int length = buffer.position() - start + 4;
+
+        buffer.putInt(length);
+        buffer.putInt(start + 4, length);
+    }
+
+    /**
+     * Puts an option padded to 32 bits in {@link #buffer}.
+     *
+     * @param code the option code
+     * @param value the option value
+     */
+    private void putOption(short code, byte[] value)
+    {
+        buffer.putShort(code);
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+        buffer.put(PADDING, 0, ((value.length + 3) & ~3) - value.length);
+    }
+
+    /**
+     * Returns the little-endian bytes of a <tt>long</tt>.
+     *
+     * @param value the value
+     * @return the little-endian bytes of <tt>value</tt>
+     */
+    private static byte[] longToBytes(long value)
+    {
+        return
+            ByteBuffer.allocate(8)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(value)
+                .array();
+    }
+}
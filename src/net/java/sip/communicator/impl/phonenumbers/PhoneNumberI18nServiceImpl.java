@@ -24,6 +24,7 @@
 import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.service.configuration.*;
 
+import java.util.*;
 import java.util.regex.*;
 
 /**
@@ -104,6 +105,25 @@
     private static final Pattern charactersFordialPadNumber9
         = Pattern.compile("[wxyz]", Pattern.CASE_INSENSITIVE);
 
+    /**
+     * The maximum number of phone numbers whose keys and of pairs of phone
+     * numbers whose match results are cached.
+     */
+    private static final int MAX_CACHED_ENTRIES = 4096;
+
+    /**
+     * The keys of the most recently used phone numbers. Accessed while
+     * holding its lock.
+     */
+    private final Map<String, NumberKey> numberKeys = createLruMap();
+
+    /**
+     * The results of {@link #phoneNumbersMatch(String, String)} for the most
+     * recently matched pairs of phone numbers which could not be decided by
+     * their keys. Accessed while holding its lock.
+     */
+    private final Map<String, Boolean> numberMatches = createLruMap();
+
     /**
      * Normalizes a <tt>String</tt> which may be a phone number or a identifier
      * by removing useless characters and, if necessary, replacing the alpahe
@@ -178,11 +198,149 @@ private static String normalizeIdentifier(String id)
      */
     public boolean phoneNumbersMatch(String aPhoneNumber, String bPhoneNumber)
     {
-        PhoneNumberUtil.MatchType match = PhoneNumberUtil.getInstance()
-            .isNumberMatch(aPhoneNumber, bPhoneNumber);
+        NumberKey aKey = getNumberKey(aPhoneNumber);
+        NumberKey bKey = getNumberKey(bPhoneNumber);
+
+        // When both numbers are possible numbers of the default region, equal
+        // keys mean the same number and national numbers which are not the
+        // shorter version of one another cannot match, so libphonenumber
+        // only needs to be asked about the remaining pairs.
+        if (aKey != null
+                && bKey != null
+                && aKey.nationalNumber != null
+                && bKey.nationalNumber != null)
+        {
+            if (aKey.key.equals(bKey.key))
+                return true;
+            if (!aKey.nationalNumber.endsWith(bKey.nationalNumber)
+                    && !bKey.nationalNumber.endsWith(aKey.nationalNumber))
+                return false;
+        }
+
+        String pair = aPhoneNumber + '\n' + bPhoneNumber;
+        Boolean matches;
+
+        synchronized (numberMatches)
+        {
+            matches = numberMatches.get(pair);
+        }
+        if (matches == null)
+        {
+            PhoneNumberUtil.MatchType match = PhoneNumberUtil.getInstance()
+                .isNumberMatch(aPhoneNumber, bPhoneNumber);
+
+            matches
+                = match != PhoneNumberUtil.MatchType.NOT_A_NUMBER
+                    && match != PhoneNumberUtil.MatchType.NO_MATCH;
+            synchronized (numberMatches)
+            {
+                numberMatches.put(pair, matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns a key which can be used to index the specified phone number and
+     * to look it up. Phone numbers written in different ways, for example in
+     * the national and in the international format of the default region,
+     * have the same key.
+     *
+     * @param phoneNumber a <tt>String</tt> which represents a phone number
+     * @return the E.164 form of <tt>phoneNumber</tt> if it can be parsed as a
+     * phone number of the default region, its normalized form if it cannot,
+     * or <tt>null</tt> if <tt>phoneNumber</tt> is not a phone number
+     */
+    public String getPhoneNumberKey(String phoneNumber)
+    {
+        NumberKey key = getNumberKey(phoneNumber);
 
-        return match != PhoneNumberUtil.MatchType.NOT_A_NUMBER
-            && match != PhoneNumberUtil.MatchType.NO_MATCH;
+        return (key == null) ? null : key.key;
+    }
+
+    /**
+     * Gets the cached <tt>NumberKey</tt> of a phone number or computes and
+     * caches it.
+     *
+     * @param phoneNumber the phone number to get the key of
+     * @return the <tt>NumberKey</tt> of <tt>phoneNumber</tt> or <tt>null</tt>
+     * if it is not a phone number
+     */
+    private NumberKey getNumberKey(String phoneNumber)
+    {
+        if ((phoneNumber == null) || !isPhoneNumber(phoneNumber))
+            return null;
+
+        NumberKey key;
+
+        synchronized (numberKeys)
+        {
+            key = numberKeys.get(phoneNumber);
+        }
+        if (key == null)
+        {
+            key = createNumberKey(phoneNumber);
+            synchronized (numberKeys)
+            {
+                numberKeys.put(phoneNumber, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Parses a phone number in the default region and creates its
+     * <tt>NumberKey</tt>.
+     *
+     * @param phoneNumber the phone number to create the key of
+     * @return the <tt>NumberKey</tt> of <tt>phoneNumber</tt>
+     */
+    private static NumberKey createNumberKey(String phoneNumber)
+    {
+        PhoneNumberUtil util = PhoneNumberUtil.getInstance();
+
+        try
+        {
+            PhoneNumber pn
+                = util.parse(phoneNumber, System.getProperty("user.country"));
+
+            if (util.isPossibleNumber(pn))
+            {
+                String key = util.format(pn, PhoneNumberFormat.E164);
+
+                if (pn.hasExtension())
+                    key += ";ext=" + pn.getExtension();
+                return
+                    new NumberKey(key, util.getNationalSignificantNumber(pn));
+            }
+        }
+        catch (NumberParseException e)
+        {
+        }
+
+        return new NumberKey(normalizePhoneNumber(phoneNumber), null);
+    }
+
+    /**
+     * Creates a synchronization-less, access-ordered <tt>Map</tt> which
+     * evicts its eldest entry once it grows beyond
+     * {@link #MAX_CACHED_ENTRIES}.
+     *
+     * @return a new LRU <tt>Map</tt>
+     */
+    private static <K, V> Map<K, V> createLruMap()
+    {
+        return
+            new LinkedHashMap<K, V>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 0L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+                {
+                    return size() > MAX_CACHED_ENTRIES;
+                }
+            };
     }
 
     /**
@@ -279,4 +437,36 @@ private static String convertAlphaCharactersInNumber(String phoneNumber)
             = charactersFordialPadNumber8.matcher(phoneNumber).replaceAll("8");
         return charactersFordialPadNumber9.matcher(phoneNumber).replaceAll("9");
     }
+
+    /**
+     * The key of a phone number and, if it is a possible number of the
+     * default region, its national significant number.
+     */
+    private static class NumberKey
+    {
+        /**
+         * The value returned by {@link #getPhoneNumberKey(String)}.
+         */
+        final String key;
+
+        /**
+         * The national significant number or <tt>null</tt> if the phone
+         * number could not be parsed as a possible number of the default
+         * region.
+         */
+        final String nationalNumber;
+
+        /**
+         * Initializes a new <tt>NumberKey</tt>.
+         *
+         * @param key the key of the phone number
+         * @param nationalNumber the national significant number of the phone
+         * number or <tt>null</tt>
+         */
+        NumberKey(String key, String nationalNumber)
+        {
+            this.key = key;
+            this.nationalNumber = nationalNumber;
+        }
+    }
 }
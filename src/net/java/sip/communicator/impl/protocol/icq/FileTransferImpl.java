@@ -205,27 +205,24 @@ else if (state==FileTransferState.TRANSFERRING)
                     final ProgressStatusProvider psp = (
                         (TransferringFileEvent)event).getProgressProvider();
 
-                    new Thread("Transfer for " + transfer.getBuddyScreenname())
-                    {
-                        @Override
-                        public void run()
+                    FileTransferProgressTicker.schedule(
+                        FileTransferImpl.this,
+                        psp.getLength(),
+                        new FileTransferProgressTicker.Sampler()
                         {
-                            while (transfer.isOpen())
+                            public boolean sample()
                             {
                                 long transfered = psp.getPosition();
 
                                 setTransferedBytes(transfered);
+                                if (transfer.isOpen())
+                                    return true;
+
                                 fireProgressChangeEvent(
                                     System.currentTimeMillis(), transfered);
-
-                                try {
-                                    Thread.sleep(100);
-                                }
-                                catch (InterruptedException e)
-                                {}
+                                return false;
                             }
-                        }
-                    }.start();
+                        });
                 }
             }
         }
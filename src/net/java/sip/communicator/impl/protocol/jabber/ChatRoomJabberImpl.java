@@ -31,6 +31,7 @@
 import org.jivesoftware.smack.filter.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.packet.XMPPError.*;
+import org.jivesoftware.smackx.delay.*;
 import org.jivesoftware.smackx.delay.packet.*;
 import org.jivesoftware.smackx.disco.*;
 import org.jivesoftware.smackx.disco.packet.*;
@@ -49,6 +50,7 @@
 
 import java.beans.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.jivesoftware.smack.packet.XMPPError.Condition.*;
 
@@ -80,8 +82,9 @@
      * Listeners that will be notified of changes in member status in the
      * room such as member joined, left or being kicked or dropped.
      */
-    private final Vector<ChatRoomMemberPresenceListener> memberListeners
-        = new Vector<ChatRoomMemberPresenceListener>();
+    private final CopyOnWriteArrayList<ChatRoomMemberPresenceListener>
+        memberListeners
+            = new CopyOnWriteArrayList<ChatRoomMemberPresenceListener>();
 
     /**
      * Listeners that will be notified of changes in member role in the
@@ -132,10 +135,23 @@
     private final OperationSetMultiUserChatJabberImpl opSetMuc;
 
     /**
-     * The list of members of this chat room.
+     * The members of this chat room.
      */
-    private final Hashtable<Resourcepart, ChatRoomMemberJabberImpl> members
-        = new Hashtable<>();
+    private final ChatRoomMemberIndex members = new ChatRoomMemberIndex();
+
+    /**
+     * The member presence events which have occurred while we are joining
+     * this chat room (i.e. the occupants which were in the room before us)
+     * and which are to be delivered to the
+     * <tt>ChatRoomMemberPresenceListener</tt>s at once when the join
+     * completes. <tt>null</tt> when we are not joining.
+     */
+    private List<ChatRoomMemberPresenceChangeEvent> joinSnapshot;
+
+    /**
+     * The object which synchronizes the access to {@link #joinSnapshot}.
+     */
+    private final Object joinSnapshotSyncRoot = new Object();
 
     /**
      * The list of banned members of this chat room.
@@ -359,11 +375,7 @@ public void removeMessageListener(ChatRoomMessageListener listener)
     public void addMemberPresenceListener(
         ChatRoomMemberPresenceListener listener)
     {
-        synchronized(memberListeners)
-        {
-            if (!memberListeners.contains(listener))
-                memberListeners.add(listener);
-        }
+        memberListeners.addIfAbsent(listener);
     }
 
     /**
@@ -376,10 +388,7 @@ public void addMemberPresenceListener(
     public void removeMemberPresenceListener(
         ChatRoomMemberPresenceListener listener)
     {
-        synchronized(memberListeners)
-        {
-            memberListeners.remove(listener);
-        }
+        memberListeners.remove(listener);
     }
 
 
@@ -456,10 +465,7 @@ public Message createMessage(String messageText)
      */
     public List<ChatRoomMember> getMembers()
     {
-        synchronized (members)
-        {
-            return new LinkedList<ChatRoomMember>(members.values());
-        }
+        return new ArrayList<ChatRoomMember>(members.values());
     }
 
     /**
@@ -661,10 +667,40 @@ public void joinAs(String nickname, byte[] password)
                     new AndFilter(
                         FromMatchesFilter.create(multiUserChat.getRoom()),
                         new StanzaTypeFilter(Presence.class)));
-                if(password == null)
-                    multiUserChat.join(this.nickname);
-                else
-                    multiUserChat.join(this.nickname, new String(password));
+
+                /*
+                 * The server sends the presences of the occupants which are
+                 * already in the room before our own and smack does not
+                 * return from join until it has received ours. Collect the
+                 * resulting events and deliver them as one snapshot.
+                 */
+                synchronized (joinSnapshotSyncRoot)
+                {
+                    joinSnapshot
+                        = new ArrayList<ChatRoomMemberPresenceChangeEvent>();
+                }
+                try
+                {
+                    MucEnterConfiguration.Builder enterConfiguration
+                        = multiUserChat.getEnterConfigurationBuilder(
+                            this.nickname);
+
+                    if(password != null)
+                        enterConfiguration.withPassword(new String(password));
+
+                    // Only ask for the messages we have not stored yet, the
+                    // overlap is filtered by the message listener.
+                    Date historySince = getHistorySince();
+
+                    if(historySince != null)
+                        enterConfiguration.requestHistorySince(historySince);
+
+                    multiUserChat.join(enterConfiguration.build());
+                }
+                finally
+                {
+                    fireJoinSnapshot();
+                }
             }
 
             ChatRoomMemberJabberImpl member
@@ -672,10 +708,7 @@ public void joinAs(String nickname, byte[] password)
                     this.nickname,
                     JidCreate.bareFrom(
                             provider.getAccountID().getAccountAddress()));
-            synchronized (members)
-            {
-                members.put(this.nickname, member);
-            }
+            members.put(this.nickname, member);
 
             // We don't specify a reason.
             opSetMuc.fireLocalUserPresenceEvent(this,
@@ -833,23 +866,7 @@ public ChatRoomMemberJabberImpl smackParticipantToScMember(Jid participant)
             return null;
         }
 
-        Resourcepart participantName = participant.getResourceOrThrow();
-        synchronized (members)
-        {
-            Iterator<ChatRoomMemberJabberImpl> chatRoomMembers =
-                this.members.values().iterator();
-
-            while(chatRoomMembers.hasNext())
-            {
-                ChatRoomMemberJabberImpl member = chatRoomMembers.next();
-
-                if(participantName.equals(member.getName())
-                    || participant.equals(member.getContactAddress())
-                    || participantName.equals(member.getContactAddress()))
-                    return member;
-            }
-        }
-        return null;
+        return members.find(participant);
     }
 
     /**
@@ -967,16 +984,10 @@ private void leave(String reason, EntityBareJid alternateAddress)
         }
 
         // FIXME Do we have to do the following when we leave the room?
-        Hashtable<Resourcepart, ChatRoomMemberJabberImpl> membersCopy;
-        synchronized (members)
-        {
-            membersCopy = new Hashtable<>(members);
-
-            // Delete the list of members
-            members.clear();
-        }
+        // Delete the list of members
+        List<ChatRoomMemberJabberImpl> membersCopy = members.clear();
 
-        for (ChatRoomMember member : membersCopy.values())
+        for (ChatRoomMember member : membersCopy)
             fireMemberPresenceEvent(
                 member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT,
@@ -1186,10 +1197,7 @@ public void banned(EntityFullJid participant, Jid actor, String reason)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             banList.put(participant.getResourceOrThrow(), member);
 
@@ -1261,14 +1269,12 @@ public void joined(EntityFullJid participant)
             // We try to get the nickname of the participantName in case it's
             // in the form john@servicename.com, because the nickname we keep
             // in the nickname property is just the user name like "john".
-            if (nickname.equals(participantName)
-                || members.containsKey(participantName))
-                return;
-
+            //
             // when somebody changes its nickname we first receive
             // event for its nickname changed and after that that has joined
             // we check is this already joined and if so we skip it
-            if(members.contains(participantName))
+            if (nickname.equals(participantName)
+                || members.containsKey(participantName))
                 return;
 
             Occupant occupant = multiUserChat.getOccupant(participant);
@@ -1281,9 +1287,18 @@ public void joined(EntityFullJid participant)
 
             members.put(participantName, member);
 
-            //we don't specify a reason
+            // we don't specify a reason unless the occupant was in the room
+            // before us
+            String reason;
+            synchronized (joinSnapshotSyncRoot)
+            {
+                reason
+                    = (joinSnapshot == null)
+                        ? null
+                        : ChatRoomMemberPresenceChangeEvent.REASON_USER_LIST;
+            }
             fireMemberPresenceEvent(member,
-                ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED, null);
+                ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED, reason);
         }
 
         /**
@@ -1306,10 +1321,7 @@ public void left(EntityFullJid participant)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             fireMemberPresenceEvent(member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT, null);
@@ -1334,12 +1346,8 @@ public void nicknameChanged(EntityFullJid participant, Resourcepart newNickname)
 
             ((ChatRoomMemberJabberImpl) member).setName(newNickname);
 
-            synchronized (members)
-            {
-                // chnage the member key
-                ChatRoomMemberJabberImpl mem = members.remove(participant.getResourceOrThrow());
-                members.put(newNickname, mem);
-            }
+            // change the member key
+            members.rename(participant.getResourceOrThrow(), newNickname);
 
             ChatRoomMemberPropertyChangeEvent evt
                 = new ChatRoomMemberPropertyChangeEvent(
@@ -1397,10 +1405,7 @@ public void kicked(EntityFullJid participant, Jid actor, String reason)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             fireMemberPresenceEvent(member, actorMember,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_KICKED, reason);
@@ -1828,22 +1833,7 @@ private void fireMemberPresenceEvent(ChatRoomMember member,
             = new ChatRoomMemberPresenceChangeEvent(
                 this, member, eventID, eventReason);
 
-        if (logger.isTraceEnabled())
-            logger.trace("Will dispatch the following ChatRoom event: " + evt);
-
-        Iterator<ChatRoomMemberPresenceListener> listeners = null;
-        synchronized (memberListeners)
-        {
-            listeners = new ArrayList<ChatRoomMemberPresenceListener>(
-                                memberListeners).iterator();
-        }
-
-        while (listeners.hasNext())
-        {
-            ChatRoomMemberPresenceListener listener = listeners.next();
-
-            listener.memberPresenceChanged(evt);
-        }
+        fireMemberPresenceEvent(evt);
     }
 
     /**
@@ -1865,19 +1855,77 @@ private void fireMemberPresenceEvent(ChatRoomMember member,
             = new ChatRoomMemberPresenceChangeEvent(
                 this, member, actor, eventID, eventReason);
 
+        fireMemberPresenceEvent(evt);
+    }
+
+    /**
+     * Notifies all <tt>ChatRoomMemberPresenceListener</tt>s about a specific
+     * <tt>ChatRoomMemberPresenceChangeEvent</tt> or, if we are currently
+     * joining this <tt>ChatRoom</tt>, adds it to the snapshot to be delivered
+     * once the join completes.
+     *
+     * @param evt the <tt>ChatRoomMemberPresenceChangeEvent</tt> to dispatch
+     */
+    private void fireMemberPresenceEvent(ChatRoomMemberPresenceChangeEvent evt)
+    {
+        synchronized (joinSnapshotSyncRoot)
+        {
+            if (joinSnapshot != null)
+            {
+                joinSnapshot.add(evt);
+                return;
+            }
+        }
+
         if (logger.isTraceEnabled())
             logger.trace("Will dispatch the following ChatRoom event: " + evt);
 
-        Iterable<ChatRoomMemberPresenceListener> listeners;
-        synchronized (memberListeners)
+        for (ChatRoomMemberPresenceListener listener : memberListeners)
+            listener.memberPresenceChanged(evt);
+    }
+
+    /**
+     * Delivers the <tt>ChatRoomMemberPresenceChangeEvent</tt>s collected while
+     * joining this <tt>ChatRoom</tt> to the
+     * <tt>ChatRoomMemberPresenceListener</tt>s: at once to
+     * <tt>ChatRoomMemberSnapshotListener</tt>s and one by one to the others.
+     * Events occurring afterwards are dispatched as they happen.
+     */
+    private void fireJoinSnapshot()
+    {
+        List<ChatRoomMemberPresenceChangeEvent> snapshot;
+
+        synchronized (joinSnapshotSyncRoot)
         {
-            listeners
-                = new ArrayList<ChatRoomMemberPresenceListener>(
-                        memberListeners);
+            snapshot = joinSnapshot;
+            joinSnapshot = null;
+        }
+        if (snapshot == null || snapshot.isEmpty())
+            return;
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Will dispatch " + snapshot.size()
+                + " member presence events of " + getName()
+                + " as a snapshot");
         }
 
-        for (ChatRoomMemberPresenceListener listener : listeners)
-            listener.memberPresenceChanged(evt);
+        List<ChatRoomMemberPresenceChangeEvent> unmodifiableSnapshot
+            = Collections.unmodifiableList(snapshot);
+
+        for (ChatRoomMemberPresenceListener listener : memberListeners)
+        {
+            if (listener instanceof ChatRoomMemberSnapshotListener)
+            {
+                ((ChatRoomMemberSnapshotListener) listener)
+                    .memberPresenceSnapshot(unmodifiableSnapshot);
+            }
+            else
+            {
+                for (ChatRoomMemberPresenceChangeEvent evt : snapshot)
+                    listener.memberPresenceChanged(evt);
+            }
+        }
     }
 
     /**
@@ -2232,12 +2280,39 @@ public void setMembersWhiteList(List<String> members)
          */
         private Date lastSeenDelayedMessage = null;
 
+        /**
+         * Whether {@link #lastSeenDelayedMessage} was read from the
+         * configuration, in which case we do not know which of the messages
+         * with the same timestamp were shown.
+         */
+        private boolean lastSeenDelayedMessageFromConfig = false;
+
         /**
          * The property to store the timestamp.
          */
         private static final String LAST_SEEN_DELAYED_MESSAGE_PROP
             = "lastSeenDelayedMessage";
 
+        /**
+         * The maximum number of messages kept in {@link #recentMessages}.
+         */
+        private static final int MAX_RECENT_MESSAGES = 500;
+
+        /**
+         * The keys of the last received messages, live or from history, used
+         * to drop the history the server replays when we rejoin the room.
+         */
+        private final Map<String, Boolean> recentMessages
+            = new LinkedHashMap<String, Boolean>()
+            {
+                @Override
+                protected boolean removeEldestEntry(
+                    Map.Entry<String, Boolean> eldest)
+                {
+                    return size() > MAX_RECENT_MESSAGES;
+                }
+            };
+
         /**
          * Process a packet.
          * @param msg to process.
@@ -2247,7 +2322,34 @@ public void processMessage(org.jivesoftware.smack.packet.Message msg)
         {
             Date timeStamp;
             DelayInformation delay =
-                    msg.getExtension("x", "jabber:x:delay");
+                    DelayInformationManager.getDelayInformation(msg);
+            String msgBody = msg.getBody();
+
+            if(msgBody == null)
+                return;
+
+            // a message we already received live or in an earlier join. A
+            // message without ID is only recognized when it is replayed again
+            // with the same delay, the same line may have been sent repeatedly
+            String messageId = msg.getStanzaId();
+            if(messageId == null && delay != null)
+                messageId = "@" + delay.getStamp().getTime();
+            boolean isKnownMessage = false;
+
+            if(messageId != null)
+            {
+                String messageKey = msg.getFrom() + "/" + messageId
+                    + "/" + msgBody.length() + ":" + msgBody.hashCode();
+
+                synchronized(recentMessages)
+                {
+                    isKnownMessage
+                        = recentMessages.put(messageKey, Boolean.TRUE) != null;
+                }
+            }
+
+            if(delay != null && isKnownMessage)
+                return;
 
             if(delay != null)
             {
@@ -2270,13 +2372,18 @@ public void processMessage(org.jivesoftware.smack.packet.Message msg)
                     {
                         lastSeenDelayedMessage =
                             new Date(Long.parseLong(timestamp));
+                        lastSeenDelayedMessageFromConfig = true;
                     }
                     catch(Throwable t)
                     {}
                 }
 
+                // messages sharing the timestamp of the last seen one are
+                // new unless it comes from a previous run
                 if(lastSeenDelayedMessage != null
-                    && !timeStamp.after(lastSeenDelayedMessage))
+                    && (timeStamp.before(lastSeenDelayedMessage)
+                        || (lastSeenDelayedMessageFromConfig
+                            && timeStamp.equals(lastSeenDelayedMessage))))
                     return;
 
                 // save it in configuration
@@ -2287,17 +2394,13 @@ public void processMessage(org.jivesoftware.smack.packet.Message msg)
                     String.valueOf(timeStamp.getTime()));
 
                 lastSeenDelayedMessage = timeStamp;
+                lastSeenDelayedMessageFromConfig = false;
             }
             else
             {
                 timeStamp = new Date();
             }
 
-            String msgBody = msg.getBody();
-
-            if(msgBody == null)
-                return;
-
             int messageReceivedEventType =
                 ChatRoomMessageReceivedEvent.CONVERSATION_MESSAGE_RECEIVED;
 
@@ -2815,10 +2918,7 @@ public boolean isPersistent()
      */
     public ChatRoomMemberJabberImpl findMemberForNickName(Resourcepart jabberID)
     {
-        synchronized (members)
-        {
-            return members.get(jabberID);
-        }
+        return members.get(jabberID);
     }
 
    /**
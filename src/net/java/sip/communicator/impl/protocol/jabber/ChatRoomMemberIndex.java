@@ -0,0 +1,204 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jxmpp.jid.*;
+import org.jxmpp.jid.parts.*;
+
+/**
+ * Keeps the occupants of a <tt>ChatRoomJabberImpl</tt> indexed by their
+ * nickname in the room and by their real (contact) address, so that mapping
+ * a smack participant to its <tt>ChatRoomMemberJabberImpl</tt> does not
+ * require walking all occupants of the room.
+ * <p>
+ * Lookups do not block. Modifications are serialized in order to keep the
+ * two indexes consistent with each other.
+ */
+class ChatRoomMemberIndex
+{
+    /**
+     * The occupants of the room by their nickname in the room.
+     */
+    private final Map<Resourcepart, ChatRoomMemberJabberImpl> byNickname
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The occupants of the room whose real address is known by that address.
+     */
+    private final Map<String, ChatRoomMemberJabberImpl> byAddress
+        = new ConcurrentHashMap<>();
+
+    /**
+     * Adds (or replaces) the occupant with a specific nickname.
+     *
+     * @param nickname the nickname of <tt>member</tt> in the room
+     * @param member the occupant to add
+     */
+    synchronized void put(
+            Resourcepart nickname,
+            ChatRoomMemberJabberImpl member)
+    {
+        ChatRoomMemberJabberImpl oldMember = byNickname.put(nickname, member);
+
+        if (oldMember != null)
+            removeAddress(oldMember);
+
+        String address = getAddress(member);
+
+        if (address != null)
+            byAddress.put(address, member);
+    }
+
+    /**
+     * Removes the occupant with a specific nickname.
+     *
+     * @param nickname the nickname of the occupant to remove
+     * @return the removed occupant or <tt>null</tt> if there was no occupant
+     * with the specified nickname
+     */
+    synchronized ChatRoomMemberJabberImpl remove(Resourcepart nickname)
+    {
+        ChatRoomMemberJabberImpl member = byNickname.remove(nickname);
+
+        if (member != null)
+            removeAddress(member);
+        return member;
+    }
+
+    /**
+     * Moves the occupant known under a specific nickname to a new nickname.
+     *
+     * @param oldNickname the nickname the occupant was known under
+     * @param newNickname the nickname the occupant is to be known under
+     * @return the renamed occupant or <tt>null</tt> if there was no occupant
+     * with the specified <tt>oldNickname</tt>
+     */
+    synchronized ChatRoomMemberJabberImpl rename(
+            Resourcepart oldNickname,
+            Resourcepart newNickname)
+    {
+        ChatRoomMemberJabberImpl member = byNickname.remove(oldNickname);
+
+        if (member != null)
+            byNickname.put(newNickname, member);
+        return member;
+    }
+
+    /**
+     * Removes all occupants.
+     *
+     * @return the occupants which have been removed
+     */
+    synchronized List<ChatRoomMemberJabberImpl> clear()
+    {
+        List<ChatRoomMemberJabberImpl> members
+            = new ArrayList<>(byNickname.values());
+
+        byNickname.clear();
+        byAddress.clear();
+        return members;
+    }
+
+    /**
+     * Returns the occupant with a specific nickname.
+     *
+     * @param nickname the nickname of the occupant
+     * @return the occupant with the specified nickname or <tt>null</tt>
+     */
+    ChatRoomMemberJabberImpl get(Resourcepart nickname)
+    {
+        return (nickname == null) ? null : byNickname.get(nickname);
+    }
+
+    /**
+     * Determines whether there is an occupant with a specific nickname.
+     *
+     * @param nickname the nickname to check
+     * @return <tt>true</tt> if there is an occupant with the specified
+     * nickname; otherwise, <tt>false</tt>
+     */
+    boolean containsKey(Resourcepart nickname)
+    {
+        return (nickname != null) && byNickname.containsKey(nickname);
+    }
+
+    /**
+     * Finds the occupant which corresponds to a specific smack participant,
+     * matching it either by its nickname (the resource of
+     * <tt>participant</tt>) or by its real address.
+     *
+     * @param participant the full room JID of the participant or its real
+     * address
+     * @return the occupant corresponding to <tt>participant</tt> or
+     * <tt>null</tt>
+     */
+    ChatRoomMemberJabberImpl find(Jid participant)
+    {
+        Resourcepart participantName = participant.getResourceOrNull();
+        ChatRoomMemberJabberImpl member = get(participantName);
+
+        if (member == null)
+        {
+            member = byAddress.get(participant.toString());
+            if (member == null && participantName != null)
+                member = byAddress.get(participantName.toString());
+        }
+        return member;
+    }
+
+    /**
+     * Returns a snapshot of the occupants.
+     *
+     * @return a new <tt>List</tt> of the occupants
+     */
+    List<ChatRoomMemberJabberImpl> values()
+    {
+        return new ArrayList<>(byNickname.values());
+    }
+
+    /**
+     * Removes a specific occupant from the address index, provided it is the
+     * occupant indexed under its address.
+     *
+     * @param member the occupant to remove from the address index
+     */
+    private void removeAddress(ChatRoomMemberJabberImpl member)
+    {
+        String address = getAddress(member);
+
+        if (address != null)
+            byAddress.remove(address, member);
+    }
+
+    /**
+     * Returns the real address of a specific occupant or <tt>null</tt> if it
+     * is not known (e.g. in anonymous rooms).
+     *
+     * @param member the occupant
+     * @return the real address of <tt>member</tt> or <tt>null</tt>
+     */
+    private static String getAddress(ChatRoomMemberJabberImpl member)
+    {
+        Jid jid = member.getJabberID();
+
+        return (jid == null) ? null : jid.toString();
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.netaddr.*;
+import net.java.sip.communicator.service.netaddr.event.*;
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.util.*;
+
+import org.ice4j.*;
+import org.ice4j.ice.harvest.*;
+import org.ice4j.security.*;
+
+/**
+ * Keeps the outcome of the expensive steps of setting up the ICE harvesters
+ * of <tt>IceUdpTransportManager</tt> between calls: the STUN/TURN servers
+ * discovered through DNS SRV for a domain, the resolved addresses of the
+ * STUN/TURN servers configured in accounts and the <tt>UPNPHarvester</tt>
+ * (which discovers the internet gateway device only once).
+ * <p>
+ * Harvesters bound to a specific ICE agent are still created for each call;
+ * only the lookups they are created from are reused. Lookups which found no
+ * server are not kept, and the others expire with the TTL of their DNS
+ * records. Everything is forgotten when <tt>NetworkConfigurationWatcher</tt>
+ * reports a change in the network configuration.
+ */
+class IceHarvesterCache
+    implements NetworkConfigurationChangeListener
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>IceHarvesterCache</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(IceHarvesterCache.class);
+
+    /**
+     * The number of seconds a discovered STUN/TURN server is kept for when
+     * the TTL of its SRV record cannot be determined.
+     */
+    private static final long DEFAULT_TTL = 300;
+
+    /**
+     * The number of seconds the JRE caches resolved addresses for when the
+     * <tt>networkaddress.cache.ttl</tt> security property is not set.
+     */
+    private static final long DEFAULT_ADDRESS_CACHE_TTL = 30;
+
+    /**
+     * The single <tt>IceHarvesterCache</tt> instance.
+     */
+    private static IceHarvesterCache instance;
+
+    /**
+     * The <tt>NetworkAddressManagerService</tt> which discovers STUN/TURN
+     * servers and notifies this cache about network changes.
+     */
+    private final NetworkAddressManagerService namSer;
+
+    /**
+     * The STUN/TURN servers discovered through DNS SRV by domain (including
+     * the domains which do not advertise such servers).
+     */
+    private final Map<String, DiscoveredServer> discoveredServers
+        = new HashMap<>();
+
+    /**
+     * The resolved addresses of the configured STUN/TURN servers by
+     * <tt>host:port</tt>.
+     */
+    private final Map<String, ResolvedAddress> resolvedAddresses
+        = new HashMap<>();
+
+    /**
+     * The <tt>UPNPHarvester</tt> shared by all ICE agents.
+     */
+    private UPNPHarvester upnpHarvester;
+
+    /**
+     * The total time in milliseconds that has been saved by answering from
+     * this cache.
+     */
+    private final AtomicLong timeSaved = new AtomicLong();
+
+    /**
+     * Returns the <tt>IceHarvesterCache</tt> instance, creating it and
+     * registering it for network configuration changes if necessary.
+     *
+     * @param namSer the <tt>NetworkAddressManagerService</tt> to use
+     * @return the <tt>IceHarvesterCache</tt> instance
+     */
+    static synchronized IceHarvesterCache getInstance(
+            NetworkAddressManagerService namSer)
+    {
+        if (instance == null)
+        {
+            instance = new IceHarvesterCache(namSer);
+            namSer.addNetworkConfigurationChangeListener(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Initializes a new <tt>IceHarvesterCache</tt>.
+     *
+     * @param namSer the <tt>NetworkAddressManagerService</tt> to use
+     */
+    private IceHarvesterCache(NetworkAddressManagerService namSer)
+    {
+        this.namSer = namSer;
+    }
+
+    /**
+     * Returns a new harvester for the STUN/TURN server which the DNS SRV
+     * records of a specific domain point to, looking them up only if they
+     * have not been looked up since the last network change or have
+     * expired.
+     *
+     * @param domain the domain whose STUN/TURN server is to be discovered
+     * @param username the user name to use with a TURN server
+     * @param password the password to use with a TURN server
+     * @return a new harvester for the discovered server or <tt>null</tt> if
+     * <tt>domain</tt> does not advertise a STUN/TURN server
+     */
+    StunCandidateHarvester discoverStunServer(
+            String domain,
+            byte[] username,
+            byte[] password)
+    {
+        DiscoveredServer server = getDiscoveredServer(domain);
+
+        if (server == null)
+            server = discover(domain);
+        else
+            addTimeSaved(server.discoveryTime, domain);
+
+        return server.createHarvester(username, password);
+    }
+
+    /**
+     * Looks up the STUN/TURN server of a specific domain in the background
+     * unless it is already known, so that the first call does not have to
+     * wait for it.
+     *
+     * @param domain the domain whose STUN/TURN server is to be discovered
+     */
+    void prewarm(final String domain)
+    {
+        if (getDiscoveredServer(domain) != null)
+            return;
+
+        Thread t
+            = new Thread("IceHarvesterCache prewarm " + domain)
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if (getDiscoveredServer(domain) == null)
+                            discover(domain);
+                    }
+                    catch (Throwable t)
+                    {
+                        logger.info(
+                                "Failed to discover STUN/TURN server of "
+                                    + domain,
+                                t);
+                    }
+                }
+            };
+
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Returns the resolved address of a configured STUN/TURN server,
+     * resolving it only if it has not been resolved since the last network
+     * change or has expired.
+     *
+     * @param desc the configured STUN/TURN server
+     * @return the address of <tt>desc</tt>; its
+     * <tt>InetSocketAddress.getAddress()</tt> is <tt>null</tt> if it could not
+     * be resolved
+     */
+    TransportAddress resolve(StunServerDescriptor desc)
+    {
+        String key = desc.getAddress() + ":" + desc.getPort();
+
+        synchronized (this)
+        {
+            ResolvedAddress resolved = resolvedAddresses.get(key);
+
+            if (resolved != null)
+            {
+                if (resolved.expires > System.currentTimeMillis())
+                    return resolved.address;
+                resolvedAddresses.remove(key);
+            }
+        }
+
+        TransportAddress addr
+            = new TransportAddress(
+                    desc.getAddress(),
+                    desc.getPort(),
+                    Transport.UDP);
+
+        // Do not remember failures, the server may become reachable.
+        if (addr.getAddress() != null)
+        {
+            /*
+             * The address has been resolved through InetAddress so keep it no
+             * longer than the JRE does.
+             */
+            long ttl = getAddressCacheTtl();
+            long expires
+                = (ttl < 0)
+                    ? Long.MAX_VALUE
+                    : System.currentTimeMillis() + ttl * 1000;
+
+            synchronized (this)
+            {
+                resolvedAddresses.put(key, new ResolvedAddress(addr, expires));
+            }
+        }
+        return addr;
+    }
+
+    /**
+     * Returns the <tt>UPNPHarvester</tt> shared by all ICE agents. It
+     * discovers the internet gateway device upon its first harvest and reuses
+     * it afterwards.
+     *
+     * @return the shared <tt>UPNPHarvester</tt>
+     */
+    synchronized UPNPHarvester getUPNPHarvester()
+    {
+        if (upnpHarvester == null)
+            upnpHarvester = new UPNPHarvester();
+        return upnpHarvester;
+    }
+
+    /**
+     * Returns the total time in milliseconds that has been saved by
+     * answering from this cache.
+     *
+     * @return the total time saved by this cache
+     */
+    long getTimeSaved()
+    {
+        return timeSaved.get();
+    }
+
+    /**
+     * Forgets everything when the network configuration changes.
+     *
+     * @param event the change event
+     */
+    @Override
+    public void configurationChanged(ChangeEvent event)
+    {
+        if (event.isInitial())
+            return;
+
+        synchronized (this)
+        {
+            discoveredServers.clear();
+            resolvedAddresses.clear();
+            upnpHarvester = null;
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Invalidated ICE harvester cache after " + event);
+    }
+
+    /**
+     * Returns the cached STUN/TURN server of a specific domain.
+     *
+     * @param domain the domain
+     * @return the cached STUN/TURN server of <tt>domain</tt> or <tt>null</tt>
+     * if it has not been discovered yet or has expired
+     */
+    private synchronized DiscoveredServer getDiscoveredServer(String domain)
+    {
+        DiscoveredServer server = discoveredServers.get(domain);
+
+        if (server != null && server.expires <= System.currentTimeMillis())
+        {
+            discoveredServers.remove(domain);
+            server = null;
+        }
+        return server;
+    }
+
+    /**
+     * Discovers the STUN/TURN server of a specific domain and caches it if
+     * one has been found.
+     *
+     * @param domain the domain whose STUN/TURN server is to be discovered
+     * @return the discovered server
+     */
+    private DiscoveredServer discover(String domain)
+    {
+        long startTime = System.currentTimeMillis();
+        /*
+         * The credentials are supplied by the caller each time a harvester is
+         * created so they do not matter here.
+         */
+        StunCandidateHarvester harvester
+            = namSer.discoverStunServer(domain, new byte[0], new byte[0]);
+        long discoveryTime = System.currentTimeMillis() - startTime;
+
+        /*
+         * Do not remember that no server has been found, the lookup may have
+         * failed or timed out.
+         */
+        if (harvester == null)
+            return new DiscoveredServer(null, false, discoveryTime, 0);
+
+        boolean turn = harvester instanceof TurnCandidateHarvester;
+        DiscoveredServer server
+            = new DiscoveredServer(
+                    harvester.stunServer,
+                    turn,
+                    discoveryTime,
+                    System.currentTimeMillis()
+                        + getSrvTtl(turn, domain) * 1000);
+
+        synchronized (this)
+        {
+            discoveredServers.put(domain, server);
+        }
+        return server;
+    }
+
+    /**
+     * Returns the TTL of the SRV record through which the STUN/TURN server of
+     * a specific domain has been discovered. The record has just been looked
+     * up so it is answered by the DNS cache.
+     *
+     * @param turn whether a TURN server has been discovered
+     * @param domain the domain of the server
+     * @return the TTL in seconds of the SRV record or {@link #DEFAULT_TTL}
+     * if it cannot be determined
+     */
+    private static long getSrvTtl(boolean turn, String domain)
+    {
+        try
+        {
+            SRVRecord srv
+                = NetworkUtils.getSRVRecord(
+                        turn ? "turn" : "stun",
+                        Transport.UDP.toString(),
+                        domain);
+
+            if (srv != null)
+                return srv.getTTL();
+        }
+        catch (Exception e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Failed to get the TTL of the SRV record", e);
+        }
+        return DEFAULT_TTL;
+    }
+
+    /**
+     * Returns the number of seconds the JRE caches resolved addresses for.
+     *
+     * @return the number of seconds the JRE caches resolved addresses for or
+     * a negative value if it caches them forever
+     */
+    private static long getAddressCacheTtl()
+    {
+        String ttl = Security.getProperty("networkaddress.cache.ttl");
+
+        if (ttl != null)
+        {
+            try
+            {
+                return Long.parseLong(ttl.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                // fall back to the default of the JRE
+            }
+        }
+        return DEFAULT_ADDRESS_CACHE_TTL;
+    }
+
+    /**
+     * Records that a lookup has been answered from this cache.
+     *
+     * @param time the time in milliseconds the lookup took originally
+     * @param what a description of the lookup for logging
+     */
+    private void addTimeSaved(long time, String what)
+    {
+        timeSaved.addAndGet(time);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Saved " + time + " ms reusing cached STUN/TURN server of "
+                        + what);
+        }
+    }
+
+    /**
+     * A STUN/TURN server discovered through DNS SRV.
+     */
+    private static class DiscoveredServer
+    {
+        /**
+         * The address of the server or <tt>null</tt> if no server has been
+         * discovered.
+         */
+        final TransportAddress address;
+
+        /**
+         * Whether the server is a TURN server.
+         */
+        final boolean turn;
+
+        /**
+         * The time in milliseconds the discovery took.
+         */
+        final long discoveryTime;
+
+        /**
+         * The time in milliseconds since the epoch at which this server is to
+         * be looked up again.
+         */
+        final long expires;
+
+        /**
+         * Initializes a new <tt>DiscoveredServer</tt>.
+         *
+         * @param address the address of the server or <tt>null</tt>
+         * @param turn whether the server is a TURN server
+         * @param discoveryTime the time in milliseconds the discovery took
+         * @param expires the time at which the server is to be looked up again
+         */
+        DiscoveredServer(
+                TransportAddress address,
+                boolean turn,
+                long discoveryTime,
+                long expires)
+        {
+            this.address = address;
+            this.turn = turn;
+            this.discoveryTime = discoveryTime;
+            this.expires = expires;
+        }
+
+        /**
+         * Creates a new harvester for this server.
+         *
+         * @param username the user name to use with a TURN server
+         * @param password the password to use with a TURN server
+         * @return a new harvester for this server or <tt>null</tt> if no
+         * server has been discovered
+         */
+        StunCandidateHarvester createHarvester(
+                byte[] username,
+                byte[] password)
+        {
+            if (address == null)
+                return null;
+            else if (turn)
+            {
+                return
+                    new TurnCandidateHarvester(
+                            address,
+                            new LongTermCredential(username, password));
+            }
+            else
+                return new StunCandidateHarvester(address);
+        }
+    }
+
+    /**
+     * The resolved address of a configured STUN/TURN server.
+     */
+    private static class ResolvedAddress
+    {
+        /**
+         * The resolved address.
+         */
+        final TransportAddress address;
+
+        /**
+         * The time in milliseconds since the epoch at which the address is to
+         * be resolved again.
+         */
+        final long expires;
+
+        /**
+         * Initializes a new <tt>ResolvedAddress</tt>.
+         *
+         * @param address the resolved address
+         * @param expires the time at which the address is to be resolved
+         * again
+         */
+        ResolvedAddress(TransportAddress address, long expires)
+        {
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+}
@@ -187,8 +187,9 @@ public FileTransfer acceptFile(File file)
             jabberTransfer.recieveFile(file);
 
             new OperationSetFileTransferJabberImpl
-                .FileTransferProgressThread(
-                jabberTransfer, incomingTransfer, getFileSize()).start();
+                .FileTransferProgressSampler(
+                jabberTransfer, incomingTransfer, getFileSize())
+                    .start(getFileSize());
         }
         catch (IOException | SmackException e)
         {
@@ -208,9 +208,9 @@ else if(priority == bestPriority && jabberStatus != null)
             // Send the file through the Jabber file transfer.
             transfer.sendFile(file, "Sending file");
 
-            // Start the status and progress thread.
-            new FileTransferProgressThread(
-                transfer, outgoingTransfer).start();
+            // Start sampling the status and progress.
+            new FileTransferProgressSampler(
+                transfer, outgoingTransfer).start(file.length());
         }
         catch(XmppStringprepException | SmackException e)
         {
@@ -502,9 +502,11 @@ void fireFileTransferCreated(FileTransferCreatedEvent event)
 
     /**
      * Updates file transfer progress and status while sending or receiving a
-     * file.
+     * file. Sampled by the <tt>FileTransferProgressTicker</tt> shared by all
+     * file transfers.
      */
-    protected static class FileTransferProgressThread extends Thread
+    protected static class FileTransferProgressSampler
+        implements FileTransferProgressTicker.Sampler
     {
         private final org.jivesoftware.smackx.filetransfer.FileTransfer
             jabberTransfer;
@@ -512,7 +514,7 @@ protected static class FileTransferProgressThread extends Thread
 
         private long initialFileSize;
 
-        public FileTransferProgressThread(
+        public FileTransferProgressSampler(
             org.jivesoftware.smackx.filetransfer.FileTransfer jabberTransfer,
             AbstractFileTransfer transfer,
             long initialFileSize)
@@ -522,7 +524,7 @@ public FileTransferProgressThread(
             this.initialFileSize = initialFileSize;
         }
 
-        public FileTransferProgressThread(
+        public FileTransferProgressSampler(
             org.jivesoftware.smackx.filetransfer.FileTransfer jabberTransfer,
             AbstractFileTransfer transfer)
         {
@@ -531,66 +533,75 @@ public FileTransferProgressThread(
         }
 
         /**
-         * Thread entry point.
+         * Starts sampling the transfer until it ends.
+         *
+         * @param size the number of bytes to transfer or <tt>-1</tt> if it is
+         * not known
+         */
+        public void start(long size)
+        {
+            FileTransferProgressTicker.schedule(fileTransfer, size, this);
+        }
+
+        /**
+         * Updates the status of the transfer from the Jabber transfer and
+         * fires the final events once it has ended.
+         *
+         * @return <tt>true</tt> if the transfer is still going on
          */
         @Override
-        public void run()
+        public boolean sample()
         {
-            int status;
-            long progress;
-            String statusReason = "";
+            int status = parseJabberStatus(jabberTransfer.getStatus());
+            long progress = fileTransfer.getTransferedBytes();
 
-            while (true)
+            if (status == FileTransferStatusChangeEvent.FAILED
+                || status == FileTransferStatusChangeEvent.COMPLETED
+                || status == FileTransferStatusChangeEvent.CANCELED
+                || status == FileTransferStatusChangeEvent.REFUSED)
             {
-                try
+                if (fileTransfer instanceof
+                        OutgoingFileTransferJabberImpl)
                 {
-                    Thread.sleep(10);
-
-                    status = parseJabberStatus(jabberTransfer.getStatus());
-                    progress = fileTransfer.getTransferedBytes();
-
-                    if (status == FileTransferStatusChangeEvent.FAILED
-                        || status == FileTransferStatusChangeEvent.COMPLETED
-                        || status == FileTransferStatusChangeEvent.CANCELED
-                        || status == FileTransferStatusChangeEvent.REFUSED)
-                    {
-                        if (fileTransfer instanceof
-                                OutgoingFileTransferJabberImpl)
-                        {
-                            ((OutgoingFileTransferJabberImpl) fileTransfer)
-                                .removeThumbnailHandler();
-                        }
-
-                        // sometimes a filetransfer can be preparing
-                        // and than completed :
-                        // transfered in one iteration of current thread
-                        // so it won't go through intermediate state - inProgress
-                        // make sure this won't happen
-                        if(status == FileTransferStatusChangeEvent.COMPLETED
-                            && fileTransfer.getStatus()
-                                == FileTransferStatusChangeEvent.PREPARING)
-                        {
-                            fileTransfer.fireStatusChangeEvent(
-                                FileTransferStatusChangeEvent.IN_PROGRESS,
-                                "Status changed");
-                            fileTransfer.fireProgressChangeEvent(
-                                System.currentTimeMillis(), progress);
-                        }
-
-                        break;
-                    }
+                    ((OutgoingFileTransferJabberImpl) fileTransfer)
+                        .removeThumbnailHandler();
+                }
 
-                    fileTransfer.fireStatusChangeEvent(status, "Status changed");
+                // sometimes a filetransfer can be preparing
+                // and than completed :
+                // transfered between two samples
+                // so it won't go through intermediate state - inProgress
+                // make sure this won't happen
+                if(status == FileTransferStatusChangeEvent.COMPLETED
+                    && fileTransfer.getStatus()
+                        == FileTransferStatusChangeEvent.PREPARING)
+                {
+                    fileTransfer.fireStatusChangeEvent(
+                        FileTransferStatusChangeEvent.IN_PROGRESS,
+                        "Status changed");
                     fileTransfer.fireProgressChangeEvent(
                         System.currentTimeMillis(), progress);
                 }
-                catch (InterruptedException e)
-                {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Unable to sleep thread.", e);
-                }
+
+                finish(status, progress);
+                return false;
             }
 
+            // The ticker fires the progress events.
+            fileTransfer.fireStatusChangeEvent(status, "Status changed");
+            return true;
+        }
+
+        /**
+         * Fires the final status and progress of the transfer.
+         *
+         * @param status the status the Jabber transfer ended with
+         * @param progress the number of bytes transferred
+         */
+        private void finish(int status, long progress)
+        {
+            String statusReason = "";
+
             if (jabberTransfer.getError() != null)
             {
                 logger.error("An error occured while transfering file: "
@@ -1937,6 +1937,9 @@ public void run()
             // as we have dispatched the contact list and Roster is ready
             // lets start the jingle nodes discovery
             parentProvider.startJingleNodesDiscovery();
+
+            // and the lookup of the STUN/TURN server for calls
+            parentProvider.startIceHarvesterPrewarm();
         }
 
         /**
@@ -155,32 +155,22 @@ private void notify(CallPeer callPeer)
 
         final CallPeerJabberImpl callPeerJabber = (CallPeerJabberImpl)callPeer;
 
-        final long timeSinceLastCoin = System.currentTimeMillis()
-                - callPeerJabber.getLastConferenceInfoSentTimestamp();
-        if (timeSinceLastCoin < COIN_MIN_INTERVAL)
-        {
-            if (callPeerJabber.isConfInfoScheduled())
-                return;
-
-            logger.info("Scheduling to send a COIN to " + callPeerJabber);
-            callPeerJabber.setConfInfoScheduled(true);
-            new Thread(new Runnable(){
-                @Override
-                public void run()
-                {
-                    try
+        boolean deferred
+            = deferConferenceInfoNotification(
+                    callPeerJabber,
+                    COIN_MIN_INTERVAL,
+                    new Runnable()
                     {
-                        Thread.sleep(1 + COIN_MIN_INTERVAL - timeSinceLastCoin);
-                    }
-                    catch (InterruptedException ie) {}
-
-                    OperationSetTelephonyConferencingJabberImpl.this
-                            .notify(callPeerJabber);
-                }
-            }).start();
-
+                        @Override
+                        public void run()
+                        {
+                            OperationSetTelephonyConferencingJabberImpl.this
+                                    .notify(callPeerJabber);
+                        }
+                    });
+
+        if (deferred)
             return;
-        }
 
         // check that callPeer supports COIN before sending him a
         // conference-info
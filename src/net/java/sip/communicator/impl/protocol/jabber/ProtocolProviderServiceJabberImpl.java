@@ -40,6 +40,7 @@
 import org.jitsi.xmpp.extensions.thumbnail.*;
 import net.java.sip.communicator.service.certificate.*;
 import net.java.sip.communicator.service.dns.*;
+import net.java.sip.communicator.service.netaddr.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.ProxyInfo;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -358,6 +359,13 @@
      */
     private org.jivesoftware.smack.proxy.ProxyInfo proxy;
 
+    /**
+     * The race of the connections to the addresses of the server currently
+     * tried or <tt>null</tt>. The winner of the race hands its connected
+     * socket to the connection to its address.
+     */
+    private ConnectionRacer.Result connectionRace;
+
     /**
      * State for connect and login state.
      */
@@ -788,26 +796,34 @@ private void initializeConnectAndLogin(SecurityAuthority authority,
             }
             else
             {
-                for (InetSocketAddress isa : addrs)
+                try
                 {
-                    try
+                    for (InetSocketAddress isa
+                            : raceConnections(Arrays.asList(addrs)))
                     {
-                        state = connectAndLogin(isa, serviceName,
-                            loginStrategy);
-                        if(state == ConnectState.ABORT_CONNECTING
-                            || state == ConnectState.STOP_TRYING)
-                            return;
-                    }
-                    catch(XMPPException
-                        | InterruptedException
-                        | IOException
-                        | SmackException ex)
-                    {
-                        disconnectAndCleanConnection();
-                        if(isAuthenticationFailed(ex))
-                            throw ex;
+                        try
+                        {
+                            state = connectAndLogin(isa, serviceName,
+                                loginStrategy);
+                            if(state == ConnectState.ABORT_CONNECTING
+                                || state == ConnectState.STOP_TRYING)
+                                return;
+                        }
+                        catch(XMPPException
+                            | InterruptedException
+                            | IOException
+                            | SmackException ex)
+                        {
+                            disconnectAndCleanConnection();
+                            if(isAuthenticationFailed(ex))
+                                throw ex;
+                        }
                     }
                 }
+                finally
+                {
+                    closeConnectionRace();
+                }
             }
         }
     }
@@ -891,6 +907,11 @@ private ConnectState connectUsingSRVRecords(
 
         if(srvRecords != null)
         {
+            List<InetSocketAddress> srvAddrs
+                = new ArrayList<InetSocketAddress>();
+            Map<InetSocketAddress, String> srvTargets
+                = new HashMap<InetSocketAddress, String>();
+
             for(SRVRecord srv : srvRecords)
             {
                 InetSocketAddress[] addrs = null;
@@ -919,7 +940,24 @@ private ConnectState connectUsingSRVRecords(
                     continue;
                 }
 
-                for (InetSocketAddress isa : addrs)
+                srvAddrs.addAll(Arrays.asList(addrs));
+                for (InetSocketAddress addr : addrs)
+                    srvTargets.put(addr, srv.getTarget());
+            }
+
+            try
+            {
+                List<InetSocketAddress> orderedAddrs
+                    = raceConnections(srvAddrs);
+
+                // let the next lookups demote the targets which failed
+                if (connectionRace != null)
+                {
+                    SrvTargetSelector.getInstance().reportRace(
+                        connectionRace, srvTargets);
+                }
+
+                for (InetSocketAddress isa : orderedAddrs)
                 {
                     try
                     {
@@ -939,6 +977,10 @@ private ConnectState connectUsingSRVRecords(
                     }
                 }
             }
+            finally
+            {
+                closeConnectionRace();
+            }
         }
         else
             logger.error("No SRV addresses found for _xmpp-client._tcp."
@@ -947,6 +989,46 @@ private ConnectState connectUsingSRVRecords(
         return ConnectState.CONTINUE_TRYING;
     }
 
+    /**
+     * Races TCP connections to the addresses of the server (RFC 8305) so that
+     * an unreachable address, for example a broken IPv6 path, does not cost a
+     * whole connect timeout before the next one is tried. The connected
+     * socket of the winner is used by the XMPP connection to its address.
+     *
+     * @param addrs the addresses of the server in order of preference
+     * @return the addresses in the order in which they should be tried
+     */
+    private List<InetSocketAddress> raceConnections(
+        List<InetSocketAddress> addrs)
+    {
+        closeConnectionRace();
+
+        // Nothing to race, or the connection goes through a proxy or BOSH.
+        if (addrs.size() < 2
+            || proxy != null
+            || org.apache.commons.lang3.StringUtils.isNotEmpty(
+                    accountID.getBoshUrl())
+            || !ConnectionRacer.isEnabled())
+            return addrs;
+
+        connectionRace = new ConnectionRacer().race(
+            ConnectionRacer.interleaveFamilies(addrs));
+        return connectionRace.getOrderedAddresses();
+    }
+
+    /**
+     * Closes the socket of the winner of the last connection race unless the
+     * XMPP connection took it.
+     */
+    private void closeConnectionRace()
+    {
+        if (connectionRace != null)
+        {
+            connectionRace.close();
+            connectionRace = null;
+        }
+    }
+
     /**
      * Tries to login to the XMPP server with the supplied user ID. If the
      * protocol is Google Talk, the user ID including the service name is used.
@@ -1188,7 +1270,11 @@ private ConnectState connectAndLogin(
         {
             confConn.setHostAddress(address.getAddress())
                     .setPort(address.getPort())
-                    .setProxyInfo(proxy);
+                    .setProxyInfo(proxy)
+                    .setSocketFactory(
+                        connectionRace == null
+                            ? javax.net.SocketFactory.getDefault()
+                            : connectionRace.getSocketFactory(address));
         }
 
         // if we have OperationSetPersistentPresence skip sending initial
@@ -2898,6 +2984,24 @@ public void startJingleNodesDiscovery()
         jingleNodesServiceNode = service;
     }
 
+    /**
+     * Starts looking up the STUN/TURN server of the account in the
+     * background, so that the first call does not have to wait for it.
+     */
+    public void startIceHarvesterPrewarm()
+    {
+        JabberAccountIDImpl accID = (JabberAccountIDImpl) getAccountID();
+
+        if (!accID.isStunServerDiscoveryEnabled())
+            return;
+
+        NetworkAddressManagerService namSer
+            = JabberActivator.getNetworkAddressManagerService();
+
+        if (namSer != null)
+            IceHarvesterCache.getInstance(namSer).prewarm(accID.getService());
+    }
+
     /**
      * Get the Jingle Nodes service. Note that this method will block until
      * Jingle Nodes auto discovery (if enabled) finished.
@@ -67,6 +67,13 @@
     private final Map<Jid, DiscoverInfo> nonCapsCache
         = new ConcurrentHashMap<>();
 
+    /**
+     * The <tt>EntityCapsPersistentCache</tt> shared by all
+     * <tt>ScServiceDiscoveryManager</tt>s (the persistent cache of
+     * <tt>EntityCapsManager</tt> is static).
+     */
+    private static CapsFilePersistence persistentCache;
+
     /**
      * The <tt>EntityCapsManager</tt> used by this instance to handle entity
      * capabilities.
@@ -202,12 +209,39 @@ public ScServiceDiscoveryManager(
         // For every XMPPConnection, add one EntityCapsManager.
         this.capsManager = EntityCapsManager.getInstanceFor(connection);
         this.capsManager.setEntityNode(entityNode);
-        EntityCapsManager.setPersistentCache(
-            new CapsConfigurationPersistence(configService));
+        initPersistentCache(configService);
         connection.addAsyncStanzaListener(
             this, new StanzaTypeFilter(Presence.class));
     }
 
+    /**
+     * Installs the <tt>EntityCapsPersistentCache</tt> of
+     * <tt>EntityCapsManager</tt> unless it has already been installed by
+     * another <tt>ScServiceDiscoveryManager</tt>.
+     *
+     * @param configService the current configuration service
+     */
+    private static synchronized void initPersistentCache(
+            ConfigurationService configService)
+    {
+        if (persistentCache != null)
+            return;
+
+        try
+        {
+            persistentCache
+                = new CapsFilePersistence(
+                        configService,
+                        UtilActivator.getFileAccessService());
+        }
+        catch (Exception e)
+        {
+            logger.error("Failed to initialize the entity caps cache", e);
+            return;
+        }
+        EntityCapsManager.setPersistentCache(persistentCache);
+    }
+
     /**
      * Registers that a new feature is supported by this XMPP entity. When this
      * client is queried for its information the registered features will be
@@ -381,32 +415,61 @@ private DiscoverInfo discoverInfo(
      */
     public DiscoverInfo discoverInfoNonBlocking(Jid entityID)
     {
-        DiscoverInfo discoverInfo = capsManager.getDiscoverInfoByUser(entityID);
         EntityCapsManager.NodeVerHash caps
             = EntityCapsManager.getNodeVerHashByJid(entityID);
+        DiscoverInfo discoverInfo = getCachedDiscoverInfo(entityID, caps);
+
+        if (discoverInfo != null)
+            return discoverInfo;
+
+        // add to retrieve thread
+        retriever.addEntityForRetrieve(
+            entityID,
+            caps);
+
+        return null;
+    }
+
+    /**
+     * Returns the discovered information of a given XMPP entity addressed by
+     * its JID if locally cached.
+     *
+     * @param entityID the address of the XMPP entity.
+     * @param caps the caps advertised by <tt>entityID</tt> or <tt>null</tt>
+     * @return the discovered information or <tt>null</tt> if it is not
+     * locally cached.
+     */
+    private DiscoverInfo getCachedDiscoverInfo(
+            Jid entityID,
+            EntityCapsManager.NodeVerHash caps)
+    {
+        DiscoverInfo discoverInfo = capsManager.getDiscoverInfoByUser(entityID);
 
-        boolean isInfoValid = false;
         if (discoverInfo != null && caps != null)
         {
-            isInfoValid = EntityCapsManager.verifyDiscoverInfoVersion(
-                caps.getVer(), caps.getHash(), discoverInfo);
-        }
+            String nodeVer = caps.getNodeVer();
+            CapsFilePersistence persistentCache;
 
-        if (discoverInfo != null && isInfoValid)
-            return discoverInfo;
+            synchronized (ScServiceDiscoveryManager.class)
+            {
+                persistentCache = ScServiceDiscoveryManager.persistentCache;
+            }
+            if (persistentCache != null
+                    && persistentCache.isVerified(nodeVer, discoverInfo))
+                return discoverInfo;
 
-        // if caps is not valid, has empty hash
-        if (cacheNonCaps)
-        {
-            discoverInfo = nonCapsCache.get(entityID);
-            if (discoverInfo != null)
+            if (EntityCapsManager.verifyDiscoverInfoVersion(
+                    caps.getVer(), caps.getHash(), discoverInfo))
+            {
+                if (persistentCache != null)
+                    persistentCache.setVerified(nodeVer, discoverInfo);
                 return discoverInfo;
+            }
         }
 
-        // add to retrieve thread
-        retriever.addEntityForRetrieve(
-            entityID,
-            caps);
+        // if caps is not valid, has empty hash
+        if (cacheNonCaps)
+            return nonCapsCache.get(entityID);
 
         return null;
     }
@@ -443,7 +506,13 @@ public DiscoverItems discoverItems(Jid entityID)
      */
     public boolean supportsFeature(Jid jid, String feature)
     {
-        DiscoverInfo info;
+        DiscoverInfo info
+            = getCachedDiscoverInfo(
+                    jid,
+                    EntityCapsManager.getNodeVerHashByJid(jid));
+
+        if (info != null)
+            return info.containsFeature(feature);
 
         try
         {
@@ -665,6 +734,15 @@ public void stop()
         if(retriever != null)
             retriever.stop();
 
+        CapsFilePersistence persistentCache;
+
+        synchronized (ScServiceDiscoveryManager.class)
+        {
+            persistentCache = ScServiceDiscoveryManager.persistentCache;
+        }
+        if (persistentCache != null)
+            persistentCache.flush();
+
         // we need to clean up our reference
         discoveryManager.removeNodeInformationProvider(
             capsManager.getLocalNodeVer());
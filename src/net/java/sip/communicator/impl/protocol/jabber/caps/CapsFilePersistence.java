@@ -0,0 +1,744 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.caps;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smackx.caps.cache.*;
+import org.jivesoftware.smackx.disco.packet.*;
+import org.jxmpp.jid.*;
+import org.xmlpull.mxp1.*;
+import org.xmlpull.v1.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An <tt>EntityCapsPersistentCache</tt> which keeps the disco#info of every
+ * known caps node in a dedicated file in the private cache directory instead
+ * of the <tt>ConfigurationService</tt>.
+ * <p>
+ * The disco#info XML is stored once per distinct content (without the node
+ * attribute), so nodes which only differ in their name share it. Recently
+ * looked up nodes are kept parsed in memory. Nodes which have not been used
+ * for {@link #MAX_AGE_PROPERTY_NAME} days are dropped. Changes are written to
+ * disk in the background a few seconds after they occur.
+ * <p>
+ * Caps which earlier versions stored in the <tt>ConfigurationService</tt> are
+ * imported the first time the cache is loaded and then removed from the
+ * configuration.
+ */
+public class CapsFilePersistence
+    implements EntityCapsPersistentCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>CapsFilePersistence</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(CapsFilePersistence.class);
+
+    /**
+     * The prefix of the <tt>ConfigurationService</tt> properties in which
+     * caps used to be persisted.
+     */
+    private static final String LEGACY_CAPS_PROPERTY_NAME_PREFIX
+        = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
+            + "EntityCapsManager.CAPS.";
+
+    /**
+     * The name of the property which specifies the number of days after which
+     * a node that has not been looked up is evicted from the cache.
+     */
+    public static final String MAX_AGE_PROPERTY_NAME
+        = "net.java.sip.communicator.impl.protocol.jabber.caps.MAX_AGE_DAYS";
+
+    /**
+     * The default value of {@link #MAX_AGE_PROPERTY_NAME}.
+     */
+    private static final int DEFAULT_MAX_AGE_DAYS = 90;
+
+    /**
+     * The name of the file, in the private cache directory, which stores the
+     * caps.
+     */
+    private static final String CAPS_FILE_NAME = "entitycaps.cache";
+
+    /**
+     * The version of the format of {@link #CAPS_FILE_NAME}.
+     */
+    private static final int FILE_FORMAT_VERSION = 1;
+
+    /**
+     * The maximum number of parsed <tt>DiscoverInfo</tt>s kept in memory.
+     */
+    private static final int MAX_PARSED_ENTRIES = 256;
+
+    /**
+     * The maximum number of verified <tt>DiscoverInfo</tt>s remembered.
+     */
+    private static final int MAX_VERIFIED_ENTRIES = 256;
+
+    /**
+     * The delay in milliseconds between a modification of the cache and its
+     * writing to disk.
+     */
+    private static final long SAVE_DELAY = 5000;
+
+    /**
+     * The interval in milliseconds after which looking up an entry again
+     * causes its new time of use to be written to disk.
+     */
+    private static final long TOUCH_SAVE_INTERVAL = 60L * 60L * 1000L;
+
+    /**
+     * The <tt>ConfigurationService</tt> which is to be cleaned of the caps
+     * persisted by earlier versions.
+     */
+    private final ConfigurationService configService;
+
+    /**
+     * The file in which the caps are stored.
+     */
+    private final File file;
+
+    /**
+     * The maximum age in milliseconds of an entry which has not been used.
+     */
+    private final long maxAge;
+
+    /**
+     * The cached entries by node#ver.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * The distinct disco#info XML contents (without node) of
+     * {@link #entries}, so that equal contents are stored only once.
+     */
+    private final Map<String, String> contents = new HashMap<>();
+
+    /**
+     * The most recently looked up <tt>DiscoverInfo</tt>s by node#ver.
+     */
+    private final Map<String, DiscoverInfo> parsed
+        = new LinkedHashMap<String, DiscoverInfo>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, DiscoverInfo> eldest)
+            {
+                return size() > MAX_PARSED_ENTRIES;
+            }
+        };
+
+    /**
+     * The <tt>DiscoverInfo</tt>s which have already been verified against
+     * their node#ver, by node#ver. <tt>EntityCapsManager</tt> returns the same
+     * <tt>DiscoverInfo</tt> instance for a node#ver until it is evicted so
+     * hashing it again upon each lookup can be avoided.
+     */
+    private final Map<String, DiscoverInfo> verified
+        = new LinkedHashMap<String, DiscoverInfo>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, DiscoverInfo> eldest)
+            {
+                return size() > MAX_VERIFIED_ENTRIES;
+            }
+        };
+
+    /**
+     * Whether {@link #entries} has been loaded from {@link #file}.
+     */
+    private boolean loaded = false;
+
+    /**
+     * The names of the legacy configuration properties which are to be
+     * removed once the imported caps have been written to {@link #file}.
+     */
+    private List<String> legacyPropertyNames;
+
+    /**
+     * The <tt>Timer</tt> which writes the cache to disk.
+     */
+    private Timer saveTimer;
+
+    /**
+     * The pending task which writes the cache to disk, if any.
+     */
+    private TimerTask saveTask;
+
+    /**
+     * Initializes a new <tt>CapsFilePersistence</tt>.
+     *
+     * @param configService the current configuration service
+     * @param fileAccessService the service which provides the location of
+     * the cache file
+     * @throws Exception if the location of the cache file cannot be
+     * determined
+     */
+    public CapsFilePersistence(
+            ConfigurationService configService,
+            FileAccessService fileAccessService)
+        throws Exception
+    {
+        this(
+            configService,
+            fileAccessService.getPrivatePersistentFile(
+                    CAPS_FILE_NAME,
+                    FileCategory.CACHE));
+    }
+
+    /**
+     * Initializes a new <tt>CapsFilePersistence</tt> which stores the caps in
+     * a specific file.
+     *
+     * @param configService the current configuration service
+     * @param file the file in which to store the caps
+     */
+    CapsFilePersistence(ConfigurationService configService, File file)
+    {
+        this.configService = configService;
+        this.file = file;
+
+        int maxAgeDays
+            = (configService == null)
+                ? DEFAULT_MAX_AGE_DAYS
+                : configService.getInt(
+                        MAX_AGE_PROPERTY_NAME,
+                        DEFAULT_MAX_AGE_DAYS);
+
+        this.maxAge = maxAgeDays * 24L * 60L * 60L * 1000L;
+    }
+
+    @Override
+    public synchronized void addDiscoverInfoByNodePersistent(
+            String nodeVer,
+            DiscoverInfo info)
+    {
+        load();
+
+        cleanupDiscoverInfo(info);
+
+        /*
+         * Store the XML without the node so that nodes with the same
+         * disco#info share it.
+         */
+        info.setNode(null);
+        String xml = info.getChildElementXML().toString();
+        /*
+         * DiscoverInfo carries the node we're now associating it with a
+         * specific node so we'd better keep them in sync.
+         */
+        info.setNode(nodeVer);
+
+        if ((xml == null) || (xml.length() == 0))
+            return;
+
+        entries.put(
+                nodeVer,
+                new Entry(internContent(xml), System.currentTimeMillis()));
+        parsed.remove(nodeVer);
+        verified.remove(nodeVer);
+        scheduleSave();
+    }
+
+    /**
+     * Determines whether a <tt>DiscoverInfo</tt> has already been verified
+     * against a node#ver by {@link #setVerified(String, DiscoverInfo)}.
+     *
+     * @param nodeVer the node#ver
+     * @param discoverInfo the <tt>DiscoverInfo</tt>
+     * @return <tt>true</tt> if <tt>discoverInfo</tt> has been verified
+     * against <tt>nodeVer</tt>
+     */
+    public synchronized boolean isVerified(
+            String nodeVer,
+            DiscoverInfo discoverInfo)
+    {
+        return verified.get(nodeVer) == discoverInfo;
+    }
+
+    /**
+     * Remembers that a <tt>DiscoverInfo</tt> has been verified against a
+     * node#ver.
+     *
+     * @param nodeVer the node#ver
+     * @param discoverInfo the verified <tt>DiscoverInfo</tt>
+     */
+    public synchronized void setVerified(
+            String nodeVer,
+            DiscoverInfo discoverInfo)
+    {
+        verified.put(nodeVer, discoverInfo);
+    }
+
+    @Override
+    public synchronized DiscoverInfo lookup(String nodeVer)
+    {
+        load();
+
+        Entry entry = entries.get(nodeVer);
+
+        if (entry == null)
+            return null;
+
+        DiscoverInfo discoverInfo = parsed.get(nodeVer);
+
+        if (discoverInfo != null)
+        {
+            touch(entry);
+            return discoverInfo;
+        }
+
+        discoverInfo = parse(entry.content);
+        if (discoverInfo == null)
+        {
+            logger.error("Invalid DiscoverInfo for " + nodeVer);
+            /*
+             * We must have stored invalid information. Delete it in order to
+             * not try to validate it again.
+             */
+            entries.remove(nodeVer);
+        }
+        else
+        {
+            discoverInfo.setNode(nodeVer);
+            parsed.put(nodeVer, discoverInfo);
+            entry.lastUsed = System.currentTimeMillis();
+        }
+        scheduleSave();
+
+        return discoverInfo;
+    }
+
+    /**
+     * Marks an entry as used now so that it is not evicted for
+     * {@link #maxAge}. Since the age is counted in days, the cache is only
+     * written again when the previous time of use is older than
+     * {@link #TOUCH_SAVE_INTERVAL}.
+     *
+     * @param entry the entry which has been looked up
+     */
+    private void touch(Entry entry)
+    {
+        long now = System.currentTimeMillis();
+
+        if (now - entry.lastUsed > TOUCH_SAVE_INTERVAL)
+            scheduleSave();
+        entry.lastUsed = now;
+    }
+
+    @Override
+    public synchronized void emptyCache()
+    {
+        entries.clear();
+        contents.clear();
+        parsed.clear();
+        verified.clear();
+        loaded = true;
+        scheduleSave();
+    }
+
+    /**
+     * Writes any pending modifications of the cache to disk.
+     */
+    public void flush()
+    {
+        synchronized (this)
+        {
+            if (saveTask == null)
+                return;
+            saveTask.cancel();
+            saveTask = null;
+            if (!save())
+                return;
+        }
+        removeLegacyProperties();
+    }
+
+    /**
+     * Returns the shared instance of a specific disco#info XML content, adding
+     * it to {@link #contents} if it is not there yet.
+     *
+     * @param xml the disco#info XML content
+     * @return the shared instance equal to <tt>xml</tt>
+     */
+    private String internContent(String xml)
+    {
+        String content = contents.get(xml);
+
+        if (content == null)
+        {
+            contents.put(xml, xml);
+            content = xml;
+        }
+        return content;
+    }
+
+    /**
+     * Loads the cache from {@link #file} unless it has already been loaded.
+     * If there is no such file, imports the caps persisted in the
+     * <tt>ConfigurationService</tt> by earlier versions.
+     */
+    private void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        if (file.exists())
+        {
+            try
+            {
+                read();
+            }
+            catch (IOException ioe)
+            {
+                logger.warn("Failed to read entity caps from " + file, ioe);
+                entries.clear();
+                contents.clear();
+            }
+        }
+        else
+        {
+            importLegacyProperties();
+        }
+    }
+
+    /**
+     * Reads {@link #entries} from {@link #file}, skipping the ones which have
+     * expired.
+     *
+     * @throws IOException if reading fails or the file is malformed
+     */
+    private void read()
+        throws IOException
+    {
+        DataInputStream in
+            = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+
+        try
+        {
+            if (in.readInt() != FILE_FORMAT_VERSION)
+                return;
+
+            int contentCount = in.readInt();
+            String[] contentArray = new String[contentCount];
+
+            for (int i = 0; i < contentCount; i++)
+            {
+                byte[] bytes = new byte[in.readInt()];
+
+                in.readFully(bytes);
+                contentArray[i] = new String(bytes, "UTF-8");
+            }
+
+            int entryCount = in.readInt();
+            long oldest = System.currentTimeMillis() - maxAge;
+            boolean expired = false;
+
+            for (int i = 0; i < entryCount; i++)
+            {
+                String nodeVer = in.readUTF();
+                int contentIndex = in.readInt();
+                long lastUsed = in.readLong();
+
+                if (lastUsed < oldest)
+                {
+                    expired = true;
+                    continue;
+                }
+                entries.put(
+                        nodeVer,
+                        new Entry(
+                                internContent(contentArray[contentIndex]),
+                                lastUsed));
+            }
+
+            if (expired)
+                scheduleSave();
+        }
+        catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e)
+        {
+            throw new IOException("Malformed entity caps file " + file, e);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Imports the caps which earlier versions stored in the
+     * <tt>ConfigurationService</tt>. The properties themselves are removed
+     * after the imported caps have been written to {@link #file}.
+     */
+    private void importLegacyProperties()
+    {
+        if (configService == null)
+            return;
+
+        List<String> propertyNames
+            = configService.getPropertyNamesByPrefix(
+                    LEGACY_CAPS_PROPERTY_NAME_PREFIX,
+                    true);
+
+        if (propertyNames.isEmpty())
+            return;
+
+        long now = System.currentTimeMillis();
+
+        for (String propertyName : propertyNames)
+        {
+            String xml = configService.getString(propertyName);
+
+            if ((xml != null) && (xml.length() != 0))
+            {
+                entries.put(
+                        propertyName.substring(
+                                LEGACY_CAPS_PROPERTY_NAME_PREFIX.length()),
+                        new Entry(internContent(xml), now));
+            }
+        }
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Imported " + entries.size()
+                + " entity caps from the configuration");
+        }
+
+        legacyPropertyNames = propertyNames;
+        scheduleSave();
+    }
+
+    /**
+     * Schedules the writing of the cache to disk unless it has already been
+     * scheduled.
+     */
+    private void scheduleSave()
+    {
+        if (saveTask != null)
+            return;
+
+        if (saveTimer == null)
+            saveTimer = new Timer(getClass().getSimpleName(), true);
+
+        saveTask
+            = new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (CapsFilePersistence.this)
+                    {
+                        if (saveTask != this)
+                            return;
+                        saveTask = null;
+                        if (!save())
+                            return;
+                    }
+                    removeLegacyProperties();
+                }
+            };
+        saveTimer.schedule(saveTask, SAVE_DELAY);
+    }
+
+    /**
+     * Removes the legacy configuration properties imported by
+     * {@link #importLegacyProperties()}, if any. Invoked after the cache has
+     * been written to {@link #file} and without holding the lock of this
+     * instance because the <tt>ConfigurationService</tt> may write its own
+     * file.
+     */
+    private void removeLegacyProperties()
+    {
+        List<String> propertyNames;
+
+        synchronized (this)
+        {
+            propertyNames = legacyPropertyNames;
+            legacyPropertyNames = null;
+        }
+
+        if (propertyNames != null)
+        {
+            for (String propertyName : propertyNames)
+                configService.removeProperty(propertyName);
+        }
+    }
+
+    /**
+     * Writes {@link #entries} to {@link #file}.
+     *
+     * @return <tt>true</tt> if the cache has been written successfully;
+     * otherwise, <tt>false</tt>
+     */
+    private boolean save()
+    {
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        try
+        {
+            DataOutputStream out
+                = new DataOutputStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream(tmpFile)));
+
+            try
+            {
+                Map<String, Integer> contentIndexes = new HashMap<>();
+                List<String> usedContents = new ArrayList<>();
+
+                for (Entry entry : entries.values())
+                {
+                    if (!contentIndexes.containsKey(entry.content))
+                    {
+                        contentIndexes.put(
+                                entry.content,
+                                usedContents.size());
+                        usedContents.add(entry.content);
+                    }
+                }
+
+                out.writeInt(FILE_FORMAT_VERSION);
+                out.writeInt(usedContents.size());
+                for (String content : usedContents)
+                {
+                    byte[] bytes = content.getBytes("UTF-8");
+
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet())
+                {
+                    out.writeUTF(e.getKey());
+                    out.writeInt(contentIndexes.get(e.getValue().content));
+                    out.writeLong(e.getValue().lastUsed);
+                }
+
+                /*
+                 * Drop the contents which are no longer referenced by any
+                 * entry.
+                 */
+                contents.keySet().retainAll(contentIndexes.keySet());
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (file.exists() && !file.delete())
+                throw new IOException("Failed to delete " + file);
+            if (!tmpFile.renameTo(file))
+                throw new IOException("Failed to rename " + tmpFile);
+            return true;
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("Failed to write entity caps to " + file, ioe);
+            return false;
+        }
+    }
+
+    /**
+     * Parses a disco#info <tt>query</tt> XML element.
+     *
+     * @param xml the XML to parse
+     * @return the parsed <tt>DiscoverInfo</tt> or <tt>null</tt> if
+     * <tt>xml</tt> could not be parsed
+     */
+    private static DiscoverInfo parse(String xml)
+    {
+        IQProvider<?> discoverInfoProvider
+            = ProviderManager.getIQProvider(
+                "query",
+                "http://jabber.org/protocol/disco#info");
+
+        if(discoverInfoProvider == null)
+            return null;
+
+        try
+        {
+            XmlPullParser parser = new MXParser();
+
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(new StringReader(xml));
+            // Start the parser.
+            parser.next();
+
+            return (DiscoverInfo) discoverInfoProvider.parse(parser);
+        }
+        catch(Exception ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Removes from, to and packet-id from <tt>info</tt>.
+     *
+     * @param info the {@link DiscoverInfo} that we'd like to cleanup.
+     */
+    private static void cleanupDiscoverInfo(DiscoverInfo info)
+    {
+        info.setFrom((Jid) null);
+        info.setTo((Jid) null);
+        info.setStanzaId(null);
+    }
+
+    /**
+     * A node#ver stored in the cache.
+     */
+    private static class Entry
+    {
+        /**
+         * The disco#info XML of the node (shared with the other entries with
+         * the same content).
+         */
+        final String content;
+
+        /**
+         * The time at which the entry was last added or looked up.
+         */
+        long lastUsed;
+
+        /**
+         * Initializes a new <tt>Entry</tt>.
+         *
+         * @param content the disco#info XML of the node
+         * @param lastUsed the time at which the entry was last used
+         */
+        Entry(String content, long lastUsed)
+        {
+            this.content = content;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -902,41 +902,32 @@ public void notify( final Subscription subscription,
                         OperationFailedException.INTERNAL_ERROR);
             }
 
-            final long timeSinceLastNotify = System.currentTimeMillis()
-                    - callPeer.getLastConferenceInfoSentTimestamp();
-            if (timeSinceLastNotify < MIN_NOTIFY_INTERVAL)
-            {
-                if (callPeer.isConfInfoScheduled())
-                    return;
-
-                logger.info("Scheduling to send a conference-info NOTIFY to "
-                        + callPeer);
-                callPeer.setConfInfoScheduled(true);
-                new Thread(new Runnable(){
-                    @Override
-                    public void run()
-                    {
-                        try
-                        {
-                            Thread.sleep(1 + MIN_NOTIFY_INTERVAL
-                                         - timeSinceLastNotify);
-                        }
-                        catch (InterruptedException ie) {}
-
-                        try
-                        {
-                            ConferenceEventPackageNotifier.this.notify(
-                                    subscription, subscriptionState, reason);
-                        }
-                        catch (OperationFailedException e)
+            boolean deferred
+                = deferConferenceInfoNotification(
+                        callPeer,
+                        MIN_NOTIFY_INTERVAL,
+                        new Runnable()
                         {
-                            logger.error("Failed to send NOTIFY request");
-                        }
-                    }
-                }).start();
+                            @Override
+                            public void run()
+                            {
+                                try
+                                {
+                                    ConferenceEventPackageNotifier.this.notify(
+                                            subscription,
+                                            subscriptionState,
+                                            reason);
+                                }
+                                catch (OperationFailedException e)
+                                {
+                                    logger.error(
+                                            "Failed to send NOTIFY request");
+                                }
+                            }
+                        });
 
+            if (deferred)
                 return;
-            }
 
             ConferenceInfoDocument currentConfInfo
                     = getCurrentConferenceInfo(callPeer);
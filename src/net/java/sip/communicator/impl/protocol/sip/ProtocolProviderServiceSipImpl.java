@@ -32,6 +32,7 @@
 
 import net.java.sip.communicator.impl.protocol.sip.net.*;
 import net.java.sip.communicator.impl.protocol.sip.security.*;
+import net.java.sip.communicator.service.certificate.*;
 import net.java.sip.communicator.service.dns.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -1253,6 +1254,14 @@ public void run()
                 opSetTypingNotif = null;
             }
 
+            // forget the TLS sessions of the account, the server identities
+            // may have been modified
+            CertificateService certService
+                = SipActivator.getCertificateVerificationService();
+            if (certService != null)
+                certService.removeCachedSSLContexts(
+                    getAccountID().getAccountUniqueID() + "|");
+
             headerFactory = null;
             messageFactory = null;
             addressFactory = null;
@@ -25,6 +25,7 @@
 
 import java.net.*;
 import java.text.*;
+import java.util.*;
 
 import javax.sip.*;
 
@@ -120,6 +121,12 @@ public SRVRecord[] getSRVRecords(String domain)
     private InetSocketAddress socketAddresses[];
     private int socketAddressIndex;
 
+    /**
+     * The targets of the SRV records by the addresses they resolved to.
+     */
+    private final Map<InetSocketAddress, String> srvTargets
+        = new HashMap<InetSocketAddress, String>();
+
     /**
      * Creates a new instance of this class. Uses the server from the account.
      *
@@ -270,9 +277,11 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
             case NaptrSrvHosts:
                 for(; srvRecordsIndex < srvRecords.length; srvRecordsIndex++)
                 {
+                    String target = srvRecords[srvRecordsIndex].getTarget();
                     socketAddresses = nu.getAandAAAARecords(
-                        srvRecords[srvRecordsIndex].getTarget(),
+                        target,
                         srvRecords[srvRecordsIndex].getPort());
+                    putSrvTarget(socketAddresses, target);
                     if(socketAddresses != null && socketAddresses.length > 0)
                     {
                         state = State.NaptrSrvHostIPs;
@@ -334,9 +343,11 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
                 }
                 for(; srvRecordsIndex < srvRecords.length; srvRecordsIndex++)
                 {
+                    String target = srvRecords[srvRecordsIndex].getTarget();
                     socketAddresses = nu.getAandAAAARecords(
-                        srvRecords[srvRecordsIndex].getTarget(),
+                        target,
                         srvRecords[srvRecordsIndex].getPort());
+                    putSrvTarget(socketAddresses, target);
                     if(socketAddresses != null && socketAddresses.length > 0)
                     {
                         state = State.SrvHostIPs;
@@ -379,6 +390,32 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
         return false;
     }
 
+    /**
+     * Remembers the SRV target to which addresses belong.
+     *
+     * @param addresses the addresses of <tt>target</tt>, may be <tt>null</tt>
+     * @param target the target of the SRV record
+     */
+    private void putSrvTarget(InetSocketAddress[] addresses, String target)
+    {
+        if (addresses == null)
+            return;
+        for (InetSocketAddress a : addresses)
+            srvTargets.put(a, target);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.java.sip.communicator.impl.protocol.sip.net.ProxyConnection#
+     * getSrvTarget(java.net.InetSocketAddress)
+     */
+    @Override
+    protected String getSrvTarget(InetSocketAddress address)
+    {
+        return srvTargets.get(address);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -389,6 +426,7 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
     public void reset()
     {
         super.reset();
+        srvTargets.clear();
         state = State.New;
 
         //determine the hostname of the proxy for autodetection:
@@ -22,8 +22,11 @@
 import java.net.*;
 import java.util.*;
 
+import javax.sip.*;
+
 import net.java.sip.communicator.impl.protocol.sip.*;
 import net.java.sip.communicator.service.dns.*;
+import net.java.sip.communicator.util.*;
 
 /**
  * Abstract class for the determining the address for the SIP proxy.
@@ -34,6 +37,18 @@
 {
     private List<String> returnedAddresses = new LinkedList<String>();
 
+    /**
+     * The addresses already retrieved from DNS which are returned before the
+     * next lookup, in the order of the connection race they took part in.
+     */
+    private final LinkedList<Candidate> pending = new LinkedList<Candidate>();
+
+    /**
+     * The DNSSEC failure which stopped looking ahead for addresses to race,
+     * thrown once the pending addresses have been returned.
+     */
+    private DnssecException pendingDnssecException;
+
     protected String transport;
     protected InetSocketAddress socketAddress;
     protected final SipAccountIDImpl account;
@@ -122,6 +137,43 @@ public final boolean isSameInetAddress(InetAddress addressToTest)
      * @throws DnssecException if there is a problem related to DNSSEC
      */
     public final boolean getNextAddress() throws DnssecException
+    {
+        if (!pending.isEmpty())
+        {
+            Candidate candidate = pending.removeFirst();
+
+            socketAddress = candidate.address;
+            transport = candidate.transport;
+            if (candidate.raced || !pending.isEmpty())
+                return true;
+        }
+        else if (pendingDnssecException != null)
+        {
+            DnssecException e = pendingDnssecException;
+
+            pendingDnssecException = null;
+            throw e;
+        }
+        else if (!getNextUniqueAddress())
+            return false;
+
+        if ((ListeningPoint.TCP.equalsIgnoreCase(transport)
+                || ListeningPoint.TLS.equalsIgnoreCase(transport))
+            && ConnectionRacer.isEnabled())
+        {
+            raceConnections();
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the next address from DNS which has not been returned yet.
+     *
+     * @return True if a new address is available through {@link #getAddress()},
+     *         false if the last address was reached.
+     * @throws DnssecException if there is a problem related to DNSSEC
+     */
+    private boolean getNextUniqueAddress() throws DnssecException
     {
         boolean result;
         String key = null;
@@ -142,6 +194,85 @@ public final boolean getNextAddress() throws DnssecException
         return result;
     }
 
+    /**
+     * Looks ahead for the addresses following the current one with the same
+     * stream transport and races TCP connections to them (RFC 8305) so that
+     * the SIP stack first tries an address which is reachable rather than
+     * waiting for the connection to an unreachable one to time out. The
+     * connections of the race are closed because the SIP stack opens its
+     * own.
+     *
+     * @see ConnectionRacer
+     */
+    private void raceConnections()
+    {
+        String raceTransport = transport;
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        Candidate next = null;
+
+        addresses.add(socketAddress);
+        try
+        {
+            while (getNextUniqueAddress())
+            {
+                if (!raceTransport.equals(transport))
+                {
+                    next = new Candidate(socketAddress, transport, false);
+                    break;
+                }
+                addresses.add(socketAddress);
+            }
+        }
+        catch (DnssecException e)
+        {
+            pendingDnssecException = e;
+        }
+
+        if (addresses.size() > 1)
+        {
+            ConnectionRacer.Result race
+                = new ConnectionRacer().race(
+                        ConnectionRacer.interleaveFamilies(addresses));
+
+            race.close();
+            addresses = race.getOrderedAddresses();
+
+            Map<InetSocketAddress, String> targets
+                = new HashMap<InetSocketAddress, String>();
+
+            for (InetSocketAddress address : addresses)
+            {
+                String target = getSrvTarget(address);
+
+                if (target != null)
+                    targets.put(address, target);
+            }
+            if (!targets.isEmpty())
+                SrvTargetSelector.getInstance().reportRace(race, targets);
+        }
+
+        socketAddress = addresses.get(0);
+        transport = raceTransport;
+        for (InetSocketAddress address : addresses.subList(1, addresses.size()))
+            pending.add(new Candidate(address, raceTransport, true));
+        if (next != null)
+            pending.add(next);
+    }
+
+    /**
+     * Returns the target of the SRV record through which an address was
+     * found so that the outcome of the connection race to it can be
+     * recorded for the target.
+     *
+     * @param address an address returned by this <tt>ProxyConnection</tt>
+     * @return the target of the SRV record of <tt>address</tt> or
+     * <tt>null</tt> if it was not found through an SRV record
+     */
+    protected String getSrvTarget(InetSocketAddress address)
+    {
+        return null;
+    }
+
     /**
      * Implementations must use this method to get the next address, but do not
      * have to care about duplicate addresses.
@@ -159,6 +290,8 @@ protected abstract boolean getNextAddressFromDns()
     public void reset()
     {
         returnedAddresses.clear();
+        pending.clear();
+        pendingDnssecException = null;
     }
 
     /**
@@ -177,4 +310,40 @@ public static ProxyConnection create(ProtocolProviderServiceSipImpl pps)
         else
             return new ManualProxyConnection((SipAccountIDImpl) pps.getAccountID());
     }
+
+    /**
+     * An address retrieved from DNS ahead of being returned.
+     */
+    private static class Candidate
+    {
+        /**
+         * The address.
+         */
+        final InetSocketAddress address;
+
+        /**
+         * The transport to use with the address.
+         */
+        final String transport;
+
+        /**
+         * Whether the address took part in a connection race.
+         */
+        final boolean raced;
+
+        /**
+         * Initializes a new <tt>Candidate</tt>.
+         *
+         * @param address the address
+         * @param transport the transport to use with <tt>address</tt>
+         * @param raced whether <tt>address</tt> took part in a connection
+         * race
+         */
+        Candidate(InetSocketAddress address, String transport, boolean raced)
+        {
+            this.address = address;
+            this.transport = transport;
+            this.raced = raced;
+        }
+    }
 }
@@ -24,6 +24,7 @@
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import javax.net.ssl.*;
 
@@ -64,6 +65,20 @@
      */
     private CertificateService certificateVerification = null;
 
+    /**
+     * The number of completed TLS handshakes which established a new session
+     * and the milliseconds they took.
+     */
+    private static final AtomicLong fullHandshakes = new AtomicLong(),
+        fullHandshakeTime = new AtomicLong();
+
+    /**
+     * The number of completed TLS handshakes which resumed a session and the
+     * milliseconds they took.
+     */
+    private static final AtomicLong resumedHandshakes = new AtomicLong(),
+        resumedHandshakeTime = new AtomicLong();
+
     /**
      * Creates the network layer.
      */
@@ -243,7 +258,12 @@ private SSLSocketFactory getSSLSocketFactory(InetAddress address)
                         + "> to list of valid SIP TLS server identities.");
             }
 
-            return certificateVerification.getSSLContext(
+            // keep the context of the account and server so that the TLS
+            // session is resumed when reconnecting, and of the identities so
+            // that a session is not resumed after they have been changed
+            return certificateVerification.getCachedSSLContext(
+                    id.getAccountUniqueID() + "|" + address.getHostAddress()
+                        + "|" + identities,
                     id.getAccountPropertyString(
                         ProtocolProviderFactory.CLIENT_TLS_CERTIFICATE),
                 certificateVerification.getTrustManager(
@@ -273,6 +293,7 @@ public SSLSocket createSSLSocket(InetAddress address, int port)
         SSLSocket sock = (SSLSocket) getSSLSocketFactory(address).createSocket(
             address, port);
         setTrafficClass(sock);
+        countHandshake(sock);
         return sock;
     }
 
@@ -293,6 +314,7 @@ public SSLSocket createSSLSocket(InetAddress address, int port,
         SSLSocket sock = (SSLSocket) getSSLSocketFactory(address).createSocket(
             address, port, myAddress, 0);
         setTrafficClass(sock);
+        countHandshake(sock);
         return sock;
     }
 
@@ -364,6 +386,67 @@ else if (port != 0)
         return sock;
     }
 
+    /**
+     * Counts the TLS handshake of a socket as a full or a resumed one once it
+     * completes.
+     *
+     * @param sock the socket which is about to do its handshake
+     */
+    private void countHandshake(SSLSocket sock)
+    {
+        final long startTime = System.currentTimeMillis();
+
+        sock.addHandshakeCompletedListener(new HandshakeCompletedListener()
+        {
+            public void handshakeCompleted(HandshakeCompletedEvent event)
+            {
+                long duration = System.currentTimeMillis() - startTime;
+                // a resumed session was created by an earlier handshake
+                boolean resumed
+                    = event.getSession().getCreationTime() < startTime;
+
+                if (resumed)
+                {
+                    resumedHandshakes.incrementAndGet();
+                    resumedHandshakeTime.addAndGet(duration);
+                }
+                else
+                {
+                    fullHandshakes.incrementAndGet();
+                    fullHandshakeTime.addAndGet(duration);
+                }
+                event.getSocket().removeHandshakeCompletedListener(this);
+
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug((resumed ? "Resumed" : "Full")
+                        + " TLS handshake with "
+                        + event.getSocket().getRemoteSocketAddress() + " in "
+                        + duration + " ms. " + getHandshakeStatistics());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number and average duration of the full and resumed TLS
+     * handshakes of the SIP connections.
+     *
+     * @return a human-readable summary of the TLS handshakes
+     */
+    public static String getHandshakeStatistics()
+    {
+        long full = fullHandshakes.get();
+        long resumed = resumedHandshakes.get();
+
+        return "TLS handshakes: " + full + " full"
+            + (full == 0 ? "" : " (avg " + fullHandshakeTime.get() / full
+                + " ms)")
+            + ", " + resumed + " resumed"
+            + (resumed == 0 ? "" : " (avg "
+                + resumedHandshakeTime.get() / resumed + " ms)");
+    }
+
     /**
      * Sets the traffic class for the <tt>Socket</tt>.
      *
@@ -0,0 +1,282 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.resources;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * The <tt>URL</tt>s and sizes of the image and sound resources of the current
+ * resource packs by key. Resolving a path to an <tt>URL</tt> asks the class
+ * loaders of the skin and image packs every time so the index is built on a
+ * background thread at startup and entries missing from it are resolved and
+ * added on first use.
+ */
+class ResourceIndex
+    implements Runnable
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>ResourceIndex</tt> class for logging
+     * output.
+     */
+    private static final Logger logger = Logger.getLogger(ResourceIndex.class);
+
+    /**
+     * The entry of the keys of resources which do not exist.
+     */
+    private static final Entry MISSING = new Entry(null, -1);
+
+    /**
+     * The service resolving the resource paths.
+     */
+    private final ResourceManagementServiceImpl resources;
+
+    /**
+     * The image resources by key.
+     */
+    private final Map<String, Entry> images
+        = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The sound resources by key.
+     */
+    private final Map<String, Entry> sounds
+        = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The keys of the images to add to this index in the background.
+     */
+    private Collection<String> imageKeys;
+
+    /**
+     * The keys of the sounds to add to this index in the background.
+     */
+    private Collection<String> soundKeys;
+
+    /**
+     * Whether this index has been discarded and should no longer be built.
+     */
+    private volatile boolean discarded = false;
+
+    /**
+     * Initializes a new empty <tt>ResourceIndex</tt>.
+     *
+     * @param resources the service resolving the resource paths
+     */
+    ResourceIndex(ResourceManagementServiceImpl resources)
+    {
+        this.resources = resources;
+    }
+
+    /**
+     * Starts adding image and sound resources to this index on a background
+     * thread.
+     *
+     * @param imageKeys the keys of the images to add
+     * @param soundKeys the keys of the sounds to add
+     */
+    void startBuilding(
+            Collection<String> imageKeys,
+            Collection<String> soundKeys)
+    {
+        this.imageKeys = imageKeys;
+        this.soundKeys = soundKeys;
+
+        Thread thread = new Thread(this, getClass().getName());
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Makes a background build of this index stop because the resource packs
+     * have changed.
+     */
+    void discard()
+    {
+        discarded = true;
+    }
+
+    /**
+     * Adds the image and sound resources given to
+     * {@link #startBuilding(Collection, Collection)} to this index.
+     */
+    @Override
+    public void run()
+    {
+        long startTime = System.currentTimeMillis();
+        long size = 0;
+
+        try
+        {
+            for (String key : imageKeys)
+            {
+                if (discarded)
+                    return;
+                size += Math.max(0, getImage(key, true).size);
+            }
+            for (String key : soundKeys)
+            {
+                if (discarded)
+                    return;
+                size += Math.max(0, getSound(key, true).size);
+            }
+        }
+        catch (Throwable t)
+        {
+            if (t instanceof ThreadDeath)
+                throw (ThreadDeath) t;
+            logger.warn("Failed to index resources", t);
+            return;
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Indexed " + images.size() + " images and " + sounds.size()
+                        + " sounds (" + size + " bytes) in "
+                        + (System.currentTimeMillis() - startTime) + " ms");
+        }
+    }
+
+    /**
+     * Returns the entry of an image resource, resolving it if necessary.
+     *
+     * @param key the key of the image
+     * @param withSize <tt>true</tt> to determine the size of the image if it
+     * is not known yet
+     * @return the entry of the image; its <tt>url</tt> is <tt>null</tt> if
+     * there is no such image
+     */
+    Entry getImage(String key, boolean withSize)
+    {
+        Entry entry = images.get(key);
+
+        if ((entry == null) || (withSize && (entry.size < 0)))
+        {
+            String path = resources.getImagePath(key);
+
+            entry
+                = resolve(
+                        (path == null || path.length() == 0)
+                            ? null
+                            : resources.getImageURLForPath(path),
+                        withSize);
+            if (!discarded)
+                images.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entry of a sound resource, resolving it if necessary.
+     *
+     * @param key the key of the sound
+     * @param withSize <tt>true</tt> to determine the size of the sound if it
+     * is not known yet
+     * @return the entry of the sound; its <tt>url</tt> is <tt>null</tt> if
+     * there is no such sound
+     */
+    Entry getSound(String key, boolean withSize)
+    {
+        Entry entry = sounds.get(key);
+
+        if ((entry == null) || (withSize && (entry.size < 0)))
+        {
+            String path = resources.getSoundPath(key);
+
+            entry
+                = resolve(
+                        (path == null || path.length() == 0)
+                            ? null
+                            : resources.getSoundURLForPath(path),
+                        withSize);
+            if (!discarded)
+                sounds.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Creates the entry of a resource.
+     *
+     * @param url the <tt>URL</tt> of the resource or <tt>null</tt>
+     * @param withSize <tt>true</tt> to determine the size of the resource
+     * @return the entry of the resource
+     */
+    private static Entry resolve(URL url, boolean withSize)
+    {
+        if (url == null)
+            return MISSING;
+
+        long size = -1;
+
+        if (withSize)
+        {
+            try
+            {
+                URLConnection connection = url.openConnection();
+
+                size = connection.getContentLengthLong();
+                // Connecting may have opened the resource.
+                connection.getInputStream().close();
+            }
+            catch (IOException ioe)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Failed to get size of " + url, ioe);
+            }
+        }
+        return new Entry(url, size);
+    }
+
+    /**
+     * The <tt>URL</tt> and size of a resource.
+     */
+    static class Entry
+    {
+        /**
+         * The <tt>URL</tt> of the resource or <tt>null</tt> if it does not
+         * exist.
+         */
+        final URL url;
+
+        /**
+         * The number of bytes of the resource or <tt>-1</tt> if it is not
+         * known.
+         */
+        final long size;
+
+        /**
+         * Initializes a new <tt>Entry</tt>.
+         *
+         * @param url the <tt>URL</tt> of the resource
+         * @param size the number of bytes of the resource
+         */
+        Entry(URL url, long size)
+        {
+            this.url = url;
+            this.size = size;
+        }
+    }
+}
@@ -20,8 +20,6 @@
 import java.io.*;
 import java.net.*;
 
-import javax.swing.*;
-
 import net.java.sip.communicator.impl.resources.util.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.resources.*;
@@ -51,6 +49,12 @@
      */
     private UIService uiService = null;
 
+    /**
+     * The <tt>URL</tt>s and sizes of the images and sounds of the current
+     * resource packs.
+     */
+    private ResourceIndex index;
+
     /**
      * Initializes already registered default resource packs.
      */
@@ -58,6 +62,8 @@
     {
         super(ResourceManagementActivator.bundleContext);
 
+        rebuildIndex();
+
         UIService serv = getUIService();
         if (serv != null)
         {
@@ -111,6 +117,46 @@ else if (sService instanceof UIService
         }
     }
 
+    /**
+     * Drops the cached images and strings and rebuilds the index of the
+     * resources when a resource pack has changed.
+     */
+    @Override
+    protected void onResourcesChanged()
+    {
+        super.onResourcesChanged();
+        rebuildIndex();
+    }
+
+    /**
+     * Replaces the index of the resources with a new one built in the
+     * background from the current resource packs.
+     */
+    private void rebuildIndex()
+    {
+        ResourceIndex newIndex = new ResourceIndex(this);
+        ResourceIndex oldIndex;
+
+        synchronized (this)
+        {
+            oldIndex = index;
+            index = newIndex;
+        }
+        if (oldIndex != null)
+            oldIndex.discard();
+        newIndex.startBuilding(getImageKeys(), getSoundKeys());
+    }
+
+    /**
+     * Returns the index of the resources of the current resource packs.
+     *
+     * @return the index of the resources of the current resource packs
+     */
+    private synchronized ResourceIndex getIndex()
+    {
+        return index;
+    }
+
     /**
      * Repaints the whole UI when a skin pack has changed.
      */
@@ -210,16 +256,20 @@ public InputStream getImageInputStreamForPath(String path)
      */
     public InputStream getImageInputStream(String streamKey)
     {
-        String path = getImagePath(streamKey);
+        URL url = getImageURL(streamKey);
+
+        if (url == null)
+            return null;
 
-        if (path == null || path.length() == 0)
+        try
         {
-            if (logger.isDebugEnabled())
-                logger.debug("Missing resource for key: " + streamKey);
+            return url.openStream();
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Failed to open image: " + url, ioe);
             return null;
         }
-
-        return getImageInputStreamForPath(path);
     }
 
     /**
@@ -230,15 +280,11 @@ public InputStream getImageInputStream(String streamKey)
      */
     public URL getImageURL(String urlKey)
     {
-        String path = getImagePath(urlKey);
+        URL url = getIndex().getImage(urlKey, false).url;
 
-        if (path == null || path.length() == 0)
-        {
-            if (logger.isDebugEnabled())
-                logger.debug("Missing resource for key: " + urlKey);
-            return null;
-        }
-        return getImageURLForPath(path);
+        if ((url == null) && logger.isDebugEnabled())
+            logger.debug("Missing resource for key: " + urlKey);
+        return url;
     }
 
     /**
@@ -271,15 +317,11 @@ public URL getImageURLForPath(String path)
      */
     public URL getSoundURL(String urlKey)
     {
-        String path = getSoundPath(urlKey);
+        URL url = getIndex().getSound(urlKey, false).url;
 
-        if (path == null || path.length() == 0)
-        {
-            if (logger.isDebugEnabled())
-                logger.debug("Missing resource for key: " + urlKey);
-            return null;
-        }
-        return getSoundURLForPath(path);
+        if ((url == null) && logger.isDebugEnabled())
+            logger.debug("Missing resource for key: " + urlKey);
+        return url;
     }
 
     /**
@@ -302,17 +344,20 @@ public URL getSoundURLForPath(String path)
     @Override
     public byte[] getImageInBytes(String imageID)
     {
-        InputStream in = getImageInputStream(imageID);
+        ResourceIndex.Entry entry = getIndex().getImage(imageID, true);
 
-        if(in == null)
+        if (entry.url == null)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Missing resource for key: " + imageID);
             return null;
+        }
 
         byte[] image = null;
 
         try
         {
-            image = new byte[in.available()];
-            in.read(image);
+            image = readFully(entry.url.openStream(), entry.size);
         }
         catch (IOException e)
         {
@@ -322,20 +367,6 @@ public byte[] getImageInBytes(String imageID)
         return image;
     }
 
-    /**
-     * Loads an image from a given image identifier.
-     *
-     * @param imageID The identifier of the image.
-     * @return The image for the given identifier.
-     */
-    @Override
-    public ImageIcon getImage(String imageID)
-    {
-        URL imageURL = getImageURL(imageID);
-
-        return (imageURL == null) ? null : new ImageIcon(imageURL);
-    }
-
     /**
      * Builds a new skin bundle from the zip file content.
      *
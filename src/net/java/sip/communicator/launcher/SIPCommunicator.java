@@ -193,7 +193,10 @@ public static void main(String[] args)
 
         //there was no error, continue;
         System.setOut(new ScStdOut(System.out));
-        Main.main(new String[0]);
+        if (StartupProfiler.isEnabled())
+            StartupProfiler.launch();
+        else
+            Main.main(new String[0]);
     }
 
     /**
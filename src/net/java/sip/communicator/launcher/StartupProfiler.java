@@ -0,0 +1,711 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.launcher;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.apache.felix.framework.util.*;
+import org.apache.felix.main.*;
+import org.osgi.framework.*;
+import org.osgi.framework.hooks.resolver.*;
+import org.osgi.framework.hooks.service.*;
+import org.osgi.framework.launch.*;
+import org.osgi.framework.startlevel.*;
+import org.osgi.framework.wiring.*;
+
+/**
+ * Launches Felix the way <tt>org.apache.felix.main.Main</tt> does and
+ * measures, for every bundle, how long it took to be resolved, how long its
+ * activator ran and how long it waited for the services it listens for.
+ * <p>
+ * Enabled by setting the {@link #PNAME_PROFILE_STARTUP} system property to
+ * <tt>true</tt>. Once the framework has started, the measurements are written
+ * to <tt>startup-profile.txt</tt> next to the log files, sorted by the time
+ * spent so that the bundles worth starting lazily (see
+ * <tt>ServiceUtils</tt>) stand out.
+ */
+public class StartupProfiler
+    implements BundleActivator,
+               FrameworkListener,
+               ServiceListener,
+               SynchronousBundleListener
+{
+    /**
+     * The name of the system property which enables the profiling of the
+     * startup.
+     */
+    public static final String PNAME_PROFILE_STARTUP
+        = "net.java.sip.communicator.launcher.PROFILE_STARTUP";
+
+    /**
+     * The name of the file the measurements are written to.
+     */
+    private static final String REPORT_FILE_NAME = "startup-profile.txt";
+
+    /**
+     * The pattern of the <tt>objectClass</tt> conditions in service listener
+     * filters.
+     */
+    private static final Pattern OBJECT_CLASS_PATTERN
+        = Pattern.compile(
+                "\\(\\s*objectClass\\s*=\\s*([^)*\\s]+)\\s*\\)",
+                Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The framework being profiled.
+     */
+    private static Framework framework;
+
+    /**
+     * The measurements of the bundles by bundle ID.
+     */
+    private final Map<Long, BundleProfile> profiles
+        = new HashMap<Long, BundleProfile>();
+
+    /**
+     * The times (as returned by <tt>System.nanoTime()</tt>) bundles started
+     * waiting for services which were not registered yet by service class
+     * name and waiting bundle ID.
+     */
+    private final Map<String, Map<Long, Long>> waits
+        = new HashMap<String, Map<Long, Long>>();
+
+    /**
+     * The time (as returned by <tt>System.nanoTime()</tt>) the framework was
+     * created.
+     */
+    private final long launchTime = System.nanoTime();
+
+    /**
+     * The context of the system bundle.
+     */
+    private BundleContext bundleContext;
+
+    /**
+     * The registrations of the hooks of this profiler.
+     */
+    private final List<ServiceRegistration<?>> hookRegistrations
+        = new ArrayList<ServiceRegistration<?>>();
+
+    /**
+     * Determines whether the profiling of the startup is enabled.
+     *
+     * @return <tt>true</tt> if the startup is to be profiled
+     */
+    static boolean isEnabled()
+    {
+        return Boolean.getBoolean(PNAME_PROFILE_STARTUP);
+    }
+
+    /**
+     * Launches Felix with the same configuration as
+     * <tt>org.apache.felix.main.Main</tt> and a <tt>StartupProfiler</tt>
+     * activated with the system bundle, then waits for the framework to stop
+     * and exits.
+     */
+    static void launch()
+    {
+        Main.loadSystemProperties();
+
+        Map<String, Object> configProps = new HashMap<String, Object>();
+        Map<String, String> loadedProps = Main.loadConfigProperties();
+
+        if (loadedProps == null)
+            System.err.println("No " + Main.CONFIG_PROPERTIES_FILE_VALUE
+                + " found.");
+        else
+            configProps.putAll(loadedProps);
+        Main.copySystemProperties(configProps);
+
+        // Activated before any other bundle is installed or started.
+        List<BundleActivator> activators = new ArrayList<BundleActivator>();
+
+        activators.add(new StartupProfiler());
+        configProps.put(
+                FelixConstants.SYSTEMBUNDLE_ACTIVATORS_PROP,
+                activators);
+
+        Object enableHook = configProps.get(Main.SHUTDOWN_HOOK_PROP);
+
+        if ((enableHook == null)
+                || !"false".equalsIgnoreCase(enableHook.toString()))
+        {
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread("Felix Shutdown Hook")
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                if (framework != null)
+                                {
+                                    framework.stop();
+                                    framework.waitForStop(0);
+                                }
+                            }
+                            catch (Exception ex)
+                            {
+                                System.err.println(
+                                    "Error stopping framework: " + ex);
+                            }
+                        }
+                    });
+        }
+
+        try
+        {
+            framework
+                = new org.apache.felix.framework.FrameworkFactory()
+                    .newFramework(configProps);
+            framework.init();
+            AutoProcessor.process(configProps, framework.getBundleContext());
+
+            FrameworkEvent event;
+
+            do
+            {
+                framework.start();
+                event = framework.waitForStop(0);
+            }
+            while (event.getType() == FrameworkEvent.STOPPED_UPDATE);
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Could not create framework: " + ex);
+            ex.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts measuring the resolving, activation and service waits of the
+     * bundles.
+     *
+     * @param bundleContext the context of the system bundle
+     */
+    @Override
+    public void start(BundleContext bundleContext)
+    {
+        this.bundleContext = bundleContext;
+
+        bundleContext.addBundleListener(this);
+        bundleContext.addFrameworkListener(this);
+        bundleContext.addServiceListener(this);
+
+        hookRegistrations.add(
+                bundleContext.registerService(
+                        ResolverHookFactory.class,
+                        new ResolverHookFactory()
+                        {
+                            @Override
+                            public ResolverHook begin(
+                                    Collection<BundleRevision> triggers)
+                            {
+                                return new ProfilingResolverHook(triggers);
+                            }
+                        },
+                        null));
+        hookRegistrations.add(
+                bundleContext.registerService(
+                        ListenerHook.class,
+                        new ListenerHook()
+                        {
+                            @Override
+                            public void added(Collection<ListenerInfo> listeners)
+                            {
+                                listenersAdded(listeners);
+                            }
+
+                            @Override
+                            public void removed(
+                                    Collection<ListenerInfo> listeners)
+                            {
+                            }
+                        },
+                        null));
+    }
+
+    /**
+     * Stops measuring.
+     *
+     * @param bundleContext the context of the system bundle
+     */
+    @Override
+    public void stop(BundleContext bundleContext)
+    {
+        stopProfiling();
+    }
+
+    /**
+     * Records the times bundles start and finish their activation.
+     *
+     * @param event the <tt>BundleEvent</tt> which describes the change
+     */
+    @Override
+    public void bundleChanged(BundleEvent event)
+    {
+        Bundle bundle = event.getBundle();
+
+        switch (event.getType())
+        {
+        case BundleEvent.STARTING:
+            synchronized (this)
+            {
+                getProfile(bundle).activationStart = System.nanoTime();
+            }
+            break;
+        case BundleEvent.STARTED:
+            synchronized (this)
+            {
+                BundleProfile profile = getProfile(bundle);
+
+                if (profile.activationStart != 0)
+                {
+                    profile.activationTime
+                        += System.nanoTime() - profile.activationStart;
+                    profile.activationStart = 0;
+                }
+            }
+            break;
+        }
+    }
+
+    /**
+     * Writes the measurements once the framework has started.
+     *
+     * @param event the <tt>FrameworkEvent</tt> which describes the change
+     */
+    @Override
+    public void frameworkEvent(FrameworkEvent event)
+    {
+        if (event.getType() == FrameworkEvent.STARTED)
+        {
+            long startupTime = System.nanoTime() - launchTime;
+
+            stopProfiling();
+            writeReport(startupTime);
+        }
+    }
+
+    /**
+     * Ends the waits of bundles for the classes of a registered service.
+     *
+     * @param event the <tt>ServiceEvent</tt> which describes the change
+     */
+    @Override
+    public void serviceChanged(ServiceEvent event)
+    {
+        if (event.getType() != ServiceEvent.REGISTERED)
+            return;
+
+        Object objectClass
+            = event.getServiceReference().getProperty(Constants.OBJECTCLASS);
+
+        if (!(objectClass instanceof String[]))
+            return;
+
+        long now = System.nanoTime();
+
+        synchronized (this)
+        {
+            for (String className : (String[]) objectClass)
+            {
+                Map<Long, Long> classWaits = waits.remove(className);
+
+                if (classWaits == null)
+                    continue;
+
+                for (Map.Entry<Long, Long> e : classWaits.entrySet())
+                {
+                    BundleProfile profile = profiles.get(e.getKey());
+
+                    if (profile != null)
+                    {
+                        long waitTime = now - e.getValue();
+
+                        profile.waitTime += waitTime;
+                        profile.waitedFor.put(className, waitTime);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the waits of bundles which add service listeners for classes of
+     * which no service is registered yet.
+     *
+     * @param listeners the added service listeners
+     */
+    private void listenersAdded(Collection<ListenerHook.ListenerInfo> listeners)
+    {
+        long now = System.nanoTime();
+
+        for (ListenerHook.ListenerInfo listener : listeners)
+        {
+            String filter = listener.getFilter();
+
+            if (filter == null)
+                continue;
+
+            Bundle bundle = listener.getBundleContext().getBundle();
+
+            if (bundle.getBundleId() == Constants.SYSTEM_BUNDLE_ID)
+                continue;
+
+            Matcher matcher = OBJECT_CLASS_PATTERN.matcher(filter);
+
+            while (matcher.find())
+            {
+                String className = matcher.group(1);
+                ServiceReference<?> serviceReference;
+
+                try
+                {
+                    serviceReference
+                        = bundleContext.getServiceReference(className);
+                }
+                catch (IllegalStateException ise)
+                {
+                    return;
+                }
+                if (serviceReference != null)
+                    continue;
+
+                synchronized (this)
+                {
+                    getProfile(bundle);
+
+                    Map<Long, Long> classWaits = waits.get(className);
+
+                    if (classWaits == null)
+                    {
+                        classWaits = new HashMap<Long, Long>();
+                        waits.put(className, classWaits);
+                    }
+                    if (!classWaits.containsKey(bundle.getBundleId()))
+                        classWaits.put(bundle.getBundleId(), now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the listeners and hooks of this profiler.
+     */
+    private synchronized void stopProfiling()
+    {
+        if (bundleContext == null)
+            return;
+
+        try
+        {
+            bundleContext.removeBundleListener(this);
+            bundleContext.removeFrameworkListener(this);
+            bundleContext.removeServiceListener(this);
+            for (ServiceRegistration<?> registration : hookRegistrations)
+                registration.unregister();
+        }
+        catch (IllegalStateException ise)
+        {
+            // The framework is stopping.
+        }
+        hookRegistrations.clear();
+        bundleContext = null;
+    }
+
+    /**
+     * Gets the measurements of a specific bundle, creating them if
+     * necessary.
+     *
+     * @param bundle the bundle to get the measurements of
+     * @return the measurements of <tt>bundle</tt>
+     */
+    private BundleProfile getProfile(Bundle bundle)
+    {
+        BundleProfile profile = profiles.get(bundle.getBundleId());
+
+        if (profile == null)
+        {
+            profile = new BundleProfile(bundle);
+            profiles.put(bundle.getBundleId(), profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Writes the measurements to {@link #REPORT_FILE_NAME} in the log
+     * directory (or the current directory if it is not known).
+     *
+     * @param startupTime the number of nanoseconds from the creation of the
+     * framework until it started
+     */
+    private void writeReport(long startupTime)
+    {
+        List<BundleProfile> sorted;
+        Map<String, Long> pendingWaits = new TreeMap<String, Long>();
+
+        synchronized (this)
+        {
+            sorted = new ArrayList<BundleProfile>(profiles.values());
+            sorted.remove(profiles.get(Constants.SYSTEM_BUNDLE_ID));
+
+            long now = System.nanoTime();
+
+            for (Map.Entry<String, Map<Long, Long>> e : waits.entrySet())
+            {
+                long oldest = now;
+
+                for (long time : e.getValue().values())
+                    oldest = Math.min(oldest, time);
+                pendingWaits.put(e.getKey(), now - oldest);
+            }
+        }
+        Collections.sort(
+                sorted,
+                new Comparator<BundleProfile>()
+                {
+                    @Override
+                    public int compare(BundleProfile a, BundleProfile b)
+                    {
+                        long aTime = a.activationTime + a.resolveTime;
+                        long bTime = b.activationTime + b.resolveTime;
+
+                        return (aTime < bTime) ? 1 : (aTime > bTime) ? -1 : 0;
+                    }
+                });
+
+        File file = getReportFile();
+        PrintWriter out = null;
+
+        try
+        {
+            out = new PrintWriter(new FileWriter(file));
+            out.println("Framework started in " + millis(startupTime) + " ms");
+            out.println();
+            out.println("level\tresolve ms\tactivate ms\twait ms\tbundle");
+
+            long resolveTotal = 0;
+            long activationTotal = 0;
+
+            for (BundleProfile profile : sorted)
+            {
+                resolveTotal += profile.resolveTime;
+                activationTotal += profile.activationTime;
+                out.println(
+                        profile.startLevel
+                            + "\t" + millis(profile.resolveTime)
+                            + "\t" + millis(profile.activationTime)
+                            + "\t" + millis(profile.waitTime)
+                            + "\t" + profile.name);
+                for (Map.Entry<String, Long> e : profile.waitedFor.entrySet())
+                {
+                    out.println(
+                            "\t\t\t" + millis(e.getValue())
+                                + "\t  waited for " + e.getKey());
+                }
+            }
+            out.println();
+            out.println(
+                    "Total: resolve " + millis(resolveTotal)
+                        + " ms, activate " + millis(activationTotal) + " ms");
+            if (!pendingWaits.isEmpty())
+            {
+                out.println();
+                out.println("Services still not registered:");
+                for (Map.Entry<String, Long> e : pendingWaits.entrySet())
+                {
+                    out.println(
+                            "\t" + millis(e.getValue()) + " ms\t" + e.getKey());
+                }
+            }
+        }
+        catch (IOException ioe)
+        {
+            System.err.println(
+                "Failed to write startup profile to " + file + ": " + ioe);
+        }
+        finally
+        {
+            if (out != null)
+                out.close();
+        }
+    }
+
+    /**
+     * Returns the file the measurements are to be written to.
+     *
+     * @return the file the measurements are to be written to
+     */
+    private static File getReportFile()
+    {
+        String logLocation
+            = System.getProperty(SIPCommunicator.PNAME_SC_LOG_DIR_LOCATION);
+        String name = System.getProperty(SIPCommunicator.PNAME_SC_HOME_DIR_NAME);
+
+        if ((logLocation != null) && (name != null))
+        {
+            File dir = new File(new File(logLocation, name), "log");
+
+            if (dir.isDirectory() || dir.mkdirs())
+                return new File(dir, REPORT_FILE_NAME);
+        }
+        return new File(REPORT_FILE_NAME);
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds.
+     *
+     * @param nanos the number of nanoseconds
+     * @return the number of milliseconds in <tt>nanos</tt>
+     */
+    private static long millis(long nanos)
+    {
+        return nanos / 1000000;
+    }
+
+    /**
+     * The measurements of a bundle.
+     */
+    private static class BundleProfile
+    {
+        /**
+         * The symbolic name (or location) of the bundle.
+         */
+        final String name;
+
+        /**
+         * The start level of the bundle.
+         */
+        final int startLevel;
+
+        /**
+         * The time (as returned by <tt>System.nanoTime()</tt>) the activation
+         * of the bundle started or <tt>0</tt>.
+         */
+        long activationStart;
+
+        /**
+         * The number of nanoseconds the activator of the bundle ran.
+         */
+        long activationTime;
+
+        /**
+         * The number of nanoseconds spent resolving the bundle.
+         */
+        long resolveTime;
+
+        /**
+         * The number of nanoseconds the bundle waited for services.
+         */
+        long waitTime;
+
+        /**
+         * The number of nanoseconds the bundle waited for each service class.
+         */
+        final Map<String, Long> waitedFor = new TreeMap<String, Long>();
+
+        /**
+         * Initializes the measurements of a specific bundle.
+         *
+         * @param bundle the bundle
+         */
+        BundleProfile(Bundle bundle)
+        {
+            String name = bundle.getSymbolicName();
+
+            this.name = (name == null) ? bundle.getLocation() : name;
+
+            BundleStartLevel bundleStartLevel
+                = bundle.adapt(BundleStartLevel.class);
+
+            startLevel
+                = (bundleStartLevel == null)
+                    ? 0
+                    : bundleStartLevel.getStartLevel();
+        }
+    }
+
+    /**
+     * Measures a resolve operation and adds its duration to the bundles which
+     * triggered it, shared equally between them.
+     */
+    private class ProfilingResolverHook
+        implements ResolverHook
+    {
+        /**
+         * The bundles which triggered the resolve operation.
+         */
+        private final List<Bundle> triggers = new ArrayList<Bundle>();
+
+        /**
+         * The time (as returned by <tt>System.nanoTime()</tt>) the resolve
+         * operation started.
+         */
+        private final long startTime = System.nanoTime();
+
+        /**
+         * Initializes a new hook for a resolve operation.
+         *
+         * @param triggers the revisions which triggered the resolve operation
+         */
+        ProfilingResolverHook(Collection<BundleRevision> triggers)
+        {
+            for (BundleRevision trigger : triggers)
+                this.triggers.add(trigger.getBundle());
+        }
+
+        @Override
+        public void filterResolvable(Collection<BundleRevision> candidates)
+        {
+        }
+
+        @Override
+        public void filterSingletonCollisions(
+                BundleCapability singleton,
+                Collection<BundleCapability> collisionCandidates)
+        {
+        }
+
+        @Override
+        public void filterMatches(
+                BundleRequirement requirement,
+                Collection<BundleCapability> candidates)
+        {
+        }
+
+        @Override
+        public void end()
+        {
+            if (triggers.isEmpty())
+                return;
+
+            long resolveTime
+                = (System.nanoTime() - startTime) / triggers.size();
+
+            synchronized (StartupProfiler.this)
+            {
+                for (Bundle trigger : triggers)
+                    getProfile(trigger).resolveTime += resolveTime;
+            }
+        }
+    }
+}
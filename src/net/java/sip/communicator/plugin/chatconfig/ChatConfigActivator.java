@@ -175,31 +175,19 @@ public static ConfigurationService getConfigurationService()
      */
     public static Map<String, ReplacementService> getReplacementSources()
     {
-        ServiceReference[] serRefs = null;
-        try
+        // get all registered sources, starting the lazily activated ones
+        for (ServiceReference<ReplacementService> serRef
+                : ServiceUtils.getServiceReferences(
+                        bundleContext,
+                        ReplacementService.class))
         {
-            // get all registered sources
-            serRefs =
-                bundleContext.getServiceReferences(ReplacementService.class
-                    .getName(), null);
+            ReplacementService replacementSources
+                = bundleContext.getService(serRef);
 
-        }
-        catch (InvalidSyntaxException e)
-        {
-            logger.error("Error : " + e);
-        }
-
-        if (serRefs != null)
-        {
-            for (int i = 0; i < serRefs.length; i++)
-            {
-                ReplacementService replacementSources =
-                    (ReplacementService) bundleContext.getService(serRefs[i]);
-
-                replacementSourcesMap.put((String)serRefs[i]
-                    .getProperty(ReplacementService.SOURCE_NAME),
+            replacementSourcesMap.put(
+                    (String) serRef.getProperty(
+                            ReplacementService.SOURCE_NAME),
                     replacementSources);
-            }
         }
         return replacementSourcesMap;
     }
@@ -20,6 +20,7 @@
 import java.security.*;
 import java.security.spec.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.otr4j.crypto.*;
 import net.java.sip.communicator.plugin.otr.OtrContactManager.OtrContact;
@@ -38,6 +39,14 @@
     private final List<ScOtrKeyManagerListener> listeners =
         new Vector<ScOtrKeyManagerListener>();
 
+    /**
+     * The key pairs of the accounts by account unique ID. Decoding the keys
+     * stored in the configuration is expensive and they are needed for every
+     * OTR message.
+     */
+    private final Map<String, KeyPair> keyPairs
+        = new ConcurrentHashMap<String, KeyPair>();
+
     public void addListener(ScOtrKeyManagerListener l)
     {
         synchronized (listeners)
@@ -247,6 +256,11 @@ public KeyPair loadKeyPair(AccountID account)
             return null;
 
         String accountID = account.getAccountUniqueID();
+        KeyPair keyPair = keyPairs.get(accountID);
+
+        if (keyPair != null)
+            return keyPair;
+
         // Load Private Key.
         byte[] b64PrivKey =
             this.configurator.getPropertyBytes(accountID + ".privateKey");
@@ -286,7 +300,9 @@ public KeyPair loadKeyPair(AccountID account)
             return null;
         }
 
-        return new KeyPair(publicKey, privateKey);
+        keyPair = new KeyPair(publicKey, privateKey);
+        keyPairs.put(accountID, keyPair);
+        return keyPair;
     }
 
     public void generateKeyPair(AccountID account)
@@ -321,5 +337,7 @@ public void generateKeyPair(AccountID account)
 
         this.configurator.setProperty(accountID + ".privateKey",
             pkcs8EncodedKeySpec.getEncoded());
+
+        keyPairs.put(accountID, keyPair);
     }
 }
@@ -20,8 +20,6 @@
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.util.*;
 
-import java.util.*;
-
 import static net.java.sip.communicator.plugin.reconnectplugin.ReconnectPluginActivator.*;
 
 /**
@@ -56,9 +54,9 @@
     private final Object localStateMutex = new Object();
 
     /**
-     * Timer for scheduling the reconnect operation.
+     * Whether the wrapper has been cleared and must not schedule reconnects.
      */
-    private Timer timer = null;
+    private boolean cleared = false;
 
     /**
      * Whether we had scheduled unregister for this provider.
@@ -74,7 +72,7 @@
     /**
      * The current reconnect task.
      */
-    private ReconnectTask currentReconnect = null;
+    private ReconnectCoordinator.Reconnect currentReconnect = null;
 
     /**
      * Protects currentReconnect field.
@@ -89,8 +87,6 @@
     public PPReconnectWrapper(ProtocolProviderService provider)
     {
         this.provider = provider;
-        this.timer = new Timer("Reconnect timer p:"
-            + provider.getAccountID().getAccountUniqueID(), true);
 
         provider.addRegistrationStateChangeListener(this);
     }
@@ -109,11 +105,7 @@ public ProtocolProviderService getProvider()
      */
     public void clear()
     {
-        if(timer != null)
-        {
-            timer.cancel();
-            timer = null;
-        }
+        cleared = true;
 
         this.provider.removeRegistrationStateChangeListener(this);
 
@@ -133,14 +125,29 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
     {
         RegistrationState state = evt.getNewState();
         // we don't care about protocol providers that don't support
-        // reconnection and we are interested only in few state changes
-        if (!(evt.getSource() instanceof ProtocolProviderService)
-            || !(state.equals(RegistrationState.REGISTERED)
-            || state.equals(RegistrationState.UNREGISTERED)
-            || state.equals(RegistrationState.CONNECTION_FAILED)))
+        // reconnection
+        if (!(evt.getSource() instanceof ProtocolProviderService))
             return;
 
         ProtocolProviderService pp = (ProtocolProviderService) evt.getSource();
+        ReconnectCoordinator coordinator = getReconnectCoordinator();
+
+        if (coordinator != null)
+        {
+            if (state.equals(RegistrationState.REGISTERED))
+                coordinator.registered(pp);
+            else if (state.equals(RegistrationState.CONNECTION_FAILED)
+                || state.equals(RegistrationState.AUTHENTICATION_FAILED))
+                coordinator.failed(pp);
+            else if (state.equals(RegistrationState.UNREGISTERED))
+                coordinator.unregistered(pp);
+        }
+
+        // we are interested only in few state changes
+        if (!(state.equals(RegistrationState.REGISTERED)
+            || state.equals(RegistrationState.UNREGISTERED)
+            || state.equals(RegistrationState.CONNECTION_FAILED)))
+            return;
 
         synchronized(localStateMutex)
         {
@@ -279,14 +286,16 @@ private void cancelReconnect()
     }
 
     /**
-     * Creates and schedules new reconnect task if such is not already created.
+     * Creates and schedules new reconnect task if such is not already created
+     * or if the current one has already been started.
      * @param delay the delay to use.
      */
     private void createReconnect(long delay)
     {
         synchronized(reconnectTaskMutex)
         {
-            if (this.currentReconnect == null)
+            if (this.currentReconnect == null
+                || this.currentReconnect.isStarted())
             {
                 this.currentReconnect
                     = scheduleReconnectIfNeeded(delay, this.provider);
@@ -318,18 +327,15 @@ void reconnect()
      */
     private void reconnect(long previousDelay)
     {
-        long delay;
+        ReconnectCoordinator coordinator = getReconnectCoordinator();
 
-        if (previousDelay != -1)
-        {
-            delay = Math.min(previousDelay * 2, MAX_RECONNECT_DELAY*1000);
-        }
-        else
+        if (coordinator == null)
         {
-            delay = (long)(RECONNECT_DELAY_MIN
-                + Math.random() * RECONNECT_DELAY_MAX)*1000;
+            return;
         }
 
+        long delay = coordinator.nextDelay(this.provider, previousDelay);
+
         if (this.provider.getRegistrationState().equals(
                 RegistrationState.UNREGISTERING)
             || this.provider.getRegistrationState().equals(
@@ -392,18 +398,17 @@ public String toString()
     }
 
     /**
-     * Schedules a reconnect if needed (if there is timer and connected
-     * interfaces and user request is not null).
+     * Schedules a reconnect if needed (if the wrapper is not cleared and there
+     * are connected interfaces).
      * @param delay The delay to use when creating the reconnect task.
      * @param pp the protocol provider that will be reconnected.
      */
-    private ReconnectTask scheduleReconnectIfNeeded(
+    private ReconnectCoordinator.Reconnect scheduleReconnectIfNeeded(
         long delay, ProtocolProviderService pp)
     {
-        final ReconnectTask task = new ReconnectTask();
-        task.delay = delay;
+        ReconnectCoordinator coordinator = getReconnectCoordinator();
 
-        if (timer == null)
+        if (cleared || coordinator == null)
         {
             return null;
         }
@@ -422,49 +427,8 @@ private ReconnectTask scheduleReconnectIfNeeded(
         }
 
         if(logger.isInfoEnabled())
-            logger.info("Reconnect " + pp + " after " + task.delay + " ms.");
+            logger.info("Reconnect " + pp + " after " + delay + " ms.");
 
-        timer.schedule(task, task.delay);
-
-        return task;
-    }
-
-    /**
-     * The task executed by the timer when time for reconnect comes.
-     */
-    private class ReconnectTask
-        extends TimerTask
-    {
-        /**
-         * The delay with which was this task scheduled.
-         */
-        long delay;
-
-        /**
-         * Reconnects the provider.
-         */
-        @Override
-        public void run()
-        {
-            try
-            {
-                if (logger.isInfoEnabled())
-                    logger.info("Start reconnecting " + provider);
-
-                provider.register(
-                    getUIService().getDefaultSecurityAuthority(provider));
-            } catch (OperationFailedException ex)
-            {
-                logger.error("cannot re-register provider will keep going",
-                    ex);
-            }
-        }
-
-        @Override
-        public String toString()
-        {
-            return ReconnectTask.class.getSimpleName()
-                + " [delay=" + delay + ", provider=" + provider + "]";
-        }
+        return coordinator.schedule(pp, delay);
     }
 }
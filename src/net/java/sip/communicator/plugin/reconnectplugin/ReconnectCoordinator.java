@@ -0,0 +1,652 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.java.sip.communicator.plugin.reconnectplugin;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.util.*;
+
+import static net.java.sip.communicator.plugin.reconnectplugin.ReconnectPluginActivator.*;
+
+/**
+ * Schedules the reconnects of all providers on one shared scheduler so that
+ * they do not hit the network, and the servers they share, all at once.
+ * The delays grow per server with decorrelated jitter, at most
+ * {@link #PNAME_MAX_CONCURRENT_ATTEMPTS} providers register at the same time
+ * and the providers waiting for their turn are started in the order of the
+ * time their accounts have been registered, the most used first.
+ */
+class ReconnectCoordinator
+{
+    /**
+     * Logger of this class
+     */
+    private static final Logger logger
+        = Logger.getLogger(ReconnectCoordinator.class);
+
+    /**
+     * The name of the property holding the maximum number of providers
+     * registering at the same time.
+     */
+    static final String PNAME_MAX_CONCURRENT_ATTEMPTS =
+        "net.java.sip.communicator.plugin.reconnectplugin." +
+            "MAX_CONCURRENT_ATTEMPTS";
+
+    /**
+     * The default value of {@link #PNAME_MAX_CONCURRENT_ATTEMPTS}.
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_ATTEMPTS = 2;
+
+    /**
+     * The prefix of the properties holding the number of milliseconds an
+     * account has been registered, used to order the waiting providers.
+     */
+    static final String USAGE_TIME_PROP =
+        "net.java.sip.communicator.plugin.reconnectplugin.USAGE_TIME";
+
+    /**
+     * The number of milliseconds after which an attempt which did not end
+     * no longer counts against {@link #PNAME_MAX_CONCURRENT_ATTEMPTS}.
+     */
+    private static final long ATTEMPT_TIMEOUT = 60 * 1000;
+
+    /**
+     * The thread waiting for the delays and the timeouts of the attempts.
+     */
+    private final ScheduledExecutorService scheduler
+        = Executors.newSingleThreadScheduledExecutor(
+                r -> {
+                    Thread t = new Thread(r, "Reconnect scheduler");
+
+                    t.setDaemon(true);
+                    return t;
+                });
+
+    /**
+     * The threads registering the providers, <tt>register</tt> may block
+     * until the connection is established.
+     */
+    private final ExecutorService registerExecutor
+        = Executors.newCachedThreadPool(
+                new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t
+                            = new Thread(
+                                    r,
+                                    "Reconnect-" + count.incrementAndGet());
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+    /**
+     * The reconnects whose delay has elapsed, waiting for a free slot.
+     */
+    private final PriorityQueue<Reconnect> waiting
+        = new PriorityQueue<>(
+                Comparator.comparingLong((Reconnect r) -> -r.usage)
+                    .thenComparingLong(r -> r.sequence));
+
+    /**
+     * The reconnects currently registering their provider.
+     */
+    private final Map<ProtocolProviderService, Reconnect> running
+        = new HashMap<>();
+
+    /**
+     * The last delay used for each server, reset when one of the providers
+     * connecting to the server registers.
+     */
+    private final Map<String, Long> serverDelays = new HashMap<>();
+
+    /**
+     * The number of milliseconds each account has been registered, by
+     * account unique ID.
+     */
+    private final Map<String, Long> usageTimes = new HashMap<>();
+
+    /**
+     * The time each account registered, by account unique ID.
+     */
+    private final Map<String, Long> registeredSince = new HashMap<>();
+
+    /**
+     * The sequence number of the next reconnect, keeping the order of
+     * reconnects of the same priority.
+     */
+    private long nextSequence = 0;
+
+    /**
+     * Whether {@link #stop()} has been called.
+     */
+    private boolean stopped = false;
+
+    /**
+     * The number of started attempts.
+     */
+    private final AtomicLong attempts = new AtomicLong();
+
+    /**
+     * The number of attempts which registered their provider.
+     */
+    private final AtomicLong successes = new AtomicLong();
+
+    /**
+     * The number of attempts which failed.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * The number of attempts which did not end in time.
+     */
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * The total number of milliseconds the successful attempts took.
+     */
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    /**
+     * The largest number of milliseconds a successful attempt took.
+     */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * The total number of milliseconds the reconnects waited for a free slot.
+     */
+    private final AtomicLong totalQueueTime = new AtomicLong();
+
+    /**
+     * Returns the delay of the next reconnect of a provider. The first
+     * reconnect is spread over {@link ReconnectPluginActivator#
+     * RECONNECT_DELAY_MIN} and {@link ReconnectPluginActivator#
+     * RECONNECT_DELAY_MAX} seconds, the following ones, and any reconnect to
+     * a server another provider recently failed to reach, are picked between
+     * the minimum and three times the last delay used for the server, up to
+     * {@link ReconnectPluginActivator#MAX_RECONNECT_DELAY} seconds.
+     *
+     * @param pp the provider to reconnect
+     * @param previousDelay the delay used in the previous reconnect of the
+     * provider or -1
+     * @return the delay in milliseconds
+     */
+    synchronized long nextDelay(ProtocolProviderService pp, long previousDelay)
+    {
+        String server = getServerKey(pp.getAccountID());
+        Long serverDelay = serverDelays.get(server);
+        long base = RECONNECT_DELAY_MIN * 1000;
+        long delay;
+
+        if (previousDelay == -1 && serverDelay == null)
+        {
+            delay = base
+                + (long) (ThreadLocalRandom.current().nextDouble()
+                    * RECONNECT_DELAY_MAX * 1000);
+        }
+        else
+        {
+            long last = Math.max(
+                previousDelay,
+                serverDelay == null ? base : serverDelay);
+
+            delay = Math.min(
+                MAX_RECONNECT_DELAY * 1000,
+                base + (long) (ThreadLocalRandom.current().nextDouble()
+                    * Math.max(0, last * 3 - base)));
+        }
+
+        serverDelays.put(server, delay);
+
+        return delay;
+    }
+
+    /**
+     * Schedules a reconnect of a provider.
+     *
+     * @param pp the provider to reconnect
+     * @param delay the delay in milliseconds
+     * @return the scheduled reconnect or <tt>null</tt> if the coordinator is
+     * stopped
+     */
+    synchronized Reconnect schedule(ProtocolProviderService pp, long delay)
+    {
+        if (stopped)
+            return null;
+
+        Reconnect reconnect = new Reconnect(pp, delay);
+
+        reconnect.future = scheduler.schedule(
+            () -> enqueue(reconnect), delay, TimeUnit.MILLISECONDS);
+
+        return reconnect;
+    }
+
+    /**
+     * Notifies the coordinator that a provider registered, ending its
+     * attempt and resetting the backoff of its server.
+     *
+     * @param pp the provider
+     */
+    synchronized void registered(ProtocolProviderService pp)
+    {
+        AccountID accountID = pp.getAccountID();
+
+        serverDelays.remove(getServerKey(accountID));
+        registeredSince.put(
+            accountID.getAccountUniqueID(), System.currentTimeMillis());
+
+        Reconnect reconnect = running.get(pp);
+
+        if (reconnect == null)
+            return;
+
+        long latency = System.currentTimeMillis() - reconnect.startTime;
+
+        successes.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Reconnected " + pp + " in " + latency + " ms ("
+                + getStatistics() + ")");
+        }
+
+        end(reconnect);
+    }
+
+    /**
+     * Notifies the coordinator that a provider failed to register or got
+     * disconnected, ending its attempt if any.
+     *
+     * @param pp the provider
+     */
+    synchronized void failed(ProtocolProviderService pp)
+    {
+        unregistered(pp);
+
+        Reconnect reconnect = running.get(pp);
+
+        if (reconnect != null)
+        {
+            failures.incrementAndGet();
+            end(reconnect);
+        }
+    }
+
+    /**
+     * Notifies the coordinator that a provider is no longer registered and
+     * adds the time it was registered to the usage of its account.
+     *
+     * @param pp the provider
+     */
+    synchronized void unregistered(ProtocolProviderService pp)
+    {
+        String uid = pp.getAccountID().getAccountUniqueID();
+        Long since = registeredSince.remove(uid);
+
+        if (since == null)
+            return;
+
+        long usage = getUsageTime(uid) + System.currentTimeMillis() - since;
+
+        usageTimes.put(uid, usage);
+        getConfigurationService().setProperty(
+            USAGE_TIME_PROP + "." + uid, Long.toString(usage));
+    }
+
+    /**
+     * Returns the reconnect metrics.
+     *
+     * @return a description of the reconnect metrics
+     */
+    String getStatistics()
+    {
+        long successCount = successes.get();
+        long attemptCount = attempts.get();
+
+        return "attempts: " + attemptCount
+            + ", successes: " + successCount
+            + ", failures: " + failures.get()
+            + ", timeouts: " + timeouts.get()
+            + ", average latency: "
+                + (successCount == 0 ? 0 : totalLatency.get() / successCount)
+                + " ms, max latency: " + maxLatency.get()
+            + " ms, average queue time: "
+                + (attemptCount == 0 ? 0 : totalQueueTime.get() / attemptCount)
+                + " ms";
+    }
+
+    /**
+     * Cancels the pending reconnects and stops the scheduler.
+     */
+    synchronized void stop()
+    {
+        stopped = true;
+        waiting.clear();
+        running.clear();
+        scheduler.shutdownNow();
+        registerExecutor.shutdown();
+    }
+
+    /**
+     * Queues a reconnect whose delay has elapsed.
+     *
+     * @param reconnect the reconnect
+     */
+    private synchronized void enqueue(Reconnect reconnect)
+    {
+        if (reconnect.cancelled || stopped)
+            return;
+
+        reconnect.usage
+            = getUsageTime(reconnect.pp.getAccountID().getAccountUniqueID());
+        reconnect.queueTime = System.currentTimeMillis();
+        waiting.add(reconnect);
+        dispatch();
+    }
+
+    /**
+     * Starts the waiting reconnects while there are free slots. A reconnect
+     * whose provider still has an attempt running stays in the queue and is
+     * started by the {@link #release(Reconnect)} of that attempt.
+     */
+    private synchronized void dispatch()
+    {
+        int max = getConfigurationService().getInt(
+            PNAME_MAX_CONCURRENT_ATTEMPTS, DEFAULT_MAX_CONCURRENT_ATTEMPTS);
+        List<Reconnect> busy = null;
+
+        while (running.size() < max && !waiting.isEmpty() && !stopped)
+        {
+            Reconnect reconnect = waiting.poll();
+
+            if (running.containsKey(reconnect.pp))
+            {
+                // wait for the current attempt of the same provider
+                if (busy == null)
+                    busy = new ArrayList<>();
+                busy.add(reconnect);
+                continue;
+            }
+
+            reconnect.startTime = System.currentTimeMillis();
+            totalQueueTime.addAndGet(
+                reconnect.startTime - reconnect.queueTime);
+            attempts.incrementAndGet();
+            running.put(reconnect.pp, reconnect);
+            reconnect.timeout = scheduler.schedule(
+                () -> timeout(reconnect),
+                ATTEMPT_TIMEOUT,
+                TimeUnit.MILLISECONDS);
+            registerExecutor.execute(reconnect);
+        }
+
+        if (busy != null)
+            waiting.addAll(busy);
+    }
+
+    /**
+     * Frees the slot of an attempt which did not end in time, even if its
+     * <tt>register</tt> call has not returned.
+     *
+     * @param reconnect the attempt
+     */
+    private synchronized void timeout(Reconnect reconnect)
+    {
+        if (running.get(reconnect.pp) == reconnect)
+        {
+            logger.warn("Reconnect of " + reconnect.pp + " did not end in "
+                + ATTEMPT_TIMEOUT + " ms");
+            timeouts.incrementAndGet();
+            reconnect.done = true;
+            release(reconnect);
+        }
+    }
+
+    /**
+     * Ends an attempt. Its slot is freed and the next waiting attempt started
+     * once its <tt>register</tt> call has returned.
+     *
+     * @param reconnect the attempt
+     */
+    private synchronized void end(Reconnect reconnect)
+    {
+        reconnect.done = true;
+        if (!reconnect.registering)
+            release(reconnect);
+    }
+
+    /**
+     * Frees the slot of an ended attempt and starts the next waiting one.
+     *
+     * @param reconnect the attempt
+     */
+    private synchronized void release(Reconnect reconnect)
+    {
+        if (running.get(reconnect.pp) == reconnect)
+            running.remove(reconnect.pp);
+        if (reconnect.timeout != null)
+            reconnect.timeout.cancel(false);
+
+        dispatch();
+    }
+
+    /**
+     * Returns the number of milliseconds an account has been registered.
+     *
+     * @param uid the account unique ID
+     * @return the number of milliseconds
+     */
+    private long getUsageTime(String uid)
+    {
+        Long usage = usageTimes.get(uid);
+
+        if (usage == null)
+        {
+            usage = getConfigurationService().getLong(
+                USAGE_TIME_PROP + "." + uid, 0);
+            usageTimes.put(uid, usage);
+        }
+
+        return usage;
+    }
+
+    /**
+     * Returns the key identifying the server an account connects to.
+     *
+     * @param accountID the account
+     * @return the protocol and the configured server or the domain of the
+     * account
+     */
+    private static String getServerKey(AccountID accountID)
+    {
+        String server = accountID.getAccountPropertyString(
+            ProtocolProviderFactory.SERVER_ADDRESS);
+
+        if (server == null || server.length() == 0)
+            server = accountID.getService();
+
+        return accountID.getProtocolName() + ":" + server;
+    }
+
+    /**
+     * A scheduled reconnect of a provider.
+     */
+    class Reconnect
+        implements Runnable
+    {
+        /**
+         * The provider to reconnect.
+         */
+        private final ProtocolProviderService pp;
+
+        /**
+         * The delay with which was this reconnect scheduled.
+         */
+        final long delay;
+
+        /**
+         * The order in which the reconnect has been scheduled.
+         */
+        private final long sequence = nextSequence++;
+
+        /**
+         * The usage of the account when the reconnect was queued.
+         */
+        private long usage;
+
+        /**
+         * The time the reconnect was queued.
+         */
+        private long queueTime;
+
+        /**
+         * The time the attempt started.
+         */
+        private long startTime;
+
+        /**
+         * The delay before the reconnect is queued.
+         */
+        private ScheduledFuture<?> future;
+
+        /**
+         * The timeout of the attempt.
+         */
+        private ScheduledFuture<?> timeout;
+
+        /**
+         * Whether the reconnect has been cancelled.
+         */
+        private boolean cancelled = false;
+
+        /**
+         * Whether the attempt has ended.
+         */
+        private boolean done = false;
+
+        /**
+         * Whether the <tt>register</tt> call of the attempt is running.
+         */
+        private boolean registering = false;
+
+        /**
+         * Creates a reconnect.
+         *
+         * @param pp the provider to reconnect
+         * @param delay the delay in milliseconds
+         */
+        private Reconnect(ProtocolProviderService pp, long delay)
+        {
+            this.pp = pp;
+            this.delay = delay;
+        }
+
+        /**
+         * Returns whether the reconnect has been started.
+         *
+         * @return <tt>true</tt> if the provider has been or is being
+         * registered
+         */
+        boolean isStarted()
+        {
+            synchronized (ReconnectCoordinator.this)
+            {
+                return startTime != 0;
+            }
+        }
+
+        /**
+         * Cancels the reconnect, an attempt already started only gives up
+         * its slot, once its <tt>register</tt> call has returned.
+         */
+        void cancel()
+        {
+            synchronized (ReconnectCoordinator.this)
+            {
+                cancelled = true;
+                if (future != null)
+                    future.cancel(false);
+                waiting.remove(this);
+                if (running.get(pp) == this)
+                    end(this);
+            }
+        }
+
+        /**
+         * Registers the provider.
+         */
+        @Override
+        public void run()
+        {
+            synchronized (ReconnectCoordinator.this)
+            {
+                if (done)
+                    return;
+                registering = true;
+            }
+
+            try
+            {
+                if (logger.isInfoEnabled())
+                    logger.info("Start reconnecting " + pp);
+
+                pp.register(getUIService().getDefaultSecurityAuthority(pp));
+            }
+            catch (OperationFailedException ex)
+            {
+                logger.error("cannot re-register provider will keep going",
+                    ex);
+                failed(pp);
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+
+                logger.error("Error reconnecting " + pp, t);
+                failed(pp);
+            }
+            finally
+            {
+                synchronized (ReconnectCoordinator.this)
+                {
+                    registering = false;
+                    if (done)
+                        release(this);
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return Reconnect.class.getSimpleName()
+                + " [delay=" + delay + ", provider=" + pp
+                + ", started=" + (startTime != 0) + ", done=" + done + "]";
+        }
+    }
+}
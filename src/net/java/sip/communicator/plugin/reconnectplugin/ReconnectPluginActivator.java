@@ -96,6 +96,11 @@
     private static final Map<PPReconnectWrapper, List<String>>
         reconnectEnabledProviders = new HashMap<>();
 
+    /**
+     * Schedules the reconnects of all providers.
+     */
+    private static ReconnectCoordinator reconnectCoordinator = null;
+
     /**
      * A list of currently connected interfaces. If empty network is down.
      */
@@ -156,6 +161,7 @@ public void start(BundleContext bundleContext)
         {
             logger.logEntry();
             ReconnectPluginActivator.bundleContext = bundleContext;
+            reconnectCoordinator = new ReconnectCoordinator();
         }
         finally
         {
@@ -214,6 +220,25 @@ public void start(BundleContext bundleContext)
     public void stop(BundleContext bundleContext)
         throws Exception
     {
+        if (reconnectCoordinator != null)
+        {
+            if (logger.isInfoEnabled())
+                logger.info("Reconnect statistics: "
+                    + reconnectCoordinator.getStatistics());
+
+            reconnectCoordinator.stop();
+            reconnectCoordinator = null;
+        }
+    }
+
+    /**
+     * Returns the coordinator scheduling the reconnects of all providers.
+     *
+     * @return the coordinator or <tt>null</tt> if the bundle is stopped
+     */
+    static ReconnectCoordinator getReconnectCoordinator()
+    {
+        return reconnectCoordinator;
     }
 
     /**
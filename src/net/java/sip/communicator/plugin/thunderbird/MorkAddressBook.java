@@ -0,0 +1,367 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.plugin.thunderbird;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+
+import mork.*;
+import net.java.sip.communicator.service.contactsource.ContactDetail.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * The cards of a Thunderbird Mork address book. The database file is parsed
+ * once into cards which keep the values a query is matched against, and the
+ * cards are indexed by their values, the normalized forms of their values and
+ * the keys of their phone numbers so that looking up a contact by its exact
+ * address or number does not need to go through all of them.
+ */
+class MorkAddressBook
+{
+    /**
+     * The database file from which the cards were read.
+     */
+    private final File file;
+
+    /**
+     * The modification time of {@link #file} when it was read.
+     */
+    private final long lastModified;
+
+    /**
+     * The length of {@link #file} when it was read.
+     */
+    private final long length;
+
+    /**
+     * The cards in the default scope of the database.
+     */
+    private final List<Card> cards = new ArrayList<Card>();
+
+    /**
+     * The cards by their lower case values, the normalized forms of their
+     * values and the keys of their phone numbers.
+     */
+    private final Map<String, List<Card>> index
+        = new HashMap<String, List<Card>>();
+
+    /**
+     * Reads and indexes the cards of a Thunderbird address book.
+     *
+     * @param file The Mork database file of the address book.
+     * @param phoneNumberService The service normalizing the values and
+     *            computing the keys of the phone numbers of the cards.
+     * @throws IOException when the file cannot be read.
+     */
+    MorkAddressBook(File file, PhoneNumberI18nService phoneNumberService)
+        throws IOException
+    {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+
+        // parse the Thunderbird Mork database
+        InputStreamReader sr =
+            new InputStreamReader(new FileInputStream(file));
+        MorkDocument md;
+        try
+        {
+            md = new MorkDocument(sr);
+        }
+        finally
+        {
+            sr.close();
+        }
+
+        // We now have rows in their tables and additional rows at
+        // transaction level. Put the to a better format:
+        // DB -> Tables -> Rows
+        Map<String, Map<String, Row>> db =
+            new HashMap<String, Map<String, Row>>();
+        for (Table t : md.getTables())
+        {
+            String tableId = t.getTableId() + "/" + t.getScopeName();
+            Map<String, Row> table = db.get(tableId);
+            if (table == null)
+            {
+                table = new HashMap<String, Row>();
+                db.put(tableId, table);
+            }
+
+            for (Row r : t.getRows())
+            {
+                String scope = r.getScopeName();
+                if (scope == null)
+                {
+                    scope = t.getScopeName();
+                }
+
+                table.put(r.getRowId() + "/" + scope, r);
+            }
+        }
+
+        // The additional rows at the root-level update/replace the ones
+        // in the tables. There's usually neither a table nor a scope
+        // defined, so lets just use the default.
+        String defaultScope = md.getDicts().get(0).dereference("^80");
+        for (Row r : md.getRows())
+        {
+            String scope = r.getScopeName();
+            if (scope == null)
+            {
+                scope = defaultScope;
+            }
+
+            String tableId = "1/" + scope;
+            Map<String, Row> table = db.get(tableId);
+            if (table == null)
+            {
+                table = new HashMap<String, Row>();
+                db.put(tableId, table);
+            }
+
+            String rowId = r.getRowId() + "/" + scope;
+            if (rowId.startsWith("-"))
+            {
+                rowId = rowId.substring(1);
+            }
+
+            table.put(rowId, r);
+        }
+
+        // okay, "transactions" are applied, now keep the contacts
+        for (Map<String, Row> table : db.values())
+        {
+            for (Map.Entry<String, Row> e : table.entrySet())
+            {
+                if (e.getKey().endsWith(defaultScope))
+                {
+                    Card card = new Card(e.getValue(), phoneNumberService);
+
+                    cards.add(card);
+                    addToIndex(card);
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines whether the database file has not changed since the cards
+     * were read.
+     *
+     * @param file The database file currently configured.
+     * @return <tt>true</tt> if <tt>file</tt> is the file the cards were read
+     *         from and it has not been modified since.
+     */
+    boolean isCurrent(File file)
+    {
+        return this.file.equals(file)
+            && this.lastModified == file.lastModified()
+            && this.length == file.length();
+    }
+
+    /**
+     * Gets all the cards of the address book.
+     *
+     * @return The cards of the address book.
+     */
+    List<Card> getCards()
+    {
+        return Collections.unmodifiableList(cards);
+    }
+
+    /**
+     * Looks up the cards having a value, the normalized form of a value or
+     * the key of a phone number equal to the specified key.
+     *
+     * @param key The value, normalized value or phone number key.
+     * @return The cards indexed under <tt>key</tt>, possibly empty.
+     */
+    List<Card> lookup(String key)
+    {
+        List<Card> result = index.get(key.toLowerCase());
+
+        if (result == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Indexes a card under its values, normalized values and phone number
+     * keys.
+     *
+     * @param card The card to add to the index.
+     */
+    private void addToIndex(Card card)
+    {
+        Set<String> keys = new HashSet<String>();
+
+        for (String value : card.values)
+            keys.add(value.toLowerCase());
+        for (String value : card.normalizedValues)
+            keys.add(value.toLowerCase());
+        keys.addAll(card.phoneNumberKeys);
+
+        for (String key : keys)
+        {
+            List<Card> indexed = index.get(key);
+            if (indexed == null)
+            {
+                indexed = new ArrayList<Card>(1);
+                index.put(key, indexed);
+            }
+            indexed.add(card);
+        }
+    }
+
+    /**
+     * A contact of the address book with the values a query is matched
+     * against and the details it is presented with.
+     */
+    static class Card
+    {
+        /**
+         * The non-<tt>null</tt> values of all the properties of the card.
+         */
+        final List<String> values = new ArrayList<String>();
+
+        /**
+         * The normalized forms of {@link #values}.
+         */
+        final List<String> normalizedValues = new ArrayList<String>();
+
+        /**
+         * The keys of the phone numbers of the card.
+         */
+        final Set<String> phoneNumberKeys = new HashSet<String>();
+
+        /**
+         * The display name of the contact.
+         */
+        final String displayName;
+
+        /**
+         * The e-mail addresses of the contact.
+         */
+        final Set<String> emails;
+
+        /**
+         * The normalized phone numbers of the contact by their type.
+         */
+        final Map<SubCategory, String> phones
+            = new LinkedHashMap<SubCategory, String>();
+
+        /**
+         * Reads a card from its database row.
+         *
+         * @param r The database row representing a contact.
+         * @param phoneNumberService The service normalizing the values.
+         */
+        Card(Row r, PhoneNumberI18nService phoneNumberService)
+        {
+            for (Alias value : r.getAliases().values())
+            {
+                if (value != null && value.getValue() != null)
+                {
+                    values.add(value.getValue());
+                    normalizedValues.add(
+                        phoneNumberService.normalize(value.getValue()));
+                }
+            }
+
+            // e-mail(s)
+            emails = getPropertySet(r, "PrimaryEmail", "SecondEmail",
+                "DefaultEmail");
+
+            // phone number(s)
+            addPhone(r, "HomePhone", SubCategory.Home, phoneNumberService);
+            addPhone(r, "WorkPhone", SubCategory.Work, phoneNumberService);
+            addPhone(r, "CellularNumber", SubCategory.Mobile,
+                phoneNumberService);
+
+            // and the dispaly name
+            String displayName = r.getValue("DisplayName");
+            if (StringUtils.isBlank(displayName))
+            {
+                displayName = r.getValue("LastName");
+                if (displayName != null)
+                {
+                    displayName = displayName.trim();
+                }
+
+                String firstName = r.getValue("FirstName");
+                if (StringUtils.isNotBlank(firstName))
+                {
+                    displayName = firstName + " " + displayName;
+                }
+            }
+            this.displayName = displayName;
+        }
+
+        /**
+         * Keeps the normalized form and the key of a phone number of the
+         * card.
+         *
+         * @param r The source database row of the contact.
+         * @param property The source database property name of the number.
+         * @param category The Phone-{@link SubCategory} of the number.
+         * @param phoneNumberService The service normalizing the number.
+         */
+        private void addPhone(Row r, String property, SubCategory category,
+            PhoneNumberI18nService phoneNumberService)
+        {
+            String phone = r.getValue(property);
+            if (StringUtils.isBlank(phone))
+            {
+                return;
+            }
+
+            phones.put(category, phoneNumberService.normalize(phone));
+
+            String key = phoneNumberService.getPhoneNumberKey(phone);
+            if (key != null)
+            {
+                phoneNumberKeys.add(key.toLowerCase());
+            }
+        }
+
+        /**
+         * Gets a set of non-empty properties from the source database row.
+         *
+         * @param r The source database row to process.
+         * @param properties The property-names to extract.
+         * @return A set of non-empty properties from the source database row.
+         */
+        private static Set<String> getPropertySet(Row r, String... properties)
+        {
+            Set<String> validValues = new HashSet<String>(properties.length);
+            for (String prop : properties)
+            {
+                String value = r.getValue(prop);
+                if (StringUtils.isNotBlank(value))
+                {
+                    validValues.add(value);
+                }
+            }
+
+            return validValues;
+        }
+    }
+}
@@ -19,12 +19,10 @@
 
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.regex.*;
 
 import org.apache.commons.lang3.StringUtils;
 
-import mork.*;
 import net.java.sip.communicator.service.contactsource.*;
 import net.java.sip.communicator.service.contactsource.ContactDetail.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -60,120 +58,143 @@ public ThunderbirdContactQuery(ThunderbirdContactSourceService owner,
     @Override
     protected void run()
     {
-        String filename = super.getContactSource().getFilename();
-        File file = new File(filename);
+        MorkAddressBook addressBook;
         try
         {
-            if (file.lastModified() > getContactSource().lastDatabaseFileChange)
-            {
-                // parse the Thunderbird Mork database
-                InputStreamReader sr =
-                    new InputStreamReader(new FileInputStream(filename));
-                MorkDocument md = new MorkDocument(sr);
-                sr.close();
-
-                // We now have rows in their tables and additional rows at
-                // transaction level. Put the to a better format:
-                // DB -> Tables -> Rows
-                Map<String, Map<String, Row>> db =
-                    new HashMap<String, Map<String, Row>>();
-                for (Table t : md.getTables())
-                {
-                    String tableId = t.getTableId() + "/" + t.getScopeName();
-                    Map<String, Row> table = db.get(tableId);
-                    if (table == null)
-                    {
-                        table = new HashMap<String, Row>();
-                        db.put(tableId, table);
-                    }
+            addressBook = getContactSource().getAddressBook();
+        }
+        catch (FileNotFoundException e)
+        {
+            logger.warn("Could not open address book", e);
+            return;
+        }
+        catch (Exception e)
+        {
+            logger.warn("Could not parse "
+                + getContactSource().getFilename(), e);
+            return;
+        }
 
-                    for (Row r : t.getRows())
-                    {
-                        String scope = r.getScopeName();
-                        if (scope == null)
-                        {
-                            scope = t.getScopeName();
-                        }
+        // a query for an exact address or number can be answered from the
+        // index and the phone numbers of the cards, everything else has to be
+        // matched against all the values of all the cards
+        Collection<MorkAddressBook.Card> cards = null;
+        String exactQuery = getExactQuery();
+        if (exactQuery != null)
+        {
+            Set<MorkAddressBook.Card> found =
+                new LinkedHashSet<MorkAddressBook.Card>(
+                    addressBook.lookup(exactQuery));
+            String key = ThunderbirdActivator.getPhoneNumberI18nService()
+                .getPhoneNumberKey(exactQuery);
+            if (key != null)
+            {
+                found.addAll(addressBook.lookup(key));
+            }
 
-                        table.put(r.getRowId() + "/" + scope, r);
-                    }
-                }
+            if (!found.isEmpty())
+            {
+                // numbers which only match as phone numbers, e.g. a shorter
+                // version of the query, have a different key
+                addPhoneNumberMatches(addressBook, found);
+                cards = found;
+            }
+        }
 
-                // The additional rows at the root-level update/replace the ones
-                // in the tables. There's usually neither a table nor a scope
-                // defined, so lets just use the default.
-                String defaultScope = md.getDicts().get(0).dereference("^80");
-                for (Row r : md.getRows())
-                {
-                    String scope = r.getScopeName();
-                    if (scope == null)
-                    {
-                        scope = defaultScope;
-                    }
+        if (cards == null)
+        {
+            cards = addressBook.getCards();
+        }
 
-                    String tableId = "1/" + scope;
-                    Map<String, Row> table = db.get(tableId);
-                    if (table == null)
-                    {
-                        table = new HashMap<String, Row>();
-                        db.put(tableId, table);
-                    }
+        for (MorkAddressBook.Card card : cards)
+        {
+            readEntry(card);
+        }
 
-                    String rowId = r.getRowId() + "/" + scope;
-                    if (rowId.startsWith("-"))
-                    {
-                        rowId = rowId.substring(1);
-                    }
+        super.stopped(true);
+    }
 
-                    table.put(rowId, r);
-                }
+    /**
+     * Adds the cards with a phone number matching the query as a phone number
+     * to a set of cards.
+     *
+     * @param addressBook The address book to search.
+     * @param found The cards already found, to which the matching cards are
+     *            added.
+     */
+    private void addPhoneNumberMatches(MorkAddressBook addressBook,
+        Set<MorkAddressBook.Card> found)
+    {
+        if (StringUtils.isEmpty(getPhoneNumberQuery()))
+        {
+            return;
+        }
 
-                super.getContactSource().database = db;
-                super.getContactSource().defaultScope = defaultScope;
-                super.getContactSource().lastDatabaseFileChange =
-                    file.lastModified();
+        for (MorkAddressBook.Card card : addressBook.getCards())
+        {
+            if (found.contains(card))
+            {
+                continue;
             }
 
-            // okay, "transactions" are applied, now perform the search
-            for (Entry<String, Map<String, Row>> table
-                : super.getContactSource().database.entrySet())
+            for (String phone : card.phones.values())
             {
-                for (Map.Entry<String, Row> e : table.getValue().entrySet())
+                if (phoneNumberQueryMatches(phone))
                 {
-                    if (e.getKey().endsWith(getContactSource().defaultScope))
-                    {
-                        readEntry(e.getValue());
-                    }
+                    found.add(card);
+                    break;
                 }
             }
+        }
+    }
 
-            super.stopped(true);
+    /**
+     * Gets the string an anchored query pattern such as <tt>^\Qabc\E$</tt>
+     * matches exactly.
+     *
+     * @return The string the query pattern matches exactly or <tt>null</tt>
+     *         if the pattern is not anchored or not a literal.
+     */
+    private String getExactQuery()
+    {
+        String pattern = query.pattern();
+        if (pattern.length() < 3
+            || pattern.charAt(0) != '^'
+            || !pattern.endsWith("$"))
+        {
+            return null;
         }
-        catch (FileNotFoundException e)
+
+        String literal = pattern.substring(1, pattern.length() - 1);
+        if (literal.startsWith("\\Q")
+            && literal.endsWith("\\E")
+            && literal.indexOf("\\E") == literal.length() - 2)
         {
-            logger.warn("Could not open address book", e);
+            literal = literal.substring(2, literal.length() - 2);
         }
-        catch (Exception e)
+        else if (StringUtils.containsAny(literal, "\\[](){}.*+?^$|"))
         {
-            logger.warn("Could not parse " + file, e);
+            return null;
         }
+
+        return (literal.length() == 0) ? null : literal;
     }
 
     /**
-     * Processes a database row by matching it against the query and adding it
-     * to the result set if it matched.
+     * Matches a card of the address book against the query and adds it to
+     * the result set if it matched.
      *
-     * @param r The database row representing a contact.
+     * @param card The card representing a contact.
      */
-    private void readEntry(Row r)
+    private void readEntry(MorkAddressBook.Card card)
     {
         // match the pattern against this contact
         boolean hadMatch = false;
-        for (Alias value : r.getAliases().values())
+        for (int i = 0; i < card.values.size(); i++)
         {
-            if (value != null
-                && (super.query.matcher(value.getValue()).find() || super
-                    .phoneNumberMatches(value.getValue())))
+            if (super.query.matcher(card.values.get(i)).find()
+                || super.query.matcher(card.normalizedValues.get(i)).find()
+                || phoneNumberQueryMatches(card.values.get(i)))
             {
                 hadMatch = true;
                 break;
@@ -189,8 +210,7 @@ private void readEntry(Row r)
         List<ContactDetail> details = new LinkedList<ContactDetail>();
 
         // e-mail(s)
-        for (String email : getPropertySet(r, "PrimaryEmail", "SecondEmail",
-            "DefaultEmail"))
+        for (String email : card.emails)
         {
             ContactDetail detail = new ContactDetail(email, Category.Email);
             detail.addSupportedOpSet(OperationSetPersistentPresence.class);
@@ -198,55 +218,57 @@ private void readEntry(Row r)
         }
 
         // phone number(s)
-        this.addPhoneDetail(details, r, "HomePhone", SubCategory.Home);
-        this.addPhoneDetail(details, r, "WorkPhone", SubCategory.Work);
-        this.addPhoneDetail(details, r, "CellularNumber", SubCategory.Mobile);
-
-        // and the dispaly name
-        String displayName = r.getValue("DisplayName");
-        if (StringUtils.isBlank(displayName))
+        for (Map.Entry<SubCategory, String> phone : card.phones.entrySet())
         {
-            displayName = r.getValue("LastName");
-            if (displayName != null)
-            {
-                displayName = displayName.trim();
-            }
-
-            String firstName = r.getValue("FirstName");
-            if (StringUtils.isNotBlank(firstName))
-            {
-                displayName = firstName + " " + displayName;
-            }
+            this.addPhoneDetail(details, phone.getValue(), phone.getKey());
         }
 
         // create the contact and add it to the results
         GenericSourceContact sc =
-            new GenericSourceContact(super.getContactSource(), displayName,
-                details);
+            new GenericSourceContact(super.getContactSource(),
+                card.displayName, details);
         addQueryResult(sc);
     }
 
+    /**
+     * Determines whether a value matches the query as a phone number. The
+     * normalized form of the value has already been matched against the
+     * query pattern when the card was read.
+     *
+     * @param value The value of a card.
+     * @return <tt>true</tt> if the value matches the query as a phone number.
+     */
+    private boolean phoneNumberQueryMatches(String value)
+    {
+        String phoneNumberQuery = getPhoneNumberQuery();
+        if (StringUtils.isEmpty(phoneNumberQuery))
+        {
+            return false;
+        }
+
+        try
+        {
+            return ThunderbirdActivator.getPhoneNumberI18nService()
+                .phoneNumbersMatch(phoneNumberQuery, value);
+        }
+        catch (IllegalArgumentException iaex)
+        {
+            return false;
+        }
+    }
+
     /**
      * Adds a "Phone" {@link ContactDetail} to a query contact.
      *
      * @param details The {@link List} of {@link ContactDetail}s to which the
      *            details is added.
-     * @param r The source database row of the contact.
-     * @param property The source database property name to add as a detail.
+     * @param phone The normalized phone number to add as a detail.
      * @param category The Phone-{@link SubCategory} for the phone number to
      *            add.
      */
-    private void addPhoneDetail(List<ContactDetail> details, Row r,
-        String property, SubCategory category)
+    private void addPhoneDetail(List<ContactDetail> details, String phone,
+        SubCategory category)
     {
-        String phone = r.getValue(property);
-        if (StringUtils.isBlank(phone))
-        {
-            return;
-        }
-
-        phone
-            = ThunderbirdActivator.getPhoneNumberI18nService().normalize(phone);
         ContactDetail detail =
             new ContactDetail(phone, ContactDetail.Category.Phone,
                 new ContactDetail.SubCategory[]
@@ -256,26 +278,4 @@ private void addPhoneDetail(List<ContactDetail> details, Row r,
         detail.addSupportedOpSet(OperationSetPersistentPresence.class);
         details.add(detail);
     }
-
-    /**
-     * Gets a set of non-empty properties from the source database row.
-     *
-     * @param r The source database row to process.
-     * @param properties The property-names to extract.
-     * @return A set of non-empty properties from the source database row.
-     */
-    private Set<String> getPropertySet(Row r, String... properties)
-    {
-        Set<String> validValues = new HashSet<String>(properties.length);
-        for (String prop : properties)
-        {
-            String value = r.getValue(prop);
-            if (StringUtils.isNotBlank(value))
-            {
-                validValues.add(value);
-            }
-        }
-
-        return validValues;
-    }
 }
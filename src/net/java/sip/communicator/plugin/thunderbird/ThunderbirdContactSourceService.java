@@ -17,12 +17,11 @@
  */
 package net.java.sip.communicator.plugin.thunderbird;
 
-import java.util.Map;
+import java.io.*;
 import java.util.regex.*;
 
 import org.jitsi.service.configuration.*;
 
-import mork.Row;
 import net.java.sip.communicator.service.contactsource.*;
 
 /**
@@ -85,18 +84,11 @@
     /** Value of property {@link #PNAME_PREFIX} */
     private String prefix;
 
-    /** Date/time when the Thunderbird database file was last changed. */
-    long lastDatabaseFileChange = 0;
-
     /**
-     * The parsed Thunderbird database. This field is used as a cache and set by
-     * the query. It is re-set when the file date is newer than
-     * {@link #lastDatabaseFileChange}
+     * The parsed Thunderbird database. This field is used as a cache and
+     * replaced when the database file changes.
      */
-    Map<String, Map<String, Row>> database;
-
-    /** Name of the default namespace in the Thunderbird database. */
-    String defaultScope;
+    private MorkAddressBook addressBook;
 
     /**
      * Creates a new instance of this class.
@@ -256,4 +248,25 @@ void setFilename(String filename)
         config.setProperty(this.baseConfigProperty + "." + PNAME_FILENAME,
             filename);
     }
+
+    /**
+     * Gets the parsed address book database, reading it again if the file
+     * was modified since it was last read.
+     *
+     * @return The parsed address book database.
+     * @throws IOException when the database file cannot be read.
+     */
+    synchronized MorkAddressBook getAddressBook()
+        throws IOException
+    {
+        File file = new File(getFilename());
+
+        if (addressBook == null || !addressBook.isCurrent(file))
+        {
+            addressBook = null;
+            addressBook = new MorkAddressBook(file,
+                ThunderbirdActivator.getPhoneNumberI18nService());
+        }
+        return addressBook;
+    }
 }
@@ -201,6 +201,38 @@ public SSLContext getSSLContext(KeyManager[] keyManagers,
         X509ExtendedTrustManager trustManager)
         throws GeneralSecurityException;
 
+    /**
+     * Get an SSL Context which is kept for subsequent calls with the same
+     * key, for example an account and a destination, so that the TLS sessions
+     * it establishes can be resumed on reconnect instead of doing a full
+     * handshake. The cached contexts are dropped when the trust store or the
+     * client certificate configurations change. A cached context checks the
+     * certificates with the trust manager of the latest call.
+     *
+     * @param key The key identifying the connections using the context
+     * @param clientCertConfig The ID of a client certificate configuration
+     *            entry that is to be used when the server asks for a client TLS
+     *            certificate or <tt>null</tt>
+     * @param trustManager The trustmanager that will be used by the created
+     *            SSLContext; replaces the one of a cached context
+     * @return A cached or new SSL context based on the supplied trust manager.
+     * @throws GeneralSecurityException
+     */
+    public SSLContext getCachedSSLContext(String key,
+        String clientCertConfig,
+        X509ExtendedTrustManager trustManager)
+        throws GeneralSecurityException;
+
+    /**
+     * Forgets the SSL Contexts kept by {@link #getCachedSSLContext(String,
+     * String, X509ExtendedTrustManager)} whose key starts with the specified
+     * prefix, for example when the account using them is unloaded or
+     * modified.
+     *
+     * @param keyPrefix The prefix of the keys of the contexts to forget
+     */
+    public void removeCachedSSLContexts(String keyPrefix);
+
     /**
      * Creates a trustmanager that validates the certificate based on the JRE
      * default check and asks the user when the JRE check fails. When
@@ -0,0 +1,860 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.contactsource;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Runs the queries of one search over several contact sources. The queries
+ * are started on a pool shared by all searches, at most
+ * {@link #MAX_PARALLEL_QUERIES} at a time and in the order of their priority,
+ * and each one is canceled when its deadline elapses so that a slow source
+ * does not hold the search. The contacts they return are delivered in batches
+ * ranked by the priority of their source, and a contact whose normalized
+ * address was already returned by a source of better priority is dropped.
+ * Contacts of history sources are events rather than contacts and are never
+ * merged.
+ * <p>
+ * Each query is wrapped by the <tt>ContactQuery</tt> returned from
+ * {@link #submit(ContactQuery, int, long)}, on which the listeners are to be
+ * registered and which is the source of the events they receive.
+ */
+public class FederatedContactSearch
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>FederatedContactSearch</tt> class
+     * for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(FederatedContactSearch.class);
+
+    /**
+     * The maximum number of queries being started at the same time.
+     */
+    public static final int MAX_PARALLEL_QUERIES = 4;
+
+    /**
+     * The number of milliseconds the received contacts are collected before
+     * they are delivered.
+     */
+    public static final long BATCH_DELAY = 50;
+
+    /**
+     * The pattern of the addresses which are phone numbers.
+     */
+    private static final Pattern PHONE_NUMBER
+        = Pattern.compile("\\+?[0-9 ()./-]*[0-9][0-9 ()./-]*");
+
+    /**
+     * The URI schemes removed from the addresses before comparing them.
+     */
+    private static final String[] SCHEMES
+        = { "sip:", "sips:", "xmpp:", "tel:" };
+
+    /**
+     * The sequence number of the next task or delivery, keeping the order of
+     * those with the same priority.
+     */
+    private static final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * The threads starting the queries.
+     */
+    private static final ThreadPoolExecutor executor;
+
+    /**
+     * The thread delivering the batches and enforcing the deadlines.
+     */
+    private static final ScheduledThreadPoolExecutor scheduler;
+
+    static
+    {
+        executor
+            = new ThreadPoolExecutor(
+                    MAX_PARALLEL_QUERIES,
+                    MAX_PARALLEL_QUERIES,
+                    30,
+                    TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(),
+                    createThreadFactory("FederatedContactSearch-"));
+        executor.allowCoreThreadTimeOut(true);
+
+        scheduler
+            = new ScheduledThreadPoolExecutor(
+                    1,
+                    createThreadFactory("FederatedContactSearch scheduler-"));
+        scheduler.setKeepAliveTime(30, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * The received contacts, live or dropped, by contact.
+     */
+    private final Map<SourceContact, Result> results
+        = new IdentityHashMap<SourceContact, Result>();
+
+    /**
+     * The contact of the best priority by normalized address.
+     */
+    private final Map<String, Result> bestByAddress
+        = new HashMap<String, Result>();
+
+    /**
+     * The events waiting for the next batch.
+     */
+    private final List<Delivery> pending = new ArrayList<Delivery>();
+
+    /**
+     * The queries of this search.
+     */
+    private final List<FederatedQuery> queries
+        = new ArrayList<FederatedQuery>();
+
+    /**
+     * Serializes the delivery of the batches.
+     */
+    private final Object dispatchSyncRoot = new Object();
+
+    /**
+     * The scheduled delivery of the next batch.
+     */
+    private ScheduledFuture<?> flushFuture = null;
+
+    /**
+     * Submits a query to this search. The query is started when the
+     * returned query is.
+     *
+     * @param query the query to run
+     * @param priority the priority of the query, the lower the earlier its
+     * query is started and its contacts are ranked
+     * @param deadline the number of milliseconds after which the query is
+     * canceled if it has not completed or 0 to let it run
+     * @return the query delivering the results of <tt>query</tt>
+     */
+    public ContactQuery submit(ContactQuery query, int priority, long deadline)
+    {
+        FederatedQuery federatedQuery
+            = new FederatedQuery(query, priority, deadline);
+
+        synchronized (this)
+        {
+            queries.add(federatedQuery);
+        }
+        query.addContactQueryListener(federatedQuery);
+
+        return federatedQuery;
+    }
+
+    /**
+     * Cancels all the queries of this search.
+     */
+    public void cancel()
+    {
+        List<FederatedQuery> toCancel;
+
+        synchronized (this)
+        {
+            toCancel = new ArrayList<FederatedQuery>(queries);
+        }
+
+        for (FederatedQuery query : toCancel)
+            query.cancel();
+    }
+
+    /**
+     * Returns the form of an address compared to find the contacts returned
+     * by more than one source: lower case and without URI scheme or
+     * parameters, only the digits and the leading plus for phone numbers.
+     *
+     * @param address the address of a contact
+     * @return the normalized address or <tt>null</tt> if <tt>address</tt> is
+     * empty
+     */
+    public static String normalizeAddress(String address)
+    {
+        if (address == null)
+            return null;
+
+        String normalized = address.trim().toLowerCase(Locale.ROOT);
+
+        for (String scheme : SCHEMES)
+        {
+            if (normalized.startsWith(scheme))
+            {
+                normalized = normalized.substring(scheme.length());
+                break;
+            }
+        }
+
+        int paramsIndex = normalized.indexOf(';');
+
+        if (paramsIndex != -1)
+            normalized = normalized.substring(0, paramsIndex);
+
+        if (PHONE_NUMBER.matcher(normalized).matches())
+        {
+            StringBuilder digits = new StringBuilder();
+
+            if (normalized.startsWith("+"))
+                digits.append('+');
+            for (int i = 0; i < normalized.length(); i++)
+            {
+                char c = normalized.charAt(i);
+
+                if (c >= '0' && c <= '9')
+                    digits.append(c);
+            }
+            normalized = digits.toString();
+        }
+
+        return normalized.length() == 0 ? null : normalized;
+    }
+
+    /**
+     * Handles a contact received by a query.
+     *
+     * @param query the query
+     * @param contact the contact
+     * @param showMoreEnabled whether the show more label may be shown
+     */
+    private synchronized void contactReceived(
+            FederatedQuery query,
+            SourceContact contact,
+            boolean showMoreEnabled)
+    {
+        if (query.isFinished())
+            return;
+
+        Result result = results.get(contact);
+
+        if (result != null)
+        {
+            // received again, the contact list updates it
+            if (!result.dropped)
+            {
+                enqueue(
+                    query,
+                    new ContactReceivedEvent(query, contact, showMoreEnabled));
+            }
+            return;
+        }
+
+        result = new Result(query, contact);
+
+        results.put(contact, result);
+
+        if (query.isMerged())
+            result.address = normalizeAddress(contact.getContactAddress());
+
+        if (result.address != null)
+        {
+            Result best = bestByAddress.get(result.address);
+
+            if (best != null && best.query != query)
+            {
+                if (best.query.priority <= query.priority)
+                {
+                    // already returned by a better source
+                    result.dropped = true;
+                    return;
+                }
+
+                // replaces the contact of a worse source
+                best.dropped = true;
+                if (!pending.remove(best.delivery))
+                {
+                    enqueue(
+                        best.query,
+                        new ContactRemovedEvent(best.query, best.contact));
+                }
+                bestByAddress.put(result.address, result);
+            }
+            else if (best == null)
+            {
+                bestByAddress.put(result.address, result);
+            }
+        }
+
+        result.delivery
+            = enqueue(
+                query,
+                new ContactReceivedEvent(query, contact, showMoreEnabled));
+    }
+
+    /**
+     * Handles a contact removed by a query.
+     *
+     * @param query the query
+     * @param contact the contact
+     */
+    private synchronized void contactRemoved(
+            FederatedQuery query,
+            SourceContact contact)
+    {
+        Result result = results.remove(contact);
+
+        if (result == null)
+        {
+            enqueue(query, new ContactRemovedEvent(query, contact));
+            return;
+        }
+
+        if (result.address != null
+                && bestByAddress.get(result.address) == result)
+            bestByAddress.remove(result.address);
+
+        if (!result.dropped && !pending.remove(result.delivery))
+            enqueue(query, new ContactRemovedEvent(query, contact));
+    }
+
+    /**
+     * Handles a contact changed in a query.
+     *
+     * @param query the query
+     * @param contact the contact
+     */
+    private synchronized void contactChanged(
+            FederatedQuery query,
+            SourceContact contact)
+    {
+        Result result = results.get(contact);
+
+        if (result == null || !result.dropped)
+            enqueue(query, new ContactChangedEvent(query, contact));
+    }
+
+    /**
+     * Queues an event for the next batch.
+     *
+     * @param query the query which is the source of the event
+     * @param event the event
+     * @return the queued delivery
+     */
+    private Delivery enqueue(FederatedQuery query, EventObject event)
+    {
+        Delivery delivery = new Delivery(query, event);
+
+        pending.add(delivery);
+        if (flushFuture == null)
+        {
+            flushFuture
+                = scheduler.schedule(
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                flush();
+                            }
+                        },
+                        BATCH_DELAY,
+                        TimeUnit.MILLISECONDS);
+        }
+        return delivery;
+    }
+
+    /**
+     * Delivers the queued events, ranked by the priority of their query.
+     */
+    private void flush()
+    {
+        synchronized (dispatchSyncRoot)
+        {
+            List<Delivery> batch;
+
+            synchronized (this)
+            {
+                if (flushFuture != null)
+                {
+                    flushFuture.cancel(false);
+                    flushFuture = null;
+                }
+                batch = new ArrayList<Delivery>(pending);
+                pending.clear();
+            }
+
+            Collections.sort(batch);
+            for (Delivery delivery : batch)
+                delivery.query.dispatch(delivery.event);
+        }
+    }
+
+    /**
+     * Ends a query, delivering its pending contacts before its status.
+     *
+     * @param query the query
+     * @param eventType the <tt>ContactQueryStatusEvent</tt> type
+     */
+    private void finish(FederatedQuery query, int eventType)
+    {
+        synchronized (this)
+        {
+            if (query.isFinished())
+                return;
+
+            query.finalStatus = eventType;
+        }
+
+        query.cancelDeadline();
+
+        synchronized (dispatchSyncRoot)
+        {
+            flush();
+            query.dispatch(new ContactQueryStatusEvent(query, eventType));
+        }
+    }
+
+    /**
+     * Creates a factory of daemon threads.
+     *
+     * @param prefix the prefix of the thread names
+     * @return the thread factory
+     */
+    private static ThreadFactory createThreadFactory(final String prefix)
+    {
+        return
+            new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, prefix + count.incrementAndGet());
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+    }
+
+    /**
+     * A contact received by a query.
+     */
+    private static class Result
+    {
+        /**
+         * The query which returned the contact.
+         */
+        final FederatedQuery query;
+
+        /**
+         * The contact.
+         */
+        final SourceContact contact;
+
+        /**
+         * The normalized address of the contact or <tt>null</tt> if it is not
+         * merged.
+         */
+        String address;
+
+        /**
+         * Whether the contact has been dropped in favour of a better source.
+         */
+        boolean dropped = false;
+
+        /**
+         * The delivery of the contact.
+         */
+        Delivery delivery;
+
+        /**
+         * Creates a received contact.
+         *
+         * @param query the query which returned the contact
+         * @param contact the contact
+         */
+        Result(FederatedQuery query, SourceContact contact)
+        {
+            this.query = query;
+            this.contact = contact;
+        }
+    }
+
+    /**
+     * An event waiting for the next batch.
+     */
+    private static class Delivery
+        implements Comparable<Delivery>
+    {
+        /**
+         * The query which is the source of the event.
+         */
+        final FederatedQuery query;
+
+        /**
+         * The event.
+         */
+        final EventObject event;
+
+        /**
+         * The order in which the event has been queued.
+         */
+        final long sequence = nextSequence.getAndIncrement();
+
+        /**
+         * Creates a delivery.
+         *
+         * @param query the query which is the source of the event
+         * @param event the event
+         */
+        Delivery(FederatedQuery query, EventObject event)
+        {
+            this.query = query;
+            this.event = event;
+        }
+
+        /**
+         * Ranks the events by the priority of their query and then keeps
+         * their order.
+         *
+         * @param other the other delivery
+         * @return a negative integer, zero, or a positive integer as this
+         * delivery goes before, with or after <tt>other</tt>
+         */
+        public int compareTo(Delivery other)
+        {
+            if (query.priority != other.query.priority)
+                return query.priority < other.query.priority ? -1 : 1;
+
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The query returned by {@link FederatedContactSearch#submit(ContactQuery,
+     * int, long)}, which starts the query it wraps on the shared pool and
+     * delivers its events in the batches of the search.
+     */
+    private class FederatedQuery
+        implements ContactQuery,
+                   ContactQueryListener
+    {
+        /**
+         * The wrapped query.
+         */
+        private final ContactQuery query;
+
+        /**
+         * The priority of the query.
+         */
+        private final int priority;
+
+        /**
+         * The number of milliseconds after which the query is canceled.
+         */
+        private final long deadline;
+
+        /**
+         * The listeners of this query.
+         */
+        private final List<ContactQueryListener> listeners
+            = new CopyOnWriteArrayList<ContactQueryListener>();
+
+        /**
+         * The <tt>ContactQueryStatusEvent</tt> type this query ended with or
+         * -1 while it runs.
+         */
+        private int finalStatus = -1;
+
+        /**
+         * The scheduled cancel of the query.
+         */
+        private ScheduledFuture<?> deadlineFuture = null;
+
+        /**
+         * Creates a query of the search.
+         *
+         * @param query the wrapped query
+         * @param priority the priority of the query
+         * @param deadline the number of milliseconds after which the query is
+         * canceled or 0
+         */
+        FederatedQuery(ContactQuery query, int priority, long deadline)
+        {
+            this.query = query;
+            this.priority = priority;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Returns whether the query has ended.
+         *
+         * @return <tt>true</tt> if the query has ended
+         */
+        boolean isFinished()
+        {
+            synchronized (FederatedContactSearch.this)
+            {
+                return finalStatus != -1;
+            }
+        }
+
+        /**
+         * Returns whether the contacts of the query are merged with those of
+         * the other sources.
+         *
+         * @return <tt>false</tt> for history sources
+         */
+        boolean isMerged()
+        {
+            ContactSourceService source = query.getContactSource();
+
+            return source == null
+                || source.getType() != ContactSourceService.HISTORY_TYPE;
+        }
+
+        /**
+         * Delivers an event to the listeners of this query.
+         *
+         * @param event the event
+         */
+        void dispatch(EventObject event)
+        {
+            for (ContactQueryListener l : listeners)
+            {
+                if (event instanceof ContactReceivedEvent)
+                    l.contactReceived((ContactReceivedEvent) event);
+                else if (event instanceof ContactRemovedEvent)
+                    l.contactRemoved((ContactRemovedEvent) event);
+                else if (event instanceof ContactChangedEvent)
+                    l.contactChanged((ContactChangedEvent) event);
+                else if (event instanceof ContactQueryStatusEvent)
+                    l.queryStatusChanged((ContactQueryStatusEvent) event);
+            }
+        }
+
+        /**
+         * Cancels the deadline of the query.
+         */
+        synchronized void cancelDeadline()
+        {
+            if (deadlineFuture != null)
+            {
+                deadlineFuture.cancel(false);
+                deadlineFuture = null;
+            }
+        }
+
+        /**
+         * Queues the start of the wrapped query and schedules its deadline.
+         */
+        public void start()
+        {
+            if (isFinished())
+                return;
+
+            if (deadline > 0)
+            {
+                synchronized (this)
+                {
+                    deadlineFuture
+                        = scheduler.schedule(
+                                new Runnable()
+                                {
+                                    public void run()
+                                    {
+                                        deadlineExpired();
+                                    }
+                                },
+                                deadline,
+                                TimeUnit.MILLISECONDS);
+                }
+            }
+
+            executor.execute(new StartTask(this));
+        }
+
+        /**
+         * Starts the wrapped query in a thread of the pool.
+         */
+        void startQuery()
+        {
+            if (isFinished()
+                    || query.getStatus() != ContactQuery.QUERY_IN_PROGRESS)
+                return;
+
+            try
+            {
+                query.start();
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+
+                logger.error("Failed to start query of "
+                    + query.getContactSource(), t);
+                finish(this, ContactQueryStatusEvent.QUERY_ERROR);
+            }
+        }
+
+        /**
+         * Cancels the wrapped query when it did not complete in time.
+         */
+        private void deadlineExpired()
+        {
+            if (isFinished())
+                return;
+
+            if (logger.isInfoEnabled())
+            {
+                logger.info("Query of " + query.getContactSource()
+                    + " did not complete in " + deadline + " ms");
+            }
+            cancel();
+        }
+
+        /**
+         * Cancels the wrapped query.
+         */
+        public void cancel()
+        {
+            try
+            {
+                query.cancel();
+            }
+            finally
+            {
+                // in case the query does not report it
+                finish(this, ContactQueryStatusEvent.QUERY_CANCELED);
+            }
+        }
+
+        public ContactSourceService getContactSource()
+        {
+            return query.getContactSource();
+        }
+
+        public String getQueryString()
+        {
+            return query.getQueryString();
+        }
+
+        public List<SourceContact> getQueryResults()
+        {
+            return query.getQueryResults();
+        }
+
+        public int getStatus()
+        {
+            synchronized (FederatedContactSearch.this)
+            {
+                switch (finalStatus)
+                {
+                case ContactQueryStatusEvent.QUERY_COMPLETED:
+                    return QUERY_COMPLETED;
+                case ContactQueryStatusEvent.QUERY_CANCELED:
+                    return QUERY_CANCELED;
+                case ContactQueryStatusEvent.QUERY_ERROR:
+                    return QUERY_ERROR;
+                default:
+                    return query.getStatus();
+                }
+            }
+        }
+
+        public void addContactQueryListener(ContactQueryListener l)
+        {
+            if (!listeners.contains(l))
+                listeners.add(l);
+        }
+
+        public void removeContactQueryListener(ContactQueryListener l)
+        {
+            listeners.remove(l);
+        }
+
+        public void contactReceived(ContactReceivedEvent event)
+        {
+            FederatedContactSearch.this.contactReceived(
+                this, event.getContact(), event.isShowMoreEnabled());
+        }
+
+        public void contactRemoved(ContactRemovedEvent event)
+        {
+            FederatedContactSearch.this.contactRemoved(
+                this, event.getContact());
+        }
+
+        public void contactChanged(ContactChangedEvent event)
+        {
+            FederatedContactSearch.this.contactChanged(
+                this, event.getContact());
+        }
+
+        public void queryStatusChanged(ContactQueryStatusEvent event)
+        {
+            finish(this, event.getEventType());
+        }
+
+        @Override
+        public String toString()
+        {
+            return FederatedQuery.class.getSimpleName()
+                + " [source=" + query.getContactSource()
+                + ", priority=" + priority + "]";
+        }
+    }
+
+    /**
+     * Starts a query in a thread of the pool, in the order of priority.
+     */
+    private static class StartTask
+        implements Runnable,
+                   Comparable<StartTask>
+    {
+        /**
+         * The query to start.
+         */
+        private final FederatedQuery query;
+
+        /**
+         * The order in which the task has been queued.
+         */
+        private final long sequence = nextSequence.getAndIncrement();
+
+        /**
+         * Creates a task starting a query.
+         *
+         * @param query the query to start
+         */
+        StartTask(FederatedQuery query)
+        {
+            this.query = query;
+        }
+
+        public void run()
+        {
+            query.startQuery();
+        }
+
+        public int compareTo(StartTask other)
+        {
+            if (query.priority != other.query.priority)
+                return query.priority < other.query.priority ? -1 : 1;
+
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -690,8 +690,12 @@ public static DefaultHttpClient getHttpClient(
         SSLContext sslCtx;
         try
         {
+            // keep the context of the address so that the TLS sessions of
+            // the connections to it are resumed
             sslCtx = HttpUtilActivator.getCertificateVerificationService()
-                .getSSLContext(
+                .getCachedSSLContext(
+                    "http|" + address,
+                    null,
                     HttpUtilActivator.getCertificateVerificationService()
                         .getTrustManager(address));
         }
@@ -45,6 +45,31 @@
      */
     protected final Map<Resourcepart, ConferenceDescription> cachedConferenceDescriptions
         = new HashMap<>();
+
+    /**
+     * The time of the newest locally stored message of this chat room.
+     */
+    private Date historySince = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setHistorySince(Date since)
+    {
+        this.historySince = since;
+    }
+
+    /**
+     * Returns the time of the newest locally stored message of this chat
+     * room, after which the history is requested when joining.
+     *
+     * @return the time set with {@link #setHistorySince(Date)} or
+     * <tt>null</tt>
+     */
+    protected Date getHistorySince()
+    {
+        return historySince;
+    }
     
     /**
      * {@inheritDoc}
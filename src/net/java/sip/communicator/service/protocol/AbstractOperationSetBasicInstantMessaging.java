@@ -49,6 +49,13 @@
     private final List<MessageListener> messageListeners =
         new LinkedList<MessageListener>();
 
+    /**
+     * Runs the <tt>TransformLayer</tt>s on the message events of each
+     * conversation in order, off the threads of the protocol stack.
+     */
+    private final MessageTransformPipeline transformPipeline
+        = new MessageTransformPipeline();
+
     /**
      * Registers a MessageListener with this operation set so that it gets
      * notifications of successful message delivery, failure or reception of
@@ -172,22 +179,17 @@ protected void fireMessageDeliveryFailed(
 
     /**
      * Delivers the specified event to all registered message listeners.
+     * <p>
+     * If <tt>TransformLayer</tt>s are registered with the provider, the event
+     * is transformed and delivered asynchronously, after the events fired
+     * before for the same contact, so that a slow layer does not hold up the
+     * thread of the protocol stack.
      *
      * @param evt the <tt>EventObject</tt> that we'd like delivered to all
      *            registered message listeners.
      */
-    protected void fireMessageEvent(EventObject evt)
+    protected void fireMessageEvent(final EventObject evt)
     {
-        Collection<MessageListener> listeners = null;
-        synchronized (this.messageListeners)
-        {
-            listeners = new ArrayList<MessageListener>(this.messageListeners);
-        }
-
-        if (logger.isDebugEnabled())
-            logger.debug("Dispatching Message Listeners=" + listeners.size()
-            + " evt=" + evt);
-
         /*
          * TODO Create a super class like this MessageEventObject that would
          * contain the MessageEventType. Also we could fire an event for the
@@ -208,10 +210,66 @@ else if (evt instanceof MessageDeliveryFailedEvent)
             eventType = MessageEventType.MessageDeliveryFailed;
         }
 
-        // Transform the event.
-        EventObject[] events = messageTransform(evt, eventType);
+        final MessageEventType finalEventType = eventType;
+        final Contact contact = getContact(evt, eventType);
+        final List<TransformLayer> transformLayers
+            = getTransformLayers(contact);
+
+        /*
+         * Without transform layers there is nothing slow to do but the events
+         * of a contact must still not overtake the ones in the pipeline.
+         */
+        if ((contact == null)
+                || (transformLayers.isEmpty()
+                    && !transformPipeline.isBusy(contact)))
+        {
+            deliverMessageEvents(
+                    messageTransform(evt, eventType, transformLayers),
+                    eventType);
+        }
+        else
+        {
+            transformPipeline.submit(
+                    contact,
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            deliverMessageEvents(
+                                    messageTransform(
+                                            evt,
+                                            finalEventType,
+                                            transformLayers),
+                                    finalEventType);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Delivers transformed message events to all registered message
+     * listeners.
+     *
+     * @param events the transformed events
+     * @param eventType the event type of the events
+     */
+    private void deliverMessageEvents(
+            EventObject[] events,
+            MessageEventType eventType)
+    {
+        Collection<MessageListener> listeners = null;
+        synchronized (this.messageListeners)
+        {
+            listeners = new ArrayList<MessageListener>(this.messageListeners);
+        }
+
         for (EventObject event : events)
         {
+            if (logger.isDebugEnabled())
+                logger.debug("Dispatching Message Listeners=" + listeners.size()
+                + " evt=" + event);
+
             try
             {
                 if (event == null)
@@ -284,8 +342,12 @@ public void removeMessageListener(MessageListener listener)
     public MessageDeliveredEvent[] messageDeliveryPendingTransform(
             final MessageDeliveredEvent evt)
     {
+        // The caller sends the returned events so this cannot be deferred.
         EventObject[] transformed = messageTransform(
-            evt, MessageEventType.MessageDeliveryPending);
+            evt,
+            MessageEventType.MessageDeliveryPending,
+            getTransformLayers(
+                    getContact(evt, MessageEventType.MessageDeliveryPending)));
 
         final int size = transformed.length;
         MessageDeliveredEvent[] events =
@@ -294,126 +356,158 @@ public MessageDeliveredEvent[] messageDeliveryPendingTransform(
         return events;
     }
 
+    /**
+     * Returns the contact the message of a specific event was sent to or
+     * received from.
+     *
+     * @param evt the message event
+     * @param eventType the event type of <tt>evt</tt>
+     * @return the contact of <tt>evt</tt> or <tt>null</tt> if the event type
+     * is not known
+     */
+    private static Contact getContact(
+            EventObject evt,
+            MessageEventType eventType)
+    {
+        if (evt == null)
+            return null;
+
+        switch (eventType)
+        {
+        case MessageDelivered:
+        case MessageDeliveryPending:
+            return ((MessageDeliveredEvent) evt).getDestinationContact();
+        case MessageDeliveryFailed:
+            return ((MessageDeliveryFailedEvent) evt).getDestinationContact();
+        case MessageReceived:
+            return ((MessageReceivedEvent) evt).getSourceContact();
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns a copy of the transform layers registered with the provider of
+     * a specific contact.
+     *
+     * @param contact the contact of the message to be transformed or
+     * <tt>null</tt>
+     * @return the transform layers to run on the messages of <tt>contact</tt>
+     */
+    private static List<TransformLayer> getTransformLayers(Contact contact)
+    {
+        if (contact == null)
+            return Collections.emptyList();
+
+        OperationSetInstantMessageTransformImpl opSetMessageTransform
+            = (OperationSetInstantMessageTransformImpl)
+                contact.getProtocolProvider().getOperationSet(
+                        OperationSetInstantMessageTransform.class);
+
+        return
+            (opSetMessageTransform == null)
+                ? Collections.<TransformLayer>emptyList()
+                : opSetMessageTransform.getTransformLayers();
+    }
+
     /**
      * Transform provided source event by processing transform layers in
      * sequence.
      *
      * @param evt the source event to transform
      * @param eventType the event type of the source event
+     * @param transformLayers the transform layers to process
      * @return returns the resulting (transformed) events, if any. (I.e. an
      *         array of 0 or more size containing events.)
      */
-    private EventObject[] messageTransform(final EventObject evt,
-                                           final MessageEventType eventType)
+    private EventObject[] messageTransform(
+            EventObject evt,
+            MessageEventType eventType,
+            List<TransformLayer> transformLayers)
     {
         if (evt == null)
         {
             return new EventObject[0];
         }
-        ProtocolProviderService protocolProvider;
-        switch (eventType)
+        if (eventType == MessageEventType.None)
         {
-        case MessageDelivered:
-            protocolProvider
-                = ((MessageDeliveredEvent) evt)
-                    .getDestinationContact().getProtocolProvider();
-            break;
-        case MessageDeliveryFailed:
-            protocolProvider
-                = ((MessageDeliveryFailedEvent) evt)
-                    .getDestinationContact().getProtocolProvider();
-            break;
-        case MessageDeliveryPending:
-            protocolProvider
-                = ((MessageDeliveredEvent) evt)
-                    .getDestinationContact().getProtocolProvider();
-            break;
-        case MessageReceived:
-            protocolProvider
-                = ((MessageReceivedEvent) evt)
-                    .getSourceContact().getProtocolProvider();
-            break;
-        default:
             return new EventObject[] {evt};
         }
 
-        OperationSetInstantMessageTransformImpl opSetMessageTransform
-            = (OperationSetInstantMessageTransformImpl) protocolProvider
-                .getOperationSet(OperationSetInstantMessageTransform.class);
-
-        if (opSetMessageTransform == null)
-            return new EventObject[] {evt};
-
         // 'current' contains the events that need to be transformed. It should
         // not contain null values.
-        final LinkedList<EventObject> current = new LinkedList<EventObject>();
+        List<EventObject> current = new ArrayList<EventObject>(1);
         // Add source event as start of transformation.
         current.add(evt);
         // 'next' contains the resulting events after transformation in the
         // current iteration. It should not contain null values.
-        final LinkedList<EventObject> next = new LinkedList<EventObject>();
-        for (Map.Entry<Integer, Vector<TransformLayer>> entry
-                : opSetMessageTransform.transformLayers.entrySet())
+        List<EventObject> next = new ArrayList<EventObject>(1);
+        for (TransformLayer transformLayer : transformLayers)
         {
-            for (TransformLayer transformLayer : entry.getValue())
+            long startTime = System.nanoTime();
+
+            next.clear();
+            for (EventObject event : current)
             {
-                next.clear();
-                while (!current.isEmpty())
+                switch (eventType)
                 {
-                    final EventObject event = current.remove();
-                    switch (eventType)
+                case MessageDelivered:
+                    MessageDeliveredEvent transformedDelivered =
+                        transformLayer.messageDelivered(
+                            (MessageDeliveredEvent) event);
+                    if (transformedDelivered != null)
                     {
-                    case MessageDelivered:
-                        MessageDeliveredEvent transformedDelivered =
-                            transformLayer.messageDelivered(
-                                (MessageDeliveredEvent) event);
-                        if (transformedDelivered != null)
-                        {
-                            next.add(transformedDelivered);
-                        }
-                        break;
-                    case MessageDeliveryPending:
-                        MessageDeliveredEvent[] evts = transformLayer
-                            .messageDeliveryPending(
-                                (MessageDeliveredEvent) event);
-                        for (MessageDeliveredEvent mde : evts)
-                        {
-                            if (mde != null)
-                            {
-                                next.add(mde);
-                            }
-                        }
-                        break;
-                    case MessageDeliveryFailed:
-                        MessageDeliveryFailedEvent transformedDeliveryFailed =
-                            transformLayer.messageDeliveryFailed(
-                                (MessageDeliveryFailedEvent) event);
-                        if (transformedDeliveryFailed != null)
-                        {
-                            next.add(transformedDeliveryFailed);
-                        }
-                        break;
-                    case MessageReceived:
-                        MessageReceivedEvent transformedReceived =
-                            transformLayer
-                                .messageReceived((MessageReceivedEvent) event);
-                        if (transformedReceived != null)
+                        next.add(transformedDelivered);
+                    }
+                    break;
+                case MessageDeliveryPending:
+                    MessageDeliveredEvent[] evts = transformLayer
+                        .messageDeliveryPending(
+                            (MessageDeliveredEvent) event);
+                    for (MessageDeliveredEvent mde : evts)
+                    {
+                        if (mde != null)
                         {
-                            next.add(transformedReceived);
+                            next.add(mde);
                         }
-                        break;
-                    default:
-                        next.add(event);
-                        /*
-                         * We either have nothing to do or we do not know
-                         * what to do. Anyway, we'll silence the compiler.
-                         */
-                        break;
                     }
+                    break;
+                case MessageDeliveryFailed:
+                    MessageDeliveryFailedEvent transformedDeliveryFailed =
+                        transformLayer.messageDeliveryFailed(
+                            (MessageDeliveryFailedEvent) event);
+                    if (transformedDeliveryFailed != null)
+                    {
+                        next.add(transformedDeliveryFailed);
+                    }
+                    break;
+                case MessageReceived:
+                    MessageReceivedEvent transformedReceived =
+                        transformLayer
+                            .messageReceived((MessageReceivedEvent) event);
+                    if (transformedReceived != null)
+                    {
+                        next.add(transformedReceived);
+                    }
+                    break;
+                default:
+                    next.add(event);
+                    /*
+                     * We either have nothing to do or we do not know
+                     * what to do. Anyway, we'll silence the compiler.
+                     */
+                    break;
                 }
-                // Set events for next round of transformations.
-                current.addAll(next);
             }
+            transformPipeline.recordStage(
+                    transformLayer,
+                    System.nanoTime() - startTime);
+
+            // Set events for next round of transformations.
+            List<EventObject> swap = current;
+
+            current = next;
+            next = swap;
         }
 
         return current.toArray(new EventObject[current.size()]);
@@ -98,6 +98,16 @@ public void joinAs(String nickname)
     public void joinAs(String nickname, byte[] password)
         throws OperationFailedException;
 
+    /**
+     * Sets the time of the newest message of this chat room which is already
+     * stored locally. The next join asks the server only for the history
+     * following it instead of the default amount of history.
+     *
+     * @param since the time of the newest locally stored message or
+     * <tt>null</tt> to let the server decide how much history to send
+     */
+    public void setHistorySince(Date since);
+
     /**
      * Returns true if the local user is currently in the multi user chat
      * (after calling one of the {@link #join()} methods).
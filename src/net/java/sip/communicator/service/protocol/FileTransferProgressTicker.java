@@ -0,0 +1,287 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Samples the progress of all file transfers of all protocols on a single
+ * shared thread and fires <tt>FileTransferProgressEvent</tt>s carrying a
+ * smoothed throughput and the estimated remaining time.
+ * <p>
+ * A transfer is sampled every {@link #MIN_INTERVAL} milliseconds while its
+ * transferred bytes or status change so that the progress events do not
+ * exceed the rate at which the display is refreshed. The interval doubles,
+ * up to {@link #MAX_INTERVAL} milliseconds, while nothing changes.
+ */
+public class FileTransferProgressTicker
+{
+    /**
+     * Samples the protocol specific state of a file transfer.
+     */
+    public interface Sampler
+    {
+        /**
+         * Updates the status and transferred bytes of the file transfer from
+         * the protocol stack. Called on the thread of the ticker.
+         *
+         * @return <tt>true</tt> if the transfer is still going on;
+         * <tt>false</tt> if it has ended (and the final events have been
+         * fired) and it should no longer be sampled
+         */
+        boolean sample();
+    }
+
+    /**
+     * The <tt>Logger</tt> used by the <tt>FileTransferProgressTicker</tt>
+     * class for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(FileTransferProgressTicker.class);
+
+    /**
+     * The minimum number of milliseconds between two samples of a transfer,
+     * about two frames of the display.
+     */
+    public static final long MIN_INTERVAL = 33;
+
+    /**
+     * The maximum number of milliseconds between two samples of a transfer.
+     */
+    public static final long MAX_INTERVAL = 500;
+
+    /**
+     * The number of milliseconds over which the throughput is smoothed.
+     */
+    private static final double THROUGHPUT_TIME_CONSTANT = 2000;
+
+    /**
+     * The thread sampling all transfers.
+     */
+    private static ScheduledExecutorService executor;
+
+    /**
+     * Starts sampling a file transfer until <tt>sampler</tt> reports that it
+     * has ended.
+     *
+     * @param fileTransfer the transfer to fire progress events for
+     * @param size the number of bytes to transfer or <tt>-1</tt> if it is not
+     * known
+     * @param sampler the protocol specific <tt>Sampler</tt> of
+     * <tt>fileTransfer</tt>
+     */
+    public static void schedule(
+            AbstractFileTransfer fileTransfer,
+            long size,
+            Sampler sampler)
+    {
+        getExecutor().execute(new Tick(fileTransfer, size, sampler));
+    }
+
+    /**
+     * Returns the thread sampling all transfers, creating it if necessary.
+     *
+     * @return the thread sampling all transfers
+     */
+    private static synchronized ScheduledExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            ScheduledThreadPoolExecutor executor
+                = new ScheduledThreadPoolExecutor(
+                        1,
+                        new ThreadFactory()
+                        {
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(
+                                            r,
+                                            FileTransferProgressTicker.class
+                                                .getSimpleName());
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+
+            // Let the thread go away while there are no transfers.
+            executor.setKeepAliveTime(MAX_INTERVAL * 10, TimeUnit.MILLISECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            FileTransferProgressTicker.executor = executor;
+        }
+        return executor;
+    }
+
+    /**
+     * Prevents the creation of <tt>FileTransferProgressTicker</tt> instances.
+     */
+    private FileTransferProgressTicker()
+    {
+    }
+
+    /**
+     * The sampling state of a file transfer.
+     */
+    private static class Tick
+        implements Runnable
+    {
+        /**
+         * The transfer to fire progress events for.
+         */
+        private final AbstractFileTransfer fileTransfer;
+
+        /**
+         * The number of bytes to transfer or <tt>-1</tt>.
+         */
+        private final long size;
+
+        /**
+         * The protocol specific sampler of {@link #fileTransfer}.
+         */
+        private final Sampler sampler;
+
+        /**
+         * The number of milliseconds until the next sample.
+         */
+        private long interval = MIN_INTERVAL;
+
+        /**
+         * The transferred bytes at the last sample.
+         */
+        private long lastBytes = -1;
+
+        /**
+         * The status at the last sample.
+         */
+        private int lastStatus = -1;
+
+        /**
+         * The time (as returned by <tt>System.nanoTime()</tt>) of the last
+         * sample which saw more transferred bytes or <tt>-1</tt>.
+         */
+        private long lastTime = -1;
+
+        /**
+         * The smoothed throughput in bytes per second or <tt>-1</tt>.
+         */
+        private double throughput = -1;
+
+        /**
+         * Initializes a new <tt>Tick</tt>.
+         *
+         * @param fileTransfer the transfer to fire progress events for
+         * @param size the number of bytes to transfer or <tt>-1</tt>
+         * @param sampler the protocol specific sampler of
+         * <tt>fileTransfer</tt>
+         */
+        Tick(AbstractFileTransfer fileTransfer, long size, Sampler sampler)
+        {
+            this.fileTransfer = fileTransfer;
+            this.size = size;
+            this.sampler = sampler;
+        }
+
+        /**
+         * Samples the transfer, fires a progress event if it has progressed
+         * and schedules the next sample.
+         */
+        @Override
+        public void run()
+        {
+            boolean active;
+
+            try
+            {
+                active = sampler.sample();
+                if (active)
+                    fireProgress();
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                logger.error("Failed to sample file transfer progress", t);
+                active = false;
+            }
+
+            if (active)
+                getExecutor().schedule(this, interval, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Updates the throughput and fires a progress event if the transfer
+         * has progressed since the last sample and adapts the sampling
+         * interval.
+         */
+        private void fireProgress()
+        {
+            long bytes = fileTransfer.getTransferedBytes();
+            int status = fileTransfer.getStatus();
+            long now = System.nanoTime();
+            boolean changed = (status != lastStatus);
+
+            lastStatus = status;
+            if (bytes != lastBytes)
+            {
+                if ((lastTime != -1) && (bytes > lastBytes))
+                {
+                    double elapsed
+                        = TimeUnit.NANOSECONDS.toMicros(now - lastTime)
+                            / 1000.0;
+                    double instant = (bytes - lastBytes) * 1000.0 / elapsed;
+
+                    if (throughput < 0)
+                    {
+                        throughput = instant;
+                    }
+                    else
+                    {
+                        double alpha
+                            = 1
+                                - Math.exp(
+                                        -elapsed / THROUGHPUT_TIME_CONSTANT);
+
+                        throughput += alpha * (instant - throughput);
+                    }
+                }
+                lastBytes = bytes;
+                lastTime = now;
+                changed = true;
+
+                long bytesPerSecond = Math.round(throughput);
+                long estimatedTimeLeft
+                    = ((size >= bytes) && (throughput > 0))
+                        ? Math.round((size - bytes) * 1000 / throughput)
+                        : -1;
+
+                fileTransfer.fireProgressChangeEvent(
+                        System.currentTimeMillis(),
+                        bytes,
+                        (throughput < 0) ? -1 : bytesPerSecond,
+                        estimatedTimeLeft);
+            }
+
+            interval
+                = changed ? MIN_INTERVAL : Math.min(interval * 2, MAX_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Runs the transformation and delivery of message events off the threads of
+ * the protocol stacks. The tasks of a conversation are run one after the
+ * other in the order they were submitted while the tasks of different
+ * conversations run in parallel on a shared pool of threads. Records how long
+ * each <tt>TransformLayer</tt> takes.
+ */
+class MessageTransformPipeline
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>MessageTransformPipeline</tt> class
+     * and its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MessageTransformPipeline.class);
+
+    /**
+     * The number of milliseconds after which a single transformation by a
+     * <tt>TransformLayer</tt> is logged as slow.
+     */
+    private static final long SLOW_STAGE_THRESHOLD = 500;
+
+    /**
+     * The mask of the number of tasks after which the statistics are logged.
+     */
+    private static final long STATISTICS_INTERVAL_MASK = 256 - 1;
+
+    /**
+     * The pool of threads shared by the pipelines of all providers.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * The conversations with tasks queued or running by conversation key.
+     */
+    private final Map<Object, Conversation> conversations
+        = new HashMap<Object, Conversation>();
+
+    /**
+     * The latencies of the transformations by the name of the class of the
+     * <tt>TransformLayer</tt>.
+     */
+    private final ConcurrentMap<String, Latency> stageLatencies
+        = new ConcurrentHashMap<String, Latency>();
+
+    /**
+     * The latency between the submission of the tasks and the time they
+     * started.
+     */
+    private final Latency queueLatency = new Latency();
+
+    /**
+     * The number of tasks which have been run.
+     */
+    private final AtomicLong taskCount = new AtomicLong();
+
+    /**
+     * Returns the pool of threads running the tasks, creating it if
+     * necessary.
+     *
+     * @return the pool of threads running the tasks
+     */
+    private static synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            executor
+                = Executors.newCachedThreadPool(
+                        new ThreadFactory()
+                        {
+                            private final AtomicInteger count
+                                = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(
+                                            r,
+                                            "MessageTransformPipeline-"
+                                                + count.incrementAndGet());
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+        }
+        return executor;
+    }
+
+    /**
+     * Determines whether a conversation has tasks queued or running.
+     *
+     * @param conversationKey the key of the conversation
+     * @return <tt>true</tt> if a task submitted for the conversation now would
+     * have to wait for other tasks
+     */
+    boolean isBusy(Object conversationKey)
+    {
+        synchronized (conversations)
+        {
+            return conversations.containsKey(conversationKey);
+        }
+    }
+
+    /**
+     * Queues a task to be run after the tasks queued before for the same
+     * conversation.
+     *
+     * @param conversationKey the key of the conversation
+     * @param task the task to run
+     */
+    void submit(Object conversationKey, Runnable task)
+    {
+        Task queued = new Task(task);
+        Conversation conversation;
+
+        synchronized (conversations)
+        {
+            conversation = conversations.get(conversationKey);
+            if (conversation != null)
+            {
+                // The thread running the conversation will pick it up.
+                conversation.tasks.add(queued);
+                return;
+            }
+
+            conversation = new Conversation(conversationKey);
+            conversation.tasks.add(queued);
+            conversations.put(conversationKey, conversation);
+        }
+        getExecutor().execute(conversation);
+    }
+
+    /**
+     * Records how long a <tt>TransformLayer</tt> took to transform an event.
+     *
+     * @param layer the <tt>TransformLayer</tt>
+     * @param nanos the number of nanoseconds the transformation took
+     */
+    void recordStage(TransformLayer layer, long nanos)
+    {
+        String name = layer.getClass().getName();
+        Latency latency = stageLatencies.get(name);
+
+        if (latency == null)
+        {
+            latency = new Latency();
+
+            Latency existing = stageLatencies.putIfAbsent(name, latency);
+
+            if (existing != null)
+                latency = existing;
+        }
+        latency.record(nanos);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+        if (millis >= SLOW_STAGE_THRESHOLD)
+            logger.warn(name + " took " + millis + " ms to transform a message");
+    }
+
+    /**
+     * Returns a human-readable summary of the latencies of the pipeline.
+     *
+     * @return the statistics of this pipeline
+     */
+    String getStatistics()
+    {
+        StringBuilder s = new StringBuilder();
+
+        s.append("tasks: ").append(taskCount.get())
+            .append(", queued: ").append(queueLatency);
+        for (Map.Entry<String, Latency> e : stageLatencies.entrySet())
+            s.append(", ").append(e.getKey()).append(": ").append(e.getValue());
+        return s.toString();
+    }
+
+    /**
+     * A task and the time it was submitted.
+     */
+    private static class Task
+    {
+        /**
+         * The task to run.
+         */
+        final Runnable runnable;
+
+        /**
+         * The time (as returned by <tt>System.nanoTime()</tt>) the task was
+         * submitted.
+         */
+        final long submitTime = System.nanoTime();
+
+        /**
+         * Initializes a new <tt>Task</tt>.
+         *
+         * @param runnable the task to run
+         */
+        Task(Runnable runnable)
+        {
+            this.runnable = runnable;
+        }
+    }
+
+    /**
+     * The queue of the tasks of a conversation, run by one thread of the
+     * pool at a time.
+     */
+    private class Conversation
+        implements Runnable
+    {
+        /**
+         * The key of this conversation.
+         */
+        private final Object key;
+
+        /**
+         * The tasks which have not run yet. Accessed while holding the lock
+         * of {@link MessageTransformPipeline#conversations}.
+         */
+        final Queue<Task> tasks = new ArrayDeque<Task>();
+
+        /**
+         * Initializes a new <tt>Conversation</tt>.
+         *
+         * @param key the key of the conversation
+         */
+        Conversation(Object key)
+        {
+            this.key = key;
+        }
+
+        /**
+         * Runs the tasks of this conversation until there are no more.
+         */
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                Task task;
+
+                synchronized (conversations)
+                {
+                    task = tasks.poll();
+                    if (task == null)
+                    {
+                        conversations.remove(key);
+                        return;
+                    }
+                }
+
+                queueLatency.record(System.nanoTime() - task.submitTime);
+                try
+                {
+                    task.runnable.run();
+                }
+                catch (Throwable t)
+                {
+                    if (t instanceof ThreadDeath)
+                        throw (ThreadDeath) t;
+                    logger.error("Error transforming message", t);
+                }
+
+                if (((taskCount.incrementAndGet() & STATISTICS_INTERVAL_MASK)
+                            == 0)
+                        && logger.isDebugEnabled())
+                {
+                    logger.debug("Message transform pipeline " + getStatistics());
+                }
+            }
+        }
+    }
+
+    /**
+     * The number, total and maximum of a kind of latency.
+     */
+    private static class Latency
+    {
+        /**
+         * The number of recorded latencies.
+         */
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * The sum of the recorded latencies in nanoseconds.
+         */
+        private final AtomicLong total = new AtomicLong();
+
+        /**
+         * The maximum recorded latency in nanoseconds.
+         */
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records a latency.
+         *
+         * @param nanos the latency in nanoseconds
+         */
+        void record(long nanos)
+        {
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+
+            long oldMax;
+
+            while ((oldMax = max.get()) < nanos
+                    && !max.compareAndSet(oldMax, nanos));
+        }
+
+        /**
+         * Returns the number, average and maximum of the recorded latencies.
+         *
+         * @return a human-readable summary of the recorded latencies
+         */
+        @Override
+        public String toString()
+        {
+            long count = this.count.get();
+
+            return
+                count + " avg "
+                    + ((count == 0)
+                        ? 0
+                        : TimeUnit.NANOSECONDS.toMicros(total.get() / count))
+                    + " us max "
+                    + TimeUnit.NANOSECONDS.toMicros(max.get()) + " us";
+        }
+    }
+}
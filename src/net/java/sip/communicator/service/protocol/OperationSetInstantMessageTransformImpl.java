@@ -47,6 +47,29 @@ public void addTransformLayer(int priority, TransformLayer transformLayer)
         }
     }
 
+    /**
+     * Returns a copy of the registered <tt>TransformLayer</tt>s in ascending
+     * order of priority which may safely be iterated while layers are added
+     * or removed.
+     *
+     * @return the registered <tt>TransformLayer</tt>s
+     */
+    public List<TransformLayer> getTransformLayers()
+    {
+        List<TransformLayer> layers = new ArrayList<TransformLayer>();
+
+        synchronized (transformLayers)
+        {
+            for (Vector<TransformLayer> priorityLayers
+                    : new TreeMap<Integer, Vector<TransformLayer>>(
+                            transformLayers).values())
+            {
+                layers.addAll(priorityLayers);
+            }
+        }
+        return layers;
+    }
+
     public boolean containsLayer(TransformLayer layer)
     {
         synchronized (transformLayers)
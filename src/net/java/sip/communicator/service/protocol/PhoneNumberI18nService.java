@@ -62,6 +62,20 @@
      */
     public boolean phoneNumbersMatch(String aPhoneNumber, String bPhoneNumber);
 
+    /**
+     * Returns a key which can be used to index the specified phone number and
+     * to look it up. Phone numbers written in different ways, for example in
+     * the national and in the international format of the default region,
+     * have the same key. Keys are computed once and kept in a bounded cache,
+     * so it is cheap to ask for the key of the same number repeatedly.
+     *
+     * @param phoneNumber a <tt>String</tt> which represents a phone number
+     * @return the E.164 form of <tt>phoneNumber</tt> if it can be parsed as a
+     * phone number of the default region, its normalized form if it cannot,
+     * or <tt>null</tt> if <tt>phoneNumber</tt> is not a phone number
+     */
+    public String getPhoneNumberKey(String phoneNumber);
+
     /**
      * Indicates if the given string is possibly a phone number.
      *
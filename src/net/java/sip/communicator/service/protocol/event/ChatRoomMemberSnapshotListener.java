@@ -0,0 +1,45 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+/**
+ * A <tt>ChatRoomMemberPresenceListener</tt> which is able to receive the
+ * presence changes which occur while the local user is joining a chat room
+ * (i.e. the list of the members which were already in the room) in a single
+ * notification rather than one by one. Chat room implementations which do not
+ * support snapshots simply deliver such changes through
+ * {@link #memberPresenceChanged(ChatRoomMemberPresenceChangeEvent)}.
+ */
+public interface ChatRoomMemberSnapshotListener
+    extends ChatRoomMemberPresenceListener
+{
+    /**
+     * Called to notify interested parties about the presence changes which
+     * have occurred in a particular chat room while the local user was
+     * joining it. Subsequent changes are delivered through
+     * {@link #memberPresenceChanged(ChatRoomMemberPresenceChangeEvent)}.
+     *
+     * @param evts the <tt>ChatRoomMemberPresenceChangeEvent</tt>s in the order
+     * in which they have occurred; mostly <tt>MEMBER_JOINED</tt> events with
+     * reason {@link ChatRoomMemberPresenceChangeEvent#REASON_USER_LIST}
+     */
+    public void memberPresenceSnapshot(
+            List<ChatRoomMemberPresenceChangeEvent> evts);
+}
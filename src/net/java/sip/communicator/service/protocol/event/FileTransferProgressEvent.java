@@ -45,6 +45,18 @@
      */
     private long timestamp;
 
+    /**
+     * The smoothed throughput of the file transfer in bytes per second or
+     * <tt>-1</tt> if it is not known.
+     */
+    private long bytesPerSecond;
+
+    /**
+     * The estimated number of milliseconds until the file transfer completes
+     * or <tt>-1</tt> if it is not known.
+     */
+    private long estimatedTimeLeft;
+
     /**
      * Creates a <tt>FileTransferProgressEvent</tt> by specifying the source
      * file transfer object, that triggered the event and the new progress
@@ -58,11 +70,37 @@
     public FileTransferProgressEvent(   FileTransfer fileTransfer,
                                         long timestamp,
                                         long progress)
+    {
+        this(fileTransfer, timestamp, progress, -1, -1);
+    }
+
+    /**
+     * Creates a <tt>FileTransferProgressEvent</tt> by specifying the source
+     * file transfer object, that triggered the event, the new progress value
+     * and the throughput and remaining time computed from the progress so
+     * far.
+     *
+     * @param fileTransfer the source file transfer object, that triggered the
+     * event
+     * @param timestamp when this event occured
+     * @param progress the new progress value
+     * @param bytesPerSecond the smoothed throughput in bytes per second or
+     * <tt>-1</tt> if it is not known
+     * @param estimatedTimeLeft the estimated number of milliseconds until the
+     * transfer completes or <tt>-1</tt> if it is not known
+     */
+    public FileTransferProgressEvent(   FileTransfer fileTransfer,
+                                        long timestamp,
+                                        long progress,
+                                        long bytesPerSecond,
+                                        long estimatedTimeLeft)
     {
         super(fileTransfer);
 
         this.timestamp = timestamp;
         this.progress = progress;
+        this.bytesPerSecond = bytesPerSecond;
+        this.estimatedTimeLeft = estimatedTimeLeft;
     }
 
     /**
@@ -94,4 +132,26 @@ public long getTimestamp()
     {
         return timestamp;
     }
+
+    /**
+     * Returns the smoothed throughput of the file transfer.
+     *
+     * @return the throughput in bytes per second or <tt>-1</tt> if it is not
+     * known
+     */
+    public long getBytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Returns the estimated time until the file transfer completes.
+     *
+     * @return the estimated number of milliseconds until the transfer
+     * completes or <tt>-1</tt> if it is not known
+     */
+    public long getEstimatedTimeLeft()
+    {
+        return estimatedTimeLeft;
+    }
 }
@@ -19,6 +19,8 @@
 
 import java.beans.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -121,6 +123,30 @@
     private static final String PARTIAL_NOTIFICATIONS_PROP_NAME
             = "RFC4575_PARTIAL_NOTIFICATIONS_ENABLED";
 
+    /**
+     * The maximum number of threads which send deferred conference-info
+     * notifications at the same time.
+     */
+    private static final int MAX_NOTIFICATION_THREADS = 4;
+
+    /**
+     * The <tt>ScheduledExecutorService</tt> shared by all
+     * <tt>AbstractOperationSetTelephonyConferencing</tt> instances which
+     * waits for the conference-info notifications which have been deferred
+     * because they were requested too soon after the previous notification to
+     * the same <tt>CallPeer</tt>. It only hands them to
+     * {@link #notificationExecutor} so that a slow peer does not delay the
+     * others. Created on first use.
+     */
+    private static ScheduledExecutorService notificationScheduler;
+
+    /**
+     * The <tt>ExecutorService</tt> shared by all
+     * <tt>AbstractOperationSetTelephonyConferencing</tt> instances which
+     * sends the deferred conference-info notifications. Created on first use.
+     */
+    private static ExecutorService notificationExecutor;
+
     /**
      * The <tt>OperationSetBasicTelephony</tt> implementation which this
      * instance uses to carry out tasks such as establishing <tt>Call</tt>s.
@@ -643,6 +669,138 @@ protected void notifyAll(Call call)
      */
     protected abstract void notifyCallPeers(Call call);
 
+    /**
+     * Determines whether a conference-info notification to a specific
+     * <tt>CallPeer</tt> is to be deferred because the previous one was sent
+     * less than a specific interval ago and, if so, schedules a specific task
+     * to send it once the interval has elapsed. Requests made while such a
+     * task is pending are merged into it: since the notification which is
+     * eventually sent is computed from the state of the conference at that
+     * time (against the last document sent), a burst of changes results in a
+     * single (partial) notification.
+     *
+     * @param callPeer the <tt>CallPeer</tt> to be notified
+     * @param minInterval the minimum interval in milliseconds between two
+     * conference-info notifications to <tt>callPeer</tt>
+     * @param notifyTask the task which sends the conference-info notification
+     * to <tt>callPeer</tt> and is to be scheduled if the notification is to be
+     * deferred
+     * @return <tt>true</tt> if the notification has been deferred (or merged
+     * into an already deferred one) and is not to be sent right now;
+     * otherwise, <tt>false</tt>
+     */
+    protected boolean deferConferenceInfoNotification(
+            final MediaAwareCallPeer<?,?,?> callPeer,
+            long minInterval,
+            final Runnable notifyTask)
+    {
+        long timeSinceLastNotification
+            = System.currentTimeMillis()
+                - callPeer.getLastConferenceInfoSentTimestamp();
+
+        if (timeSinceLastNotification >= minInterval)
+            return false;
+
+        if (!callPeer.trySetConfInfoScheduled())
+            return true;
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Scheduling to send conference-info to " + callPeer);
+        }
+
+        final Runnable sendTask
+            = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        notifyTask.run();
+                    }
+                    catch (Throwable t)
+                    {
+                        callPeer.setConfInfoScheduled(false);
+                        if (t instanceof ThreadDeath)
+                            throw (ThreadDeath) t;
+                        logger.error("Failed to send conference-info", t);
+                    }
+                }
+            };
+        final ExecutorService executor;
+        ScheduledExecutorService scheduler;
+
+        synchronized (AbstractOperationSetTelephonyConferencing.class)
+        {
+            if (notificationScheduler == null)
+            {
+                notificationScheduler
+                    = Executors.newSingleThreadScheduledExecutor(
+                            createNotificationThreadFactory("scheduler"));
+
+                ThreadPoolExecutor pool
+                    = new ThreadPoolExecutor(
+                            MAX_NOTIFICATION_THREADS,
+                            MAX_NOTIFICATION_THREADS,
+                            60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            createNotificationThreadFactory("sender"));
+
+                pool.allowCoreThreadTimeOut(true);
+                notificationExecutor = pool;
+            }
+            scheduler = notificationScheduler;
+            executor = notificationExecutor;
+        }
+
+        scheduler.schedule(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        executor.execute(sendTask);
+                    }
+                },
+                1 + minInterval - timeSinceLastNotification,
+                TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Creates a <tt>ThreadFactory</tt> for the daemon threads which wait for
+     * and send the deferred conference-info notifications.
+     *
+     * @param role the role of the threads to be included in their names
+     * @return the new <tt>ThreadFactory</tt>
+     */
+    private static ThreadFactory createNotificationThreadFactory(
+            final String role)
+    {
+        return
+            new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t
+                        = new Thread(
+                                r,
+                                AbstractOperationSetTelephonyConferencing.class
+                                        .getSimpleName()
+                                    + " " + role + "-"
+                                    + count.incrementAndGet());
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+    }
+
     /**
      * Notifies this <tt>CallListener</tt> that a specific outgoing
      * <tt>Call</tt> has been created.
@@ -21,10 +21,6 @@
 import org.jitsi.util.xml.*;
 import org.w3c.dom.*;
 
-import javax.xml.parsers.*;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.*;
-import javax.xml.transform.stream.*;
 import java.io.*;
 import java.util.*;
 
@@ -171,6 +167,16 @@
      */
     private final List<User> usersList = new LinkedList<User>();
 
+    /**
+     * Maps the value of the <tt>entity</tt> attribute of the <tt>user</tt>
+     * children of <tt>users</tt> to the <tt>User</tt>s which represent them,
+     * so that {@link #getUser(String)} does not have to walk
+     * {@link #usersList}. If more than one <tt>User</tt> has the same
+     * <tt>entity</tt>, the first one (in document order) is kept.
+     */
+    private final Map<String, User> usersByEntity
+        = new HashMap<String, User>();
+
     /**
      * Creates a new <tt>ConferenceInfoDocument</tt> instance.
      *
@@ -277,6 +283,7 @@ public ConferenceInfoDocument(String xml)
         {
             User user = new User((Element)usersNodeList.item(i));
             usersList.add(user);
+            indexUser(user);
         }
     }
 
@@ -503,21 +510,148 @@ public int getUserCount()
      */
     public String toXml()
     {
+        /*
+         * Conference-info documents are generated for every notification we
+         * send, so we serialize the (simple) tree ourselves rather than
+         * initializing a new Transformer each time.
+         */
+        StringBuilder xml = new StringBuilder(256 + 256 * usersList.size());
+
         try
         {
-            Transformer transformer
-                    = TransformerFactory.newInstance().newTransformer();
-            StringWriter buffer = new StringWriter();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION,
-                    "yes");
-            transformer.transform(new DOMSource(conferenceInfo),
-                    new StreamResult(buffer));
-            return buffer.toString();
+            appendElement(xml, conferenceInfo, null);
         }
-        catch (Exception e)
+        catch (DOMException e)
         {
+            logger.warn("Failed to serialize conference-info document", e);
             return null;
         }
+        return xml.toString();
+    }
+
+    /**
+     * Appends the XML representation of a specific <tt>Element</tt> and its
+     * descendants to a specific <tt>StringBuilder</tt>.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append to
+     * @param element the <tt>Element</tt> to serialize
+     * @param parentNamespace the default namespace in scope at the parent of
+     * <tt>element</tt>, or <tt>null</tt> if there is no such namespace
+     */
+    private static void appendElement(
+            StringBuilder xml,
+            Element element,
+            String parentNamespace)
+    {
+        String tagName = element.getTagName();
+        String namespace = element.getNamespaceURI();
+
+        xml.append('<').append(tagName);
+
+        if (namespace == null || element.getPrefix() != null)
+        {
+            namespace = parentNamespace;
+        }
+        else if (!namespace.equals(parentNamespace)
+                && !element.hasAttribute("xmlns"))
+        {
+            xml.append(" xmlns=\"");
+            appendEscaped(xml, namespace, true);
+            xml.append('"');
+        }
+
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0, count = attributes.getLength(); i < count; i++)
+        {
+            Node attribute = attributes.item(i);
+
+            xml.append(' ').append(attribute.getNodeName()).append("=\"");
+            appendEscaped(xml, attribute.getNodeValue(), true);
+            xml.append('"');
+        }
+
+        Node child = element.getFirstChild();
+        if (child == null)
+        {
+            xml.append("/>");
+            return;
+        }
+
+        xml.append('>');
+        for (; child != null; child = child.getNextSibling())
+        {
+            switch (child.getNodeType())
+            {
+            case Node.ELEMENT_NODE:
+                appendElement(xml, (Element) child, namespace);
+                break;
+            case Node.TEXT_NODE:
+                appendEscaped(xml, child.getNodeValue(), false);
+                break;
+            case Node.CDATA_SECTION_NODE:
+                xml.append("<![CDATA[").append(child.getNodeValue())
+                        .append("]]>");
+                break;
+            case Node.COMMENT_NODE:
+                xml.append("<!--").append(child.getNodeValue()).append("-->");
+                break;
+            default:
+                break;
+            }
+        }
+        xml.append("</").append(tagName).append('>');
+    }
+
+    /**
+     * Appends a specific <tt>String</tt> to a specific <tt>StringBuilder</tt>,
+     * escaping the characters which are not allowed to appear literally in
+     * XML character data or attribute values.
+     *
+     * @param xml the <tt>StringBuilder</tt> to append to
+     * @param s the <tt>String</tt> to escape and append
+     * @param attribute <tt>true</tt> if <tt>s</tt> is the value of an
+     * attribute; otherwise, <tt>false</tt>
+     */
+    private static void appendEscaped(
+            StringBuilder xml,
+            String s,
+            boolean attribute)
+    {
+        if (s == null)
+            return;
+
+        for (int i = 0, length = s.length(); i < length; i++)
+        {
+            char c = s.charAt(i);
+
+            switch (c)
+            {
+            case '&':
+                xml.append("&amp;");
+                break;
+            case '<':
+                xml.append("&lt;");
+                break;
+            case '>':
+                xml.append("&gt;");
+                break;
+            case '"':
+                xml.append(attribute ? "&quot;" : "\"");
+                break;
+            case '\n':
+                xml.append(attribute ? "&#10;" : "\n");
+                break;
+            case '\r':
+                xml.append("&#13;");
+                break;
+            case '\t':
+                xml.append(attribute ? "&#9;" : "\t");
+                break;
+            default:
+                xml.append(c);
+                break;
+            }
+        }
     }
 
     /**
@@ -558,12 +692,7 @@ public User getUser(String entity)
     {
         if (entity == null)
             return null;
-        for(User u : usersList)
-        {
-            if (entity.equals(u.getEntity()))
-                return u;
-        }
-        return null;
+        return usersByEntity.get(entity);
     }
 
     /**
@@ -581,6 +710,7 @@ public User addNewUser(String entity)
 
         users.appendChild(userElement);
         usersList.add(user);
+        indexUser(user);
 
         return user;
     }
@@ -610,6 +740,46 @@ public void removeUser(String entity)
         {
             usersList.remove(user);
             users.removeChild(user.userElement);
+            unindexUser(user, entity);
+        }
+    }
+
+    /**
+     * Adds a specific <tt>User</tt> of this document to
+     * {@link #usersByEntity} unless another <tt>User</tt> with the same
+     * <tt>entity</tt> precedes it.
+     *
+     * @param user the <tt>User</tt> to index
+     */
+    private void indexUser(User user)
+    {
+        String entity = user.getEntity();
+
+        if (!usersByEntity.containsKey(entity))
+            usersByEntity.put(entity, user);
+    }
+
+    /**
+     * Removes a specific <tt>User</tt> from {@link #usersByEntity} for a
+     * specific <tt>entity</tt> and indexes the next <tt>User</tt> with the
+     * same <tt>entity</tt>, if any.
+     *
+     * @param user the <tt>User</tt> to remove from the index
+     * @param entity the <tt>entity</tt> <tt>user</tt> is indexed with
+     */
+    private void unindexUser(User user, String entity)
+    {
+        if (usersByEntity.get(entity) != user)
+            return;
+
+        usersByEntity.remove(entity);
+        for (User u : usersList)
+        {
+            if (u != user && entity.equals(u.getEntity()))
+            {
+                usersByEntity.put(entity, u);
+                break;
+            }
         }
     }
 
@@ -792,10 +962,19 @@ private User(Element user)
          */
         public void setEntity(String entity)
         {
+            String oldEntity = getEntity();
+            boolean indexed = (usersByEntity.get(oldEntity) == this);
+
+            if (indexed)
+                unindexUser(this, oldEntity);
+
             if (entity == null || entity.equals(""))
                 userElement.removeAttribute(ENTITY_ATTR_NAME);
             else
                 userElement.setAttribute(ENTITY_ATTR_NAME, entity);
+
+            if (indexed)
+                indexUser(this);
         }
 
         /**
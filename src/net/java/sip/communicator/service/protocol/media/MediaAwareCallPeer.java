@@ -1192,6 +1192,25 @@ public void setConfInfoScheduled(boolean confInfoScheduled)
         }
     }
 
+    /**
+     * Atomically marks a conference-info document as scheduled to be sent to
+     * this <tt>CallPeer</tt> unless one already is.
+     *
+     * @return <tt>true</tt> if no conference-info document was scheduled to
+     * be sent to this <tt>CallPeer</tt> and one now is; <tt>false</tt> if one
+     * was already scheduled
+     */
+    public boolean trySetConfInfoScheduled()
+    {
+        synchronized (confInfoScheduledSyncRoot)
+        {
+            if (confInfoScheduled)
+                return false;
+            confInfoScheduled = true;
+            return true;
+        }
+    }
+
     /**
      * Returns the direction of the session for media of type <tt>mediaType</tt>
      * that we have with this <tt>CallPeer</tt>. This is the direction of the
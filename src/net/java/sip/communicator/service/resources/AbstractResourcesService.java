@@ -17,11 +17,15 @@
  */
 package net.java.sip.communicator.service.resources;
 
+import java.awt.*;
+import java.awt.image.*;
 import java.io.*;
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
+import javax.imageio.*;
 import javax.swing.*;
 
 import net.java.sip.communicator.util.*;
@@ -45,6 +49,26 @@
     private static final Logger logger =
             Logger.getLogger(AbstractResourcesService.class);
 
+    /**
+     * The name of the configuration property which specifies the maximum
+     * number of bytes of the decoded images kept in memory.
+     */
+    public static final String PNAME_IMAGE_CACHE_SIZE
+        = "net.java.sip.communicator.service.resources.IMAGE_CACHE_SIZE";
+
+    /**
+     * The decoded images shared by all bundles loading images through this
+     * service.
+     */
+    private final ImageCache imageCache;
+
+    /**
+     * The processed strings of the <tt>languageLocale</tt> requested without
+     * parameters by key.
+     */
+    private final Map<String, String> processedStrings
+        = new ConcurrentHashMap<String, String>();
+
     /**
      * The OSGI BundleContext
      */
@@ -120,6 +144,16 @@
     public AbstractResourcesService(BundleContext bundleContext)
     {
         this.bundleContext = bundleContext;
+
+        ConfigurationService confService =
+            ServiceUtils.getService( bundleContext, ConfigurationService.class);
+
+        imageCache
+            = new ImageCache(
+                    confService.getLong(
+                            PNAME_IMAGE_CACHE_SIZE,
+                            ImageCache.DEFAULT_CAPACITY));
+
         bundleContext.addServiceListener(this);
 
         colorPack
@@ -139,8 +173,6 @@ public AbstractResourcesService(BundleContext bundleContext)
             imageResources = getResources(imagePack);
 
         // changes the default locale if set in the config
-        ConfigurationService confService =
-            ServiceUtils.getService( bundleContext, ConfigurationService.class);
         String defaultLocale =
                 (String) confService.getProperty(DEFAULT_LOCALE_CONFIG);
         if(defaultLocale != null)
@@ -259,7 +291,9 @@ else if(resourcePack instanceof SkinPack && skinPack == null)
                 colorResources.putAll(skinPack.getColorResources());
                 settingsResources.putAll(skinPack.getSettingsResources());
 
+                onResourcesChanged();
                 onSkinPackChanged();
+                return;
             }
         }
         else if (event.getType() == ServiceEvent.UNREGISTERING)
@@ -341,9 +375,13 @@ else if(resourcePack instanceof SkinPack
                     settingsResources.putAll(skinPack.getSettingsResources());
                 }
 
+                onResourcesChanged();
                 onSkinPackChanged();
+                return;
             }
         }
+
+        onResourcesChanged();
     }
 
     /**
@@ -351,6 +389,18 @@ else if(resourcePack instanceof SkinPack
      */
     protected abstract void onSkinPackChanged();
 
+    /**
+     * Method is invoked when a <tt>ResourcePack</tt> is registered or
+     * unregistered (before {@link #onSkinPackChanged()} if it is a
+     * <tt>SkinPack</tt>). Drops the cached images and strings which may have
+     * been loaded from a different pack.
+     */
+    protected void onResourcesChanged()
+    {
+        imageCache.clear();
+        processedStrings.clear();
+    }
+
     /**
      * Searches for the <tt>ResourcePack</tt> corresponding to the given
      * <tt>className</tt> and <tt></tt>.
@@ -524,6 +574,23 @@ private String processI18NString(String resourceString)
      */
     public String getI18NString(String key, String[] params, Locale locale)
     {
+        /*
+         * Most strings are requested for the default locale without
+         * parameters so they are processed once.
+         */
+        boolean memoize
+            = (params == null)
+                && (locale != null)
+                && locale.equals(languageLocale);
+
+        if (memoize)
+        {
+            String processedString = processedStrings.get(key);
+
+            if (processedString != null)
+                return processedString;
+        }
+
         String resourceString = doGetI18String(key, locale);
         if (resourceString == null)
         {
@@ -537,7 +604,10 @@ public String getI18NString(String key, String[] params, Locale locale)
                     = MessageFormat.format(resourceString, (Object[]) params);
         }
 
-        return processI18NString(resourceString);
+        resourceString = processI18NString(resourceString);
+        if (memoize)
+            processedStrings.put(key, resourceString);
+        return resourceString;
     }
 
     /**
@@ -691,8 +761,7 @@ public byte[] getImageInBytes(String imageID)
 
         try
         {
-            image = new byte[in.available()];
-            in.read(image);
+            image = readFully(in, -1);
         }
         catch (IOException e)
         {
@@ -703,7 +772,8 @@ public byte[] getImageInBytes(String imageID)
     }
 
     /**
-     * Loads an image from a given image identifier.
+     * Loads an image from a given image identifier. The decoded image is
+     * cached and shared by all the returned icons.
      *
      * @param imageID The identifier of the image.
      * @return The image for the given identifier.
@@ -712,7 +782,114 @@ public ImageIcon getImage(String imageID)
     {
         URL imageURL = getImageURL(imageID);
 
-        return (imageURL == null) ? null : new ImageIcon(imageURL);
+        if (imageURL == null)
+            return null;
+
+        // The description is the URL as with new ImageIcon(URL).
+        String description = imageURL.toExternalForm();
+        Image image = imageCache.getImage(imageID);
+
+        if (image != null)
+            return new ImageIcon(image, description);
+
+        ImageIcon icon = new ImageIcon(imageURL, description);
+
+        if (icon.getImageLoadStatus() == MediaTracker.COMPLETE)
+            imageCache.putImage(imageID, icon.getImage());
+        return icon;
+    }
+
+    /**
+     * Loads and decodes an image from a given image identifier into a
+     * <tt>BufferedImage</tt>. The decoded image is cached and shared by all
+     * callers so it must not be modified.
+     *
+     * @param imageID The identifier of the image.
+     * @return The image for the given identifier or <tt>null</tt> if it does
+     * not exist or could not be decoded.
+     */
+    public BufferedImage getBufferedImage(String imageID)
+    {
+        BufferedImage image = imageCache.getBufferedImage(imageID);
+
+        if (image != null)
+            return image;
+
+        URL imageURL = getImageURL(imageID);
+
+        if (imageURL == null)
+            return null;
+
+        try
+        {
+            image = ImageIO.read(imageURL);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to load image: " + imageURL, e);
+        }
+        if (image != null)
+            imageCache.putBufferedImage(imageID, image);
+        return image;
+    }
+
+    /**
+     * Removes all decoded images from the cache shared by the bundles using
+     * this service.
+     */
+    public void clearImageCache()
+    {
+        if (logger.isDebugEnabled())
+            logger.debug("Clearing image cache: " + imageCache.getStatistics());
+        imageCache.clear();
+    }
+
+    /**
+     * Reads a stream to its end and closes it.
+     *
+     * @param in the stream to read
+     * @param size the number of bytes expected in <tt>in</tt> or
+     * <tt>-1</tt> if it is not known
+     * @return the bytes read from <tt>in</tt>
+     * @throws IOException if reading <tt>in</tt> fails
+     */
+    protected static byte[] readFully(InputStream in, long size)
+        throws IOException
+    {
+        try
+        {
+            byte[] buf
+                = new byte[
+                        ((size >= 0) && (size < Integer.MAX_VALUE))
+                            ? (int) size
+                            : 8192];
+            int length = 0;
+
+            while (true)
+            {
+                if (length == buf.length)
+                {
+                    // The size was unknown or wrong; check for more bytes.
+                    int b = in.read();
+
+                    if (b == -1)
+                        break;
+                    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, 8192));
+                    buf[length++] = (byte) b;
+                }
+
+                int read = in.read(buf, length, buf.length - length);
+
+                if (read == -1)
+                    break;
+                length += read;
+            }
+            return (length == buf.length) ? buf : Arrays.copyOf(buf, length);
+        }
+        finally
+        {
+            in.close();
+        }
     }
 
     /**
@@ -728,6 +905,37 @@ public String getSoundPath(String soundKey)
         return soundResources.get(soundKey);
     }
 
+    /**
+     * Returns the keys of the images of the currently loaded image and skin
+     * packs.
+     *
+     * @return the keys of the currently available images
+     */
+    protected Collection<String> getImageKeys()
+    {
+        Map<String, String> imageResources = this.imageResources;
+
+        return
+            (imageResources == null)
+                ? Collections.<String>emptyList()
+                : new ArrayList<String>(imageResources.keySet());
+    }
+
+    /**
+     * Returns the keys of the sounds of the currently loaded sound pack.
+     *
+     * @return the keys of the currently available sounds
+     */
+    protected Collection<String> getSoundKeys()
+    {
+        Map<String, String> soundResources = this.soundResources;
+
+        return
+            (soundResources == null)
+                ? Collections.<String>emptyList()
+                : new ArrayList<String>(soundResources.keySet());
+    }
+
     /**
      * Resources for currently loaded <tt>ColorPack</tt>.
      *
@@ -0,0 +1,245 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.resources;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * A cache of decoded images by resource key bounded by the (approximate)
+ * number of bytes of their pixels. The least recently used images are
+ * evicted first.
+ * <p>
+ * An image may be cached both as loaded by the AWT <tt>Toolkit</tt> (which
+ * keeps animated images animated) and as a <tt>BufferedImage</tt> (which
+ * allows access to its pixels). Both count towards the capacity.
+ */
+public class ImageCache
+{
+    /**
+     * The default maximum number of bytes of the cached images.
+     */
+    public static final long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    /**
+     * The cached images by resource key in access order.
+     */
+    private final LinkedHashMap<String, Entry> entries
+        = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+    /**
+     * The maximum number of bytes of the cached images.
+     */
+    private final long capacity;
+
+    /**
+     * The number of bytes of the cached images.
+     */
+    private long size = 0;
+
+    /**
+     * The number of lookups which found their image in this cache.
+     */
+    private long hitCount = 0;
+
+    /**
+     * The number of lookups which did not find their image in this cache.
+     */
+    private long missCount = 0;
+
+    /**
+     * Initializes a new <tt>ImageCache</tt>.
+     *
+     * @param capacity the maximum number of bytes of the images to cache
+     */
+    public ImageCache(long capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cached <tt>Toolkit</tt> image for a specific key.
+     *
+     * @param key the resource key of the image
+     * @return the cached image or <tt>null</tt> if it is not cached
+     */
+    public synchronized Image getImage(String key)
+    {
+        Entry entry = entries.get(key);
+        Image image = (entry == null) ? null : entry.image;
+
+        count(image != null);
+        return image;
+    }
+
+    /**
+     * Returns the cached <tt>BufferedImage</tt> for a specific key.
+     *
+     * @param key the resource key of the image
+     * @return the cached image or <tt>null</tt> if it is not cached
+     */
+    public synchronized BufferedImage getBufferedImage(String key)
+    {
+        Entry entry = entries.get(key);
+        BufferedImage image = (entry == null) ? null : entry.bufferedImage;
+
+        count(image != null);
+        return image;
+    }
+
+    /**
+     * Caches a <tt>Toolkit</tt> image which has been completely loaded.
+     *
+     * @param key the resource key of the image
+     * @param image the image to cache
+     */
+    public synchronized void putImage(String key, Image image)
+    {
+        Entry entry = getOrCreateEntry(key);
+
+        if (entry.image != null)
+            size -= weigh(entry.image);
+        entry.image = image;
+        size += weigh(image);
+        evict();
+    }
+
+    /**
+     * Caches a <tt>BufferedImage</tt>.
+     *
+     * @param key the resource key of the image
+     * @param image the image to cache
+     */
+    public synchronized void putBufferedImage(String key, BufferedImage image)
+    {
+        Entry entry = getOrCreateEntry(key);
+
+        if (entry.bufferedImage != null)
+            size -= weigh(entry.bufferedImage);
+        entry.bufferedImage = image;
+        size += weigh(image);
+        evict();
+    }
+
+    /**
+     * Removes all images from this cache.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns a human-readable summary of the use of this cache.
+     *
+     * @return the statistics of this cache
+     */
+    public synchronized String getStatistics()
+    {
+        return
+            "images: " + entries.size()
+                + ", bytes: " + size + "/" + capacity
+                + ", hits: " + hitCount
+                + ", misses: " + missCount;
+    }
+
+    /**
+     * Counts a lookup.
+     *
+     * @param hit <tt>true</tt> if the lookup found its image
+     */
+    private void count(boolean hit)
+    {
+        if (hit)
+            hitCount++;
+        else
+            missCount++;
+    }
+
+    /**
+     * Returns the entry for a specific key, adding it if necessary.
+     *
+     * @param key the resource key of the image
+     * @return the entry for <tt>key</tt>
+     */
+    private Entry getOrCreateEntry(String key)
+    {
+        Entry entry = entries.get(key);
+
+        if (entry == null)
+        {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the least recently used images until the cached images fit in
+     * the capacity. The most recently used image is kept even if it alone
+     * exceeds the capacity.
+     */
+    private void evict()
+    {
+        Iterator<Entry> iter = entries.values().iterator();
+
+        while ((size > capacity) && (entries.size() > 1) && iter.hasNext())
+        {
+            Entry entry = iter.next();
+
+            if (entry.image != null)
+                size -= weigh(entry.image);
+            if (entry.bufferedImage != null)
+                size -= weigh(entry.bufferedImage);
+            iter.remove();
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes of the pixels of an image.
+     *
+     * @param image the image
+     * @return the approximate number of bytes of the pixels of
+     * <tt>image</tt>
+     */
+    private static long weigh(Image image)
+    {
+        long width = Math.max(1, image.getWidth(null));
+        long height = Math.max(1, image.getHeight(null));
+
+        return width * height * 4;
+    }
+
+    /**
+     * The forms of an image cached for a resource key.
+     */
+    private static class Entry
+    {
+        /**
+         * The image as loaded by the <tt>Toolkit</tt> or <tt>null</tt>.
+         */
+        Image image;
+
+        /**
+         * The image as decoded by <tt>ImageIO</tt> or <tt>null</tt>.
+         */
+        BufferedImage bufferedImage;
+    }
+}
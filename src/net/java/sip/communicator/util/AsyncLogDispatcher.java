@@ -0,0 +1,494 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+
+/**
+ * Hands <tt>LogRecord</tt>s over from the logging threads to a single
+ * dispatching thread through a bounded lock-free ring buffer so that the
+ * logging threads do not have to wait for the records to be formatted and
+ * written.
+ * <p>
+ * When the ring buffer is full, records are either dropped or the logging
+ * thread waits for space depending on the {@link OverflowPolicy}. Dropped
+ * records are reported by a warning record once there is space again.
+ */
+abstract class AsyncLogDispatcher
+    implements Runnable
+{
+    /**
+     * What to do with a record which is logged while the ring buffer is full.
+     */
+    enum OverflowPolicy
+    {
+        /**
+         * Drop the record and count it.
+         */
+        DROP,
+
+        /**
+         * Make the logging thread wait for the dispatching thread to make
+         * space.
+         */
+        BLOCK
+    }
+
+    /**
+     * The number of nanoseconds the dispatching thread sleeps at most when
+     * there are no records (in case a wake up is missed).
+     */
+    private static final long IDLE_PARK_NANOS = 100 * 1000000L;
+
+    /**
+     * The number of nanoseconds a blocked logging thread waits before it
+     * checks for space again.
+     */
+    private static final long BLOCKED_PARK_NANOS = 100 * 1000L;
+
+    /**
+     * The mask of the number of dispatched records after which dropped
+     * records are reported even if the ring buffer has not been drained.
+     */
+    private static final long REPORT_INTERVAL_MASK = 1024 - 1;
+
+    /**
+     * The maximum number of milliseconds {@link #stop()} waits for the queued
+     * records to be dispatched.
+     */
+    private static final long STOP_TIMEOUT = 5000;
+
+    /**
+     * The ring buffer of records.
+     */
+    private final AtomicReferenceArray<LogRecord> records;
+
+    /**
+     * The sequence number of each slot of {@link #records}. A slot may be
+     * written by the producer claiming position <tt>p</tt> when its sequence
+     * is <tt>p</tt> and read by the dispatching thread when it is
+     * <tt>p + 1</tt>.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The mask giving the slot of a position.
+     */
+    private final int mask;
+
+    /**
+     * The next position to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next position to be read by the dispatching thread. Only accessed
+     * by the dispatching thread or, once it has terminated, with
+     * {@link #drainLock} held.
+     */
+    private long head = 0;
+
+    /**
+     * What to do with records logged while the ring buffer is full.
+     */
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * The thread dispatching the records.
+     */
+    private final Thread thread;
+
+    /**
+     * Whether the dispatching thread is (about to start) waiting for records.
+     */
+    private volatile boolean idle = false;
+
+    /**
+     * Whether {@link #stop()} has been called.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * The lock which serializes the final draining of the ring buffer by the
+     * dispatching thread with the records dispatched on the logging threads
+     * once it has terminated.
+     */
+    private final Object drainLock = new Object();
+
+    /**
+     * Whether the dispatching thread has drained the ring buffer for the
+     * last time. Afterwards, the logging threads dispatch the records
+     * themselves. Guarded by {@link #drainLock}.
+     */
+    private boolean terminated = false;
+
+    /**
+     * The number of records queued.
+     */
+    private final AtomicLong queuedCount = new AtomicLong();
+
+    /**
+     * The number of records dropped because the ring buffer was full.
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * The number of records whose logging threads had to wait for space.
+     */
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    /**
+     * The value of {@link #droppedCount} last reported in a warning record.
+     * Only accessed by the dispatching thread.
+     */
+    private long reportedDroppedCount = 0;
+
+    /**
+     * Initializes a new <tt>AsyncLogDispatcher</tt> and starts its
+     * dispatching thread.
+     *
+     * @param name the name of the dispatching thread
+     * @param capacity the (minimum) number of records the ring buffer holds;
+     * rounded up to a power of two
+     * @param overflowPolicy what to do with records logged while the ring
+     * buffer is full
+     */
+    AsyncLogDispatcher(
+            String name,
+            int capacity,
+            OverflowPolicy overflowPolicy)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        records = new AtomicReferenceArray<LogRecord>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Dispatches a specific record on the dispatching thread. Only called by
+     * the dispatching thread.
+     *
+     * @param record the record to dispatch
+     */
+    protected abstract void dispatch(LogRecord record);
+
+    /**
+     * Queues a record to be dispatched on the dispatching thread.
+     *
+     * @param record the record to queue
+     */
+    void queue(LogRecord record)
+    {
+        if (stopped && dispatchIfTerminated(record))
+            return;
+
+        if (!offer(record))
+        {
+            if (overflowPolicy == OverflowPolicy.DROP)
+            {
+                droppedCount.incrementAndGet();
+                return;
+            }
+
+            blockedCount.incrementAndGet();
+            do
+            {
+                wakeUp();
+                LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+                if (stopped && dispatchIfTerminated(record))
+                    return;
+            }
+            while (!offer(record));
+        }
+
+        queuedCount.incrementAndGet();
+        if (stopped)
+        {
+            /*
+             * The dispatching thread may have drained the ring buffer for the
+             * last time before the record was put in it.
+             */
+            dispatchIfTerminated(null);
+        }
+        else if (idle)
+        {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Dispatches the queued records and stops the dispatching thread. Records
+     * queued once it has terminated are dispatched on the logging threads,
+     * after the ones still in the ring buffer.
+     */
+    void stop()
+    {
+        stopped = true;
+        wakeUp();
+
+        if (Thread.currentThread() != thread)
+        {
+            try
+            {
+                thread.join(STOP_TIMEOUT);
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns a human-readable summary of the counters of this dispatcher.
+     *
+     * @return the statistics of this dispatcher
+     */
+    String getStatistics()
+    {
+        return
+            "queued: " + queuedCount.get()
+                + ", dropped: " + droppedCount.get()
+                + ", blocked: " + blockedCount.get();
+    }
+
+    /**
+     * Dispatches the queued records until stopped.
+     */
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            LogRecord record = poll();
+
+            if (record != null)
+            {
+                dispatchNow(record);
+                // Do not wait for the queue to drain to report drops.
+                if ((head & REPORT_INTERVAL_MASK) == 0)
+                    reportDropped();
+                continue;
+            }
+
+            reportDropped();
+            if (stopped)
+            {
+                /*
+                 * Records queued after this are dispatched by their logging
+                 * threads.
+                 */
+                synchronized (drainLock)
+                {
+                    drain();
+                    reportStatistics();
+                    terminated = true;
+                }
+                break;
+            }
+
+            idle = true;
+            if (isEmpty())
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            idle = false;
+        }
+    }
+
+    /**
+     * Dispatches the queued records and then a specific record on the current
+     * thread if the dispatching thread has terminated.
+     *
+     * @param record the record to dispatch after the queued ones or
+     * <tt>null</tt> to only dispatch the queued records
+     * @return <tt>true</tt> if the dispatching thread has terminated;
+     * otherwise, <tt>false</tt> and nothing has been dispatched
+     */
+    private boolean dispatchIfTerminated(LogRecord record)
+    {
+        synchronized (drainLock)
+        {
+            if (!terminated)
+                return false;
+
+            drain();
+            if (record != null)
+                dispatchNow(record);
+            return true;
+        }
+    }
+
+    /**
+     * Dispatches the records in the ring buffer on the current thread. Only
+     * called with {@link #drainLock} held, either by the dispatching thread or
+     * after it has terminated.
+     */
+    private void drain()
+    {
+        LogRecord record;
+
+        while ((record = poll()) != null)
+            dispatchNow(record);
+    }
+
+    /**
+     * Tries to put a record in the ring buffer.
+     *
+     * @param record the record to put
+     * @return <tt>true</tt> if the record was put in the ring buffer;
+     * <tt>false</tt> if the ring buffer is full
+     */
+    private boolean offer(LogRecord record)
+    {
+        while (true)
+        {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+
+            if (difference == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    records.set(slot, record);
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+            }
+            else if (difference < 0)
+            {
+                return false;
+            }
+            // Otherwise, another producer has claimed the position.
+        }
+    }
+
+    /**
+     * Takes the next record from the ring buffer. Only called by the
+     * dispatching thread or, once it has terminated, with {@link #drainLock}
+     * held.
+     *
+     * @return the next record or <tt>null</tt> if the ring buffer is empty
+     */
+    private LogRecord poll()
+    {
+        int slot = (int) head & mask;
+
+        if (sequences.get(slot) != head + 1)
+            return null;
+
+        LogRecord record = records.get(slot);
+
+        records.set(slot, null);
+        sequences.set(slot, head + mask + 1);
+        head++;
+        return record;
+    }
+
+    /**
+     * Determines whether the ring buffer is empty. Only called by the
+     * dispatching thread.
+     *
+     * @return <tt>true</tt> if there is no record to dispatch
+     */
+    private boolean isEmpty()
+    {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    /**
+     * Wakes the dispatching thread up.
+     */
+    private void wakeUp()
+    {
+        idle = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Dispatches a record on the current thread, making sure that a failing
+     * handler does not kill the dispatching thread.
+     *
+     * @param record the record to dispatch
+     */
+    private void dispatchNow(LogRecord record)
+    {
+        try
+        {
+            dispatch(record);
+        }
+        catch (Throwable t)
+        {
+            if (t instanceof ThreadDeath)
+                throw (ThreadDeath) t;
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Dispatches a record with the counters of this dispatcher if records
+     * have been dropped or logging threads had to wait. Only called by the
+     * dispatching thread.
+     */
+    private void reportStatistics()
+    {
+        if ((droppedCount.get() != 0) || (blockedCount.get() != 0))
+        {
+            LogRecord record
+                = new LogRecord(
+                        Level.INFO,
+                        "Asynchronous logging statistics: "
+                            + getStatistics());
+
+            record.setLoggerName(AsyncLogDispatcher.class.getName());
+            dispatchNow(record);
+        }
+    }
+
+    /**
+     * Dispatches a warning record if records have been dropped since the
+     * last report. Only called by the dispatching thread.
+     */
+    private void reportDropped()
+    {
+        long dropped = droppedCount.get();
+
+        if (dropped != reportedDroppedCount)
+        {
+            LogRecord record
+                = new LogRecord(
+                        Level.WARNING,
+                        (dropped - reportedDroppedCount)
+                            + " log records were dropped because the log"
+                            + " queue was full.");
+
+            record.setLoggerName(AsyncLogDispatcher.class.getName());
+            reportedDroppedCount = dropped;
+            dispatchNow(record);
+        }
+    }
+}
@@ -0,0 +1,779 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.net.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Connects to the first reachable of several addresses of a server the way
+ * "Happy Eyeballs" (RFC 8305) does: the addresses are tried in order,
+ * alternating between IPv6 and IPv4, and the next attempt starts when the
+ * previous one failed or after {@link #getAttemptDelay()} milliseconds
+ * without waiting for it to time out. The first socket which connects is
+ * kept and all other attempts are cancelled.
+ */
+public class ConnectionRacer
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>ConnectionRacer</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(ConnectionRacer.class);
+
+    /**
+     * The name of the property which enables racing the connections to the
+     * addresses of a server.
+     */
+    public static final String PNAME_CONNECTION_RACING_ENABLED
+        = "net.java.sip.communicator.util.CONNECTION_RACING_ENABLED";
+
+    /**
+     * The default value of {@link #PNAME_CONNECTION_RACING_ENABLED}.
+     */
+    public static final boolean PDEFAULT_CONNECTION_RACING_ENABLED = true;
+
+    /**
+     * The name of the property holding the number of milliseconds to wait for
+     * an attempt before starting the next one.
+     */
+    public static final String PNAME_CONNECTION_ATTEMPT_DELAY
+        = "net.java.sip.communicator.util.CONNECTION_ATTEMPT_DELAY";
+
+    /**
+     * The default value of {@link #PNAME_CONNECTION_ATTEMPT_DELAY}, the
+     * "Connection Attempt Delay" recommended by RFC 8305.
+     */
+    public static final long PDEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
+
+    /**
+     * The name of the property holding the number of milliseconds after which
+     * a single attempt fails.
+     */
+    public static final String PNAME_CONNECT_TIMEOUT
+        = "net.java.sip.communicator.util.CONNECT_TIMEOUT";
+
+    /**
+     * The default value of {@link #PNAME_CONNECT_TIMEOUT}.
+     */
+    public static final int PDEFAULT_CONNECT_TIMEOUT = 30000;
+
+    /**
+     * The threads running the attempts.
+     */
+    private static final ExecutorService executor
+        = Executors.newCachedThreadPool(
+                new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t
+                            = new Thread(
+                                    r,
+                                    "ConnectionRacer-"
+                                        + count.incrementAndGet());
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+    /**
+     * The number of milliseconds to wait for an attempt before starting the
+     * next one.
+     */
+    private final long attemptDelay;
+
+    /**
+     * The number of milliseconds after which a single attempt fails.
+     */
+    private final int connectTimeout;
+
+    /**
+     * Initializes a new <tt>ConnectionRacer</tt> with the delays from the
+     * configuration.
+     */
+    public ConnectionRacer()
+    {
+        ConfigurationService cfg = UtilActivator.getConfigurationService();
+
+        if (cfg == null)
+        {
+            attemptDelay = PDEFAULT_CONNECTION_ATTEMPT_DELAY;
+            connectTimeout = PDEFAULT_CONNECT_TIMEOUT;
+        }
+        else
+        {
+            attemptDelay
+                = cfg.getLong(
+                        PNAME_CONNECTION_ATTEMPT_DELAY,
+                        PDEFAULT_CONNECTION_ATTEMPT_DELAY);
+            connectTimeout
+                = cfg.getInt(PNAME_CONNECT_TIMEOUT, PDEFAULT_CONNECT_TIMEOUT);
+        }
+    }
+
+    /**
+     * Initializes a new <tt>ConnectionRacer</tt>.
+     *
+     * @param attemptDelay the number of milliseconds to wait for an attempt
+     * before starting the next one
+     * @param connectTimeout the number of milliseconds after which a single
+     * attempt fails
+     */
+    public ConnectionRacer(long attemptDelay, int connectTimeout)
+    {
+        this.attemptDelay = attemptDelay;
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Determines whether the connections to the addresses of a server should
+     * be raced rather than tried one after the other.
+     *
+     * @return <tt>true</tt> if connections should be raced
+     */
+    public static boolean isEnabled()
+    {
+        ConfigurationService cfg = UtilActivator.getConfigurationService();
+
+        return
+            (cfg == null)
+                ? PDEFAULT_CONNECTION_RACING_ENABLED
+                : cfg.getBoolean(
+                        PNAME_CONNECTION_RACING_ENABLED,
+                        PDEFAULT_CONNECTION_RACING_ENABLED);
+    }
+
+    /**
+     * Returns the number of milliseconds to wait for an attempt before
+     * starting the next one.
+     *
+     * @return the number of milliseconds to wait for an attempt before
+     * starting the next one
+     */
+    public long getAttemptDelay()
+    {
+        return attemptDelay;
+    }
+
+    /**
+     * Orders addresses in which they should be tried: the address families
+     * alternate, starting with the family of the first address, and the
+     * addresses of each family keep their order (for example the order of the
+     * SRV records they were found by).
+     *
+     * @param addresses the addresses in order of preference
+     * @return the addresses in the order in which they should be tried
+     */
+    public static List<InetSocketAddress> interleaveFamilies(
+            List<InetSocketAddress> addresses)
+    {
+        List<InetSocketAddress> first = new LinkedList<InetSocketAddress>();
+        List<InetSocketAddress> second = new LinkedList<InetSocketAddress>();
+
+        for (InetSocketAddress address : addresses)
+        {
+            if (first.isEmpty() || isSameFamily(first.get(0), address))
+                first.add(address);
+            else
+                second.add(address);
+        }
+
+        List<InetSocketAddress> result
+            = new ArrayList<InetSocketAddress>(addresses.size());
+
+        while (!first.isEmpty() || !second.isEmpty())
+        {
+            if (!first.isEmpty())
+                result.add(first.remove(0));
+            if (!second.isEmpty())
+                result.add(second.remove(0));
+        }
+        return result;
+    }
+
+    /**
+     * Connects to the first reachable of several addresses.
+     *
+     * @param addresses the addresses in the order in which they should be
+     * tried
+     * @return the outcome of the race
+     */
+    public Result race(List<InetSocketAddress> addresses)
+    {
+        final BlockingQueue<Attempt> done = new LinkedBlockingQueue<Attempt>();
+        final List<Attempt> attempts = new ArrayList<Attempt>();
+        final long startTime = System.nanoTime();
+        Attempt winner = null;
+        int running = 0;
+        Iterator<InetSocketAddress> next = addresses.iterator();
+
+        try
+        {
+            while (winner == null && (running > 0 || next.hasNext()))
+            {
+                if (next.hasNext())
+                {
+                    Attempt attempt
+                        = new Attempt(
+                                next.next(),
+                                millisSince(startTime));
+
+                    attempts.add(attempt);
+                    running++;
+                    start(attempt, done);
+                }
+
+                // Wait for the next attempt to end, or until the next one
+                // is due when there is one.
+                long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(attemptDelay);
+
+                while (winner == null && running > 0)
+                {
+                    Attempt ended;
+
+                    if (next.hasNext())
+                    {
+                        long wait = deadline - System.nanoTime();
+
+                        if (wait <= 0)
+                            break;
+                        ended = done.poll(wait, TimeUnit.NANOSECONDS);
+                        if (ended == null)
+                            break;
+                    }
+                    else
+                        ended = done.take();
+
+                    running--;
+                    if (ended.socket != null)
+                        winner = ended;
+                    else if (next.hasNext())
+                    {
+                        // Do not wait for the delay after a failure.
+                        break;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        // Cancel the attempts which are still running.
+        for (Attempt attempt : attempts)
+        {
+            if (attempt != winner)
+                attempt.cancel();
+        }
+
+        Result result
+            = new Result(
+                    addresses,
+                    attempts,
+                    winner,
+                    millisSince(startTime));
+
+        if (logger.isInfoEnabled())
+            logger.info(result);
+        return result;
+    }
+
+    /**
+     * Starts an attempt on one of the threads of the racer.
+     *
+     * @param attempt the attempt to start
+     * @param done the queue to put <tt>attempt</tt> in when it ends
+     */
+    private void start(final Attempt attempt, final BlockingQueue<Attempt> done)
+    {
+        executor.execute(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        attempt.run(connectTimeout);
+                        done.add(attempt);
+                    }
+                });
+    }
+
+    /**
+     * Returns the number of milliseconds elapsed since a time.
+     *
+     * @param startTime the time as returned by <tt>System.nanoTime()</tt>
+     * @return the number of milliseconds elapsed since <tt>startTime</tt>
+     */
+    private static long millisSince(long startTime)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Determines whether two addresses are of the same family.
+     *
+     * @param a an address
+     * @param b another address
+     * @return <tt>true</tt> if both addresses are IPv6 or neither is
+     */
+    private static boolean isSameFamily(InetSocketAddress a, InetSocketAddress b)
+    {
+        return
+            (a.getAddress() instanceof Inet6Address)
+                == (b.getAddress() instanceof Inet6Address);
+    }
+
+    /**
+     * A connection attempt of a race.
+     */
+    public static class Attempt
+    {
+        /**
+         * The address this attempt connects to.
+         */
+        private final InetSocketAddress address;
+
+        /**
+         * The number of milliseconds after the start of the race this
+         * attempt started.
+         */
+        private final long startOffset;
+
+        /**
+         * The number of milliseconds this attempt took or <tt>-1</tt> while it
+         * is running or if it was cancelled.
+         */
+        private volatile long duration = -1;
+
+        /**
+         * The reason this attempt failed or <tt>null</tt>.
+         */
+        private volatile IOException failure;
+
+        /**
+         * The connecting socket.
+         */
+        private final RacedSocket connecting = new RacedSocket();
+
+        /**
+         * The connected socket or <tt>null</tt>.
+         */
+        private volatile Socket socket;
+
+        /**
+         * Whether this attempt has been cancelled.
+         */
+        private volatile boolean cancelled = false;
+
+        /**
+         * Whether this attempt has connected or failed.
+         */
+        private volatile boolean ended = false;
+
+        /**
+         * Initializes a new <tt>Attempt</tt>.
+         *
+         * @param address the address to connect to
+         * @param startOffset the number of milliseconds after the start of
+         * the race this attempt starts
+         */
+        Attempt(InetSocketAddress address, long startOffset)
+        {
+            this.address = address;
+            this.startOffset = startOffset;
+        }
+
+        /**
+         * Connects the socket of this attempt.
+         *
+         * @param connectTimeout the number of milliseconds after which the
+         * attempt fails
+         */
+        void run(int connectTimeout)
+        {
+            long startTime = System.nanoTime();
+
+            try
+            {
+                connecting.connect(address, connectTimeout);
+                socket = connecting;
+            }
+            catch (IOException ioe)
+            {
+                failure = ioe;
+            }
+            finally
+            {
+                duration = millisSince(startTime);
+                ended = true;
+            }
+
+            // The race may have ended while connecting.
+            if (cancelled)
+                cancel();
+        }
+
+        /**
+         * Cancels this attempt and closes its socket.
+         */
+        void cancel()
+        {
+            // An attempt which failed before the end of the race stays
+            // failed.
+            if (!ended || socket != null)
+                cancelled = true;
+            socket = null;
+            try
+            {
+                connecting.close();
+            }
+            catch (IOException ioe)
+            {
+            }
+        }
+
+        /**
+         * Returns the address this attempt connects to.
+         *
+         * @return the address this attempt connects to
+         */
+        public InetSocketAddress getAddress()
+        {
+            return address;
+        }
+
+        /**
+         * Returns the number of milliseconds after the start of the race this
+         * attempt started.
+         *
+         * @return the number of milliseconds after the start of the race this
+         * attempt started
+         */
+        public long getStartOffset()
+        {
+            return startOffset;
+        }
+
+        /**
+         * Returns the number of milliseconds this attempt took.
+         *
+         * @return the number of milliseconds this attempt took or <tt>-1</tt>
+         * if it was cancelled
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * Returns the reason this attempt failed.
+         *
+         * @return the reason this attempt failed or <tt>null</tt>
+         */
+        public IOException getFailure()
+        {
+            return failure;
+        }
+
+        /**
+         * Determines whether this attempt failed before the end of the race.
+         *
+         * @return <tt>true</tt> if this attempt failed
+         */
+        public boolean isFailed()
+        {
+            return failure != null && !cancelled;
+        }
+
+        @Override
+        public String toString()
+        {
+            String outcome;
+
+            if (socket != null)
+                outcome = "connected";
+            else if (isFailed())
+                outcome = "failed (" + failure.getMessage() + ")";
+            else
+                outcome = "cancelled";
+            return
+                address + " at +" + startOffset + " ms: " + outcome
+                    + ((duration < 0 || !(socket != null || isFailed()))
+                        ? ""
+                        : " in " + duration + " ms");
+        }
+    }
+
+    /**
+     * The outcome of a race.
+     */
+    public static class Result
+    {
+        /**
+         * The raced addresses in the order in which they were to be tried.
+         */
+        private final List<InetSocketAddress> addresses;
+
+        /**
+         * The started attempts in the order in which they started.
+         */
+        private final List<Attempt> attempts;
+
+        /**
+         * The attempt which connected first or <tt>null</tt>.
+         */
+        private final Attempt winner;
+
+        /**
+         * The number of milliseconds the race took.
+         */
+        private final long duration;
+
+        /**
+         * Whether the socket of the winner has been taken.
+         */
+        private boolean socketTaken = false;
+
+        /**
+         * Initializes a new <tt>Result</tt>.
+         *
+         * @param addresses the raced addresses
+         * @param attempts the started attempts
+         * @param winner the attempt which connected first or <tt>null</tt>
+         * @param duration the number of milliseconds the race took
+         */
+        Result(
+                List<InetSocketAddress> addresses,
+                List<Attempt> attempts,
+                Attempt winner,
+                long duration)
+        {
+            this.addresses = addresses;
+            this.attempts = Collections.unmodifiableList(attempts);
+            this.winner = winner;
+            this.duration = duration;
+        }
+
+        /**
+         * Returns the started attempts with their timings.
+         *
+         * @return the started attempts in the order in which they started
+         */
+        public List<Attempt> getAttempts()
+        {
+            return attempts;
+        }
+
+        /**
+         * Returns the address which connected first.
+         *
+         * @return the address which connected first or <tt>null</tt> if none
+         * did
+         */
+        public InetSocketAddress getWinner()
+        {
+            return (winner == null) ? null : winner.address;
+        }
+
+        /**
+         * Returns the number of milliseconds the race took.
+         *
+         * @return the number of milliseconds the race took
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * Returns the raced addresses in the order in which they should be
+         * used: the winner, then the addresses which did not fail in their
+         * original order, then those which failed.
+         *
+         * @return the raced addresses in the order in which they should be
+         * used
+         */
+        public List<InetSocketAddress> getOrderedAddresses()
+        {
+            List<InetSocketAddress> result
+                = new ArrayList<InetSocketAddress>(addresses.size());
+            List<InetSocketAddress> failed = new ArrayList<InetSocketAddress>();
+
+            if (winner != null)
+                result.add(winner.address);
+            for (InetSocketAddress address : addresses)
+            {
+                if (winner != null && address.equals(winner.address))
+                    continue;
+
+                boolean isFailed = false;
+
+                for (Attempt attempt : attempts)
+                {
+                    if (attempt.address.equals(address) && attempt.isFailed())
+                    {
+                        isFailed = true;
+                        break;
+                    }
+                }
+                (isFailed ? failed : result).add(address);
+            }
+            result.addAll(failed);
+            return result;
+        }
+
+        /**
+         * Takes the connected socket of the winner. Subsequent calls return
+         * <tt>null</tt>.
+         *
+         * @return the connected socket or <tt>null</tt>
+         */
+        public synchronized Socket takeSocket()
+        {
+            if (socketTaken || winner == null)
+                return null;
+            socketTaken = true;
+            return winner.socket;
+        }
+
+        /**
+         * Returns a <tt>SocketFactory</tt> for a connection to a specific
+         * address which hands out the connected socket of the winner if it
+         * connected to that address. The <tt>connect</tt> methods of the
+         * handed out socket do nothing when given the address it is connected
+         * to.
+         *
+         * @param address the address the socket will be connected to
+         * @return a <tt>SocketFactory</tt> for a connection to
+         * <tt>address</tt>
+         */
+        public SocketFactory getSocketFactory(InetSocketAddress address)
+        {
+            if (winner == null || !winner.address.equals(address))
+                return SocketFactory.getDefault();
+
+            return
+                new SocketFactory()
+                {
+                    @Override
+                    public Socket createSocket()
+                    {
+                        Socket socket = takeSocket();
+
+                        return (socket == null) ? new Socket() : socket;
+                    }
+
+                    @Override
+                    public Socket createSocket(String host, int port)
+                        throws IOException
+                    {
+                        return
+                            SocketFactory.getDefault().createSocket(host, port);
+                    }
+
+                    @Override
+                    public Socket createSocket(
+                            String host, int port,
+                            InetAddress localHost, int localPort)
+                        throws IOException
+                    {
+                        return
+                            SocketFactory.getDefault().createSocket(
+                                    host, port,
+                                    localHost, localPort);
+                    }
+
+                    @Override
+                    public Socket createSocket(InetAddress host, int port)
+                        throws IOException
+                    {
+                        return
+                            SocketFactory.getDefault().createSocket(host, port);
+                    }
+
+                    @Override
+                    public Socket createSocket(
+                            InetAddress address, int port,
+                            InetAddress localAddress, int localPort)
+                        throws IOException
+                    {
+                        return
+                            SocketFactory.getDefault().createSocket(
+                                    address, port,
+                                    localAddress, localPort);
+                    }
+                };
+        }
+
+        /**
+         * Closes the connected socket of the winner unless it has been taken.
+         */
+        public synchronized void close()
+        {
+            if (!socketTaken && winner != null)
+            {
+                socketTaken = true;
+                winner.cancel();
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder s
+                = new StringBuilder("Connection race over ")
+                    .append(addresses.size()).append(" addresses took ")
+                    .append(duration).append(" ms");
+
+            for (Attempt attempt : attempts)
+                s.append("\n  ").append(attempt);
+            return s.toString();
+        }
+    }
+
+    /**
+     * A <tt>Socket</tt> which ignores being connected again to the address
+     * it is connected to, so that it can be handed to code which connects
+     * the sockets it creates.
+     */
+    private static class RacedSocket
+        extends Socket
+    {
+        @Override
+        public void connect(SocketAddress endpoint, int timeout)
+            throws IOException
+        {
+            if (isConnected() && endpoint.equals(getRemoteSocketAddress()))
+                return;
+            super.connect(endpoint, timeout);
+        }
+    }
+}
@@ -0,0 +1,768 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.dns.*;
+
+import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
+import org.xbill.DNS.*;
+
+/**
+ * Runs the DNS lookups of {@link NetworkUtils} and keeps their answers beyond
+ * the in-memory cache of dnsjava:
+ * <ul>
+ * <li>a lookup already running for a name and type is not sent again, the
+ * second caller waits for the first answer, so lookups started ahead of time
+ * with {@link #lookupAsync(String, int)} make the later blocking ones
+ * free;</li>
+ * <li>an expired answer is still returned for up to {@link #MAX_STALE}
+ * milliseconds while a fresh one is looked up in the background, and when
+ * the DNS servers cannot be reached;</li>
+ * <li>the answers are saved in the cache directory and loaded on the next
+ * start so that logging in at startup does not wait for cold DNS
+ * lookups.</li>
+ * </ul>
+ * Expired answers are neither returned nor saved while the DNSSEC resolver
+ * is enabled because their validation could not be repeated. All answers are
+ * dropped by {@link #clear()} when the network changes.
+ */
+public class DnsCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>DnsCache</tt> class for logging
+     * output.
+     */
+    private static final Logger logger = Logger.getLogger(DnsCache.class);
+
+    /**
+     * The name of the property which enables returning expired answers and
+     * saving the answers across restarts.
+     */
+    public static final String PNAME_PERSISTENT_DNS_CACHE_ENABLED
+        = "net.java.sip.communicator.util.dns.PERSISTENT_CACHE_ENABLED";
+
+    /**
+     * The default value of {@link #PNAME_PERSISTENT_DNS_CACHE_ENABLED}.
+     */
+    public static final boolean PDEFAULT_PERSISTENT_DNS_CACHE_ENABLED = true;
+
+    /**
+     * The number of milliseconds after their expiry during which answers are
+     * still returned while they are refreshed.
+     */
+    public static final long MAX_STALE = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * The number of milliseconds during which the absence of records is
+     * remembered.
+     */
+    private static final long NEGATIVE_TTL = 60 * 1000;
+
+    /**
+     * The number of milliseconds after a change of the cache before it is
+     * saved.
+     */
+    private static final long SAVE_DELAY = 10 * 1000;
+
+    /**
+     * The name of the file in the cache directory the answers are saved to.
+     */
+    private static final String FILE_NAME = "dnscache.txt";
+
+    /**
+     * The maximum number of lookups running at the same time.
+     */
+    private static final int MAX_PARALLEL_LOOKUPS = 8;
+
+    /**
+     * The maximum number of milliseconds a caller waits for a lookup.
+     */
+    private static final long LOOKUP_TIMEOUT = 30 * 1000;
+
+    /**
+     * The answers by name and type.
+     */
+    private static final Map<String, Entry> entries
+        = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The running lookups by name and type.
+     */
+    private static final ConcurrentMap<String, FutureTask<Record[]>> lookups
+        = new ConcurrentHashMap<String, FutureTask<Record[]>>();
+
+    /**
+     * The threads running the lookups in the background and saving the
+     * cache.
+     */
+    private static ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Whether the saved answers have been loaded.
+     */
+    private static boolean loaded = false;
+
+    /**
+     * Whether saving the cache has been scheduled.
+     */
+    private static final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    /**
+     * Incremented by {@link #clear()} so that the lookups started before are
+     * not stored.
+     */
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * The number of lookups answered from this cache, fresh and expired, and
+     * sent to the DNS servers.
+     */
+    private static final AtomicLong freshHits = new AtomicLong(),
+        staleHits = new AtomicLong(), misses = new AtomicLong();
+
+    /**
+     * Prevents the creation of <tt>DnsCache</tt> instances.
+     */
+    private DnsCache()
+    {
+    }
+
+    /**
+     * Returns the records of a specific type of a domain.
+     *
+     * @param domain the domain name
+     * @param type the type of the records as defined by <tt>Type</tt>
+     * @return the records or <tt>null</tt> if there are none
+     * @throws ParseException if <tt>domain</tt> is not a valid domain name
+     * @throws DnssecException when a DNSSEC validation failure occurred
+     */
+    public static Record[] lookup(String domain, int type)
+        throws ParseException, DnssecException
+    {
+        String key = getKey(domain, type);
+        boolean persistent = isPersistent();
+
+        if (persistent)
+            load();
+
+        Entry entry = entries.get(key);
+        long now = System.currentTimeMillis();
+
+        if (entry != null)
+        {
+            if (now < entry.expires)
+            {
+                freshHits.incrementAndGet();
+                return entry.records;
+            }
+            if (persistent && now < entry.expires + MAX_STALE)
+            {
+                staleHits.incrementAndGet();
+                if (logger.isDebugEnabled())
+                    logger.debug("Refreshing expired DNS answer for " + key);
+                startLookup(key, domain, type);
+                return entry.records;
+            }
+        }
+        return get(startLookup(key, domain, type));
+    }
+
+    /**
+     * Starts looking up the records of a specific type of a domain in the
+     * background unless a fresh answer is already known.
+     *
+     * @param domain the domain name
+     * @param type the type of the records as defined by <tt>Type</tt>
+     * @return the <tt>Future</tt> of the records or <tt>null</tt> if they
+     * are known
+     */
+    public static Future<Record[]> lookupAsync(String domain, int type)
+    {
+        String key = getKey(domain, type);
+
+        if (isPersistent())
+            load();
+
+        Entry entry = entries.get(key);
+
+        if (entry != null && System.currentTimeMillis() < entry.expires)
+            return null;
+        return startLookup(key, domain, type);
+    }
+
+    /**
+     * Waits for the records looked up in the background.
+     *
+     * @param future the <tt>Future</tt> returned by
+     * {@link #lookupAsync(String, int)} or <tt>null</tt>
+     * @param domain the domain name given to <tt>lookupAsync</tt>
+     * @param type the type given to <tt>lookupAsync</tt>
+     * @return the records or <tt>null</tt> if there are none
+     * @throws ParseException if <tt>domain</tt> is not a valid domain name
+     * @throws DnssecException when a DNSSEC validation failure occurred
+     */
+    public static Record[] get(Future<Record[]> future, String domain, int type)
+        throws ParseException, DnssecException
+    {
+        return (future == null) ? lookup(domain, type) : get(future);
+    }
+
+    /**
+     * Forgets all answers, including the saved ones, for example because the
+     * network has changed and the answers of the previous one may not be
+     * valid in the new one. They are looked up again before they are
+     * returned; the lookups which are still running are not stored.
+     */
+    public static void clear()
+    {
+        synchronized (DnsCache.class)
+        {
+            // do not load the answers of the previous network later
+            loaded = true;
+        }
+        generation.incrementAndGet();
+        lookups.clear();
+        entries.clear();
+        if (isPersistent())
+            scheduleSave();
+    }
+
+    /**
+     * Returns a human-readable summary of the use of the cache.
+     *
+     * @return the statistics of the cache
+     */
+    public static String getStatistics()
+    {
+        return
+            "entries: " + entries.size()
+                + ", fresh hits: " + freshHits.get()
+                + ", stale hits: " + staleHits.get()
+                + ", lookups: " + misses.get();
+    }
+
+    /**
+     * Starts a lookup in the background unless one is already running for
+     * the same name and type.
+     *
+     * @param key the key of the answer
+     * @param domain the domain name
+     * @param type the type of the records
+     * @return the running lookup
+     */
+    private static FutureTask<Record[]> startLookup(
+            final String key,
+            final String domain,
+            final int type)
+    {
+        FutureTask<Record[]> task = lookups.get(key);
+
+        if (task != null)
+            return task;
+
+        final int gen = generation.get();
+
+        task
+            = new FutureTask<Record[]>(
+                    new Callable<Record[]>()
+                    {
+                        public Record[] call()
+                            throws Exception
+                        {
+                            try
+                            {
+                                return run(key, domain, type, gen);
+                            }
+                            finally
+                            {
+                                // a lookup started after clear() may use the
+                                // key now
+                                if (generation.get() == gen)
+                                    lookups.remove(key);
+                            }
+                        }
+                    });
+
+        FutureTask<Record[]> existing = lookups.putIfAbsent(key, task);
+
+        if (existing != null)
+            return existing;
+
+        try
+        {
+            getExecutor().execute(task);
+        }
+        catch (RejectedExecutionException ree)
+        {
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     * Sends a lookup to the DNS servers and stores its answer.
+     *
+     * @param key the key of the answer
+     * @param domain the domain name
+     * @param type the type of the records
+     * @param gen the value of {@link #generation} when the lookup was started
+     * @return the records or <tt>null</tt> if there are none
+     * @throws TextParseException if <tt>domain</tt> is not a valid domain name
+     */
+    private static Record[] run(String key, String domain, int type, int gen)
+        throws TextParseException
+    {
+        misses.incrementAndGet();
+
+        Lookup lookup = NetworkUtils.createLookup(domain, type);
+        Record[] records = lookup.run();
+        long now = System.currentTimeMillis();
+
+        switch (lookup.getResult())
+        {
+        case Lookup.SUCCESSFUL:
+            long ttl = Long.MAX_VALUE;
+
+            for (Record record : records)
+                ttl = Math.min(ttl, record.getTTL());
+            store(key, records, now + ttl * 1000, gen);
+            return records;
+
+        case Lookup.HOST_NOT_FOUND:
+        case Lookup.TYPE_NOT_FOUND:
+            store(key, null, now + NEGATIVE_TTL, gen);
+            return null;
+
+        default:
+            // The DNS servers could not be reached, keep what we knew.
+            Entry entry = entries.get(key);
+
+            if (entry != null && isPersistent()
+                    && now < entry.expires + MAX_STALE)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug(
+                            "Using expired DNS answer for " + key + ": "
+                                + lookup.getErrorString());
+                }
+                return entry.records;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stores an answer and schedules saving the cache.
+     *
+     * @param key the key of the answer
+     * @param records the records or <tt>null</tt> if there are none
+     * @param expires the time the answer expires
+     * @param gen the value of {@link #generation} when the lookup was started
+     */
+    private static void store(
+            String key,
+            Record[] records,
+            long expires,
+            int gen)
+    {
+        // the answer may be from the network used before clear()
+        if (generation.get() != gen)
+            return;
+
+        entries.put(key, new Entry(records, expires));
+
+        if (isPersistent())
+            scheduleSave();
+    }
+
+    /**
+     * Schedules saving the cache unless it is already scheduled.
+     */
+    private static void scheduleSave()
+    {
+        if (saveScheduled.compareAndSet(false, true))
+        {
+            getExecutor().schedule(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            saveScheduled.set(false);
+                            save();
+                        }
+                    },
+                    SAVE_DELAY,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Waits for a lookup and converts its failure to the exceptions of
+     * <tt>NetworkUtils</tt>. An interrupt does not end the wait but is
+     * restored once it is over.
+     *
+     * @param future the lookup
+     * @return the records or <tt>null</tt> if there are none or the lookup
+     * did not complete within <tt>LOOKUP_TIMEOUT</tt>
+     * @throws ParseException if the domain name is not valid
+     * @throws DnssecException when a DNSSEC validation failure occurred
+     */
+    private static Record[] get(Future<Record[]> future)
+        throws ParseException, DnssecException
+    {
+        boolean interrupted = false;
+
+        try
+        {
+            long deadline = System.currentTimeMillis() + LOOKUP_TIMEOUT;
+
+            while (true)
+            {
+                long timeout = deadline - System.currentTimeMillis();
+
+                try
+                {
+                    return future.get(Math.max(timeout, 0),
+                            TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException ie)
+                {
+                    interrupted = true;
+                }
+                catch (TimeoutException te)
+                {
+                    logger.warn("DNS lookup did not complete within "
+                            + LOOKUP_TIMEOUT + " ms");
+                    return null;
+                }
+            }
+        }
+        catch (ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+
+            if (cause instanceof TextParseException)
+            {
+                logger.error("Failed to parse domain", cause);
+                throw new ParseException(cause.getMessage(), 0);
+            }
+            if (cause instanceof DnssecRuntimeException)
+                throw new DnssecException((DnssecRuntimeException) cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+        finally
+        {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Determines whether expired answers are returned and saved.
+     *
+     * @return <tt>true</tt> if expired answers are returned and saved
+     */
+    private static boolean isPersistent()
+    {
+        ConfigurationService cfg = UtilActivator.getConfigurationService();
+
+        return
+            cfg != null
+                && cfg.getBoolean(
+                        PNAME_PERSISTENT_DNS_CACHE_ENABLED,
+                        PDEFAULT_PERSISTENT_DNS_CACHE_ENABLED)
+                && !cfg.getBoolean(
+                        CustomResolver.PNAME_DNSSEC_RESOLVER_ENABLED,
+                        CustomResolver.PDEFAULT_DNSSEC_RESOLVER_ENABLED);
+    }
+
+    /**
+     * Returns the key of the answer of a lookup.
+     *
+     * @param domain the domain name
+     * @param type the type of the records
+     * @return the key of the answer
+     */
+    private static String getKey(String domain, int type)
+    {
+        return domain.toLowerCase() + " " + Type.string(type);
+    }
+
+    /**
+     * Returns the threads running the lookups, creating them if necessary.
+     *
+     * @return the threads running the lookups
+     */
+    private static synchronized ScheduledThreadPoolExecutor getExecutor()
+    {
+        if (executor == null)
+        {
+            executor
+                = new ScheduledThreadPoolExecutor(
+                        MAX_PARALLEL_LOOKUPS,
+                        new ThreadFactory()
+                        {
+                            private final AtomicInteger count
+                                = new AtomicInteger();
+
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(
+                                            r,
+                                            "DnsCache-"
+                                                + count.incrementAndGet());
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+            executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the file the answers are saved to.
+     *
+     * @return the file the answers are saved to or <tt>null</tt> if it is not
+     * available
+     */
+    private static File getFile()
+    {
+        FileAccessService fileAccess = UtilActivator.getFileAccessService();
+
+        if (fileAccess == null)
+            return null;
+        try
+        {
+            return
+                fileAccess.getPrivatePersistentFile(
+                        FILE_NAME,
+                        FileCategory.CACHE);
+        }
+        catch (Exception e)
+        {
+            logger.warn("Failed to get the DNS cache file", e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the saved answers once.
+     */
+    private static synchronized void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        File file = getFile();
+
+        if (file == null || !file.exists())
+            return;
+
+        long now = System.currentTimeMillis();
+        int count = 0;
+        BufferedReader reader = null;
+
+        try
+        {
+            reader
+                = new BufferedReader(
+                        new InputStreamReader(
+                                new FileInputStream(file),
+                                "UTF-8"));
+
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                // expires <TAB> key <TAB> records
+                String[] fields = line.split("\t", -1);
+
+                if (fields.length != 3)
+                    continue;
+
+                long expires = Long.parseLong(fields[0]);
+
+                if (now >= expires + MAX_STALE
+                        || entries.containsKey(fields[1]))
+                    continue;
+
+                Record[] records = null;
+
+                if (fields[2].length() != 0)
+                {
+                    String[] wires = fields[2].split(",");
+
+                    records = new Record[wires.length];
+                    for (int i = 0; i < wires.length; i++)
+                    {
+                        records[i]
+                            = Record.fromWire(
+                                    Base64.decode(wires[i]),
+                                    Section.ANSWER);
+                    }
+                }
+                entries.put(fields[1], new Entry(records, expires));
+                count++;
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Failed to load the DNS cache from " + file, e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (IOException ioe)
+                {
+                }
+            }
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Loaded " + count + " DNS answers from " + file);
+    }
+
+    /**
+     * Saves the answers which have not been expired for longer than
+     * {@link #MAX_STALE}.
+     */
+    private static synchronized void save()
+    {
+        File file = getFile();
+
+        if (file == null)
+            return;
+
+        long now = System.currentTimeMillis();
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+
+        try
+        {
+            writer
+                = new BufferedWriter(
+                        new OutputStreamWriter(
+                                new FileOutputStream(tmp),
+                                "UTF-8"));
+            for (Map.Entry<String, Entry> e : entries.entrySet())
+            {
+                Entry entry = e.getValue();
+
+                if (now >= entry.expires + MAX_STALE)
+                    continue;
+
+                writer.write(Long.toString(entry.expires));
+                writer.write('\t');
+                writer.write(e.getKey());
+                writer.write('\t');
+                if (entry.records != null)
+                {
+                    for (int i = 0; i < entry.records.length; i++)
+                    {
+                        if (i != 0)
+                            writer.write(',');
+                        writer.write(
+                                new String(
+                                        Base64.encode(
+                                                entry.records[i].toWire(
+                                                        Section.ANSWER)),
+                                        "US-ASCII"));
+                    }
+                }
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+
+            if (!tmp.renameTo(file))
+            {
+                file.delete();
+                if (!tmp.renameTo(file))
+                    logger.warn("Failed to replace " + file);
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("Failed to save the DNS cache to " + file, ioe);
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                try
+                {
+                    writer.close();
+                }
+                catch (IOException ioe)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * An answer of the DNS servers.
+     */
+    private static class Entry
+    {
+        /**
+         * The records or <tt>null</tt> if there are none.
+         */
+        final Record[] records;
+
+        /**
+         * The time (as returned by <tt>System.currentTimeMillis()</tt>) this
+         * answer expires.
+         */
+        volatile long expires;
+
+        /**
+         * Initializes a new <tt>Entry</tt>.
+         *
+         * @param records the records or <tt>null</tt> if there are none
+         * @param expires the time the answer expires
+         */
+        Entry(Record[] records, long expires)
+        {
+            this.records = records;
+            this.expires = expires;
+        }
+    }
+}
@@ -27,6 +27,13 @@
  * home directory. If the pattern option is missing creates log
  * directory in sip-communicator's home directory.
  * If the directory is missing create it.
+ * <p>
+ * If the <tt>async</tt> property is <tt>true</tt>, the records are formatted
+ * and written on a separate thread so that logging does not block the
+ * logging threads on file I/O. The <tt>asyncQueueSize</tt> property specifies
+ * how many records may be waiting to be written and the
+ * <tt>asyncOverflowPolicy</tt> property (<tt>DROP</tt> or <tt>BLOCK</tt>)
+ * what happens to the records logged while the queue is full.
  *
  * @author Damian Minkov
  */
@@ -60,6 +67,18 @@
      */
     public static String pattern = null;
 
+    /**
+     * The default number of records which may be waiting to be written when
+     * writing asynchronously.
+     */
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 8192;
+
+    /**
+     * The dispatcher writing the records on a separate thread or
+     * <tt>null</tt> if the records are written on the logging threads.
+     */
+    private final AsyncLogDispatcher dispatcher;
+
     /**
      * Initialize a <tt>FileHandler</tt> to write to a set of files.  When
      * (approximately) the given limit has been written to one file,
@@ -87,6 +106,8 @@ public FileHandler(String pattern, int limit, int count)
         throws IOException, SecurityException
     {
         super(pattern, limit, count);
+
+        dispatcher = createDispatcher();
     }
 
     /**
@@ -104,6 +125,99 @@ public FileHandler()
                 SecurityException
     {
         super(getPattern(), getLimit(), getCount());
+
+        dispatcher = createDispatcher();
+    }
+
+    /**
+     * Formats and writes a <tt>LogRecord</tt> or, if writing asynchronously,
+     * queues it to be formatted and written.
+     *
+     * @param record the <tt>LogRecord</tt> to publish
+     */
+    @Override
+    public void publish(LogRecord record)
+    {
+        if (dispatcher == null)
+        {
+            super.publish(record);
+            return;
+        }
+
+        if (!isLoggable(record))
+            return;
+
+        // The caller can only be inferred from the stack of this thread.
+        Formatter formatter = getFormatter();
+
+        if ((formatter instanceof ScLogFormatter)
+                && ((ScLogFormatter) formatter).isCallerInferenceEnabled())
+        {
+            record = ScLogFormatter.captureCallSite(record);
+        }
+        dispatcher.queue(record);
+    }
+
+    /**
+     * Writes the queued records (if writing asynchronously) and closes the
+     * files.
+     *
+     * @throws SecurityException if a security manager exists and if the
+     * caller does not have <tt>LoggingPermission("control")</tt>
+     */
+    @Override
+    public void close()
+        throws SecurityException
+    {
+        if (dispatcher != null)
+            dispatcher.stop();
+        super.close();
+    }
+
+    /**
+     * Creates the dispatcher writing the records on a separate thread if
+     * the <tt>async</tt> property is <tt>true</tt>.
+     *
+     * @return the dispatcher writing the records on a separate thread or
+     * <tt>null</tt> if the records are to be written on the logging threads
+     */
+    private AsyncLogDispatcher createDispatcher()
+    {
+        LogManager manager = LogManager.getLogManager();
+        String cname = FileHandler.class.getName();
+
+        if (!Boolean.parseBoolean(manager.getProperty(cname + ".async")))
+            return null;
+
+        int queueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+        AsyncLogDispatcher.OverflowPolicy overflowPolicy
+            = AsyncLogDispatcher.OverflowPolicy.DROP;
+
+        try
+        {
+            queueSize
+                = Integer.parseInt(
+                        manager.getProperty(cname + ".asyncQueueSize"));
+        }
+        catch (Exception ex) {}
+        try
+        {
+            overflowPolicy
+                = AsyncLogDispatcher.OverflowPolicy.valueOf(
+                        manager.getProperty(cname + ".asyncOverflowPolicy")
+                            .trim().toUpperCase());
+        }
+        catch (Exception ex) {}
+
+        return
+            new AsyncLogDispatcher(cname, queueSize, overflowPolicy)
+            {
+                @Override
+                protected void dispatch(LogRecord record)
+                {
+                    FileHandler.super.publish(record);
+                }
+            };
     }
 
     /**
@@ -0,0 +1,350 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.osgi.framework.*;
+import org.osgi.framework.wiring.*;
+
+/**
+ * Starts non-critical bundles the first time one of the services they provide
+ * is looked up through <tt>ServiceUtils</tt> instead of at application
+ * startup.
+ * <p>
+ * A bundle is started lazily if it is installed but not started (i.e. listed
+ * in a <tt>felix.auto.install</tt> rather than a <tt>felix.auto.start</tt>
+ * property), has a <tt>Bundle-ActivationPolicy: lazy</tt> manifest header and
+ * declares the services it registers in its manifest e.g.
+ * <pre>
+ * Provide-Capability: osgi.service;effective:=active;
+ *  objectClass:List&lt;String&gt;="org.example.FooService"
+ * </pre>
+ * Bundles are started transiently so that they are lazy on the next launch
+ * again.
+ */
+class LazyBundleStarter
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>LazyBundleStarter</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(LazyBundleStarter.class);
+
+    /**
+     * The namespace of the capabilities declaring the services a bundle
+     * registers.
+     */
+    private static final String SERVICE_NAMESPACE = "osgi.service";
+
+    /**
+     * The bundles which have not been started yet by the names of the service
+     * classes they declare or <tt>null</tt> if they have not been looked for
+     * since the last time bundles were installed or uninstalled.
+     */
+    private static volatile Map<String, List<Bundle>> lazyBundles;
+
+    /**
+     * The bundles which are being started by the names of the service classes
+     * whose lookup started them. Lookups of these classes on other threads
+     * wait for the bundles to be started too. Only modified with the lock of
+     * the <tt>LazyBundleStarter</tt> class held.
+     */
+    private static final Map<String, Starting> startingBundles
+        = new ConcurrentHashMap<String, Starting>();
+
+    /**
+     * Whether {@link #bundleListener} has been added to the system bundle.
+     */
+    private static boolean bundleListenerAdded = false;
+
+    /**
+     * Makes {@link #lazyBundles} be looked for again when bundles are
+     * installed, updated or uninstalled.
+     */
+    private static final BundleListener bundleListener
+        = new BundleListener()
+        {
+            @Override
+            public void bundleChanged(BundleEvent event)
+            {
+                switch (event.getType())
+                {
+                case BundleEvent.INSTALLED:
+                case BundleEvent.UNINSTALLED:
+                case BundleEvent.UPDATED:
+                    synchronized (LazyBundleStarter.class)
+                    {
+                        lazyBundles = null;
+                    }
+                    break;
+                }
+            }
+        };
+
+    /**
+     * Starts the lazily started bundles which declare a specific service
+     * class and have not been started yet.
+     *
+     * @param bundleContext the <tt>BundleContext</tt> the service is being
+     * looked up in
+     * @param className the name of the class of the service being looked up
+     */
+    static void startBundles(BundleContext bundleContext, String className)
+    {
+        Map<String, List<Bundle>> lazyBundles
+            = LazyBundleStarter.lazyBundles;
+
+        // Most lookups are for services which are not provided lazily.
+        if ((lazyBundles != null)
+                && !lazyBundles.containsKey(className)
+                && !startingBundles.containsKey(className))
+            return;
+
+        List<Bundle> bundles = takeBundles(bundleContext, className);
+
+        if (bundles == null)
+            return;
+
+        /*
+         * The bundles are started without holding the lock of the
+         * LazyBundleStarter class because their activators may look services
+         * up themselves. Framework implementations make a concurrent start of
+         * a bundle which is STARTING wait for the first one to complete.
+         */
+        try
+        {
+            start(bundles, className);
+        }
+        finally
+        {
+            synchronized (LazyBundleStarter.class)
+            {
+                Starting starting = startingBundles.get(className);
+
+                if ((starting != null)
+                        && (starting.thread == Thread.currentThread()))
+                    startingBundles.remove(className);
+            }
+        }
+    }
+
+    /**
+     * Removes the lazily started bundles which declare a specific service
+     * class from {@link #lazyBundles}, looking for the lazily started bundles
+     * first if necessary.
+     *
+     * @param bundleContext the <tt>BundleContext</tt> the service is being
+     * looked up in
+     * @param className the name of the class of the service being looked up
+     * @return the bundles to be started for <tt>className</tt>, including the
+     * ones being started by a lookup on another thread, or <tt>null</tt> if
+     * there are none
+     */
+    private static synchronized List<Bundle> takeBundles(
+            BundleContext bundleContext,
+            String className)
+    {
+        Starting starting = startingBundles.get(className);
+
+        if (starting != null)
+        {
+            // An activator looking up its own service must not wait for
+            // itself.
+            return
+                (starting.thread == Thread.currentThread())
+                    ? null
+                    : starting.bundles;
+        }
+
+        if (lazyBundles == null)
+        {
+            try
+            {
+                lazyBundles = findLazyBundles(bundleContext);
+            }
+            catch (IllegalStateException ise)
+            {
+                // The bundleContext is no longer valid.
+                return null;
+            }
+        }
+
+        List<Bundle> bundles = lazyBundles.remove(className);
+
+        if (bundles != null)
+        {
+            startingBundles.put(
+                    className,
+                    new Starting(bundles, Thread.currentThread()));
+        }
+        return bundles;
+    }
+
+    /**
+     * Starts the specified bundles unless they have been started already.
+     *
+     * @param bundles the bundles to start
+     * @param className the name of the class of the service whose lookup
+     * starts <tt>bundles</tt>
+     */
+    private static void start(List<Bundle> bundles, String className)
+    {
+        for (Bundle bundle : bundles)
+        {
+            if (bundle.getState() == Bundle.ACTIVE)
+                continue;
+
+            /*
+             * The lookup happens on the thread asking for the service so the
+             * bundle is activated there, before the lookup continues.
+             */
+            long startTime = System.nanoTime();
+
+            try
+            {
+                bundle.start(Bundle.START_TRANSIENT);
+                if (logger.isInfoEnabled())
+                {
+                    logger.info(
+                            "Started " + bundle.getSymbolicName()
+                                + " on first lookup of " + className + " in "
+                                + (System.nanoTime() - startTime) / 1000000
+                                + " ms");
+                }
+            }
+            catch (BundleException be)
+            {
+                logger.error(
+                        "Failed to start " + bundle.getSymbolicName()
+                            + " on first lookup of " + className,
+                        be);
+            }
+        }
+    }
+
+    /**
+     * Finds the bundles to be started lazily.
+     *
+     * @param bundleContext a valid <tt>BundleContext</tt>
+     * @return the bundles to be started lazily by the names of the service
+     * classes they declare
+     */
+    private static Map<String, List<Bundle>> findLazyBundles(
+            BundleContext bundleContext)
+    {
+        if (!bundleListenerAdded)
+        {
+            BundleContext systemBundleContext
+                = bundleContext.getBundle(Constants.SYSTEM_BUNDLE_ID)
+                    .getBundleContext();
+
+            systemBundleContext.addBundleListener(bundleListener);
+            bundleListenerAdded = true;
+        }
+
+        Map<String, List<Bundle>> lazyBundles
+            = new ConcurrentHashMap<String, List<Bundle>>();
+
+        for (Bundle bundle : bundleContext.getBundles())
+        {
+            if (((bundle.getState() & (Bundle.INSTALLED | Bundle.RESOLVED))
+                        == 0)
+                    || !isActivationPolicyLazy(bundle))
+                continue;
+
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+
+            if (revision == null)
+                continue;
+
+            for (BundleCapability capability
+                    : revision.getDeclaredCapabilities(SERVICE_NAMESPACE))
+            {
+                Object objectClass
+                    = capability.getAttributes().get(Constants.OBJECTCLASS);
+
+                if (!(objectClass instanceof List))
+                    continue;
+
+                for (Object o : (List<?>) objectClass)
+                {
+                    String className = o.toString();
+                    List<Bundle> bundles = lazyBundles.get(className);
+
+                    if (bundles == null)
+                    {
+                        bundles = new ArrayList<Bundle>();
+                        lazyBundles.put(className, bundles);
+                    }
+                    bundles.add(bundle);
+                }
+            }
+        }
+        return lazyBundles;
+    }
+
+    /**
+     * Determines whether a specific bundle has a
+     * <tt>Bundle-ActivationPolicy: lazy</tt> manifest header.
+     *
+     * @param bundle the bundle to check
+     * @return <tt>true</tt> if the activation policy of <tt>bundle</tt> is
+     * lazy; otherwise, <tt>false</tt>
+     */
+    private static boolean isActivationPolicyLazy(Bundle bundle)
+    {
+        String activationPolicy
+            = bundle.getHeaders("").get(Constants.BUNDLE_ACTIVATIONPOLICY);
+
+        return
+            (activationPolicy != null)
+                && activationPolicy.trim().startsWith(
+                        Constants.ACTIVATION_LAZY);
+    }
+
+    /**
+     * The bundles being started for the lookup of a service class.
+     */
+    private static class Starting
+    {
+        /**
+         * The bundles being started.
+         */
+        final List<Bundle> bundles;
+
+        /**
+         * The thread starting {@link #bundles}.
+         */
+        final Thread thread;
+
+        /**
+         * Initializes a new <tt>Starting</tt>.
+         *
+         * @param bundles the bundles being started
+         * @param thread the thread starting <tt>bundles</tt>
+         */
+        Starting(List<Bundle> bundles, Thread thread)
+        {
+            this.bundles = bundles;
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.*;
+
+/**
+ * An in-memory index answering case-insensitive substring queries over the
+ * texts of a set of items, such as the names and addresses of contacts.
+ * <p>
+ * Every text is split in the overlapping sequences of {@link #N} characters
+ * it contains and each sequence maps to the items having it. A query at
+ * least <tt>N</tt> characters long only checks the items which have its
+ * rarest sequence. A query which extends the previous one (as happens when
+ * the user types one more character in a search field) only checks the
+ * items which matched the previous one.
+ *
+ * @param <T> the type of the indexed items
+ */
+public class NGramIndex<T>
+{
+    /**
+     * The number of characters of the indexed sequences.
+     */
+    public static final int N = 3;
+
+    /**
+     * The normalized texts of the indexed items.
+     */
+    private final Map<T, String[]> texts = new HashMap<T, String[]>();
+
+    /**
+     * The items having each sequence of <tt>N</tt> characters in their texts.
+     */
+    private final Map<String, Set<T>> postings
+        = new HashMap<String, Set<T>>();
+
+    /**
+     * The normalized last query or <tt>null</tt>.
+     */
+    private String lastQuery;
+
+    /**
+     * The items matching {@link #lastQuery}, kept up to date while items are
+     * added and removed.
+     */
+    private Set<T> lastResult;
+
+    /**
+     * Adds an item to this index or replaces its texts if it is already
+     * indexed.
+     *
+     * @param item the item to add
+     * @param itemTexts the texts the item should be found by; <tt>null</tt>
+     * elements are ignored
+     */
+    public synchronized void put(T item, Collection<String> itemTexts)
+    {
+        remove(item);
+
+        List<String> normalized = new ArrayList<String>(itemTexts.size());
+
+        for (String text : itemTexts)
+        {
+            if (text != null && text.length() != 0)
+                normalized.add(normalize(text));
+        }
+
+        String[] array = normalized.toArray(new String[normalized.size()]);
+
+        texts.put(item, array);
+        for (String gram : getGrams(array))
+        {
+            Set<T> items = postings.get(gram);
+
+            if (items == null)
+            {
+                items = new HashSet<T>();
+                postings.put(gram, items);
+            }
+            items.add(item);
+        }
+
+        if (lastQuery != null && matches(array, lastQuery))
+            lastResult.add(item);
+    }
+
+    /**
+     * Removes an item from this index.
+     *
+     * @param item the item to remove
+     */
+    public synchronized void remove(T item)
+    {
+        String[] array = texts.remove(item);
+
+        if (array == null)
+            return;
+
+        for (String gram : getGrams(array))
+        {
+            Set<T> items = postings.get(gram);
+
+            if (items != null)
+            {
+                items.remove(item);
+                if (items.isEmpty())
+                    postings.remove(gram);
+            }
+        }
+
+        if (lastResult != null)
+            lastResult.remove(item);
+    }
+
+    /**
+     * Removes all items from this index.
+     */
+    public synchronized void clear()
+    {
+        texts.clear();
+        postings.clear();
+        lastQuery = null;
+        lastResult = null;
+    }
+
+    /**
+     * Returns the number of items in this index.
+     *
+     * @return the number of items in this index
+     */
+    public synchronized int size()
+    {
+        return texts.size();
+    }
+
+    /**
+     * Returns the items with at least one text containing a specific string,
+     * ignoring case.
+     *
+     * @param query the string to look for
+     * @return the items with a text containing <tt>query</tt>
+     */
+    public synchronized List<T> query(String query)
+    {
+        String normalized = normalize(query);
+        Collection<T> candidates;
+
+        if (lastQuery != null && normalized.contains(lastQuery))
+        {
+            // Narrow down the result of the previous query.
+            candidates = lastResult;
+        }
+        else if (normalized.length() >= N)
+        {
+            candidates = null;
+            for (int i = 0; i + N <= normalized.length(); i++)
+            {
+                Set<T> items = postings.get(normalized.substring(i, i + N));
+
+                if (items == null)
+                {
+                    candidates = Collections.emptySet();
+                    break;
+                }
+                if (candidates == null || items.size() < candidates.size())
+                    candidates = items;
+            }
+        }
+        else
+            candidates = texts.keySet();
+
+        Set<T> result = new LinkedHashSet<T>();
+
+        for (T item : candidates)
+        {
+            if (matches(texts.get(item), normalized))
+                result.add(item);
+        }
+
+        lastQuery = normalized;
+        lastResult = result;
+        return new ArrayList<T>(result);
+    }
+
+    /**
+     * Converts a string to the form in which the texts and queries are
+     * compared. Like the <tt>CASE_INSENSITIVE</tt> and <tt>UNICODE_CASE</tt>
+     * flags of <tt>java.util.regex.Pattern</tt> two characters are equal if
+     * they are equal once converted to upper and then to lower case.
+     *
+     * @param s the string to normalize
+     * @return the normalized form of <tt>s</tt>
+     */
+    public static String normalize(String s)
+    {
+        char[] chars = s.toCharArray();
+
+        for (int i = 0; i < chars.length; i++)
+        {
+            chars[i]
+                = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Determines whether one of the normalized texts of an item contains a
+     * normalized query.
+     *
+     * @param itemTexts the normalized texts of the item
+     * @param query the normalized query
+     * @return <tt>true</tt> if one of <tt>itemTexts</tt> contains
+     * <tt>query</tt> or <tt>query</tt> is empty
+     */
+    private static boolean matches(String[] itemTexts, String query)
+    {
+        if (query.length() == 0)
+            return true;
+        for (String text : itemTexts)
+        {
+            if (text.contains(query))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the distinct sequences of <tt>N</tt> characters of texts.
+     *
+     * @param itemTexts the normalized texts
+     * @return the distinct sequences of <tt>N</tt> characters of
+     * <tt>itemTexts</tt>
+     */
+    private static Set<String> getGrams(String[] itemTexts)
+    {
+        Set<String> grams = new HashSet<String>();
+
+        for (String text : itemTexts)
+        {
+            for (int i = 0; i + N <= text.length(); i++)
+                grams.add(text.substring(i, i + N));
+        }
+        return grams;
+    }
+}
@@ -20,6 +20,7 @@
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.dns.*;
 
@@ -105,11 +106,6 @@
      */
     public static final boolean PDEFAULT_DNS_ALWAYS_ABSOLUTE = false;
 
-    /**
-     * A random number generator.
-     */
-    private static final Random random = new Random();
-
     static
     {
         String prefer6 = System.getProperty("java.net.preferIPv6Addresses");
@@ -541,25 +537,29 @@ public static SRVRecord[] getSRVRecords(
         throws ParseException, DnssecException
     {
         Record[] records = null;
-        try
+        if (useDNSCache)
         {
-            Lookup lookup = createLookup(domain, Type.SRV);
-            // Disables the DNS cache: i.e. useful when testing DNS
-            // connectivity.
-            if(!useDNSCache)
+            records = DnsCache.lookup(domain, Type.SRV);
+        }
+        else
+        {
+            try
             {
+                Lookup lookup = createLookup(domain, Type.SRV);
+                // Disables the DNS cache: i.e. useful when testing DNS
+                // connectivity.
                 lookup.setCache(new Cache());
+                records = lookup.run();
+            }
+            catch (TextParseException tpe)
+            {
+                logger.error("Failed to parse domain=" + domain, tpe);
+                throw new ParseException(tpe.getMessage(), 0);
+            }
+            catch(DnssecRuntimeException e)
+            {
+                throw new DnssecException(e);
             }
-            records = lookup.run();
-        }
-        catch (TextParseException tpe)
-        {
-            logger.error("Failed to parse domain=" + domain, tpe);
-            throw new ParseException(tpe.getMessage(), 0);
-        }
-        catch(DnssecRuntimeException e)
-        {
-            throw new DnssecException(e);
         }
         if (records == null)
         {
@@ -576,8 +576,20 @@ public static SRVRecord[] getSRVRecords(
             srvRecords[i] = new SRVRecord(srvRecord);
         }
 
-        // Sort the SRV RRs by priority (lower is preferred) and weight.
-        sortSrvRecord(srvRecords);
+        // Order the SRV RRs by priority (lower is preferred), weight and the
+        // health of their targets.
+        srvRecords = SrvTargetSelector.getInstance().order(srvRecords);
+
+        // The targets are resolved next, start resolving all of them now so
+        // that falling back to the next target does not wait for DNS.
+        if (useDNSCache)
+        {
+            for (SRVRecord srvRecord : srvRecords)
+            {
+                DnsCache.lookupAsync(srvRecord.getTarget(), Type.A);
+                DnsCache.lookupAsync(srvRecord.getTarget(), Type.AAAA);
+            }
+        }
 
         if (logger.isTraceEnabled())
         {
@@ -692,21 +704,15 @@ public static SRVRecord[] getSRVRecords(String service,
     public static String[][] getNAPTRRecords(String domain)
         throws ParseException, DnssecException
     {
-        Record[] records = null;
-        try
-        {
-            Lookup lookup = createLookup(domain, Type.NAPTR);
-            records = lookup.run();
-        }
-        catch (TextParseException tpe)
+        // The SRV records are looked up next whether or not there are NAPTR
+        // records (RFC 3263), query them all at the same time.
+        for (String service : new String[] { "_sips._tcp.", "_sip._tcp.",
+                "_sip._udp." })
         {
-            logger.error("Failed to parse domain="+domain, tpe);
-            throw new ParseException(tpe.getMessage(), 0);
-        }
-        catch(DnssecRuntimeException e)
-        {
-            throw new DnssecException(e);
+            DnsCache.lookupAsync(service + domain, Type.SRV);
         }
+
+        Record[] records = DnsCache.lookup(domain, Type.NAPTR);
         if (records == null)
         {
 
@@ -925,27 +931,16 @@ public static InetSocketAddress[] getAandAAAARecords(String domain, int port)
         List<InetSocketAddress> addresses = new LinkedList<InetSocketAddress>();
         boolean v6lookup = Boolean.getBoolean("java.net.preferIPv6Addresses");
 
+        // Query both types at the same time rather than one after the other.
+        Future<Record[]> a = DnsCache.lookupAsync(domain, Type.A);
+        Future<Record[]> aaaa = DnsCache.lookupAsync(domain, Type.AAAA);
+
         for(int i = 0; i < 2; i++)
         {
-            Lookup lookup;
-            try
-            {
-                lookup = createLookup(domain, v6lookup ? Type.AAAA : Type.A);
-            }
-            catch (TextParseException tpe)
-            {
-                logger.error("Failed to parse domain <" + domain + ">", tpe);
-                throw new ParseException(tpe.getMessage(), 0);
-            }
-            Record[] records = null;
-            try
-            {
-                records = lookup.run();
-            }
-            catch(DnssecRuntimeException e)
-            {
-                throw new DnssecException(e);
-            }
+            Record[] records
+                = v6lookup
+                    ? DnsCache.get(aaaa, domain, Type.AAAA)
+                    : DnsCache.get(a, domain, Type.A);
             if(records != null)
             {
                 for(Record r : records)
@@ -1009,25 +1004,7 @@ public static InetSocketAddress getARecord(String domain, int port)
             }
         }
 
-        Record[] records;
-        try
-        {
-            //note that we intentionally do not use our parallel resolver here.
-            //for starters we'd like to make sure that it works well enough
-            //with SRV and NAPTR queries. We may then also adopt it for As
-            //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.A);
-            records = lookup.run();
-        }
-        catch (TextParseException tpe)
-        {
-            logger.error("Failed to parse domain="+domain, tpe);
-            throw new ParseException(tpe.getMessage(), 0);
-        }
-        catch(DnssecRuntimeException e)
-        {
-            throw new DnssecException(e);
-        }
+        Record[] records = DnsCache.lookup(domain, Type.A);
         if (records != null && records.length > 0)
         {
             if(logger.isTraceEnabled())
@@ -1083,25 +1060,7 @@ public static InetSocketAddress getAAAARecord(String domain, int port)
             }
         }
 
-        Record[] records;
-        try
-        {
-            //note that we intentionally do not use our parallel resolver here.
-            //for starters we'd like to make sure that it works well enough
-            //with SRV and NAPTR queries. We may then also adopt it for As
-            //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.AAAA);
-            records = lookup.run();
-        }
-        catch (TextParseException tpe)
-        {
-            logger.error("Failed to parse domain="+domain, tpe);
-            throw new ParseException(tpe.getMessage(), 0);
-        }
-        catch(DnssecRuntimeException e)
-        {
-            throw new DnssecException(e);
-        }
+        Record[] records = DnsCache.lookup(domain, Type.AAAA);
         if (records != null && records.length > 0)
         {
             if(logger.isTraceEnabled())
@@ -1245,7 +1204,7 @@ private static boolean isMappedIPv4Addr(byte[] address)
      *
      * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
      */
-    private static Lookup createLookup(String domain, int type)
+    static Lookup createLookup(String domain, int type)
         throws TextParseException
     {
         // make domain name absolute if requested
@@ -1299,156 +1258,12 @@ public static int compareDnsNames(String dns1, String dns2)
     }
 
     /**
-     * Sorts the SRV record list by priority and weight.
-     *
-     * @param srvRecords The list of SRV records.
-     */
-    private static void sortSrvRecord(SRVRecord[] srvRecords)
-    {
-        // Sort the SRV RRs by priority (lower is preferred).
-        Arrays.sort(srvRecords, new Comparator<SRVRecord>()
-        {
-            public int compare(SRVRecord obj1, SRVRecord obj2)
-            {
-                return (obj1.getPriority() - obj2.getPriority());
-            }
-        });
-
-        // Sort the SRV RRs by weight (larger weight has a proportionately
-        // higher probability of being selected).
-        sortSrvRecordByWeight(srvRecords);
-    }
-
-    /**
-     * Sorts each priority of the SRV record list. Each priority is sorted with
-     * the probabilty given by the weight attribute.
-     *
-     * @param srvRecords The list of SRV records already sorted by priority.
-     */
-    private static void sortSrvRecordByWeight(SRVRecord[] srvRecords)
-    {
-        int currentPriority = srvRecords[0].getPriority();
-        int startIndex = 0;
-
-        for(int i = 0; i < srvRecords.length; ++i)
-        {
-            if(currentPriority != srvRecords[i].getPriority())
-            {
-                // Sort the current priority.
-                sortSrvRecordPriorityByWeight(srvRecords, startIndex, i);
-                // Reinit variables for the next priority.
-                startIndex = i;
-                currentPriority = srvRecords[i].getPriority();
-            }
-        }
-    }
-
-    /**
-     * Sorts SRV record list for a given priority: this priority is sorted with
-     * the probabilty given by the weight attribute.
-     *
-     * @param srvRecords The list of SRV records already sorted by priority.
-     * @param startIndex The first index (included) for the current priority.
-     * @param endIndex The last index (excluded) for the current priority.
-     */
-    private static void sortSrvRecordPriorityByWeight(
-            SRVRecord[] srvRecords,
-            int startIndex,
-            int endIndex)
-    {
-        int randomWeight;
-
-        // Loops over the items of the current priority.
-        while(startIndex < endIndex)
-        {
-            // Compute a random number in [0...totalPriorityWeight].
-            randomWeight = getRandomWeight(srvRecords, startIndex, endIndex);
-
-            // Move the selected item on top of the unsorted items for this
-            // priority.
-            moveSelectedSRVRecord(
-                    srvRecords,
-                    startIndex,
-                    endIndex,
-                    randomWeight);
-
-            // Move to next index.
-            ++startIndex;
-        }
-    }
-
-    /**
-     * Compute a random number in [0...totalPriorityWeight] with
-     * totalPriorityWeight the sum of all weight for the current priority.
-     *
-     * @param srvRecords The list of SRV records already sorted by priority.
-     * @param startIndex The first index (included) for the current priority.
-     * @param endIndex The last index (excluded) for the current priority.
-     *
-     * @return A random number in [0...totalPriorityWeight] with
-     * totalPriorityWeight the sum of all weight for the current priority.
-     */
-    private static int getRandomWeight(
-            SRVRecord[] srvRecords,
-            int startIndex,
-            int endIndex)
-    {
-        int totalPriorityWeight = 0;
-
-        // Compute the max born.
-        for(int i = startIndex; i < endIndex; ++i)
-        {
-            totalPriorityWeight += srvRecords[i].getWeight();
-        }
-
-        // Compute a random number in [0...totalPriorityWeight].
-        return random.nextInt(totalPriorityWeight + 1);
-    }
-
-    /**
-     * Moves the selected SRV record in top of the unsorted items for this
-     * priority.
-     *
-     * @param srvRecords The list of SRV records already sorted by priority.
-     * @param startIndex The first unsorted index (included) for the current
-     * priority.
-     * @param endIndex The last unsorted index (excluded) for the current
-     * priority.
-     * @param selectedWeight The selected weight used to design the selected
-     * item to move.
-     */
-    private static void moveSelectedSRVRecord(
-            SRVRecord[] srvRecords,
-            int startIndex,
-            int endIndex,
-            int selectedWeight)
-    {
-        SRVRecord tmpSrvRecord;
-        int totalPriorityWeight = 0;
-
-        for(int i = startIndex; i < endIndex; ++i)
-        {
-            totalPriorityWeight += srvRecords[i].getWeight();
-
-            // If we found the selecting record.
-            if(totalPriorityWeight >= selectedWeight)
-            {
-                // Switch between startIndex and j.
-                tmpSrvRecord = srvRecords[startIndex];
-                srvRecords[startIndex] = srvRecords[i];
-                srvRecords[i] = tmpSrvRecord;
-                // Break the loop;
-                return;
-            }
-        }
-    }
-
-    /**
-     * Clears the default DNS cache.
+     * Clears the default DNS cache and the answers of the <tt>DnsCache</tt>.
      */
     public static void clearDefaultDNSCache()
     {
         Cache defaultCache = Lookup.getDefaultCache(DClass.IN);
         defaultCache.clearCache();
+        DnsCache.clear();
     }
 }
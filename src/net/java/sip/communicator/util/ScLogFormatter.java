@@ -18,7 +18,6 @@
 package net.java.sip.communicator.util;
 
 import java.io.*;
-import java.text.*;
 import java.util.*;
 import java.util.logging.*;
 
@@ -45,20 +44,23 @@
     private static final String DISABLE_TIMESTAMP_PROPERTY
         = ".disableTimestamp";
 
+    /**
+     * Disable caller (class, method and line number) logging property name.
+     */
+    private static final String DISABLE_CALLER_INFERENCE_PROPERTY
+        = ".disableCallerInference";
+
     /**
      * Line separator used by current platform
      */
     private static String lineSeparator = System.getProperty("line.separator");
     
     /**
-     * Two digit <tt>DecimalFormat</tt> instance, used to format datetime
-     */
-    private static DecimalFormat twoDigFmt = new DecimalFormat("00");
-
-    /**
-     * Three digit <tt>DecimalFormat</tt> instance, used to format datetime
+     * The formatted date and time of the second in which the last record was
+     * logged. Records are mostly logged in bursts so the date and time only
+     * need to be formatted once per second.
      */
-    private static DecimalFormat threeDigFmt = new DecimalFormat("000");
+    private static volatile TimestampPrefix timestampPrefix;
 
     /**
      * The application name used to generate this log
@@ -70,6 +72,12 @@
      */
     private static boolean timestampDisabled = false;
 
+    /**
+     * Whether logger will add the caller class, method and line number to the
+     * logs, enabled by default.
+     */
+    private static boolean callerInferenceDisabled = false;
+
     /**
      * The default constructor for <tt>ScLogFormatter</tt> which loads 
      * program name property from logging.properties file, if it exists
@@ -85,11 +93,10 @@ public ScLogFormatter()
      * @return a formatted log record
      */
     @Override
-    public synchronized String format(LogRecord record)
+    public String format(LogRecord record)
     {
-        StringBuffer sb = new StringBuffer();
-        
-        
+        StringBuilder sb = new StringBuilder(128);
+
         if (programName != null)
         {
             // Program name
@@ -100,23 +107,8 @@ public synchronized String format(LogRecord record)
 
         if(!timestampDisabled)
         {
-            //current time
-            Calendar cal = Calendar.getInstance();
-            int year = cal.get(Calendar.YEAR);
-            int month = cal.get(Calendar.MONTH) + 1;
-            int day = cal.get(Calendar.DAY_OF_MONTH);
-            int hour = cal.get(Calendar.HOUR_OF_DAY);
-            int minutes = cal.get(Calendar.MINUTE);
-            int seconds = cal.get(Calendar.SECOND);
-            int millis = cal.get(Calendar.MILLISECOND);
-
-            sb.append(year).append('-');
-            sb.append(twoDigFmt.format(month)).append('-');
-            sb.append(twoDigFmt.format(day)).append(' ');
-            sb.append(twoDigFmt.format(hour)).append(':');
-            sb.append(twoDigFmt.format(minutes)).append(':');
-            sb.append(twoDigFmt.format(seconds)).append('.');
-            sb.append(threeDigFmt.format(millis)).append(' ');
+            //time the record was logged at
+            appendTimestamp(sb, record.getMillis());
         }
 
         //log level
@@ -124,10 +116,18 @@ public synchronized String format(LogRecord record)
         sb.append(": ");
 
         // Thread ID
-        sb.append("[" + record.getThreadID() + "] ");
+        sb.append('[').append(record.getThreadID()).append("] ");
 
         //caller method
-        int lineNumber = inferCaller(record);
+        int lineNumber = -1;
+        String sourceMethodName = null;
+
+        if (!callerInferenceDisabled)
+        {
+            lineNumber = inferCaller(record);
+            sourceMethodName = record.getSourceMethodName();
+        }
+
         String loggerName = record.getLoggerName();
 
         if(loggerName == null)
@@ -135,24 +135,24 @@ public synchronized String format(LogRecord record)
 
         if(loggerName.startsWith("net.java.sip.communicator."))
         {
-            sb.append(loggerName.substring("net.java.sip.communicator."
-                                           .length()));
+            sb.append(loggerName, "net.java.sip.communicator.".length(),
+                      loggerName.length());
         }
         else
             sb.append(record.getLoggerName());
 
-        if (record.getSourceMethodName() != null)
+        if (sourceMethodName != null)
         {
-            sb.append(".");
-            sb.append(record.getSourceMethodName());
+            sb.append('.');
+            sb.append(sourceMethodName);
 
             //include the line number if we have it.
             if(lineNumber != -1)
-                sb.append("().").append(Integer.toString(lineNumber));
+                sb.append("().").append(lineNumber);
             else
                 sb.append("()");
         }
-        sb.append(" ");
+        sb.append(' ');
         sb.append(record.getMessage());
         sb.append(lineSeparator);
         if (record.getThrown() != null)
@@ -172,6 +172,46 @@ public synchronized String format(LogRecord record)
         return sb.toString();
     }
 
+    /**
+     * Determines whether this formatter logs the class, method and line
+     * number the records were logged from.
+     *
+     * @return <tt>true</tt> if the caller is inferred from the stack of the
+     * logging thread; otherwise, <tt>false</tt>
+     */
+    public boolean isCallerInferenceEnabled()
+    {
+        return !callerInferenceDisabled;
+    }
+
+    /**
+     * Appends the date and time with millisecond precision of a specific
+     * moment to a <tt>StringBuilder</tt>.
+     *
+     * @param sb the <tt>StringBuilder</tt> to append to
+     * @param millis the moment to append
+     */
+    private static void appendTimestamp(StringBuilder sb, long millis)
+    {
+        long second = millis / 1000;
+        TimestampPrefix prefix = timestampPrefix;
+
+        if ((prefix == null) || (prefix.second != second))
+        {
+            prefix = new TimestampPrefix(second);
+            timestampPrefix = prefix;
+        }
+        sb.append(prefix.text);
+
+        int ms = (int) (millis % 1000);
+
+        if (ms < 100)
+            sb.append('0');
+        if (ms < 10)
+            sb.append('0');
+        sb.append(ms).append(' ');
+    }
+
     /**
      * Try to extract the name of the class and method that called the current
      * log statement.
@@ -182,8 +222,12 @@ public synchronized String format(LogRecord record)
      */
     private int inferCaller(LogRecord record)
     {
-        // Get the stack trace.
-        StackTraceElement stack[] = (new Throwable()).getStackTrace();
+        // Get the stack trace of the thread which logged the record.
+        Throwable callSite
+            = (record instanceof CallSiteRecord)
+                ? ((CallSiteRecord) record).callSite
+                : new Throwable();
+        StackTraceElement stack[] = callSite.getStackTrace();
 
         //the line number that the caller made the call from
         int lineNumber = -1;
@@ -227,6 +271,18 @@ private void loadConfigProperties()
     {
         loadProgramNameProperty();
         loadTimestampDisabledProperty();
+        loadCallerInferenceDisabledProperty();
+    }
+
+    /**
+     * Checks and loads caller inference disabled property if any.
+     */
+    private static void loadCallerInferenceDisabledProperty()
+    {
+        LogManager manager = LogManager.getLogManager();
+        String cname = ScLogFormatter.class.getName();
+        callerInferenceDisabled = Boolean.parseBoolean(
+            manager.getProperty(cname + DISABLE_CALLER_INFERENCE_PROPERTY));
     }
 
     /**
@@ -250,5 +306,110 @@ private static void loadProgramNameProperty()
         String cname = ScLogFormatter.class.getName();
         programName = manager.getProperty(cname + PROGRAM_NAME_PROPERTY);
     }
-    
+
+    /**
+     * Creates a copy of a <tt>LogRecord</tt> which remembers the stack of the
+     * current thread so that its caller may be inferred when it is formatted
+     * on another thread. The stack is only captured, decoding it into
+     * <tt>StackTraceElement</tt>s is left to the formatting thread.
+     *
+     * @param record the <tt>LogRecord</tt> to copy
+     * @return a copy of <tt>record</tt> remembering the current call site
+     */
+    static LogRecord captureCallSite(LogRecord record)
+    {
+        return new CallSiteRecord(record);
+    }
+
+    /**
+     * A <tt>LogRecord</tt> which remembers the stack of the thread it was
+     * logged on.
+     */
+    private static class CallSiteRecord
+        extends LogRecord
+    {
+        private static final long serialVersionUID = 0L;
+
+        /**
+         * The stack of the thread the record was logged on.
+         */
+        private final transient Throwable callSite = new Throwable();
+
+        /**
+         * Initializes a new <tt>CallSiteRecord</tt> as a copy of a specific
+         * <tt>LogRecord</tt>. The source class and method are not copied
+         * because asking the original record for them would make it infer
+         * them itself.
+         *
+         * @param record the <tt>LogRecord</tt> to copy
+         */
+        CallSiteRecord(LogRecord record)
+        {
+            super(record.getLevel(), record.getMessage());
+
+            setLoggerName(record.getLoggerName());
+            setMillis(record.getMillis());
+            setParameters(record.getParameters());
+            setResourceBundle(record.getResourceBundle());
+            setResourceBundleName(record.getResourceBundleName());
+            setSequenceNumber(record.getSequenceNumber());
+            setThreadID(record.getThreadID());
+            setThrown(record.getThrown());
+        }
+    }
+
+    /**
+     * The formatted date and time of a specific second.
+     */
+    private static class TimestampPrefix
+    {
+        /**
+         * The second since the epoch.
+         */
+        final long second;
+
+        /**
+         * The formatted date and time of {@link #second} up to and including
+         * the dot before the milliseconds e.g. <tt>2015-02-27 14:30:05.</tt>.
+         */
+        final String text;
+
+        /**
+         * Initializes a new <tt>TimestampPrefix</tt> formatting a specific
+         * second in the default time zone.
+         *
+         * @param second the second since the epoch
+         */
+        TimestampPrefix(long second)
+        {
+            Calendar cal = Calendar.getInstance();
+
+            cal.setTimeInMillis(second * 1000);
+
+            StringBuilder sb = new StringBuilder(24);
+
+            sb.append(cal.get(Calendar.YEAR)).append('-');
+            appendTwoDigits(sb, cal.get(Calendar.MONTH) + 1).append('-');
+            appendTwoDigits(sb, cal.get(Calendar.DAY_OF_MONTH)).append(' ');
+            appendTwoDigits(sb, cal.get(Calendar.HOUR_OF_DAY)).append(':');
+            appendTwoDigits(sb, cal.get(Calendar.MINUTE)).append(':');
+            appendTwoDigits(sb, cal.get(Calendar.SECOND)).append('.');
+            this.second = second;
+            this.text = sb.toString();
+        }
+
+        /**
+         * Appends a number padded to two digits.
+         *
+         * @param sb the <tt>StringBuilder</tt> to append to
+         * @param value the number to append
+         * @return <tt>sb</tt>
+         */
+        private static StringBuilder appendTwoDigits(StringBuilder sb, int value)
+        {
+            if (value < 10)
+                sb.append('0');
+            return sb.append(value);
+        }
+    }
 }
@@ -23,7 +23,8 @@
 
 /**
  * Gathers utility functions related to OSGi services such as getting a service
- * registered in a BundleContext.
+ * registered in a BundleContext. Bundles which provide a service lazily (see
+ * <tt>LazyBundleStarter</tt>) are started on the first lookup of the service.
  *
  * @author Lyubomir Marinov
  * @author Pawel Domas
@@ -47,9 +48,13 @@ public static <T> T getService(
             BundleContext bundleContext,
             Class<T> serviceClass)
     {
+        if (bundleContext == null)
+            return null;
+
+        LazyBundleStarter.startBundles(bundleContext, serviceClass.getName());
+
         ServiceReference<T> serviceReference
-            = bundleContext == null
-                ? null : bundleContext.getServiceReference(serviceClass);
+            = bundleContext.getServiceReference(serviceClass);
 
         return
             (serviceReference == null)
@@ -75,6 +80,7 @@ public static <T> Collection<ServiceReference<T>> getServiceReferences(
     {
         Collection<ServiceReference<T>> serviceReferences;
 
+        LazyBundleStarter.startBundles(bundleContext, serviceClass.getName());
         try
         {
             serviceReferences
@@ -0,0 +1,465 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.net.*;
+import java.util.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Orders the targets of SRV records in which they should be tried. Within a
+ * priority the targets are selected at random in proportion to their weight
+ * as described in RFC 2782, so that the clients of a domain spread over its
+ * servers as its administrator intended. The connect failures and the round
+ * trip times of the targets are tracked: a target which failed is demoted
+ * behind all the others for a while which doubles with each consecutive
+ * failure, and a target whose connections are slow is demoted behind the
+ * other targets of its priority.
+ */
+public class SrvTargetSelector
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>SrvTargetSelector</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(SrvTargetSelector.class);
+
+    /**
+     * The name of the property holding the number of milliseconds a target
+     * is demoted for after its first connect failure.
+     */
+    public static final String PNAME_FAILURE_DEMOTION
+        = "net.java.sip.communicator.util.SRV_FAILURE_DEMOTION";
+
+    /**
+     * The default value of {@link #PNAME_FAILURE_DEMOTION}.
+     */
+    public static final long PDEFAULT_FAILURE_DEMOTION = 30000;
+
+    /**
+     * The name of the property holding the smoothed round trip time in
+     * milliseconds above which a target is considered slow.
+     */
+    public static final String PNAME_SLOW_TARGET_RTT
+        = "net.java.sip.communicator.util.SRV_SLOW_TARGET_RTT";
+
+    /**
+     * The default value of {@link #PNAME_SLOW_TARGET_RTT}.
+     */
+    public static final long PDEFAULT_SLOW_TARGET_RTT = 1000;
+
+    /**
+     * The maximum number of times the demotion of a failed target doubles.
+     */
+    private static final int MAX_DEMOTION_DOUBLINGS = 5;
+
+    /**
+     * The selector shared by the users of {@link NetworkUtils}.
+     */
+    private static SrvTargetSelector instance;
+
+    /**
+     * The health of the targets by their name and port.
+     */
+    private final Map<String, Health> targets = new HashMap<String, Health>();
+
+    /**
+     * The random number generator selecting targets within a priority.
+     */
+    private final Random random;
+
+    /**
+     * The number of milliseconds a target is demoted for after its first
+     * connect failure.
+     */
+    private final long failureDemotion;
+
+    /**
+     * The smoothed round trip time in milliseconds above which a target is
+     * considered slow.
+     */
+    private final long slowTargetRtt;
+
+    /**
+     * Initializes a new <tt>SrvTargetSelector</tt>.
+     *
+     * @param random the random number generator selecting targets within a
+     * priority
+     * @param failureDemotion the number of milliseconds a target is demoted
+     * for after its first connect failure
+     * @param slowTargetRtt the smoothed round trip time in milliseconds above
+     * which a target is considered slow
+     */
+    public SrvTargetSelector(
+            Random random,
+            long failureDemotion,
+            long slowTargetRtt)
+    {
+        this.random = random;
+        this.failureDemotion = failureDemotion;
+        this.slowTargetRtt = slowTargetRtt;
+    }
+
+    /**
+     * Returns the selector shared by the users of {@link NetworkUtils},
+     * configured from the <tt>ConfigurationService</tt>.
+     *
+     * @return the shared <tt>SrvTargetSelector</tt>
+     */
+    public static synchronized SrvTargetSelector getInstance()
+    {
+        if (instance == null)
+        {
+            ConfigurationService cfg = UtilActivator.getConfigurationService();
+
+            if (cfg == null)
+            {
+                instance
+                    = new SrvTargetSelector(
+                            new Random(),
+                            PDEFAULT_FAILURE_DEMOTION,
+                            PDEFAULT_SLOW_TARGET_RTT);
+            }
+            else
+            {
+                instance
+                    = new SrvTargetSelector(
+                            new Random(),
+                            cfg.getLong(
+                                    PNAME_FAILURE_DEMOTION,
+                                    PDEFAULT_FAILURE_DEMOTION),
+                            cfg.getLong(
+                                    PNAME_SLOW_TARGET_RTT,
+                                    PDEFAULT_SLOW_TARGET_RTT));
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Orders SRV records in which their targets should be tried: by
+     * priority, at random in proportion to their weight within a priority,
+     * slow targets last within their priority and failed targets last.
+     *
+     * @param records the SRV records to order
+     * @return a new array with the records in the order in which their
+     * targets should be tried
+     */
+    public SRVRecord[] order(SRVRecord[] records)
+    {
+        List<SRVRecord> byPriority = new ArrayList<SRVRecord>(
+                Arrays.asList(records));
+
+        // Sort the SRV RRs by priority (lower is preferred).
+        Collections.sort(byPriority, new Comparator<SRVRecord>()
+        {
+            public int compare(SRVRecord obj1, SRVRecord obj2)
+            {
+                return (obj1.getPriority() - obj2.getPriority());
+            }
+        });
+
+        List<SRVRecord> ordered = new ArrayList<SRVRecord>(records.length);
+        List<SRVRecord> failed = new ArrayList<SRVRecord>();
+        long now = System.currentTimeMillis();
+        int start = 0;
+
+        while (start < byPriority.size())
+        {
+            int end = start + 1;
+
+            while (end < byPriority.size()
+                    && byPriority.get(end).getPriority()
+                        == byPriority.get(start).getPriority())
+            {
+                end++;
+            }
+
+            List<SRVRecord> slow = new ArrayList<SRVRecord>();
+
+            for (SRVRecord record
+                    : selectByWeight(byPriority.subList(start, end)))
+            {
+                Health health = getHealth(record.getTarget(), record.getPort());
+
+                if (health != null && health.isDemoted(now))
+                    failed.add(record);
+                else if (health != null && health.rtt > slowTargetRtt)
+                    slow.add(record);
+                else
+                    ordered.add(record);
+            }
+            ordered.addAll(slow);
+            start = end;
+        }
+        ordered.addAll(failed);
+
+        return ordered.toArray(new SRVRecord[ordered.size()]);
+    }
+
+    /**
+     * Orders the SRV records of one priority at random in proportion to their
+     * weight as described in RFC 2782.
+     *
+     * @param records the SRV records of one priority
+     * @return the records in the order they were selected
+     */
+    private List<SRVRecord> selectByWeight(List<SRVRecord> records)
+    {
+        // The records with a weight of 0 go first so that they have a very
+        // small chance of being selected.
+        List<SRVRecord> unselected = new LinkedList<SRVRecord>();
+        int totalWeight = 0;
+
+        for (SRVRecord record : records)
+        {
+            if (record.getWeight() == 0)
+                unselected.add(0, record);
+            else
+                unselected.add(record);
+            totalWeight += record.getWeight();
+        }
+
+        List<SRVRecord> selected = new ArrayList<SRVRecord>(records.size());
+
+        while (!unselected.isEmpty())
+        {
+            // Compute a random number in [0...totalWeight].
+            int randomWeight = random.nextInt(totalWeight + 1);
+            int runningWeight = 0;
+
+            for (Iterator<SRVRecord> i = unselected.iterator(); i.hasNext();)
+            {
+                SRVRecord record = i.next();
+
+                runningWeight += record.getWeight();
+                if (runningWeight >= randomWeight)
+                {
+                    i.remove();
+                    selected.add(record);
+                    totalWeight -= record.getWeight();
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Records that a connection to a target succeeded.
+     *
+     * @param target the name of the target
+     * @param port the port of the target
+     * @param rtt the number of milliseconds the connection took or a negative
+     * value if it is unknown
+     */
+    public synchronized void reportSuccess(String target, int port, long rtt)
+    {
+        Health health = targets.get(getKey(target, port));
+
+        if (health == null)
+        {
+            health = new Health();
+            targets.put(getKey(target, port), health);
+        }
+        health.consecutiveFailures = 0;
+        health.demotedUntil = 0;
+        if (rtt >= 0)
+        {
+            // Smooth as TCP does (RFC 6298) with a gain of 1/8.
+            health.rtt = (health.rtt < 0) ? rtt : (7 * health.rtt + rtt) / 8;
+        }
+    }
+
+    /**
+     * Records that a connection to a target failed and demotes the target.
+     *
+     * @param target the name of the target
+     * @param port the port of the target
+     */
+    public synchronized void reportFailure(String target, int port)
+    {
+        Health health = targets.get(getKey(target, port));
+
+        if (health == null)
+        {
+            health = new Health();
+            targets.put(getKey(target, port), health);
+        }
+
+        long demotion
+            = failureDemotion
+                << Math.min(health.consecutiveFailures, MAX_DEMOTION_DOUBLINGS);
+
+        health.consecutiveFailures++;
+        health.demotedUntil = System.currentTimeMillis() + demotion;
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Demoting SRV target " + getKey(target, port) + " for "
+                        + demotion + " ms after "
+                        + health.consecutiveFailures + " failure(s)");
+        }
+    }
+
+    /**
+     * Records the outcome of the attempts of a connection race to the
+     * addresses of SRV targets: the winner succeeded and the attempts which
+     * failed before the end of the race failed.
+     *
+     * @param race the connection race
+     * @param targets the names of the SRV targets by their addresses,
+     * addresses which were not found through SRV records are ignored
+     */
+    public void reportRace(
+            ConnectionRacer.Result race,
+            Map<InetSocketAddress, String> targets)
+    {
+        ConnectionRacer.Attempt winner = null;
+
+        for (ConnectionRacer.Attempt attempt : race.getAttempts())
+        {
+            String target = targets.get(attempt.getAddress());
+
+            if (target == null)
+                continue;
+            if (attempt.getAddress().equals(race.getWinner()))
+                winner = attempt;
+            else if (attempt.isFailed())
+                reportFailure(target, attempt.getAddress().getPort());
+        }
+
+        // A target reachable through one of its addresses is healthy.
+        if (winner != null)
+        {
+            reportSuccess(
+                    targets.get(winner.getAddress()),
+                    winner.getAddress().getPort(),
+                    winner.getDuration());
+        }
+    }
+
+    /**
+     * Returns the smoothed round trip time of the connections to a target.
+     *
+     * @param target the name of the target
+     * @param port the port of the target
+     * @return the smoothed round trip time in milliseconds or <tt>-1</tt> if
+     * it is unknown
+     */
+    public long getRtt(String target, int port)
+    {
+        Health health = getHealth(target, port);
+
+        return (health == null) ? -1 : health.rtt;
+    }
+
+    /**
+     * Determines whether a target is demoted because it failed recently.
+     *
+     * @param target the name of the target
+     * @param port the port of the target
+     * @return <tt>true</tt> if the target is demoted
+     */
+    public boolean isDemoted(String target, int port)
+    {
+        Health health = getHealth(target, port);
+
+        return (health != null) && health.isDemoted(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a copy of the health of a target.
+     *
+     * @param target the name of the target
+     * @param port the port of the target
+     * @return a copy of the health of the target or <tt>null</tt> if nothing
+     * was reported about it
+     */
+    private synchronized Health getHealth(String target, int port)
+    {
+        Health health = targets.get(getKey(target, port));
+
+        return (health == null) ? null : health.copy();
+    }
+
+    /**
+     * Returns the key of a target in {@link #targets}.
+     *
+     * @param target the name of the target
+     * @param port the port of the target
+     * @return the key of the target
+     */
+    private static String getKey(String target, int port)
+    {
+        String name = target.toLowerCase();
+
+        if (name.endsWith("."))
+            name = name.substring(0, name.length() - 1);
+        return name + ":" + port;
+    }
+
+    /**
+     * The connect failures and the round trip time of a target.
+     */
+    private static class Health
+    {
+        /**
+         * The number of connect failures since the last success.
+         */
+        int consecutiveFailures;
+
+        /**
+         * The time in milliseconds until which the target is demoted.
+         */
+        long demotedUntil;
+
+        /**
+         * The smoothed round trip time in milliseconds or <tt>-1</tt>.
+         */
+        long rtt = -1;
+
+        /**
+         * Determines whether the target is demoted at a specific time.
+         *
+         * @param now the time in milliseconds
+         * @return <tt>true</tt> if the target is demoted at <tt>now</tt>
+         */
+        boolean isDemoted(long now)
+        {
+            return demotedUntil > now;
+        }
+
+        /**
+         * Returns a copy of this <tt>Health</tt>.
+         *
+         * @return a copy of this <tt>Health</tt>
+         */
+        Health copy()
+        {
+            Health copy = new Health();
+
+            copy.consecutiveFailures = consecutiveFailures;
+            copy.demotedUntil = demotedUntil;
+            copy.rtt = rtt;
+            return copy;
+        }
+    }
+}
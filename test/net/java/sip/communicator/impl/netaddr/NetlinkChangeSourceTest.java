@@ -0,0 +1,177 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * Tests <tt>NetlinkChangeSource</tt>. The tests only run on Linux; the one
+ * which changes the interfaces also needs the <tt>ip</tt> command and the
+ * privilege to add links, for example as root in a network namespace
+ * (<tt>unshare -rn</tt> or <tt>ip netns exec</tt>), and is skipped
+ * otherwise.
+ */
+public class NetlinkChangeSourceTest
+    extends TestCase
+{
+    /**
+     * The name of the dummy interface added by the tests.
+     */
+    private static final String LINK_NAME = "jitsitest0";
+
+    private NetlinkChangeSource source;
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        if (source != null)
+            source.stop();
+        super.tearDown();
+    }
+
+    /**
+     * A stop which is directly followed by a start must neither let the
+     * stopping thread close the socket of the new start nor keep it receiving
+     * from that socket.
+     */
+    public void testRestart()
+        throws Exception
+    {
+        if (!isLinux())
+            return;
+
+        source = new NetlinkChangeSource();
+        assertTrue(source.start(new Semaphore(0)::release));
+        source.stop();
+
+        Semaphore changes = new Semaphore(0);
+
+        assertTrue(source.start(changes::release));
+
+        // let the stopped thread notice that it has been stopped
+        Thread.sleep(3000);
+        assertTrue(source.isRunning());
+        assertEquals(1, countReceivingThreads());
+
+        if (ip("link", "add", LINK_NAME, "type", "dummy"))
+        {
+            try
+            {
+                assertTrue(changes.tryAcquire(1, TimeUnit.SECONDS));
+            }
+            finally
+            {
+                ip("link", "del", LINK_NAME);
+            }
+        }
+    }
+
+    /**
+     * Adding, bringing up and removing a link is reported well within the
+     * 3 seconds of the polling this source replaces.
+     */
+    public void testLinkChanges()
+        throws Exception
+    {
+        if (!isLinux())
+            return;
+
+        Semaphore changes = new Semaphore(0);
+
+        source = new NetlinkChangeSource();
+        assertTrue(source.start(changes::release));
+
+        if (!ip("link", "add", LINK_NAME, "type", "dummy"))
+            return;
+        try
+        {
+            assertTrue(changes.tryAcquire(1, TimeUnit.SECONDS));
+            changes.drainPermits();
+
+            assertTrue(ip("addr", "add", "192.0.2.1/24", "dev", LINK_NAME));
+            assertTrue(changes.tryAcquire(1, TimeUnit.SECONDS));
+            changes.drainPermits();
+
+            assertTrue(ip("link", "set", LINK_NAME, "up"));
+            assertTrue(changes.tryAcquire(1, TimeUnit.SECONDS));
+            changes.drainPermits();
+        }
+        finally
+        {
+            ip("link", "del", LINK_NAME);
+        }
+        assertTrue(changes.tryAcquire(1, TimeUnit.SECONDS));
+
+        // no notifications after stop
+        source.stop();
+        Thread.sleep(1500);
+        changes.drainPermits();
+        assertFalse(source.isRunning());
+    }
+
+    /**
+     * Counts the threads receiving from netlink sockets.
+     *
+     * @return the number of threads receiving from netlink sockets
+     */
+    private static int countReceivingThreads()
+    {
+        int count = 0;
+
+        for (Thread t : Thread.getAllStackTraces().keySet())
+        {
+            if (t.getName().equals(NetlinkChangeSource.class.getSimpleName()))
+                count++;
+        }
+        return count;
+    }
+
+    private static boolean isLinux()
+    {
+        return System.getProperty("os.name").startsWith("Linux");
+    }
+
+    /**
+     * Runs the <tt>ip</tt> command.
+     *
+     * @param args the arguments of the command
+     * @return <tt>true</tt> if the command succeeded; <tt>false</tt> if it
+     * failed or is not available
+     */
+    private static boolean ip(String... args)
+    {
+        String[] command = new String[args.length + 1];
+
+        command[0] = "ip";
+        System.arraycopy(args, 0, command, 1, args.length);
+        try
+        {
+            Process p
+                = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+            return p.waitFor() == 0;
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.caps;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smackx.disco.packet.*;
+import org.jivesoftware.smackx.disco.provider.*;
+
+/**
+ * Tests the writing, reading, migration and eviction of
+ * <tt>CapsFilePersistence</tt> through its file based constructor. The
+ * <tt>ConfigurationService</tt> is backed by a plain <tt>Map</tt>.
+ */
+public class CapsFilePersistenceTest
+    extends TestCase
+{
+    /**
+     * The prefix of the properties in which earlier versions stored caps.
+     */
+    private static final String LEGACY_PREFIX
+        = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
+            + "EntityCapsManager.CAPS.";
+
+    /**
+     * The number of milliseconds in a day.
+     */
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    /**
+     * The properties of the <tt>ConfigurationService</tt> given to the
+     * tested caches.
+     */
+    private final Map<String, Object> properties = new HashMap<>();
+
+    /**
+     * The cache file of the test.
+     */
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        ProviderManager.addIQProvider(
+                "query",
+                "http://jabber.org/protocol/disco#info",
+                new DiscoverInfoProvider());
+
+        file = File.createTempFile("entitycaps", ".cache");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that caps added to a cache are read back by another instance
+     * once the first one has been flushed.
+     */
+    public void testSaveAndLoad()
+    {
+        CapsFilePersistence cache = createCache();
+
+        cache.addDiscoverInfoByNodePersistent(
+                "http://jitsi.org#1", createDiscoverInfo("urn:test:a"));
+        cache.addDiscoverInfoByNodePersistent(
+                "http://jitsi.org#2", createDiscoverInfo("urn:test:a"));
+        cache.addDiscoverInfoByNodePersistent(
+                "http://jitsi.org#3", createDiscoverInfo("urn:test:b"));
+        assertFalse(file.exists());
+        cache.flush();
+        assertTrue(file.exists());
+
+        CapsFilePersistence loaded = createCache();
+
+        assertFeature(loaded.lookup("http://jitsi.org#1"), "urn:test:a");
+        assertFeature(loaded.lookup("http://jitsi.org#2"), "urn:test:a");
+        assertFeature(loaded.lookup("http://jitsi.org#3"), "urn:test:b");
+        assertEquals(
+                "http://jitsi.org#2",
+                loaded.lookup("http://jitsi.org#2").getNode());
+        assertNull(loaded.lookup("http://jitsi.org#4"));
+    }
+
+    /**
+     * Tests that the caps stored in the configuration by earlier versions are
+     * imported and that the properties are removed once the cache has been
+     * written.
+     */
+    public void testMigration()
+    {
+        String xml
+            = createDiscoverInfo("urn:test:legacy")
+                .getChildElementXML().toString();
+
+        properties.put(LEGACY_PREFIX + "http://jitsi.org#legacy", xml);
+        properties.put("net.java.sip.communicator.unrelated", "value");
+
+        CapsFilePersistence cache = createCache();
+
+        assertFeature(
+                cache.lookup("http://jitsi.org#legacy"),
+                "urn:test:legacy");
+        assertTrue(
+                properties.containsKey(
+                        LEGACY_PREFIX + "http://jitsi.org#legacy"));
+
+        cache.flush();
+        assertFalse(
+                properties.containsKey(
+                        LEGACY_PREFIX + "http://jitsi.org#legacy"));
+        assertTrue(
+                properties.containsKey("net.java.sip.communicator.unrelated"));
+
+        assertFeature(
+                createCache().lookup("http://jitsi.org#legacy"),
+                "urn:test:legacy");
+    }
+
+    /**
+     * Tests that the entries which have not been used for longer than the
+     * maximum age are dropped when the file is read and are not written
+     * again.
+     */
+    public void testEviction()
+        throws IOException
+    {
+        String xml
+            = createDiscoverInfo("urn:test:a")
+                .getChildElementXML().toString();
+        long now = System.currentTimeMillis();
+
+        writeFile(
+                xml,
+                new String[]
+                    {
+                        "http://jitsi.org#recent",
+                        "http://jitsi.org#old"
+                    },
+                new long[] { now - 10 * DAY, now - 100 * DAY });
+
+        CapsFilePersistence cache = createCache();
+
+        assertFeature(cache.lookup("http://jitsi.org#recent"), "urn:test:a");
+        assertNull(cache.lookup("http://jitsi.org#old"));
+        cache.flush();
+        assertNull(createCache().lookup("http://jitsi.org#old"));
+
+        /*
+         * The lookup has refreshed the time of use of the recent entry so it
+         * survives a shorter maximum age.
+         */
+        properties.put(CapsFilePersistence.MAX_AGE_PROPERTY_NAME, 5);
+        assertFeature(
+                createCache().lookup("http://jitsi.org#recent"),
+                "urn:test:a");
+    }
+
+    /**
+     * Tests that an emptied cache is written as such.
+     */
+    public void testEmptyCache()
+    {
+        CapsFilePersistence cache = createCache();
+
+        cache.addDiscoverInfoByNodePersistent(
+                "http://jitsi.org#1", createDiscoverInfo("urn:test:a"));
+        cache.flush();
+        cache.emptyCache();
+        assertNull(cache.lookup("http://jitsi.org#1"));
+        cache.flush();
+        assertNull(createCache().lookup("http://jitsi.org#1"));
+    }
+
+    /**
+     * Creates a new cache which stores the caps in {@link #file} and uses
+     * {@link #properties} as its configuration.
+     *
+     * @return the new cache
+     */
+    private CapsFilePersistence createCache()
+    {
+        ConfigurationService configService
+            = (ConfigurationService) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] { ConfigurationService.class },
+                    new InvocationHandler()
+                    {
+                        @Override
+                        public Object invoke(
+                                Object proxy,
+                                Method method,
+                                Object[] args)
+                        {
+                            return invokeConfigurationService(method, args);
+                        }
+                    });
+
+        return new CapsFilePersistence(configService, file);
+    }
+
+    /**
+     * Implements the methods of <tt>ConfigurationService</tt> used by
+     * <tt>CapsFilePersistence</tt> on top of {@link #properties}.
+     *
+     * @param method the invoked method
+     * @param args the arguments of the invocation
+     * @return the result of the invocation
+     */
+    private Object invokeConfigurationService(Method method, Object[] args)
+    {
+        String name = method.getName();
+
+        if (name.equals("getInt"))
+        {
+            Object value = properties.get(args[0]);
+
+            return (value == null) ? args[1] : value;
+        }
+        else if (name.equals("getString"))
+        {
+            return properties.get(args[0]);
+        }
+        else if (name.equals("getPropertyNamesByPrefix"))
+        {
+            List<String> names = new ArrayList<>();
+
+            for (String propertyName : properties.keySet())
+            {
+                if (propertyName.startsWith((String) args[0]))
+                    names.add(propertyName);
+            }
+            return names;
+        }
+        else if (name.equals("removeProperty"))
+        {
+            properties.remove(args[0]);
+            return null;
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    /**
+     * Writes {@link #file} in the format of <tt>CapsFilePersistence</tt> with
+     * entries which share the same content.
+     *
+     * @param xml the content of the entries
+     * @param nodeVers the node#ver of the entries
+     * @param lastUsed the time of last use of the entries
+     * @throws IOException if writing fails
+     */
+    private void writeFile(String xml, String[] nodeVers, long[] lastUsed)
+        throws IOException
+    {
+        DataOutputStream out
+            = new DataOutputStream(new FileOutputStream(file));
+
+        try
+        {
+            byte[] bytes = xml.getBytes("UTF-8");
+
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt(nodeVers.length);
+            for (int i = 0; i < nodeVers.length; i++)
+            {
+                out.writeUTF(nodeVers[i]);
+                out.writeInt(0);
+                out.writeLong(lastUsed[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates a <tt>DiscoverInfo</tt> with an identity and a feature.
+     *
+     * @param feature the feature of the new <tt>DiscoverInfo</tt>
+     * @return the new <tt>DiscoverInfo</tt>
+     */
+    private static DiscoverInfo createDiscoverInfo(String feature)
+    {
+        DiscoverInfo info = new DiscoverInfo();
+
+        info.addIdentity(new DiscoverInfo.Identity("client", "Jitsi", "pc"));
+        info.addFeature(feature);
+        return info;
+    }
+
+    /**
+     * Asserts that a <tt>DiscoverInfo</tt> has been found and contains a
+     * specific feature.
+     *
+     * @param info the <tt>DiscoverInfo</tt> to check
+     * @param feature the expected feature
+     */
+    private static void assertFeature(DiscoverInfo info, String feature)
+    {
+        assertNotNull(info);
+        assertTrue(info.containsFeature(feature));
+    }
+}
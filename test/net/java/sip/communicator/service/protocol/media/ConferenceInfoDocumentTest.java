@@ -0,0 +1,96 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.media;
+
+import junit.framework.*;
+
+public class ConferenceInfoDocumentTest
+    extends TestCase
+{
+    public void testGetUserAfterAddAndRemove()
+        throws Exception
+    {
+        ConferenceInfoDocument confInfo = new ConferenceInfoDocument();
+
+        ConferenceInfoDocument.User alice = confInfo.addNewUser("sip:alice");
+        ConferenceInfoDocument.User bob = confInfo.addNewUser("sip:bob");
+
+        assertSame(alice, confInfo.getUser("sip:alice"));
+        assertSame(bob, confInfo.getUser("sip:bob"));
+        assertNull(confInfo.getUser("sip:carol"));
+
+        confInfo.removeUser("sip:alice");
+        assertNull(confInfo.getUser("sip:alice"));
+        assertEquals(1, confInfo.getUsers().size());
+
+        bob.setEntity("sip:carol");
+        assertNull(confInfo.getUser("sip:bob"));
+        assertSame(bob, confInfo.getUser("sip:carol"));
+    }
+
+    public void testToXmlRoundTrip()
+        throws Exception
+    {
+        ConferenceInfoDocument confInfo = new ConferenceInfoDocument();
+
+        confInfo.setEntity("sip:focus@example.com");
+        confInfo.setState(ConferenceInfoDocument.State.PARTIAL);
+        confInfo.setUserCount(2);
+
+        ConferenceInfoDocument.User user
+            = confInfo.addNewUser("sip:alice@example.com");
+        user.setDisplayText("Alice & \"Bob\" <3");
+
+        ConferenceInfoDocument.Endpoint endpoint
+            = user.addNewEndpoint("sip:alice@example.com");
+        endpoint.setStatus(
+                ConferenceInfoDocument.EndpointStatusType.connected);
+
+        ConferenceInfoDocument.Media media = endpoint.addNewMedia("audio");
+        media.setType("audio");
+        media.setSrcId("1234");
+        media.setStatus("sendrecv");
+
+        String xml = confInfo.toXml();
+
+        assertTrue(xml.startsWith(
+                "<conference-info xmlns=\""
+                    + ConferenceInfoDocument.NAMESPACE + "\""));
+
+        ConferenceInfoDocument parsed = new ConferenceInfoDocument(xml);
+
+        assertEquals(1, parsed.getUsers().size());
+        assertEquals("sip:focus@example.com", parsed.getEntity());
+        assertEquals(
+                ConferenceInfoDocument.State.PARTIAL,
+                parsed.getState());
+        assertEquals(2, parsed.getUserCount());
+
+        ConferenceInfoDocument.User parsedUser
+            = parsed.getUser("sip:alice@example.com");
+
+        assertEquals("Alice & \"Bob\" <3", parsedUser.getDisplayText());
+
+        ConferenceInfoDocument.Media parsedMedia
+            = parsedUser.getEndpoint("sip:alice@example.com")
+                    .getMedia("audio");
+
+        assertEquals("1234", parsedMedia.getSrcId());
+        assertEquals("sendrecv", parsedMedia.getStatus());
+    }
+}
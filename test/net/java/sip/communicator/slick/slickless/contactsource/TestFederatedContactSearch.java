@@ -0,0 +1,322 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.slick.slickless.contactsource;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.contactsource.*;
+
+/**
+ * Tests the merge, the ranking and the deadlines of the
+ * <tt>FederatedContactSearch</tt> with contact sources answering from the
+ * thread starting their query.
+ */
+public class TestFederatedContactSearch extends TestCase
+{
+    /**
+     * Create a TestFederatedContactSearch wrapper over the test with the
+     * specified name.
+     * @param name the name of the test to run
+     */
+    public TestFederatedContactSearch(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Checks the normalization of the addresses compared across sources.
+     */
+    public void testNormalizeAddress()
+    {
+        assertEquals(
+                "alice@example.com",
+                FederatedContactSearch.normalizeAddress(
+                        " sip:Alice@Example.com;transport=tcp"));
+        assertEquals(
+                "alice@example.com",
+                FederatedContactSearch.normalizeAddress(
+                        "xmpp:alice@example.com"));
+        assertEquals(
+                "+33123456789",
+                FederatedContactSearch.normalizeAddress("+33 1 23-45.67(89)"));
+        assertEquals(
+                "0123456789",
+                FederatedContactSearch.normalizeAddress("tel:01 23 45 67 89"));
+        assertNull(FederatedContactSearch.normalizeAddress(" "));
+    }
+
+    /**
+     * Checks that a contact returned by two sources is only shown for the one
+     * of better priority, even when it answers last, that history entries
+     * are not merged and that the batches are ranked.
+     * @throws Exception if anything goes wrong.
+     */
+    public void testMergeAndRanking() throws Exception
+    {
+        FederatedContactSearch search = new FederatedContactSearch();
+        TestSource directory = new TestSource(ContactSourceService.SEARCH_TYPE);
+        TestSource history = new TestSource(ContactSourceService.HISTORY_TYPE);
+        TestSource contactList
+            = new TestSource(ContactSourceService.CONTACT_LIST_TYPE);
+        RecordingListener listener = new RecordingListener(3);
+
+        // The directory answers first with a contact the list also has.
+        TestQuery directoryQuery
+            = new TestQuery(
+                    directory,
+                    false,
+                    "sip:bob@example.com",
+                    "+1 555 0100");
+        TestQuery historyQuery
+            = new TestQuery(history, false, "bob@example.com");
+        TestQuery listQuery
+            = new TestQuery(contactList, false, "Bob@example.com");
+
+        search.submit(directoryQuery, 2, 0)
+            .addContactQueryListener(listener);
+        search.submit(historyQuery, 3, 0)
+            .addContactQueryListener(listener);
+        search.submit(listQuery, 0, 0)
+            .addContactQueryListener(listener);
+
+        /*
+         * The queries answer on this thread, in the order opposite to their
+         * priorities. Holding the lock of the search keeps the batch from
+         * being delivered before all of them have answered.
+         */
+        synchronized (search)
+        {
+            directoryQuery.start();
+            historyQuery.start();
+            listQuery.start();
+        }
+        directoryQuery.complete();
+        historyQuery.complete();
+        listQuery.complete();
+        assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(
+                Arrays.asList(
+                        listQuery.contacts.get(0),
+                        directoryQuery.contacts.get(1),
+                        historyQuery.contacts.get(0)),
+                listener.getShown());
+    }
+
+    /**
+     * Checks that a source which does not answer is canceled when its
+     * deadline elapses.
+     * @throws Exception if anything goes wrong.
+     */
+    public void testDeadline() throws Exception
+    {
+        FederatedContactSearch search = new FederatedContactSearch();
+        TestQuery slow
+            = new TestQuery(
+                    new TestSource(ContactSourceService.SEARCH_TYPE),
+                    false,
+                    "carol@example.com");
+        RecordingListener listener = new RecordingListener(1);
+        ContactQuery query = search.submit(slow, 0, 200);
+        long start = System.currentTimeMillis();
+
+        query.addContactQueryListener(listener);
+        query.start();
+
+        assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        assertEquals(ContactQuery.QUERY_CANCELED, query.getStatus());
+        assertEquals(ContactQuery.QUERY_CANCELED, slow.getStatus());
+        assertEquals(1, listener.getShown().size());
+    }
+
+    /**
+     * Records what the contact list would show.
+     */
+    private static class RecordingListener
+        implements ContactQueryListener
+    {
+        /**
+         * The shown contacts.
+         */
+        private final Set<SourceContact> shown
+            = new LinkedHashSet<SourceContact>();
+
+        /**
+         * Released when all queries ended.
+         */
+        final CountDownLatch completed;
+
+        /**
+         * Creates a listener.
+         * @param queryCount the number of queries
+         */
+        RecordingListener(int queryCount)
+        {
+            completed = new CountDownLatch(queryCount);
+        }
+
+        /**
+         * Returns the shown contacts.
+         * @return the shown contacts in the order they were delivered
+         */
+        synchronized List<SourceContact> getShown()
+        {
+            return new ArrayList<SourceContact>(shown);
+        }
+
+        public synchronized void contactReceived(ContactReceivedEvent event)
+        {
+            shown.add(event.getContact());
+        }
+
+        public synchronized void contactRemoved(ContactRemovedEvent event)
+        {
+            shown.remove(event.getContact());
+        }
+
+        public void contactChanged(ContactChangedEvent event)
+        {
+        }
+
+        public void queryStatusChanged(ContactQueryStatusEvent event)
+        {
+            completed.countDown();
+        }
+    }
+
+    /**
+     * A contact source of a given type.
+     */
+    private static class TestSource
+        implements ContactSourceService
+    {
+        /**
+         * The type of the source.
+         */
+        private final int type;
+
+        /**
+         * Creates a source.
+         * @param type the type of the source
+         */
+        TestSource(int type)
+        {
+            this.type = type;
+        }
+
+        public int getType()
+        {
+            return type;
+        }
+
+        public String getDisplayName()
+        {
+            return "Test source " + type;
+        }
+
+        public ContactQuery createContactQuery(String queryString)
+        {
+            return null;
+        }
+
+        public ContactQuery createContactQuery(
+                String queryString,
+                int contactCount)
+        {
+            return null;
+        }
+
+        public int getIndex()
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * A query returning contacts with the given addresses when started.
+     */
+    private static class TestQuery
+        extends AbstractContactQuery<ContactSourceService>
+    {
+        /**
+         * The contacts returned by the query.
+         */
+        final List<SourceContact> contacts = new ArrayList<SourceContact>();
+
+        /**
+         * Whether the query completes once it returned its contacts.
+         */
+        private final boolean completes;
+
+        /**
+         * Creates a query.
+         * @param source the contact source
+         * @param completes whether the query completes once it returned its
+         * contacts
+         * @param addresses the addresses of the contacts
+         */
+        TestQuery(
+                ContactSourceService source,
+                boolean completes,
+                String... addresses)
+        {
+            super(source);
+            this.completes = completes;
+            for (String address : addresses)
+            {
+                GenericSourceContact contact
+                    = new GenericSourceContact(
+                            source,
+                            address,
+                            new ArrayList<ContactDetail>());
+
+                contact.setContactAddress(address);
+                contacts.add(contact);
+            }
+        }
+
+        /**
+         * Completes the query.
+         */
+        void complete()
+        {
+            setStatus(QUERY_COMPLETED);
+        }
+
+        public String getQueryString()
+        {
+            return "";
+        }
+
+        public List<SourceContact> getQueryResults()
+        {
+            return contacts;
+        }
+
+        public void start()
+        {
+            for (SourceContact contact : contacts)
+                fireContactReceived(contact);
+            if (completes)
+                complete();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.slick.slickless.util;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Tests the <tt>ConnectionRacer</tt> against local listeners, a closed port
+ * and a listener whose full backlog makes it drop connection attempts like a
+ * blackholed address.
+ */
+public class TestConnectionRacer extends TestCase
+{
+    /**
+     * The number of milliseconds the racer waits before the next attempt.
+     */
+    private static final long ATTEMPT_DELAY = 100;
+
+    /**
+     * The number of milliseconds after which an attempt fails.
+     */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The listener accepting connections.
+     */
+    private ServerSocket live;
+
+    /**
+     * The listener dropping connection attempts.
+     */
+    private ServerSocket blackhole;
+
+    /**
+     * The sockets filling the backlog of {@link #blackhole}.
+     */
+    private final List<Socket> fillers = new ArrayList<Socket>();
+
+    /**
+     * An address on which nothing listens.
+     */
+    private InetSocketAddress closed;
+
+    /**
+     * Create a TestConnectionRacer wrapper over the test with the specified
+     * name.
+     * @param name the name of the test to run
+     */
+    public TestConnectionRacer(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Opens the listeners.
+     * @throws Exception if anything goes wrong.
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+
+        live = new ServerSocket(0, 50, loopback);
+
+        ServerSocket s = new ServerSocket(0, 50, loopback);
+        closed = (InetSocketAddress) s.getLocalSocketAddress();
+        s.close();
+
+        // Never accept and fill the backlog so that the SYNs are dropped.
+        blackhole = new ServerSocket(0, 1, loopback);
+        for (int i = 0; i < 16; i++)
+        {
+            Socket filler = new Socket();
+
+            try
+            {
+                filler.connect(blackhole.getLocalSocketAddress(), 200);
+                fillers.add(filler);
+            }
+            catch (SocketTimeoutException ste)
+            {
+                filler.close();
+                return;
+            }
+        }
+        fail("Could not fill the backlog of the blackhole listener");
+    }
+
+    /**
+     * Closes the listeners.
+     * @throws Exception if anything goes wrong.
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for (Socket filler : fillers)
+            filler.close();
+        blackhole.close();
+        live.close();
+        super.tearDown();
+    }
+
+    /**
+     * Checks that a blackholed first address only delays the connection by
+     * the attempt delay and that the socket of the winner is connected.
+     * @throws Exception if anything goes wrong.
+     */
+    public void testBlackholedFirstAddress() throws Exception
+    {
+        ConnectionRacer.Result result
+            = new ConnectionRacer(ATTEMPT_DELAY, CONNECT_TIMEOUT).race(
+                    Arrays.asList(
+                            (InetSocketAddress)
+                                blackhole.getLocalSocketAddress(),
+                            (InetSocketAddress) live.getLocalSocketAddress()));
+
+        assertEquals(live.getLocalSocketAddress(), result.getWinner());
+        assertTrue(
+                "race took " + result.getDuration() + " ms",
+                result.getDuration() < CONNECT_TIMEOUT / 2);
+
+        List<ConnectionRacer.Attempt> attempts = result.getAttempts();
+
+        assertEquals(2, attempts.size());
+        assertFalse(attempts.get(0).isFailed());
+        assertTrue(attempts.get(1).getStartOffset() >= ATTEMPT_DELAY - 10);
+        assertEquals(
+                live.getLocalSocketAddress(),
+                result.getOrderedAddresses().get(0));
+
+        Socket socket = result.takeSocket();
+
+        assertNotNull(socket);
+        assertTrue(socket.isConnected());
+        assertNull(result.takeSocket());
+        socket.close();
+    }
+
+    /**
+     * Checks that the next attempt starts as soon as the previous one failed
+     * and that failed addresses are ordered last.
+     */
+    public void testRefusedAddressFailsFast()
+    {
+        ConnectionRacer.Result result
+            = new ConnectionRacer(CONNECT_TIMEOUT, CONNECT_TIMEOUT).race(
+                    Arrays.asList(
+                            closed,
+                            (InetSocketAddress) live.getLocalSocketAddress()));
+
+        assertEquals(live.getLocalSocketAddress(), result.getWinner());
+        assertTrue(result.getAttempts().get(0).isFailed());
+        assertTrue(result.getDuration() < CONNECT_TIMEOUT / 2);
+        assertEquals(
+                Arrays.asList(live.getLocalSocketAddress(), closed),
+                result.getOrderedAddresses());
+        result.close();
+    }
+
+    /**
+     * Checks that the addresses keep their order when all attempts fail.
+     */
+    public void testAllAddressesFail()
+    {
+        List<InetSocketAddress> addresses
+            = Arrays.asList(
+                    closed,
+                    new InetSocketAddress(
+                            closed.getAddress(),
+                            closed.getPort() == 65535
+                                ? 65534
+                                : closed.getPort() + 1));
+        ConnectionRacer.Result result
+            = new ConnectionRacer(ATTEMPT_DELAY, CONNECT_TIMEOUT).race(
+                    addresses);
+
+        assertNull(result.getWinner());
+        assertNull(result.takeSocket());
+        assertEquals(addresses, result.getOrderedAddresses());
+    }
+
+    /**
+     * Checks that the socket factory hands out the connected socket of the
+     * winner and that connecting it again to the same address does nothing.
+     * @throws Exception if anything goes wrong.
+     */
+    public void testSocketFactory() throws Exception
+    {
+        InetSocketAddress address
+            = (InetSocketAddress) live.getLocalSocketAddress();
+        ConnectionRacer.Result result
+            = new ConnectionRacer(ATTEMPT_DELAY, CONNECT_TIMEOUT).race(
+                    Arrays.asList(address));
+        Socket socket = result.getSocketFactory(address).createSocket();
+
+        assertTrue(socket.isConnected());
+        socket.connect(address, CONNECT_TIMEOUT);
+
+        Socket accepted = live.accept();
+
+        socket.getOutputStream().write(42);
+        assertEquals(42, accepted.getInputStream().read());
+        accepted.close();
+        socket.close();
+
+        assertFalse(
+                result.getSocketFactory(closed).createSocket().isConnected());
+    }
+
+    /**
+     * Checks that the address families alternate.
+     * @throws IOException if anything goes wrong.
+     */
+    public void testInterleaveFamilies() throws IOException
+    {
+        InetSocketAddress v6a = new InetSocketAddress("::1", 1);
+        InetSocketAddress v6b = new InetSocketAddress("::2", 2);
+        InetSocketAddress v6c = new InetSocketAddress("::3", 3);
+        InetSocketAddress v4a = new InetSocketAddress("127.0.0.1", 4);
+        InetSocketAddress v4b = new InetSocketAddress("127.0.0.2", 5);
+
+        assertEquals(
+                Arrays.asList(v6a, v4a, v6b, v4b, v6c),
+                ConnectionRacer.interleaveFamilies(
+                        Arrays.asList(v6a, v6b, v6c, v4a, v4b)));
+        assertEquals(
+                Arrays.asList(v4a, v6a, v4b, v6b, v6c),
+                ConnectionRacer.interleaveFamilies(
+                        Arrays.asList(v4a, v4b, v6a, v6b, v6c)));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.slick.slickless.util;
+
+import java.util.*;
+import java.util.regex.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Tests the <tt>NGramIndex</tt> used to filter the contact list against the
+ * regular expressions it replaces, on a synthetic list of 10000 contacts.
+ */
+public class TestNGramIndex extends TestCase
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>TestNGramIndex</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(TestNGramIndex.class);
+
+    /**
+     * The number of contacts of the synthetic contact list.
+     */
+    private static final int CONTACT_COUNT = 10000;
+
+    /**
+     * The first names of the synthetic contacts.
+     */
+    private static final String[] FIRST_NAMES
+        = {
+            "Anna", "Boris", "Chlo\u00e9", "Dmitri", "\u00c9mile", "Fatima",
+            "G\u00fcnter", "Hana", "Ivan", "Julia", "Kenji", "Luc\u00eda",
+            "Mehmet", "Nadia", "Oscar", "Priya", "Quentin", "Rosa", "Stefan",
+            "Yana"
+        };
+
+    /**
+     * The last names of the synthetic contacts.
+     */
+    private static final String[] LAST_NAMES
+        = {
+            "Andersson", "Brown", "Costa", "Dubois", "Eriksen", "Fischer",
+            "Garc\u00eda", "Horvat", "Ivanova", "Jansen", "Kowalski",
+            "L\u00f3pez", "M\u00fcller", "Nowak", "Olsen", "Petrov", "Rossi",
+            "Schmidt", "Stamcheva", "Wei\u00df"
+        };
+
+    /**
+     * The keystrokes of the benchmarked searches, each query extending the
+     * previous one until the field is cleared.
+     */
+    private static final String[] SEARCHES
+        = { "stamcheva", "M\u00dcLLER", "jabber.org", "ivan.p", "zzz", "a" };
+
+    /**
+     * The texts of the synthetic contacts by contact.
+     */
+    private Map<Integer, List<String>> contacts;
+
+    /**
+     * Create a TestNGramIndex wrapper over the test with the specified name.
+     * @param name the name of the test to run
+     */
+    public TestNGramIndex(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Creates the synthetic contact list.
+     * @throws Exception if anything goes wrong.
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Random random = new Random(0);
+
+        contacts = new LinkedHashMap<Integer, List<String>>();
+        for (int i = 0; i < CONTACT_COUNT; i++)
+        {
+            String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            String user
+                = first.toLowerCase() + "." + last.toLowerCase().charAt(0) + i;
+
+            contacts.put(
+                    i,
+                    Arrays.asList(
+                            first + " " + last,
+                            first,
+                            user + (random.nextBoolean()
+                                ? "@jabber.org"
+                                : "@sip.example.com")));
+        }
+    }
+
+    /**
+     * Checks that the index finds exactly the contacts matched by the
+     * case-insensitive regular expression of the search filter, keystroke
+     * after keystroke, while contacts are added and removed.
+     */
+    public void testQueriesMatchRegex()
+    {
+        NGramIndex<Integer> index = new NGramIndex<Integer>();
+
+        for (Map.Entry<Integer, List<String>> e : contacts.entrySet())
+            index.put(e.getKey(), e.getValue());
+        assertEquals(CONTACT_COUNT, index.size());
+
+        for (String search : SEARCHES)
+        {
+            for (int i = 0; i <= search.length(); i++)
+            {
+                String query = search.substring(0, i);
+
+                assertEquals(
+                        "query " + query,
+                        scan(query),
+                        new HashSet<Integer>(index.query(query)));
+            }
+        }
+
+        // Changes while a search is narrowed must be reflected.
+        index.query("stam");
+        index.remove(0);
+        contacts.remove(0);
+        contacts.put(-1, Arrays.asList("Yana Stamcheva", "yana@jabber.org"));
+        index.put(-1, contacts.get(-1));
+        contacts.put(1, Arrays.asList("Nobody"));
+        index.put(1, contacts.get(1));
+        assertEquals(scan("stamc"), new HashSet<Integer>(index.query("stamc")));
+        assertTrue(index.query("stamc").contains(-1));
+    }
+
+    /**
+     * Compares the time taken by the index and by the regular expressions to
+     * answer the keystrokes of the benchmarked searches.
+     */
+    public void testBenchmark()
+    {
+        NGramIndex<Integer> index = new NGramIndex<Integer>();
+        long startTime = System.nanoTime();
+
+        for (Map.Entry<Integer, List<String>> e : contacts.entrySet())
+            index.put(e.getKey(), e.getValue());
+
+        long buildTime = System.nanoTime() - startTime;
+        long indexTime = 0;
+        long scanTime = 0;
+        int keystrokes = 0;
+
+        // The first rounds warm up the JIT.
+        for (int round = 0; round < 5; round++)
+        {
+            indexTime = 0;
+            scanTime = 0;
+            keystrokes = 0;
+            for (String search : SEARCHES)
+            {
+                for (int i = 1; i <= search.length(); i++)
+                {
+                    String query = search.substring(0, i);
+
+                    startTime = System.nanoTime();
+                    int indexed = index.query(query).size();
+                    indexTime += System.nanoTime() - startTime;
+
+                    startTime = System.nanoTime();
+                    int scanned = scan(query).size();
+                    scanTime += System.nanoTime() - startTime;
+
+                    assertEquals(scanned, indexed);
+                    keystrokes++;
+                }
+            }
+        }
+
+        logger.info(
+                CONTACT_COUNT + " contacts indexed in " + buildTime / 1000000
+                    + " ms; per keystroke: index " + indexTime / keystrokes
+                    / 1000 + " us, regex " + scanTime / keystrokes / 1000
+                    + " us");
+    }
+
+    /**
+     * Finds the contacts matching a query the way the search filter did
+     * before the index.
+     *
+     * @param query the query
+     * @return the contacts with a text matching <tt>query</tt>
+     */
+    private Set<Integer> scan(String query)
+    {
+        Pattern pattern
+            = Pattern.compile(
+                    Pattern.quote(query),
+                    Pattern.MULTILINE
+                        | Pattern.CASE_INSENSITIVE
+                        | Pattern.UNICODE_CASE);
+        Set<Integer> result = new HashSet<Integer>();
+
+        for (Map.Entry<Integer, List<String>> e : contacts.entrySet())
+        {
+            for (String text : e.getValue())
+            {
+                if (pattern.matcher(text).find())
+                {
+                    result.add(e.getKey());
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
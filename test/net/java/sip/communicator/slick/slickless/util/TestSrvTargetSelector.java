@@ -0,0 +1,189 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.slick.slickless.util;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.util.*;
+import net.java.sip.communicator.util.SRVRecord;
+
+import org.xbill.DNS.*;
+
+/**
+ * Tests the <tt>SrvTargetSelector</tt> against SRV records of a local zone
+ * standing in for the DNS.
+ */
+public class TestSrvTargetSelector extends TestCase
+{
+    /**
+     * The number of orderings sampled to check the weighted selection.
+     */
+    private static final int SAMPLES = 10000;
+
+    /**
+     * The number of milliseconds a target is demoted for after a failure.
+     */
+    private static final long FAILURE_DEMOTION = 200;
+
+    /**
+     * The round trip time in milliseconds above which a target is slow.
+     */
+    private static final long SLOW_TARGET_RTT = 100;
+
+    /**
+     * The selector under test.
+     */
+    private SrvTargetSelector selector;
+
+    /**
+     * Create a TestSrvTargetSelector wrapper over the test with the specified
+     * name.
+     * @param name the name of the test to run
+     */
+    public TestSrvTargetSelector(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Creates the selector with a seeded random number generator.
+     * @throws Exception if anything goes wrong.
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        selector
+            = new SrvTargetSelector(
+                    new Random(2782),
+                    FAILURE_DEMOTION,
+                    SLOW_TARGET_RTT);
+    }
+
+    /**
+     * Creates the SRV record of a target of the local zone.
+     *
+     * @param priority the priority of the record
+     * @param weight the weight of the record
+     * @param target the first label of the target
+     * @return the SRV record
+     * @throws TextParseException if the target is not a valid name
+     */
+    private static SRVRecord srv(int priority, int weight, String target)
+        throws TextParseException
+    {
+        return
+            new SRVRecord(
+                    new org.xbill.DNS.SRVRecord(
+                            Name.fromString("_sip._tcp.example.com."),
+                            DClass.IN,
+                            300,
+                            priority,
+                            weight,
+                            5060,
+                            Name.fromString(target + ".example.com.")));
+    }
+
+    /**
+     * Checks that targets of the same priority are tried first in proportion
+     * to their weight, including the last priority.
+     * @throws Exception if anything goes wrong.
+     */
+    public void testWeightedSelection() throws Exception
+    {
+        SRVRecord[] records
+            = { srv(10, 10, "a"), srv(10, 30, "b"), srv(20, 0, "c"),
+                srv(20, 60, "d") };
+        int aFirst = 0;
+        int cThird = 0;
+
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            SRVRecord[] ordered = selector.order(records);
+
+            assertEquals(10, ordered[0].getPriority());
+            assertEquals(10, ordered[1].getPriority());
+            assertEquals(20, ordered[2].getPriority());
+            assertEquals(20, ordered[3].getPriority());
+            if (ordered[0] == records[0])
+                aFirst++;
+            if (ordered[2] == records[2])
+                cThird++;
+        }
+
+        // a has 10/40 of the weight of its priority, c has none of its own.
+        assertEquals(0.25, aFirst / (double) SAMPLES, 0.03);
+        assertTrue("c third " + cThird + " times", cThird < SAMPLES / 20);
+        assertTrue("c never third", cThird > 0);
+    }
+
+    /**
+     * Checks that a failed target is tried after all the others until its
+     * demotion expires and that a success ends the demotion.
+     * @throws Exception if anything goes wrong.
+     */
+    public void testFailedTargetDemoted() throws Exception
+    {
+        SRVRecord[] records = { srv(10, 1, "a"), srv(20, 1, "b") };
+
+        selector.reportFailure("a.example.com.", 5060);
+        assertTrue(selector.isDemoted("A.example.com", 5060));
+        assertSame(records[1], selector.order(records)[0]);
+
+        Thread.sleep(FAILURE_DEMOTION + 50);
+        assertSame(records[0], selector.order(records)[0]);
+
+        // The second failure in a row demotes for twice as long.
+        selector.reportFailure("a.example.com.", 5060);
+        Thread.sleep(FAILURE_DEMOTION + 50);
+        assertSame(records[1], selector.order(records)[0]);
+
+        selector.reportSuccess("a.example.com.", 5060, 10);
+        assertFalse(selector.isDemoted("a.example.com.", 5060));
+        assertSame(records[0], selector.order(records)[0]);
+    }
+
+    /**
+     * Checks that a slow target is tried after the other targets of its
+     * priority but before the targets of the next priority.
+     * @throws Exception if anything goes wrong.
+     */
+    public void testSlowTargetDemotedWithinPriority() throws Exception
+    {
+        SRVRecord[] records
+            = { srv(10, 1000, "a"), srv(10, 1, "b"), srv(20, 1, "c") };
+
+        selector.reportSuccess("a.example.com.", 5060, 5 * SLOW_TARGET_RTT);
+        assertEquals(5 * SLOW_TARGET_RTT,
+            selector.getRtt("a.example.com.", 5060));
+        for (int i = 0; i < 100; i++)
+        {
+            SRVRecord[] ordered = selector.order(records);
+
+            assertSame(records[1], ordered[0]);
+            assertSame(records[0], ordered[1]);
+            assertSame(records[2], ordered[2]);
+        }
+
+        // The smoothed round trip time recovers with fast connections.
+        for (int i = 0; i < 20; i++)
+            selector.reportSuccess("a.example.com.", 5060, 10);
+        assertTrue(selector.getRtt("a.example.com.", 5060) <= SLOW_TARGET_RTT);
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+
+import junit.framework.*;
+
+/**
+ * Tests <tt>AsyncLogDispatcher</tt> with several logging threads: the order
+ * of the records of each thread, that no record is lost (including while the
+ * dispatcher is being stopped) and the <tt>DROP</tt> and <tt>BLOCK</tt>
+ * overflow policies.
+ */
+public class AsyncLogDispatcherTest
+    extends TestCase
+{
+    /**
+     * The number of logging threads.
+     */
+    private static final int PRODUCER_COUNT = 4;
+
+    /**
+     * The number of records logged by each logging thread.
+     */
+    private static final int RECORD_COUNT = 20000;
+
+    /**
+     * The number of records logged by each logging thread while the
+     * dispatcher is stopped. The dispatching is slowed down for that test so
+     * that there are records in the ring buffer when it is stopped.
+     */
+    private static final int STOP_RECORD_COUNT = 1000;
+
+    /**
+     * The name of the loggers of the records of the tests, which tells them
+     * apart from the records the dispatcher reports itself.
+     */
+    private static final String LOGGER_NAME = "test";
+
+    /**
+     * The records dispatched, in the order of their dispatching.
+     */
+    private final List<LogRecord> dispatched
+        = Collections.synchronizedList(new ArrayList<LogRecord>());
+
+    /**
+     * The dispatcher of the current test.
+     */
+    private AsyncLogDispatcher dispatcher;
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        if (dispatcher != null)
+            dispatcher.stop();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that the records of several logging threads are all dispatched
+     * in the order each thread logged them.
+     */
+    public void testOrderingAndNoLoss()
+        throws Exception
+    {
+        dispatcher
+            = createDispatcher(
+                    64,
+                    AsyncLogDispatcher.OverflowPolicy.BLOCK,
+                    null,
+                    0);
+
+        runProducers(RECORD_COUNT, null);
+        dispatcher.stop();
+
+        assertDispatched(PRODUCER_COUNT * RECORD_COUNT);
+    }
+
+    /**
+     * Tests that no record is lost or dispatched out of order when the
+     * dispatcher is stopped while threads are logging.
+     */
+    public void testNoLossOnStop()
+        throws Exception
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            dispatched.clear();
+            dispatcher
+                = createDispatcher(
+                        16,
+                        AsyncLogDispatcher.OverflowPolicy.BLOCK,
+                        null,
+                        50000);
+
+            final AsyncLogDispatcher stopping = dispatcher;
+
+            runProducers(
+                    STOP_RECORD_COUNT,
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            stopping.stop();
+                        }
+                    });
+
+            assertDispatched(PRODUCER_COUNT * STOP_RECORD_COUNT);
+        }
+    }
+
+    /**
+     * Tests that records logged while the ring buffer is full are dropped
+     * with the <tt>DROP</tt> policy and that the drop is reported.
+     */
+    public void testDropPolicy()
+        throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+
+        dispatcher
+            = createDispatcher(
+                    4,
+                    AsyncLogDispatcher.OverflowPolicy.DROP,
+                    release,
+                    0);
+
+        int count = 20;
+
+        for (int i = 0; i < count; i++)
+            dispatcher.queue(createRecord(0, i));
+        release.countDown();
+        dispatcher.stop();
+
+        List<LogRecord> records = getTestRecords();
+        int dropped = count - records.size();
+
+        assertTrue("records were not dropped", dropped > 0);
+        assertInOrder(records);
+        assertTrue(
+                dispatcher.getStatistics().contains("dropped: " + dropped));
+
+        boolean reported = false;
+
+        for (LogRecord record : dispatched)
+        {
+            if (record.getLevel() == Level.WARNING
+                    && record.getMessage().startsWith(dropped + " "))
+                reported = true;
+        }
+        assertTrue("the drop was not reported", reported);
+    }
+
+    /**
+     * Tests that a thread logging while the ring buffer is full waits for
+     * space with the <tt>BLOCK</tt> policy and that none of its records is
+     * lost.
+     */
+    public void testBlockPolicy()
+        throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+
+        dispatcher
+            = createDispatcher(
+                    4,
+                    AsyncLogDispatcher.OverflowPolicy.BLOCK,
+                    release,
+                    0);
+
+        final int count = 20;
+        Thread producer
+            = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < count; i++)
+                        dispatcher.queue(createRecord(0, i));
+                }
+            };
+
+        producer.start();
+        producer.join(500);
+        assertTrue("the logging thread did not wait", producer.isAlive());
+
+        release.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        dispatcher.stop();
+
+        List<LogRecord> records = getTestRecords();
+
+        assertEquals(count, records.size());
+        assertInOrder(records);
+        assertFalse(dispatcher.getStatistics().contains("blocked: 0"));
+    }
+
+    /**
+     * Creates a dispatcher which adds the records to {@link #dispatched}.
+     *
+     * @param capacity the capacity of the ring buffer
+     * @param overflowPolicy the overflow policy
+     * @param release if not <tt>null</tt>, the dispatching of the first
+     * record waits for it
+     * @param dispatchNanos the number of nanoseconds the dispatching of each
+     * record takes at least
+     * @return the new dispatcher
+     */
+    private AsyncLogDispatcher createDispatcher(
+            int capacity,
+            AsyncLogDispatcher.OverflowPolicy overflowPolicy,
+            final CountDownLatch release,
+            final long dispatchNanos)
+    {
+        return
+            new AsyncLogDispatcher(getName(), capacity, overflowPolicy)
+            {
+                @Override
+                protected void dispatch(LogRecord record)
+                {
+                    if (release != null)
+                    {
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException ie)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    if (dispatchNanos > 0)
+                        LockSupport.parkNanos(dispatchNanos);
+                    dispatched.add(record);
+                }
+            };
+    }
+
+    /**
+     * Logs a number of records on each of {@link #PRODUCER_COUNT} threads and
+     * waits for them to finish.
+     *
+     * @param count the number of records logged by each thread
+     * @param halfway if not <tt>null</tt>, run once the first thread has
+     * logged half of its records
+     */
+    private void runProducers(final int count, final Runnable halfway)
+        throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCER_COUNT];
+
+        for (int p = 0; p < producers.length; p++)
+        {
+            final int producer = p;
+
+            producers[p]
+                = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                        }
+                        catch (InterruptedException ie)
+                        {
+                            return;
+                        }
+                        for (int i = 0; i < count; i++)
+                        {
+                            if (halfway != null
+                                    && producer == 0
+                                    && i == count / 2)
+                                halfway.run();
+                            dispatcher.queue(createRecord(producer, i));
+                        }
+                    }
+                };
+            producers[p].start();
+        }
+
+        start.countDown();
+        for (Thread producer : producers)
+        {
+            producer.join(30000);
+            assertFalse(producer.isAlive());
+        }
+    }
+
+    /**
+     * Asserts that a specific number of records have been dispatched by the
+     * logging threads in the order of their threads, hence each exactly once.
+     *
+     * @param count the expected number of records
+     */
+    private void assertDispatched(int count)
+    {
+        List<LogRecord> records = getTestRecords();
+
+        assertEquals(count, records.size());
+        assertInOrder(records);
+    }
+
+    /**
+     * Asserts that the records of each logging thread are in the order in
+     * which it logged them.
+     *
+     * @param records the records to check
+     */
+    private static void assertInOrder(List<LogRecord> records)
+    {
+        Map<Object, Integer> previous = new HashMap<>();
+
+        for (LogRecord record : records)
+        {
+            Object producer = record.getParameters()[0];
+            int sequence = (Integer) record.getParameters()[1];
+            Integer last = previous.get(producer);
+
+            if (last != null)
+            {
+                assertTrue(
+                        "out of order record of " + producer,
+                        sequence > last);
+            }
+            previous.put(producer, sequence);
+        }
+    }
+
+    /**
+     * Returns the dispatched records which have been logged by the tests, as
+     * opposed to reported by the dispatcher.
+     *
+     * @return the records logged by the tests in the order of dispatching
+     */
+    private List<LogRecord> getTestRecords()
+    {
+        List<LogRecord> records = new ArrayList<>();
+
+        synchronized (dispatched)
+        {
+            for (LogRecord record : dispatched)
+            {
+                if (LOGGER_NAME.equals(record.getLoggerName()))
+                    records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Creates a record identified by its logging thread and its sequence
+     * number in that thread.
+     *
+     * @param producer the index of the logging thread
+     * @param sequence the sequence number of the record
+     * @return the new record
+     */
+    private static LogRecord createRecord(int producer, int sequence)
+    {
+        LogRecord record = new LogRecord(Level.INFO, "record");
+
+        record.setLoggerName(LOGGER_NAME);
+        record.setParameters(new Object[] { producer, sequence });
+        return record;
+    }
+}